@@ -0,0 +1,45 @@
+package ai.learningsystems.gloobermkp.espproxies.benchmarks;
+
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+
+/**
+ * Entry point of {@code benchmarks.jar}.
+ * <p>
+ * Accepts the regular JMH command line, but writes the results as JSON to {@value #DEFAULT_RESULT_FILE} unless
+ * {@code -rf} / {@code -rff} are given, so that every run leaves a machine readable report to compare with a
+ * baseline (e.g. with a JMH results visualizer or a CI regression check).
+ */
+public final class BenchmarksMain
+{
+
+    private static final String DEFAULT_RESULT_FILE = "jmh-results.json";
+
+
+    private BenchmarksMain() {
+
+    }
+
+
+    public static void main(final String[] args) throws CommandLineOptionException, RunnerException
+    {
+
+        final CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        final Options            options            = new OptionsBuilder()
+                .parent(commandLineOptions)
+                .resultFormat(commandLineOptions.getResultFormat().orElse(ResultFormatType.JSON))
+                .result(commandLineOptions.getResult().orElse(DEFAULT_RESULT_FILE))
+                .build();
+
+        new Runner(options).run();
+    }
+
+}
@@ -0,0 +1,73 @@
+package ai.learningsystems.gloobermkp.espproxies.benchmarks.fixtures;
+
+
+import java.net.URI;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpCookie;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.server.reactive.AbstractServerHttpRequest;
+import org.springframework.http.server.reactive.SslInfo;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.utils.HttpHeaderSharedConstants;
+import reactor.core.publisher.Flux;
+
+
+
+/**
+ * Minimal in-memory {@code POST} request, the body being carried by the request envelope.
+ */
+public class BenchmarkServerHttpRequest extends AbstractServerHttpRequest
+{
+
+    public BenchmarkServerHttpRequest(final String uri, final String serviceRef) {
+
+        super(HttpMethod.POST, URI.create(uri), "", headers(serviceRef));
+    }
+
+
+    @Override
+    protected MultiValueMap<String, HttpCookie> initCookies()
+    {
+
+        return new LinkedMultiValueMap<>();
+    }
+
+
+    @Override
+    protected SslInfo initSslInfo()
+    {
+
+        return null;
+    }
+
+
+    @Override
+    public <T> T getNativeRequest()
+    {
+
+        throw new UnsupportedOperationException("No native request behind a benchmark request.");
+    }
+
+
+    @Override
+    public Flux<DataBuffer> getBody()
+    {
+
+        return Flux.empty();
+    }
+
+
+    private static MultiValueMap<String, String> headers(final String serviceRef)
+    {
+
+        final HttpHeaders headers = new HttpHeaders();
+        headers.add(HttpHeaders.CONTENT_TYPE, "application/json");
+        headers.add(HttpHeaderSharedConstants.X_GMKP_XSP_SERVICE_REF, serviceRef);
+        return headers;
+    }
+
+}
@@ -0,0 +1,103 @@
+package ai.learningsystems.gloobermkp.espproxies.benchmarks.fixtures;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+
+/**
+ * Realistic OpenAI chat completion payloads : multi-turn requests of a target size, standard replies and SSE
+ * reply chunks.
+ */
+public final class ChatCompletionPayloads
+{
+
+    /** Model requested by the payloads. */
+    public static final String MODEL = "gpt-4o";
+
+    private static final String[] SENTENCES = {
+            "The proxy relays every request to the upstream service and reports the usage of each call.",
+            "Could you summarize the previous answer in three bullet points, keeping the figures ?",
+            "Les jetons sont comptés avec l'encodage du modèle demandé, y compris les caractères accentués.",
+            "```java\npublic int count(final String text) { return encoding.countTokens(text); }\n```",
+            "Latency percentiles matter more than averages : p99 is what the slowest callers experience." };
+
+
+    private ChatCompletionPayloads() {
+
+    }
+
+
+    /**
+     * Builds a multi-turn chat completion request of approximately the given size, messages first as most
+     * clients serialize them.
+     *
+     * @param size   the approximate size of the request body, in characters.
+     * @param stream the value of the {@code stream} field.
+     */
+    public static String request(final int size, final boolean stream)
+    {
+
+        final StringBuilder body = new StringBuilder(size + 256).append(
+                "{\"messages\":[{\"role\":\"system\",\"content\":\"You are a helpful assistant.\"}");
+        int                 turn = 0;
+        while (body.length() < size) {
+            body.append(",{\"role\":\"").append(turn % 2 == 0 ? "user" : "assistant").append("\",\"content\":\"");
+            for (int index = 0; index < 4; index++)
+                body.append(escape(SENTENCES[(turn + index) % SENTENCES.length])).append(' ');
+            body.append("\"}");
+            turn++;
+        }
+        return body.append("],\"model\":\"").append(MODEL).append("\",\"stream\":").append(stream)
+                .append(",\"temperature\":0.7}").toString();
+    }
+
+
+    /**
+     * @return a standard (non streamed) chat completion reply with its usage counters.
+     */
+    public static String reply()
+    {
+
+        return "{\"id\":\"chatcmpl-1\",\"object\":\"chat.completion\",\"created\":1730000000,\"model\":\"" + MODEL
+                + "\",\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":\""
+                + escape(String.join(" ", SENTENCES)) + "\"},\"logprobs\":null,\"finish_reason\":\"stop\"}],"
+                + "\"usage\":{\"prompt_tokens\":1320,\"completion_tokens\":96,\"total_tokens\":1416}}";
+    }
+
+
+    /**
+     * @param content the delta content of the chunk.
+     * @return a SSE reply chunk data.
+     */
+    public static String chunk(final String content)
+    {
+
+        return "{\"id\":\"chatcmpl-1\",\"object\":\"chat.completion.chunk\",\"created\":1730000000,\"model\":\""
+                + MODEL + "\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\"" + escape(content)
+                + "\"},\"logprobs\":null,\"finish_reason\":null}]}";
+    }
+
+
+    /**
+     * @return the SSE reply chunks of a completion, one word per chunk, {@code [DONE]} excluded.
+     */
+    public static List<String> chunks()
+    {
+
+        final List<String> chunks = new ArrayList<>();
+        for (final String sentence : SENTENCES)
+            for (final String word : sentence.split(" "))
+                chunks.add(chunk(word + " "));
+        return chunks;
+    }
+
+
+    private static String escape(final String text)
+    {
+
+        return text.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+}
@@ -0,0 +1,103 @@
+package ai.learningsystems.gloobermkp.espproxies.benchmarks.fixtures;
+
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.proxy.IProxyService;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.proxy.ITokenizerService;
+import ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore.MetricsComputationService;
+import ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore.ProxyMetricsService;
+import ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore.TokenizerService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+
+
+/**
+ * Proxy core services wired outside of Spring, with their production defaults.
+ */
+public final class ProxyServices
+{
+
+    private ProxyServices() {
+
+    }
+
+
+    /**
+     * @return a metrics computation scheduler sized as in production, reporting to an in-memory registry.
+     */
+    public static MetricsComputationService metricsComputationService()
+    {
+
+        return new MetricsComputationService(new SimpleMeterRegistry(), 0, 10000, "PT5S");
+    }
+
+
+    /**
+     * @return a proxied exchanges instrumentation reporting to an in-memory registry.
+     */
+    public static ProxyMetricsService proxyMetricsService()
+    {
+
+        return new ProxyMetricsService(new SimpleMeterRegistry(), 50);
+    }
+
+
+    /**
+     * @return a proxy service only providing the tokenizer, which is all plugins need outside of a request
+     *         execution.
+     */
+    public static IProxyService tokenizingProxyService(final ITokenizerService tokenizerService)
+    {
+
+        return new IProxyService() {
+
+            @Override
+            public Mono<ResponseEntity<String>> executeRequest(final ServerHttpRequest retargetedRequest,
+                    final String requestBody)
+            {
+
+                return Mono.error(new UnsupportedOperationException("No upstream in benchmarks."));
+            }
+
+
+            @Override
+            public Flux<ServerSentEvent<String>> executeStreamingRequest(final ServerHttpRequest retargetedRequest,
+                    final String requestBody)
+            {
+
+                return Flux.error(new UnsupportedOperationException("No upstream in benchmarks."));
+            }
+
+
+            @Override
+            public void cleanCacheForService(final String serviceName)
+            {
+
+            }
+
+
+            @Override
+            public ITokenizerService getTokenizerService()
+            {
+
+                return tokenizerService;
+            }
+        };
+    }
+
+
+    /**
+     * @return a tokenizer whose asynchronous counts run on the given scheduler.
+     */
+    public static TokenizerService tokenizerService(final MetricsComputationService metricsComputationService)
+    {
+
+        return new TokenizerService(metricsComputationService, proxyMetricsService());
+    }
+
+}
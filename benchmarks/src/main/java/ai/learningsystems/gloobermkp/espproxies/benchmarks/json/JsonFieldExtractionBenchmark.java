@@ -0,0 +1,181 @@
+package ai.learningsystems.gloobermkp.espproxies.benchmarks.json;
+
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.json.ExtractedJsonFields;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.json.JsonFieldExtractor;
+
+
+
+/**
+ * Compares the streaming {@link JsonFieldExtractor} with the tree based extraction the plugin used so far
+ * (a new {@link ObjectMapper} and a full {@code JsonNode} tree per lookup) on the three hot-path lookups :
+ * <ul>
+ * <li>{@code model} and {@code stream} of a chat completion request, for growing prompt sizes,</li>
+ * <li>{@code usage} counters of a standard reply,</li>
+ * <li>{@code choices[].delta.content} of a SSE chunk.</li>
+ * </ul>
+ * Run with {@code -prof gc} to compare allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonFieldExtractionBenchmark
+{
+
+    private static final JsonFieldExtractor REQUEST_EXTRACTOR       = JsonFieldExtractor.compile("model", "stream");
+    private static final JsonFieldExtractor USAGE_EXTRACTOR         = JsonFieldExtractor.compile("usage.prompt_tokens",
+            "usage.completion_tokens", "usage.total_tokens");
+    private static final JsonFieldExtractor DELTA_CONTENT_EXTRACTOR = JsonFieldExtractor
+            .compile("choices[].delta.content");
+
+    /** Approximate size in bytes of the request prompt. */
+    @Param({ "1024", "102400", "1048576" })
+    private int promptSize;
+
+    private String requestBody;
+    private byte[] requestBodyBytes;
+    private String replyBody;
+    private String sseChunk;
+
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+
+        requestBody      = buildRequestBody(promptSize);
+        requestBodyBytes = requestBody.getBytes(StandardCharsets.UTF_8);
+        replyBody        = buildReplyBody();
+        sseChunk         = "{\"id\":\"chatcmpl-1\",\"object\":\"chat.completion.chunk\",\"created\":1730000000,"
+                + "\"model\":\"gpt-4o\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\" token\"},"
+                + "\"logprobs\":null,\"finish_reason\":null}]}";
+    }
+
+
+    @Benchmark
+    public void requestModelAndStreamTree(final Blackhole blackhole) throws Exception
+    {
+
+        final JsonNode rootNode = new ObjectMapper().readTree(requestBody);
+        blackhole.consume(rootNode.path("model").asText());
+        blackhole.consume(rootNode.path("stream").asBoolean());
+    }
+
+
+    @Benchmark
+    public void requestModelAndStreamStreaming(final Blackhole blackhole)
+    {
+
+        final ExtractedJsonFields fields = REQUEST_EXTRACTOR.extract(requestBody);
+        blackhole.consume(fields.getString("model"));
+        blackhole.consume(fields.getBoolean("stream", false));
+    }
+
+
+    @Benchmark
+    public void requestModelAndStreamStreamingBytes(final Blackhole blackhole)
+    {
+
+        final ExtractedJsonFields fields = REQUEST_EXTRACTOR.extract(requestBodyBytes);
+        blackhole.consume(fields.getString("model"));
+        blackhole.consume(fields.getBoolean("stream", false));
+    }
+
+
+    @Benchmark
+    public void replyUsageTree(final Blackhole blackhole) throws Exception
+    {
+
+        final JsonNode usageNode = new ObjectMapper().readTree(replyBody).path("usage");
+        blackhole.consume(usageNode.path("prompt_tokens").asInt());
+        blackhole.consume(usageNode.path("completion_tokens").asInt());
+        blackhole.consume(usageNode.path("total_tokens").asInt());
+    }
+
+
+    @Benchmark
+    public void replyUsageStreaming(final Blackhole blackhole)
+    {
+
+        final ExtractedJsonFields fields = USAGE_EXTRACTOR.extract(replyBody);
+        blackhole.consume(fields.getInt("usage.prompt_tokens", 0));
+        blackhole.consume(fields.getInt("usage.completion_tokens", 0));
+        blackhole.consume(fields.getInt("usage.total_tokens", 0));
+    }
+
+
+    @Benchmark
+    public void chunkDeltaContentTree(final Blackhole blackhole) throws Exception
+    {
+
+        final List<String> contents = new ArrayList<>();
+        for (final JsonNode choiceNode : new ObjectMapper().readTree(sseChunk).path("choices")) {
+            contents.add(choiceNode.path("delta").path("content").asText());
+        }
+        blackhole.consume(contents);
+    }
+
+
+    @Benchmark
+    public void chunkDeltaContentStreaming(final Blackhole blackhole)
+    {
+
+        blackhole.consume(DELTA_CONTENT_EXTRACTOR.extract(sseChunk).getStrings("choices[].delta.content"));
+    }
+
+
+    /**
+     * Builds a chat completion request whose messages come first, as most clients serialize them, so that a
+     * tree based lookup has to parse the whole prompt.
+     */
+    private static String buildRequestBody(final int promptSize)
+    {
+
+        final StringBuilder body = new StringBuilder(promptSize + 256).append("{\"messages\":[");
+        int                 index = 0;
+        while (body.length() < promptSize) {
+            if (index > 0)
+                body.append(',');
+            body.append("{\"role\":\"").append(index % 2 == 0 ? "user" : "assistant")
+                    .append("\",\"content\":\"Message ").append(index)
+                    .append(" : lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor.\"}");
+            index++;
+        }
+        return body.append("],\"model\":\"gpt-4o\",\"stream\":true,\"temperature\":0.7}").toString();
+    }
+
+
+    private static String buildReplyBody()
+    {
+
+        return "{\"id\":\"chatcmpl-1\",\"object\":\"chat.completion\",\"created\":1730000000,\"model\":\"gpt-4o\","
+                + "\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":\"Hello ! How can I "
+                + "help you today ?\"},\"logprobs\":null,\"finish_reason\":\"stop\"}],"
+                + "\"usage\":{\"prompt_tokens\":13,\"completion_tokens\":26,\"total_tokens\":39}}";
+    }
+
+}
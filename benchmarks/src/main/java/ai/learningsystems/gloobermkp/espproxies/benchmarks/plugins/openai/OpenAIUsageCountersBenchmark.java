@@ -0,0 +1,145 @@
+package ai.learningsystems.gloobermkp.espproxies.benchmarks.plugins.openai;
+
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import ai.learningsystems.gloobermkp.espproxies.benchmarks.fixtures.BenchmarkServerHttpRequest;
+import ai.learningsystems.gloobermkp.espproxies.benchmarks.fixtures.ChatCompletionPayloads;
+import ai.learningsystems.gloobermkp.espproxies.benchmarks.fixtures.ProxyServices;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.request.RequestEnvelope;
+import ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.requestmodifier.StreamUsageOptionInjector;
+import ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.usagemetricssupplier.ReplyBodyTokenCountersExtractor;
+import ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.usagemetricssupplier.RequestBodyModelExtractor;
+import ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.usagemetricssupplier.StreamRequestTokenCounter;
+import ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.usagemetricssupplier.StreamResponseTokenCounter;
+import ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore.MetricsComputationService;
+import ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore.TokenizerService;
+
+
+
+/**
+ * Token counters and extractors of the OpenAI chat completion plugin, on 1 KB / 32 KB / 256 KB chat payloads :
+ * <ul>
+ * <li>prompt tokenization of a streamed request,</li>
+ * <li>reply tokenization of a stream : chunks scanned as relayed and tokenized by slices on the metrics
+ * scheduler, the last slice at end of stream,</li>
+ * <li>usage counters extraction of a standard reply,</li>
+ * <li>requested model extraction from a request not parsed yet,</li>
+ * <li>{@code stream_options.include_usage} injection in a streamed request.</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OpenAIUsageCountersBenchmark
+{
+
+    private static final String SERVICE_URI = "http://localhost:8586/openai/v1/chat/completions";
+    private static final String SERVICE_REF = "benchmark-service-ref";
+
+    /** Approximate size in bytes of the chat completion request. */
+    @Param({ "1024", "32768", "262144" })
+    private int payloadSize;
+
+    private MetricsComputationService  metricsComputationService;
+    private TokenizerService           tokenizerService;
+    private BenchmarkServerHttpRequest request;
+    private String                     requestBody;
+    private RequestEnvelope            envelope;
+    private JsonNode                   parsedRequestBody;
+    private String                     replyBody;
+    private List<String>               chunks;
+
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+
+        metricsComputationService = ProxyServices.metricsComputationService();
+        tokenizerService          = ProxyServices.tokenizerService(metricsComputationService);
+        request                   = new BenchmarkServerHttpRequest(SERVICE_URI, SERVICE_REF);
+        requestBody               = ChatCompletionPayloads.request(payloadSize, true);
+        envelope                  = RequestEnvelope.of(request, requestBody);
+        parsedRequestBody         = envelope.getParsedBody();
+        replyBody                 = ChatCompletionPayloads.reply();
+        chunks                    = ChatCompletionPayloads.chunks();
+
+        // Loads the encoding ahead of the measurements
+        tokenizerService.countTokens(ChatCompletionPayloads.MODEL, "warm up");
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+
+        metricsComputationService.dispose();
+    }
+
+
+    @Benchmark
+    public int streamRequestTokenCount()
+    {
+
+        return new StreamRequestTokenCounter(envelope, tokenizerService).count();
+    }
+
+
+    @Benchmark
+    public int streamResponseTokenCount()
+    {
+
+        final StreamResponseTokenCounter streamResponseTokenCounter = new StreamResponseTokenCounter(
+                envelope.getModel(), tokenizerService);
+        chunks.forEach(streamResponseTokenCounter::add);
+        streamResponseTokenCounter.pendingCount().block();
+        return streamResponseTokenCounter.count();
+    }
+
+
+    @Benchmark
+    public void replyUsageExtraction(final Blackhole blackhole)
+    {
+
+        blackhole.consume(new ReplyBodyTokenCountersExtractor(replyBody).extractTokenCounters());
+    }
+
+
+    @Benchmark
+    public void requestModelExtraction(final Blackhole blackhole)
+    {
+
+        // A new envelope per call : the envelope memoizes the model once extracted
+        blackhole.consume(new RequestBodyModelExtractor(RequestEnvelope.of(request, requestBody)).getLLMModel());
+    }
+
+
+    @Benchmark
+    public String streamUsageOptionInjection()
+    {
+
+        return StreamUsageOptionInjector.inject(parsedRequestBody);
+    }
+
+}
@@ -0,0 +1,131 @@
+package ai.learningsystems.gloobermkp.espproxies.benchmarks.proxy;
+
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.ServiceProperties;
+import ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.ServiceHandlerFactory;
+import ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore.CircuitBreakerManagerService;
+import ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore.RequestCoalescingManagerService;
+import ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore.ResponseCacheManagerService;
+import ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore.UpstreamBalancerManagerService;
+import ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore.WebClientManagerService;
+import ai.learningsystems.gloobermkp.espproxies.proxy.service.servicehandlerregistry.ServiceHandlerRegistry;
+import ai.learningsystems.gloobermkp.espproxies.proxy.service.servicehandlerregistry.TargetServiceURIBuilder;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+
+
+/**
+ * Per-request service resolution cost : the registry lookups {@code GenericProxyService} performs for every
+ * proxied request, and the target URI composition done at service registration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServiceHandlerRegistryBenchmark
+{
+
+    private static final String SERVICE_NAME_PREFIX = "/openai/v1/chat/completions/";
+
+    /** Number of services registered. */
+    @Param({ "1", "64" })
+    private int serviceCount;
+
+    private WebClientManagerService webClientManagerService;
+    private ServiceHandlerRegistry  serviceHandlerRegistry;
+    private String                  serviceName;
+
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+
+        webClientManagerService = new WebClientManagerService(WebClient.builder());
+        serviceHandlerRegistry  = new ServiceHandlerRegistry(webClientManagerService,
+                new ResponseCacheManagerService(new SimpleMeterRegistry()),
+                new RequestCoalescingManagerService(new SimpleMeterRegistry()),
+                new UpstreamBalancerManagerService(webClientManagerService,
+                        new CircuitBreakerManagerService(CircuitBreakerRegistry.ofDefaults()),
+                        new SimpleMeterRegistry()));
+        for (int index = 0; index < serviceCount; index++) {
+            serviceHandlerRegistry.registerServiceHandler("openai-chat-completion-plugin", "0.0.1",
+                    configuration(SERVICE_NAME_PREFIX + index), new ServiceHandlerFactory());
+        }
+        serviceName = SERVICE_NAME_PREFIX + (serviceCount - 1);
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+
+        webClientManagerService.disposeAll();
+    }
+
+
+    @Benchmark
+    public void getServiceHandlerMetaData(final Blackhole blackhole)
+    {
+
+        blackhole.consume(serviceHandlerRegistry.getServiceHandlerMetaData(serviceName));
+    }
+
+
+    /**
+     * The lookups of a proxied request : configuration, factory and target URI.
+     */
+    @Benchmark
+    public void requestResolution(final Blackhole blackhole)
+    {
+
+        blackhole.consume(serviceHandlerRegistry.getServiceHandlerConfiguration(serviceName));
+        blackhole.consume(serviceHandlerRegistry.getServiceHandlerFactory(serviceName));
+        blackhole.consume(serviceHandlerRegistry.getTargetServiceURI(serviceName));
+        blackhole.consume(serviceHandlerRegistry.getServiceHandlerMetaData(serviceName));
+    }
+
+
+    @Benchmark
+    public void targetServiceURIBuild(final Blackhole blackhole)
+    {
+
+        blackhole.consume(new TargetServiceURIBuilder("https://api.openai.com/", "v1/chat/completions").build());
+    }
+
+
+    private static ServiceHandlerConfiguration configuration(final String serviceName)
+    {
+
+        final ServiceProperties serviceProperties = new ServiceProperties();
+        serviceProperties.setServiceName(serviceName);
+        serviceProperties.setTargetServiceBaseUrl("https://api.openai.com/");
+        serviceProperties.setTargetServiceEndPoint("/v1/chat/completions");
+
+        final ServiceHandlerConfiguration configuration = new ServiceHandlerConfiguration();
+        configuration.setServiceProperties(serviceProperties);
+        return configuration;
+    }
+
+}
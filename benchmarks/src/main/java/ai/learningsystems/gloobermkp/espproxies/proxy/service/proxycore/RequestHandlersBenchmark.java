@@ -0,0 +1,167 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+
+import ai.learningsystems.gloobermkp.espproxies.benchmarks.fixtures.BenchmarkServerHttpRequest;
+import ai.learningsystems.gloobermkp.espproxies.benchmarks.fixtures.ChatCompletionPayloads;
+import ai.learningsystems.gloobermkp.espproxies.benchmarks.fixtures.ProxyServices;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandler.IServiceHandler;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandler.IStreamUsageAccumulator;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.request.RequestEnvelope;
+import ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.OpenAIChatCompletionServiceHandler;
+
+
+
+/**
+ * Per-request overhead the proxy core adds around the upstream call, with the OpenAI plugin handler :
+ * <ul>
+ * <li>{@code processSSEChunk} on a reply chunk, the cost paid for every relayed chunk,</li>
+ * <li>{@code processSSEChunk} on the {@code [DONE]} chunk, where the stream usage metrics are built,</li>
+ * <li>{@code buildResponseWithMetrics} of a standard reply.</li>
+ * </ul>
+ * Lives in the proxy core package to reach the package private handler methods.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestHandlersBenchmark
+{
+
+    private static final String SERVICE_URI = "http://localhost:8586/openai/v1/chat/completions";
+    private static final String SERVICE_REF = "benchmark-service-ref";
+
+    /** Approximate size in bytes of the chat completion request. */
+    @Param({ "1024", "32768", "262144" })
+    private int payloadSize;
+
+    private MetricsComputationService     metricsComputationService;
+    private IServiceHandler               serviceHandler;
+    private RequestEnvelope               streamEnvelope;
+    private RequestEnvelope               standardEnvelope;
+    private StreamingRequestHandler       streamingRequestHandler;
+    private StandardRequestHandler        standardRequestHandler;
+    private ResponseEntity<String>        reply;
+    private ServerSentEvent<String>       endOfStreamEvent;
+    private List<ServerSentEvent<String>> chunkEvents;
+    private IStreamUsageAccumulator       usageAccumulator;
+    private StreamTimings                 streamTimings;
+    private ProxyMetricsService           proxyMetricsService;
+    private int                           chunkIndex;
+
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+
+        metricsComputationService = ProxyServices.metricsComputationService();
+        serviceHandler            = new OpenAIChatCompletionServiceHandler(ProxyServices
+                .tokenizingProxyService(ProxyServices.tokenizerService(metricsComputationService)));
+
+        streamEnvelope   = RequestEnvelope.of(new BenchmarkServerHttpRequest(SERVICE_URI, SERVICE_REF),
+                ChatCompletionPayloads.request(payloadSize, true));
+        standardEnvelope = RequestEnvelope.of(new BenchmarkServerHttpRequest(SERVICE_URI, SERVICE_REF),
+                ChatCompletionPayloads.request(payloadSize, false));
+
+        proxyMetricsService     = ProxyServices.proxyMetricsService();
+        streamingRequestHandler = new StreamingRequestHandler(new ProxyExecutionContext(null, serviceHandler, null,
+                null, null, null, null, streamEnvelope, System.currentTimeMillis()), metricsComputationService,
+                proxyMetricsService);
+        standardRequestHandler  = new StandardRequestHandler(new ProxyExecutionContext(null, serviceHandler, null,
+                null, null, null, null, standardEnvelope, System.currentTimeMillis()), metricsComputationService,
+                proxyMetricsService);
+
+        reply            = ResponseEntity.ok(ChatCompletionPayloads.reply());
+        endOfStreamEvent = ServerSentEvent.builder(serviceHandler.getEndOfStreamMarker()).build();
+        chunkEvents      = ChatCompletionPayloads.chunks().stream()
+                .map(chunk -> ServerSentEvent.builder(chunk).build())
+                .toList();
+    }
+
+
+    @Setup(Level.Iteration)
+    public void setUpIteration()
+    {
+
+        // Chunks of an iteration are accounted as one long stream : the accumulator memory stays constant
+        usageAccumulator = serviceHandler.createStreamUsageAccumulator(streamEnvelope);
+        streamTimings    = startStreamTimings();
+        chunkIndex       = 0;
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+
+        metricsComputationService.dispose();
+    }
+
+
+    @Benchmark
+    public void processSSEChunk(final Blackhole blackhole)
+    {
+
+        final ServerSentEvent<String> chunkEvent = chunkEvents.get(chunkIndex++ % chunkEvents.size());
+        blackhole.consume(streamingRequestHandler.processSSEChunk(chunkEvent, usageAccumulator, streamTimings)
+                .blockLast());
+    }
+
+
+    /**
+     * A whole reply stream accounted, then closed by {@code [DONE]} : prompt counting and end-of-stream
+     * metrics chunk included.
+     */
+    @Benchmark
+    public void processSSEStream(final Blackhole blackhole)
+    {
+
+        final IStreamUsageAccumulator streamUsageAccumulator = serviceHandler
+                .createStreamUsageAccumulator(streamEnvelope);
+        final StreamTimings           streamTimingsOfStream  = startStreamTimings();
+        for (final ServerSentEvent<String> chunkEvent : chunkEvents)
+            blackhole.consume(streamingRequestHandler
+                    .processSSEChunk(chunkEvent, streamUsageAccumulator, streamTimingsOfStream).blockLast());
+        blackhole.consume(streamingRequestHandler
+                .processSSEChunk(endOfStreamEvent, streamUsageAccumulator, streamTimingsOfStream).blockLast());
+    }
+
+
+    private StreamTimings startStreamTimings()
+    {
+
+        return proxyMetricsService.startStreamTimings(new ProxyExecutionContext(null, serviceHandler, null, null,
+                null, null, null, streamEnvelope, System.currentTimeMillis()));
+    }
+
+
+    @Benchmark
+    public void buildResponseWithMetrics(final Blackhole blackhole)
+    {
+
+        blackhole.consume(standardRequestHandler.buildResponseWithMetrics(standardEnvelope, reply, serviceHandler)
+                .block());
+    }
+
+}
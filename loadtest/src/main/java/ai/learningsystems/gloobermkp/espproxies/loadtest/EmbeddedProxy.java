@@ -0,0 +1,141 @@
+package ai.learningsystems.gloobermkp.espproxies.loadtest;
+
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.IServiceHandlerRegistry;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.CircuitBreakerConfiguration;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.ConnectionPoolConfiguration;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.RateLimiterConfiguration;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.ServiceProperties;
+import ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.ServiceHandlerFactory;
+import ai.learningsystems.gloobermkp.espproxies.proxy.ESPProxiesStarter;
+import lombok.extern.slf4j.Slf4j;
+
+
+
+/**
+ * The proxy application started in-process, serving the OpenAI chat completion service backed by the mock
+ * upstream.
+ * <p>
+ * The proxy starts on an empty plugins folder : the OpenAI plugin service handler factory, on the load test
+ * classpath, is registered directly in the service handler registry, the same way the plugin loader does.
+ * Its rate limiter, circuit breaker and connection pool are sized so that they never throttle the load test :
+ * what is measured is the proxy processing overhead.
+ */
+@Slf4j
+public class EmbeddedProxy implements AutoCloseable
+{
+
+    /** Path of the proxied OpenAI chat completion service. */
+    public static final String SERVICE_NAME = "/openai/v1/chat/completions";
+
+    private static final String PLUGIN_ID      = "openai-chat-completion-plugin";
+    private static final String PLUGIN_VERSION = "0.0.1";
+
+    private final ConfigurableApplicationContext applicationContext;
+    private final Path                           pluginsFolder;
+
+
+    /**
+     * Starts the proxy.
+     *
+     * @param configuration   the load test configuration, giving the proxy port.
+     * @param upstreamBaseUrl the base URL of the mock upstream.
+     */
+    public EmbeddedProxy(final LoadTestConfiguration configuration, final String upstreamBaseUrl) {
+
+        try {
+            this.pluginsFolder = Files.createTempDirectory("espproxies-loadtest-plugins");
+        }
+        catch (IOException ioException) {
+            throw new UncheckedIOException("Cannot create the load test plugins folder !", ioException);
+        }
+
+        this.applicationContext = new SpringApplicationBuilder(ESPProxiesStarter.class)
+                .properties("server.port=" + configuration.getProxyPort(),
+                        "proxy.plugins.folderpath=" + pluginsFolder,
+                        "logging.level.root=WARN")
+                .run();
+
+        applicationContext.getBean(IServiceHandlerRegistry.class).registerServiceHandler(PLUGIN_ID, PLUGIN_VERSION,
+                serviceHandlerConfiguration(configuration, upstreamBaseUrl), new ServiceHandlerFactory());
+        log.info("Proxy listening on port {}, {} proxied to {}", getPort(), SERVICE_NAME, upstreamBaseUrl);
+    }
+
+
+    /**
+     * @return the base URL of the proxy.
+     */
+    public String getBaseUrl()
+    {
+
+        return "http://localhost:" + getPort();
+    }
+
+
+    @Override
+    public void close()
+    {
+
+        applicationContext.close();
+        try {
+            Files.deleteIfExists(pluginsFolder);
+        }
+        catch (IOException ioException) {
+            log.warn("Cannot delete the load test plugins folder {} : {}", pluginsFolder, ioException.getMessage());
+        }
+    }
+
+
+    private int getPort()
+    {
+
+        return ((WebServerApplicationContext) applicationContext).getWebServer().getPort();
+    }
+
+
+    private static ServiceHandlerConfiguration serviceHandlerConfiguration(final LoadTestConfiguration loadTest,
+            final String upstreamBaseUrl)
+    {
+
+        final RateLimiterConfiguration rateLimiterConfiguration = new RateLimiterConfiguration();
+        rateLimiterConfiguration.setLimitForPeriod(Integer.MAX_VALUE);
+        rateLimiterConfiguration.setLimitRefreshPeriod("PT1S");
+        rateLimiterConfiguration.setTimeoutDuration("PT5S");
+
+        // Failures injected by the mock upstream must not open the circuit
+        final CircuitBreakerConfiguration circuitBreakerConfiguration = new CircuitBreakerConfiguration();
+        circuitBreakerConfiguration.setSlidingWindowSize(100);
+        circuitBreakerConfiguration.setFailureRateThreshold(100);
+        circuitBreakerConfiguration.setWaitDurationInOpenState("PT1S");
+        circuitBreakerConfiguration.setPermittedNumberOfCallsInHalfOpenState(10);
+
+        final ConnectionPoolConfiguration connectionPoolConfiguration = new ConnectionPoolConfiguration();
+        connectionPoolConfiguration.setMaxConnections(Math.max(loadTest.getConcurrency(), 16));
+        connectionPoolConfiguration.setPendingAcquireMaxCount(loadTest.getConcurrency() * 4);
+
+        final ServiceProperties serviceProperties = new ServiceProperties();
+        serviceProperties.setServiceName(SERVICE_NAME);
+        serviceProperties.setTargetServiceBaseUrl(upstreamBaseUrl);
+        serviceProperties.setTargetServiceEndPoint(MockOpenAIServer.CHAT_COMPLETIONS_PATH);
+        serviceProperties.setCustomHeaders(Map.of("Authorization", "Bearer mock-api-key"));
+        serviceProperties.setRateLimiterConfiguration(rateLimiterConfiguration);
+        serviceProperties.setCircuitBreakerConfiguration(circuitBreakerConfiguration);
+        serviceProperties.setConnectionPoolConfiguration(connectionPoolConfiguration);
+
+        final ServiceHandlerConfiguration configuration = new ServiceHandlerConfiguration();
+        configuration.setServiceProperties(serviceProperties);
+        return configuration;
+    }
+
+}
@@ -0,0 +1,55 @@
+package ai.learningsystems.gloobermkp.espproxies.loadtest;
+
+
+import java.util.Arrays;
+
+
+
+/**
+ * Thread safe recorder of latency samples, in nanoseconds, giving exact percentiles.
+ */
+public class LatencySamples
+{
+
+    private long[] samples = new long[1024];
+    private int    count;
+
+
+    /**
+     * @param nanos the latency to record.
+     */
+    public synchronized void record(final long nanos)
+    {
+
+        if (count == samples.length)
+            samples = Arrays.copyOf(samples, count * 2);
+        samples[count++] = nanos;
+    }
+
+
+    /**
+     * @return the number of recorded samples.
+     */
+    public synchronized int count()
+    {
+
+        return count;
+    }
+
+
+    /**
+     * @param percentile the percentile, from 0 to 100 (e.g. 99.9).
+     * @return the latency at the percentile in milliseconds, 0 if no sample has been recorded.
+     */
+    public synchronized double percentileMillis(final double percentile)
+    {
+
+        if (count == 0)
+            return 0;
+        final long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        final int rank = (int) Math.ceil(percentile / 100.0 * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, rank))] / 1_000_000.0;
+    }
+
+}
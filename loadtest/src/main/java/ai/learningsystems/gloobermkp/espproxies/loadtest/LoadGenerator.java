@@ -0,0 +1,166 @@
+package ai.learningsystems.gloobermkp.espproxies.loadtest;
+
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.management.OperatingSystemMXBean;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.utils.HttpHeaderSharedConstants;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.ByteBufFlux;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+
+
+/**
+ * Closed loop load generator : keeps {@link LoadTestConfiguration#getConcurrency()} chat completion requests
+ * in flight against a target and measures their response time, time to first byte and CPU cost.
+ */
+@Slf4j
+public class LoadGenerator implements AutoCloseable
+{
+
+    private static final String SERVICE_REF = "espproxies-loadtest";
+
+    private final LoadTestConfiguration configuration;
+    private final String                requestBody;
+    private final ConnectionProvider    connectionProvider;
+    private final HttpClient            httpClient;
+
+
+    public LoadGenerator(final LoadTestConfiguration configuration) {
+
+        this.configuration      = configuration;
+        this.requestBody        = buildRequestBody(configuration.getPromptSize(), configuration.isStream());
+        this.connectionProvider = ConnectionProvider.builder("espproxies-loadtest")
+                .maxConnections(configuration.getConcurrency() * 2)
+                .pendingAcquireMaxCount(-1)
+                .build();
+        this.httpClient         = HttpClient.create(connectionProvider)
+                .responseTimeout(Duration.ofMinutes(1))
+                .headers(headers -> headers.set(HttpHeaderNames.CONTENT_TYPE, "application/json")
+                        .set(HttpHeaderSharedConstants.X_GMKP_XSP_SERVICE_REF, SERVICE_REF));
+    }
+
+
+    /**
+     * Sends the warm up requests, then the measured ones.
+     *
+     * @param target the target name reported.
+     * @param url    the chat completion URL of the target.
+     * @return the measurements of the run.
+     */
+    public LoadTestResult run(final String target, final String url)
+    {
+
+        log.info("{} : {} warm up requests to {}", target, configuration.getWarmupRequests(), url);
+        send(url, configuration.getWarmupRequests(), new LatencySamples(), new LatencySamples(), new AtomicInteger());
+
+        log.info("{} : {} measured requests, {} in flight", target, configuration.getRequests(),
+                configuration.getConcurrency());
+        final LatencySamples latencies = new LatencySamples();
+        final LatencySamples ttfbs     = new LatencySamples();
+        final AtomicInteger  errors    = new AtomicInteger();
+        final long           cpuStart  = processCpuTime();
+        final long           start     = System.nanoTime();
+
+        send(url, configuration.getRequests(), latencies, ttfbs, errors);
+
+        final long   elapsed   = System.nanoTime() - start;
+        final long   cpu       = processCpuTime() - cpuStart;
+        final int    requests  = configuration.getRequests();
+        final double seconds   = elapsed / 1_000_000_000.0;
+
+        return new LoadTestResult(target, requests, errors.get(), (requests - errors.get()) / seconds,
+                cpu / 1_000_000.0 / requests, latencies.percentileMillis(50), latencies.percentileMillis(99),
+                latencies.percentileMillis(99.9), ttfbs.percentileMillis(50), ttfbs.percentileMillis(99),
+                ttfbs.percentileMillis(99.9));
+    }
+
+
+    @Override
+    public void close()
+    {
+
+        connectionProvider.disposeLater().block(Duration.ofSeconds(10));
+    }
+
+
+    private void send(final String url, final int count, final LatencySamples latencies,
+            final LatencySamples ttfbs, final AtomicInteger errors)
+    {
+
+        Flux.range(0, count)
+                .flatMap(index -> sendOne(url, latencies, ttfbs, errors), configuration.getConcurrency())
+                .blockLast();
+    }
+
+
+    private Mono<Integer> sendOne(final String url, final LatencySamples latencies, final LatencySamples ttfbs,
+            final AtomicInteger errors)
+    {
+
+        return Mono.defer(() -> {
+            final long   start     = System.nanoTime();
+            final long[] firstByte = { 0 };
+
+            return httpClient.post()
+                    .uri(url)
+                    .send(ByteBufFlux.fromString(Mono.just(requestBody)))
+                    .response((response, content) -> content
+                            .doOnNext(buffer -> {
+                                if (firstByte[0] == 0)
+                                    firstByte[0] = System.nanoTime();
+                            })
+                            .then(Mono.just(response.status().code())))
+                    .next()
+                    .doOnNext(status -> {
+                        if (status >= 400) {
+                            errors.incrementAndGet();
+                            return;
+                        }
+                        final long end = System.nanoTime();
+                        latencies.record(end - start);
+                        ttfbs.record((firstByte[0] == 0 ? end : firstByte[0]) - start);
+                    })
+                    .onErrorResume(error -> {
+                        log.debug("Request failed : {}", error.toString());
+                        errors.incrementAndGet();
+                        return Mono.empty();
+                    });
+        });
+    }
+
+
+    private static long processCpuTime()
+    {
+
+        return ((OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+    }
+
+
+    private static String buildRequestBody(final int promptSize, final boolean stream)
+    {
+
+        final StringBuilder body = new StringBuilder(promptSize + 256)
+                .append("{\"model\":\"gpt-4o\",\"stream\":").append(stream).append(",\"messages\":[");
+        int                 turn = 0;
+        while (body.length() < promptSize) {
+            if (turn > 0)
+                body.append(',');
+            body.append("{\"role\":\"").append(turn % 2 == 0 ? "user" : "assistant")
+                    .append("\",\"content\":\"Turn ").append(turn)
+                    .append(" : the proxy relays every request upstream and reports its usage.\"}");
+            turn++;
+        }
+        return body.append("]}").toString();
+    }
+
+}
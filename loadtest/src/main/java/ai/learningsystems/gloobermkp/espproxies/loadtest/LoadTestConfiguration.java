@@ -0,0 +1,219 @@
+package ai.learningsystems.gloobermkp.espproxies.loadtest;
+
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+
+
+/**
+ * Load test settings, read from {@code --name=value} command line options.
+ *
+ * <pre>
+ * --requests=2000           measured requests per target
+ * --warmupRequests=200      requests sent before measuring, per target
+ * --concurrency=32          requests in flight
+ * --stream=true             SSE replies, standard replies otherwise
+ * --promptSize=4096         approximate request body size in bytes
+ * --chunkCount=50           reply chunks (standard replies hold the same content)
+ * --chunkSize=16            characters of content per chunk
+ * --firstChunkDelay=PT0.05S upstream delay before the first byte (ISO-8601)
+ * --interChunkDelay=PT0.01S upstream delay between chunks (ISO-8601)
+ * --failureRate=0.0         share of upstream replies failing with a 500, from 0 to 1
+ * --mockPort=0              mock upstream port, 0 for any free port
+ * --proxyPort=0             proxy port, 0 for any free port
+ * --resultFile=loadtest-results.json
+ * </pre>
+ */
+public class LoadTestConfiguration
+{
+
+    private int      requests        = 2000;
+    private int      warmupRequests  = 200;
+    private int      concurrency     = 32;
+    private boolean  stream          = true;
+    private int      promptSize      = 4096;
+    private int      chunkCount      = 50;
+    private int      chunkSize       = 16;
+    private Duration firstChunkDelay = Duration.parse("PT0.05S");
+    private Duration interChunkDelay = Duration.parse("PT0.01S");
+    private double   failureRate     = 0.0;
+    private int      mockPort        = 0;
+    private int      proxyPort       = 0;
+    private String   resultFile      = "loadtest-results.json";
+
+
+    /**
+     * @param args the command line, {@code --name=value} options.
+     * @return the configuration, defaults applied for missing options.
+     * @throws IllegalArgumentException on unknown options or invalid values.
+     */
+    public static LoadTestConfiguration fromArgs(final String[] args)
+    {
+
+        final Map<String, String> options = new HashMap<>();
+        for (final String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0)
+                throw new IllegalArgumentException("Options are of the form --name=value : " + arg);
+            options.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+
+        final LoadTestConfiguration configuration = new LoadTestConfiguration();
+        options.forEach((name, value) -> {
+            switch (name) {
+                case "requests" -> configuration.requests = Integer.parseInt(value);
+                case "warmupRequests" -> configuration.warmupRequests = Integer.parseInt(value);
+                case "concurrency" -> configuration.concurrency = Integer.parseInt(value);
+                case "stream" -> configuration.stream = Boolean.parseBoolean(value);
+                case "promptSize" -> configuration.promptSize = Integer.parseInt(value);
+                case "chunkCount" -> configuration.chunkCount = Integer.parseInt(value);
+                case "chunkSize" -> configuration.chunkSize = Integer.parseInt(value);
+                case "firstChunkDelay" -> configuration.firstChunkDelay = Duration.parse(value);
+                case "interChunkDelay" -> configuration.interChunkDelay = Duration.parse(value);
+                case "failureRate" -> configuration.failureRate = Double.parseDouble(value);
+                case "mockPort" -> configuration.mockPort = Integer.parseInt(value);
+                case "proxyPort" -> configuration.proxyPort = Integer.parseInt(value);
+                case "resultFile" -> configuration.resultFile = value;
+                default -> throw new IllegalArgumentException("Unknown option : --" + name);
+            }
+        });
+        if (configuration.failureRate < 0 || configuration.failureRate > 1)
+            throw new IllegalArgumentException("--failureRate must be between 0 and 1 !");
+        if (configuration.concurrency < 1 || configuration.requests < 1)
+            throw new IllegalArgumentException("--concurrency and --requests must be positive !");
+        return configuration;
+    }
+
+
+    /**
+     * @return the number of measured requests per target.
+     */
+    public int getRequests()
+    {
+
+        return requests;
+    }
+
+
+    /**
+     * @return the number of requests sent before measuring, per target.
+     */
+    public int getWarmupRequests()
+    {
+
+        return warmupRequests;
+    }
+
+
+    /**
+     * @return the number of requests in flight.
+     */
+    public int getConcurrency()
+    {
+
+        return concurrency;
+    }
+
+
+    /**
+     * @return {@code true} for SSE replies.
+     */
+    public boolean isStream()
+    {
+
+        return stream;
+    }
+
+
+    /**
+     * @return the approximate request body size in bytes.
+     */
+    public int getPromptSize()
+    {
+
+        return promptSize;
+    }
+
+
+    /**
+     * @return the number of reply chunks.
+     */
+    public int getChunkCount()
+    {
+
+        return chunkCount;
+    }
+
+
+    /**
+     * @return the number of content characters per chunk.
+     */
+    public int getChunkSize()
+    {
+
+        return chunkSize;
+    }
+
+
+    /**
+     * @return the upstream delay before the first byte of a reply.
+     */
+    public Duration getFirstChunkDelay()
+    {
+
+        return firstChunkDelay;
+    }
+
+
+    /**
+     * @return the upstream delay between two chunks.
+     */
+    public Duration getInterChunkDelay()
+    {
+
+        return interChunkDelay;
+    }
+
+
+    /**
+     * @return the share of upstream replies failing with a 500.
+     */
+    public double getFailureRate()
+    {
+
+        return failureRate;
+    }
+
+
+    /**
+     * @return the mock upstream port, 0 for any free port.
+     */
+    public int getMockPort()
+    {
+
+        return mockPort;
+    }
+
+
+    /**
+     * @return the proxy port, 0 for any free port.
+     */
+    public int getProxyPort()
+    {
+
+        return proxyPort;
+    }
+
+
+    /**
+     * @return the file the JSON report is written to.
+     */
+    public String getResultFile()
+    {
+
+        return resultFile;
+    }
+
+}
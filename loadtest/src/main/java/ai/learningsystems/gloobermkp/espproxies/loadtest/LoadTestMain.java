@@ -0,0 +1,105 @@
+package ai.learningsystems.gloobermkp.espproxies.loadtest;
+
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+
+
+/**
+ * Measures the latency and throughput the proxy adds on top of a direct upstream call.
+ * <p>
+ * A mock OpenAI upstream and the proxy are started in-process. The same load is sent to the mock directly,
+ * then through the proxy {@code ProxyController}. The report compares both runs : the added latency is the
+ * difference of the response time (and time to first byte) percentiles, the added CPU the difference of the
+ * process CPU time per request. It is printed and written as JSON to {@code --resultFile}.
+ * <p>
+ * See {@link LoadTestConfiguration} for the options.
+ */
+public final class LoadTestMain
+{
+
+    private LoadTestMain() {
+
+    }
+
+
+    public static void main(final String[] args) throws IOException
+    {
+
+        final LoadTestConfiguration configuration = LoadTestConfiguration.fromArgs(args);
+
+        final LoadTestResult direct;
+        final LoadTestResult proxied;
+        try (MockOpenAIServer mockServer = new MockOpenAIServer(configuration);
+                EmbeddedProxy proxy = new EmbeddedProxy(configuration, mockServer.getBaseUrl());
+                LoadGenerator loadGenerator = new LoadGenerator(configuration)) {
+
+            direct  = loadGenerator.run("direct", mockServer.getBaseUrl() + MockOpenAIServer.CHAT_COMPLETIONS_PATH);
+            proxied = loadGenerator.run("proxied", proxy.getBaseUrl() + EmbeddedProxy.SERVICE_NAME);
+        }
+
+        printReport(configuration, direct, proxied);
+        writeReport(configuration, direct, proxied);
+    }
+
+
+    private static void printReport(final LoadTestConfiguration configuration, final LoadTestResult direct,
+            final LoadTestResult proxied)
+    {
+
+        System.out.printf(
+                "%nProxy overhead - %s replies, %d requests, %d in flight, prompt %d B, %d chunks of %d chars%n",
+                configuration.isStream() ? "SSE" : "standard", configuration.getRequests(),
+                configuration.getConcurrency(), configuration.getPromptSize(), configuration.getChunkCount(),
+                configuration.getChunkSize());
+        System.out.printf("%-22s %12s %12s %12s%n", "", "direct", "proxied", "added");
+        printRow("latency p50 (ms)", direct.latencyP50(), proxied.latencyP50());
+        printRow("latency p99 (ms)", direct.latencyP99(), proxied.latencyP99());
+        printRow("latency p99.9 (ms)", direct.latencyP999(), proxied.latencyP999());
+        printRow("TTFB p50 (ms)", direct.ttfbP50(), proxied.ttfbP50());
+        printRow("TTFB p99 (ms)", direct.ttfbP99(), proxied.ttfbP99());
+        printRow("TTFB p99.9 (ms)", direct.ttfbP999(), proxied.ttfbP999());
+        printRow("requests / s", direct.requestsPerSecond(), proxied.requestsPerSecond());
+        printRow("CPU / request (ms)", direct.cpuMillisPerRequest(), proxied.cpuMillisPerRequest());
+        printRow("errors", direct.errors(), proxied.errors());
+    }
+
+
+    private static void printRow(final String name, final double direct, final double proxied)
+    {
+
+        System.out.printf("%-22s %12.3f %12.3f %+12.3f%n", name, direct, proxied, proxied - direct);
+    }
+
+
+    private static void writeReport(final LoadTestConfiguration configuration, final LoadTestResult direct,
+            final LoadTestResult proxied) throws IOException
+    {
+
+        final Map<String, Object> added = new LinkedHashMap<>();
+        added.put("latencyP50", proxied.latencyP50() - direct.latencyP50());
+        added.put("latencyP99", proxied.latencyP99() - direct.latencyP99());
+        added.put("latencyP999", proxied.latencyP999() - direct.latencyP999());
+        added.put("ttfbP50", proxied.ttfbP50() - direct.ttfbP50());
+        added.put("ttfbP99", proxied.ttfbP99() - direct.ttfbP99());
+        added.put("ttfbP999", proxied.ttfbP999() - direct.ttfbP999());
+        added.put("cpuMillisPerRequest", proxied.cpuMillisPerRequest() - direct.cpuMillisPerRequest());
+
+        final Map<String, Object> report = new LinkedHashMap<>();
+        report.put("configuration", configuration);
+        report.put("runs", List.of(direct, proxied));
+        report.put("added", added);
+
+        final Path resultFile = Path.of(configuration.getResultFile());
+        new ObjectMapper().findAndRegisterModules().writerWithDefaultPrettyPrinter()
+                .writeValue(resultFile.toFile(), report);
+        System.out.printf("%nReport written to %s%n", resultFile.toAbsolutePath());
+    }
+
+}
@@ -0,0 +1,24 @@
+package ai.learningsystems.gloobermkp.espproxies.loadtest;
+
+
+/**
+ * Measurements of a load test run against one target.
+ *
+ * @param target              the target name, {@code direct} or {@code proxied}.
+ * @param requests            the number of requests sent.
+ * @param errors              the number of failed requests (transport error or HTTP status 4xx / 5xx).
+ * @param requestsPerSecond   the completed requests per second.
+ * @param cpuMillisPerRequest the process CPU time per request, load generator and mock upstream included.
+ * @param latencyP50          the median response time, in milliseconds.
+ * @param latencyP99          the 99th percentile response time, in milliseconds.
+ * @param latencyP999         the 99.9th percentile response time, in milliseconds.
+ * @param ttfbP50             the median time to first byte, in milliseconds.
+ * @param ttfbP99             the 99th percentile time to first byte, in milliseconds.
+ * @param ttfbP999            the 99.9th percentile time to first byte, in milliseconds.
+ */
+public record LoadTestResult(String target, int requests, int errors, double requestsPerSecond,
+        double cpuMillisPerRequest, double latencyP50, double latencyP99, double latencyP999, double ttfbP50,
+        double ttfbP99, double ttfbP999)
+{
+
+}
@@ -0,0 +1,153 @@
+package ai.learningsystems.gloobermkp.espproxies.loadtest;
+
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.json.ExtractedJsonFields;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.json.JsonFieldExtractor;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+
+
+/**
+ * Embedded OpenAI compatible chat completion upstream ({@value #CHAT_COMPLETIONS_PATH}).
+ * <p>
+ * Replies are synthetic : their shape (chunk count and size), their timing (delay before the first byte,
+ * between chunks) and their failure rate come from the {@link LoadTestConfiguration}. Streamed replies end
+ * with a usage chunk when the request asks for it ({@code stream_options.include_usage}), as OpenAI does.
+ */
+@Slf4j
+public class MockOpenAIServer implements AutoCloseable
+{
+
+    /** Path of the mocked chat completion endpoint. */
+    public static final String CHAT_COMPLETIONS_PATH = "/v1/chat/completions";
+
+    private static final String             STREAM_PATH          = "stream";
+    private static final String             INCLUDE_USAGE_PATH   = "stream_options.include_usage";
+    private static final JsonFieldExtractor REQUEST_EXTRACTOR    = JsonFieldExtractor.compile(STREAM_PATH,
+            INCLUDE_USAGE_PATH);
+    private static final String             END_OF_STREAM_MARKER = "[DONE]";
+    private static final String             FAILURE_BODY         = "{\"error\":{\"message\":\"Mock upstream failure\","
+            + "\"type\":\"server_error\",\"code\":null}}";
+
+    private final LoadTestConfiguration configuration;
+    private final String                chunkContent;
+    private final DisposableServer      server;
+
+
+    /**
+     * Starts the mock upstream.
+     *
+     * @param configuration the replies shape, timing and failure rate.
+     */
+    public MockOpenAIServer(final LoadTestConfiguration configuration) {
+
+        this.configuration = configuration;
+        this.chunkContent  = "x".repeat(Math.max(1, configuration.getChunkSize() - 1)) + " ";
+        this.server        = HttpServer.create()
+                .port(configuration.getMockPort())
+                .route(routes -> routes.post(CHAT_COMPLETIONS_PATH, this::reply))
+                .bindNow();
+        log.info("Mock OpenAI upstream listening on port {}", server.port());
+    }
+
+
+    /**
+     * @return the base URL of the mock upstream.
+     */
+    public String getBaseUrl()
+    {
+
+        return "http://localhost:" + server.port();
+    }
+
+
+    @Override
+    public void close()
+    {
+
+        server.disposeNow();
+    }
+
+
+    private Mono<Void> reply(final HttpServerRequest request, final HttpServerResponse response)
+    {
+
+        return request.receive().aggregate().asString(StandardCharsets.UTF_8).defaultIfEmpty("").flatMap(body -> {
+            final ExtractedJsonFields fields = REQUEST_EXTRACTOR.extract(body);
+
+            if (ThreadLocalRandom.current().nextDouble() < configuration.getFailureRate())
+                return Mono.delay(configuration.getFirstChunkDelay())
+                        .then(response.status(HttpResponseStatus.INTERNAL_SERVER_ERROR)
+                                .header(HttpHeaderNames.CONTENT_TYPE, "application/json")
+                                .sendString(Mono.just(FAILURE_BODY))
+                                .then());
+
+            return fields.getBoolean(STREAM_PATH, false)
+                    ? replyStream(response, fields.getBoolean(INCLUDE_USAGE_PATH, false))
+                    : replyStandard(response);
+        });
+    }
+
+
+    private Mono<Void> replyStandard(final HttpServerResponse response)
+    {
+
+        final String content = chunkContent.repeat(configuration.getChunkCount());
+        final String reply   = "{\"id\":\"chatcmpl-mock\",\"object\":\"chat.completion\",\"created\":1730000000,"
+                + "\"model\":\"gpt-4o\",\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":\""
+                + content + "\"},\"logprobs\":null,\"finish_reason\":\"stop\"}]," + usage() + "}";
+
+        return Mono.delay(configuration.getFirstChunkDelay())
+                .then(response.header(HttpHeaderNames.CONTENT_TYPE, "application/json")
+                        .sendString(Mono.just(reply))
+                        .then());
+    }
+
+
+    private Mono<Void> replyStream(final HttpServerResponse response, final boolean includeUsage)
+    {
+
+        final String chunk      = "{\"id\":\"chatcmpl-mock\",\"object\":\"chat.completion.chunk\",\"created\":1730000000,"
+                + "\"model\":\"gpt-4o\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\"" + chunkContent
+                + "\"},\"logprobs\":null,\"finish_reason\":null}]}";
+        final String usageChunk = "{\"id\":\"chatcmpl-mock\",\"object\":\"chat.completion.chunk\",\"created\":1730000000,"
+                + "\"model\":\"gpt-4o\",\"choices\":[]," + usage() + "}";
+
+        final Flux<String> chunks = Flux.concat(
+                Mono.delay(configuration.getFirstChunkDelay()).thenReturn(chunk),
+                Flux.range(1, Math.max(0, configuration.getChunkCount() - 1))
+                        .delayElements(configuration.getInterChunkDelay())
+                        .map(index -> chunk),
+                includeUsage ? Mono.just(usageChunk) : Mono.empty(),
+                Mono.just(END_OF_STREAM_MARKER));
+
+        // Each event is flushed on its own, as a real upstream streams them
+        return response.header(HttpHeaderNames.CONTENT_TYPE, "text/event-stream")
+                .header(HttpHeaderNames.CACHE_CONTROL, "no-cache")
+                .send(chunks.map(data -> response.alloc().buffer()
+                        .writeBytes(("data: " + data + "\n\n").getBytes(StandardCharsets.UTF_8))), buffer -> true)
+                .then();
+    }
+
+
+    private String usage()
+    {
+
+        final int completionTokens = configuration.getChunkCount() * Math.max(1, configuration.getChunkSize() / 4);
+        final int promptTokens     = configuration.getPromptSize() / 4;
+        return "\"usage\":{\"prompt_tokens\":" + promptTokens + ",\"completion_tokens\":" + completionTokens
+                + ",\"total_tokens\":" + (promptTokens + completionTokens) + "}";
+    }
+
+}
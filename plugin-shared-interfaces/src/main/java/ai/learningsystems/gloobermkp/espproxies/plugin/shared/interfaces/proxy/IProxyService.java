@@ -11,8 +11,8 @@ import reactor.core.publisher.Mono;
 /**
  * Interface provided by the proxy to plugins for executing HTTP requests and managing service-related operations.
  * <p>
- * This interface defines methods for executing both standard and streaming HTTP requests, as well as for managing 
- * cache invalidation for specific services.
+ * This interface defines methods for executing both standard and streaming HTTP requests, for managing 
+ * cache invalidation for specific services, and gives access to the tokenizer shared by plugins.
  */
 public interface IProxyService {
 
@@ -62,4 +62,14 @@ public interface IProxyService {
      * @param serviceName a {@link String} representing the name of the service whose cache should be cleared.
      */
     void cleanCacheForService(final String serviceName);
+
+    /**
+     * Provides the tokenizer shared by the proxy and its plugins.
+     * <p>
+     * Plugins must use it rather than loading their own tokenizer vocabularies : encodings are loaded once
+     * and cached by the proxy.
+     * 
+     * @return the proxy {@link ITokenizerService}.
+     */
+    ITokenizerService getTokenizerService();
 }
\ No newline at end of file
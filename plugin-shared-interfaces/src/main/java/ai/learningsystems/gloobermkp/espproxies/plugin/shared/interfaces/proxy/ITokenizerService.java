@@ -0,0 +1,53 @@
+package ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.proxy;
+
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+
+/**
+ * Tokenizer provided by the proxy to plugins for counting the tokens of LLM prompts and completions.
+ * <p>
+ * The proxy owns the tokenizer vocabularies : each encoding is loaded once for the proxy lifetime and shared
+ * by every plugin and request, instead of being reloaded per request. The encoding is selected from the model
+ * requested by the caller.
+ */
+public interface ITokenizerService {
+
+    /**
+     * Counts the tokens of a text with the encoding of the given model.
+     * <p>
+     * Special tokens possibly present in the text are counted as ordinary text. Models unknown to the
+     * tokenizer are counted with the default encoding of the latest OpenAI models ({@code o200k_base}).
+     *
+     * @param model the model name as requested by the caller (e.g. {@code gpt-4o-mini}), may be {@code null}.
+     * @param text  the text to tokenize.
+     * @return the number of tokens of the text, 0 for a {@code null} or empty text.
+     */
+    int countTokens(final String model, final String text);
+
+
+    /**
+     * Starts counting the tokens of a text without blocking the caller, so that counting overlaps other work
+     * of the request (typically the upstream call).
+     * <p>
+     * The text itself is supplied lazily : its extraction from the request is part of the offloaded work. The
+     * default implementation counts synchronously, the proxy implementation counts on a worker scheduler.
+     *
+     * @param model        the model name as requested by the caller, may be {@code null}.
+     * @param textSupplier supplies the text to tokenize.
+     * @return a future of the number of tokens of the text, completed exceptionally if the text cannot be
+     *         supplied or counted in time.
+     */
+    default CompletableFuture<Integer> countTokensAsync(final String model, final Supplier<String> textSupplier)
+    {
+
+        try {
+            return CompletableFuture.completedFuture(countTokens(model, textSupplier.get()));
+        }
+        catch (RuntimeException countException) {
+            return CompletableFuture.failedFuture(countException);
+        }
+    }
+
+}
@@ -0,0 +1,47 @@
+package ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandler;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.request.RequestEnvelope;
+import ai.learningsystems.gloobermkp.external.commons.domains.metrics.usage.UsageMetrics;
+
+
+
+/**
+ * Default {@link IStreamUsageAccumulator} for plugins not providing an incremental one : chunks are buffered
+ * and handed over to {@link IUsageMetricsSupplier#getMetrics(RequestEnvelope, List)} at completion.
+ * <p>
+ * Memory held per stream grows with the response length : plugins should override
+ * {@link IUsageMetricsSupplier#createStreamUsageAccumulator(RequestEnvelope)} instead.
+ */
+public final class BufferingStreamUsageAccumulator implements IStreamUsageAccumulator {
+
+    private final IUsageMetricsSupplier usageMetricsSupplier;
+    private final RequestEnvelope       envelope;
+    private final List<String>          responseChunks = new ArrayList<>();
+
+
+    public BufferingStreamUsageAccumulator(final IUsageMetricsSupplier usageMetricsSupplier,
+            final RequestEnvelope envelope) {
+
+        this.usageMetricsSupplier = usageMetricsSupplier;
+        this.envelope             = envelope;
+    }
+
+
+    @Override
+    public void onChunk(final String chunk)
+    {
+        responseChunks.add(chunk);
+    }
+
+
+    @Override
+    public UsageMetrics onComplete()
+    {
+        return usageMetricsSupplier.getMetrics(envelope, responseChunks);
+    }
+
+}
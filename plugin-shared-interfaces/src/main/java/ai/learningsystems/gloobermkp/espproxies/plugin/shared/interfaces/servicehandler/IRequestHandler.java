@@ -4,6 +4,7 @@ package ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servic
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.request.RequestEnvelope;
 import reactor.core.publisher.Flux;
 
 
@@ -32,6 +33,58 @@ public interface IRequestHandler
     boolean isStreamReplyRequested(final ServerHttpRequest request, final String requestBody);
 
 
+    /**
+     * Determines if a streamed reply is requested based on the request envelope.
+     * <p>
+     * Implementations should override this method to read the memoized values of
+     * the envelope instead of parsing the request body again. The default
+     * implementation delegates to
+     * {@link #isStreamReplyRequested(ServerHttpRequest, String)}.
+     * 
+     * @param envelope the {@link RequestEnvelope} of the incoming request.
+     * @return {@code true} if a streamed reply is requested; {@code false}
+     *         otherwise.
+     */
+    default boolean isStreamReplyRequested(final RequestEnvelope envelope)
+    {
+
+        return isStreamReplyRequested(envelope.getRequest(), envelope.getRequestBody());
+    }
+
+
+    /**
+     * Determines if the reply to a request is fully determined by the request itself (e.g., completions with a
+     * zero temperature or a fixed seed), so that identical concurrent requests may share a single reply.
+     * The default implementation declares no request deterministic.
+     * 
+     * @param envelope the {@link RequestEnvelope} of the incoming request.
+     * @return {@code true} if identical requests get the same reply; {@code false} otherwise.
+     */
+    default boolean isReplyDeterministic(final RequestEnvelope envelope)
+    {
+
+        return false;
+    }
+
+
+    /**
+     * Determines if the standard response to a request may be served from the service response cache.
+     * <p>
+     * Only requests whose response is fully determined by the request itself (e.g., completions with a zero
+     * temperature or a fixed seed) should be declared cacheable. The default implementation declares no
+     * request cacheable.
+     * 
+     * @param envelope the {@link RequestEnvelope} of the incoming request.
+     * @return {@code true} if the response may be cached and served from the cache; {@code false}
+     *         otherwise.
+     */
+    default boolean isResponseCacheable(final RequestEnvelope envelope)
+    {
+
+        return false;
+    }
+
+
     /**
      * Handles the given HTTP request by applying provider-specific modifications
      * and forwarding it to the proxy for execution.
@@ -57,6 +110,26 @@ public interface IRequestHandler
     Flux<?> handleRequest(final ServerHttpRequest retargetedRequest, final String requestBody);
 
 
+    /**
+     * Handles the given HTTP request, see
+     * {@link #handleRequest(ServerHttpRequest, String)}.
+     * <p>
+     * The envelope gives access to the already parsed request body. The default
+     * implementation delegates to
+     * {@link #handleRequest(ServerHttpRequest, String)}.
+     * 
+     * @param retargetedRequest the {@link ServerHttpRequest} representing the
+     *                          retargeted HTTP request.
+     * @param envelope          the {@link RequestEnvelope} of the request.
+     * @return a {@link Flux} representing the response to the request.
+     */
+    default Flux<?> handleRequest(final ServerHttpRequest retargetedRequest, final RequestEnvelope envelope)
+    {
+
+        return handleRequest(retargetedRequest, envelope.getRequestBody());
+    }
+
+
     /**
      * Populates the given HTTP headers with any custom fields required by the
      * target service protocol.
@@ -1,6 +1,7 @@
 package ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandler;
 
 import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.proxy.IProxyService;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.ServiceProperties;
 
 /**
  * Factory interface for creating instances of {@link IServiceHandler}.
@@ -19,4 +20,23 @@ public interface IServiceHandlerFactory {
      * @return a new instance of {@link IServiceHandler}.
      */
     IServiceHandler createServiceHandler(final IProxyService proxy);
+
+
+    /**
+     * Creates a new instance of {@link IServiceHandler} using the provided proxy service and the
+     * properties the service has been registered with.
+     * <p>
+     * This lets the created handler read its {@link ServiceProperties#getHandlerProperties() handler
+     * properties}. The default implementation ignores the properties and delegates to
+     * {@link #createServiceHandler(IProxyService)}.
+     * 
+     * @param proxy             an instance of {@link IProxyService} that the created service handler will use 
+     *                          to execute requests and manage service-related operations.
+     * @param serviceProperties the properties of the service the handler is created for.
+     * @return a new instance of {@link IServiceHandler}.
+     */
+    default IServiceHandler createServiceHandler(final IProxyService proxy, final ServiceProperties serviceProperties)
+    {
+        return createServiceHandler(proxy);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,110 @@
+package ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandler;
+
+
+import ai.learningsystems.gloobermkp.external.commons.domains.metrics.usage.UsageMetrics;
+import reactor.core.publisher.Mono;
+
+
+
+/**
+ * Incremental usage accounting of a single streamed response (e.g., Server-Sent Events).
+ * <p>
+ * An accumulator is created per stream by {@link IUsageMetricsSupplier#createStreamUsageAccumulator}. The
+ * proxy feeds it every chunk as it is relayed, then asks for the usage metrics once the end of stream is
+ * reached. Implementations are expected to fold each chunk into a few counters and drop it, so that the memory
+ * held per stream stays constant whatever the response length, and the final metrics are available without
+ * re-processing the whole response.
+ * <p>
+ * Chunks of a stream are delivered sequentially, never concurrently : implementations do not need to be
+ * thread safe.
+ */
+public interface IStreamUsageAccumulator {
+
+    /**
+     * Folds a chunk of the streamed response into the usage counters.
+     *
+     * @param chunk a {@link String} representing a single chunk received in the stream, including the
+     *              end-of-stream marker chunk.
+     */
+    void onChunk(final String chunk);
+
+
+    /**
+     * Tells whether a chunk, already folded by {@link #onChunk(String)}, must be relayed to the caller.
+     * <p>
+     * This lets a plugin consume chunks it requested from the target service for its own accounting
+     * only (e.g., a usage report chunk the caller did not ask for). The default implementation relays
+     * every chunk.
+     *
+     * @param chunk a {@link String} representing a single chunk received in the stream.
+     * @return {@code true} if the chunk must be relayed to the caller, {@code false} to drop it.
+     */
+    default boolean shouldRelay(final String chunk)
+    {
+        return true;
+    }
+
+
+    /**
+     * Gives the asynchronous work {@link #onComplete()} depends on, typically a count started at the accumulator
+     * creation. The proxy waits for it without blocking any thread before calling {@link #onComplete()}, which
+     * must then not block on it either : {@link #onComplete()} runs on a bounded scheduler the pending work may
+     * be queued on.
+     *
+     * @return a {@link Mono} completing once the pending work is done, whatever its outcome. The default
+     *         implementation has no pending work.
+     */
+    default Mono<Void> pendingWork()
+    {
+        return Mono.empty();
+    }
+
+
+    /**
+     * Builds the usage metrics of the stream once its last chunk has been received.
+     *
+     * @return a {@link UsageMetrics} object containing the computed metrics.
+     */
+    UsageMetrics onComplete();
+
+
+    /**
+     * Tells whether a chunk, already folded by {@link #onChunk(String)}, carries generated content.
+     * <p>
+     * The proxy uses it to measure the time to the first token of the stream, as opposed to the time to its
+     * first chunk (e.g., a role announcement). The default implementation considers every chunk as content.
+     *
+     * @param chunk a {@link String} representing a single chunk received in the stream.
+     * @return {@code true} if the chunk carries generated content.
+     */
+    default boolean isContentChunk(final String chunk)
+    {
+        return true;
+    }
+
+
+    /**
+     * Gives the number of tokens of the streamed reply, for the tokens per second rate of the stream.
+     *
+     * @return the completion tokens count once {@link #onComplete()} has been called, a negative value if
+     *         unknown. The default implementation returns -1.
+     */
+    default int getCompletionTokens()
+    {
+        return -1;
+    }
+
+
+    /**
+     * Gives the number of tokens consumed by the stream, prompt and completion included, to reconcile the
+     * service tokens per minute budget.
+     *
+     * @return the total tokens count once {@link #onComplete()} has been called, a negative value if unknown.
+     *         The default implementation returns -1.
+     */
+    default int getTotalTokens()
+    {
+        return -1;
+    }
+
+}
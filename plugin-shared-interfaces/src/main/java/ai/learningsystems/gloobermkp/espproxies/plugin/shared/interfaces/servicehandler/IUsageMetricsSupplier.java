@@ -6,6 +6,7 @@ import java.util.List;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.request.RequestEnvelope;
 import ai.learningsystems.gloobermkp.external.commons.domains.metrics.usage.UsageMetrics;
 
 
@@ -39,6 +40,23 @@ public interface IUsageMetricsSupplier {
     public UsageMetrics getMetrics(final ServerHttpRequest request, final String requestBody,
                                    final ResponseEntity<String> response);
 
+    /**
+     * Computes usage metrics for standard HTTP responses from the request envelope.
+     * <p>
+     * Implementations should override this method to reuse the values already extracted
+     * from the request body. The default implementation delegates to
+     * {@link #getMetrics(ServerHttpRequest, String, ResponseEntity)}.
+     * </p>
+     *
+     * @param envelope the {@link RequestEnvelope} of the proxied request.
+     * @param response the {@link ResponseEntity} containing the HTTP response.
+     * @return a {@link UsageMetrics} object containing the computed metrics.
+     */
+    public default UsageMetrics getMetrics(final RequestEnvelope envelope, final ResponseEntity<String> response)
+    {
+        return getMetrics(envelope.getRequest(), envelope.getRequestBody(), response);
+    }
+
     /**
      * Computes usage metrics for streamed responses (e.g., Server-Sent Events).
      * <p>
@@ -57,4 +75,77 @@ public interface IUsageMetricsSupplier {
     public UsageMetrics getMetrics(final ServerHttpRequest request, final String requestBody,
                                    List<String> responseChunks);
 
+    /**
+     * Computes usage metrics for streamed responses from the request envelope.
+     * <p>
+     * Implementations should override this method to reuse the values already extracted
+     * from the request body. The default implementation delegates to
+     * {@link #getMetrics(ServerHttpRequest, String, List)}.
+     * </p>
+     *
+     * @param envelope       the {@link RequestEnvelope} of the proxied request.
+     * @param responseChunks a {@link List} of {@link String}, where each entry represents a chunk
+     *                       of the streamed response.
+     * @return a {@link UsageMetrics} object containing the computed metrics.
+     */
+    public default UsageMetrics getMetrics(final RequestEnvelope envelope, final List<String> responseChunks)
+    {
+        return getMetrics(envelope.getRequest(), envelope.getRequestBody(), responseChunks);
+    }
+
+    /**
+     * Creates the accumulator computing incrementally the usage metrics of a streamed response.
+     * <p>
+     * The proxy creates one accumulator per stream and feeds it each chunk as it is relayed, instead of
+     * keeping the whole response until its end. The default implementation buffers the chunks and
+     * delegates to {@link #getMetrics(RequestEnvelope, List)} at completion : plugins should override it
+     * with an accumulator folding each chunk into constant-size counters.
+     * </p>
+     * <p>
+     * The accumulator may be created before the service handler handles the request : the envelope attributes
+     * the handler sets are only available from the first chunk of the stream on.
+     * </p>
+     *
+     * @param envelope the {@link RequestEnvelope} of the proxied request.
+     * @return a new {@link IStreamUsageAccumulator} dedicated to the stream.
+     */
+    public default IStreamUsageAccumulator createStreamUsageAccumulator(final RequestEnvelope envelope)
+    {
+        return new BufferingStreamUsageAccumulator(this, envelope);
+    }
+
+    /**
+     * Estimates the number of tokens a request will consume, prompt and maximum completion included.
+     * <p>
+     * The proxy charges this estimate to the service tokens per minute budget before sending the request
+     * upstream, then reconciles it with the actual usage once the reply is complete. The estimate should be
+     * cheap to compute and rather pessimistic. The default implementation returns -1 : the request is not
+     * charged to the budget.
+     * </p>
+     *
+     * @param envelope the {@link RequestEnvelope} of the proxied request.
+     * @return the estimated number of tokens, a negative value if unknown.
+     */
+    public default int estimateRequestTokens(final RequestEnvelope envelope)
+    {
+        return -1;
+    }
+
+    /**
+     * Gives the number of tokens actually consumed by a standard request, prompt and completion included.
+     * <p>
+     * The proxy calls it on its metrics scheduler, right after the usage metrics of the response are computed :
+     * implementations may hand back the total found then rather than parsing the reply again. The default
+     * implementation returns -1 : the estimated charge of the request is kept.
+     * </p>
+     *
+     * @param envelope the {@link RequestEnvelope} of the proxied request.
+     * @param response the {@link ResponseEntity} containing the HTTP response.
+     * @return the consumed number of tokens, a negative value if unknown.
+     */
+    public default int getConsumedTokens(final RequestEnvelope envelope, final ResponseEntity<String> response)
+    {
+        return -1;
+    }
+
 }
@@ -26,6 +26,18 @@ public interface IServiceHandlerRegistry
             final String pluginVersion,
             final ServiceHandlerConfiguration serviceHandlerConfiguration,
             final IServiceHandlerFactory serviceHandlerFactory);
+    
+    
+    /**
+     * Unregisters all service handlers and releases the resources associated with them,
+     * such as the connection pools towards target services.
+     * <p>
+     * This is used when plugins are reloaded so that services no longer provided by a plugin
+     * do not keep stale resources.
+     */
+    public void unregisterAllServiceHandlers();
+    
+    
     /**
      * Retrieves the plugin ID associated with a given service name.
      * 
@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.Map;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -141,12 +142,24 @@ public class ServiceHandlerConfiguration
     public static class ServiceProperties
     {
         
-        private String                      serviceName;
-        private String                      targetServiceBaseUrl;
-        private String                      targetServiceEndPoint;
-        private Map<String, String>         customHeaders;
-        private CircuitBreakerConfiguration circuitBreakerConfiguration;
-        private RateLimiterConfiguration    rateLimiterConfiguration;
+        private String                            serviceName;
+        private String                            targetServiceBaseUrl;
+        private String                            targetServiceEndPoint;
+        private List<UpstreamTargetConfiguration> upstreamTargets;
+        private Map<String, String>               customHeaders;
+        private CircuitBreakerConfiguration       circuitBreakerConfiguration;
+        private RateLimiterConfiguration          rateLimiterConfiguration;
+        private ConnectionPoolConfiguration       connectionPoolConfiguration;
+        private ResponseCacheConfiguration        responseCacheConfiguration;
+        private RequestCoalescingConfiguration    requestCoalescingConfiguration;
+        private ConcurrencyLimitConfiguration     concurrencyLimitConfiguration;
+        private FairSchedulingConfiguration       fairSchedulingConfiguration;
+        private LoadBalancerConfiguration         loadBalancerConfiguration;
+        private HedgingConfiguration              hedgingConfiguration;
+        private RetryConfiguration                retryConfiguration;
+        private StreamFailoverConfiguration       streamFailoverConfiguration;
+        private TimeoutConfiguration              timeoutConfiguration;
+        private Map<String, String>               handlerProperties;
 
 
         /** Default constructor for ServiceProperties. */
@@ -203,6 +216,25 @@ public class ServiceHandlerConfiguration
         }
 
 
+        /**
+         * @return the upstream targets the requests of the service are balanced between, {@code null} or empty
+         *         if the service has the single target {@code targetServiceBaseUrl}.
+         */
+        public List<UpstreamTargetConfiguration> getUpstreamTargets()
+        {
+
+            return upstreamTargets;
+        }
+
+
+        /** @param upstreamTargets the upstream targets of the service to set. */
+        public void setUpstreamTargets(final List<UpstreamTargetConfiguration> upstreamTargets)
+        {
+
+            this.upstreamTargets = upstreamTargets;
+        }
+
+
         /** @return a map of custom headers for the service. */
         public Map<String, String> getCustomHeaders()
         {
@@ -252,6 +284,208 @@ public class ServiceHandlerConfiguration
             this.rateLimiterConfiguration = rateLimiterConfiguration;
         }
 
+
+        /** @return the connection pool configuration, {@code null} if pool defaults apply. */
+        public ConnectionPoolConfiguration getConnectionPoolConfiguration()
+        {
+
+            return connectionPoolConfiguration;
+        }
+
+
+        /** @param connectionPoolConfiguration the connection pool configuration to set. */
+        public void setConnectionPoolConfiguration(final ConnectionPoolConfiguration connectionPoolConfiguration)
+        {
+
+            this.connectionPoolConfiguration = connectionPoolConfiguration;
+        }
+
+
+        /** @return the response cache configuration, {@code null} if responses are not cached. */
+        public ResponseCacheConfiguration getResponseCacheConfiguration()
+        {
+
+            return responseCacheConfiguration;
+        }
+
+
+        /** @param responseCacheConfiguration the response cache configuration to set. */
+        public void setResponseCacheConfiguration(final ResponseCacheConfiguration responseCacheConfiguration)
+        {
+
+            this.responseCacheConfiguration = responseCacheConfiguration;
+        }
+
+
+        /**
+         * @return the coalescing configuration of identical concurrent requests, {@code null} if they are not
+         *         coalesced.
+         */
+        public RequestCoalescingConfiguration getRequestCoalescingConfiguration()
+        {
+
+            return requestCoalescingConfiguration;
+        }
+
+
+        /** @param requestCoalescingConfiguration the request coalescing configuration to set. */
+        public void setRequestCoalescingConfiguration(
+                final RequestCoalescingConfiguration requestCoalescingConfiguration)
+        {
+
+            this.requestCoalescingConfiguration = requestCoalescingConfiguration;
+        }
+
+
+        /**
+         * @return the adaptive concurrency limit configuration, {@code null} if the concurrency of the requests
+         *         to the service is not limited.
+         */
+        public ConcurrencyLimitConfiguration getConcurrencyLimitConfiguration()
+        {
+
+            return concurrencyLimitConfiguration;
+        }
+
+
+        /** @param concurrencyLimitConfiguration the adaptive concurrency limit configuration to set. */
+        public void setConcurrencyLimitConfiguration(
+                final ConcurrencyLimitConfiguration concurrencyLimitConfiguration)
+        {
+
+            this.concurrencyLimitConfiguration = concurrencyLimitConfiguration;
+        }
+
+
+        /**
+         * @return the fair scheduling configuration of the requests of the service callers, {@code null} if
+         *         they are admitted in arrival order.
+         */
+        public FairSchedulingConfiguration getFairSchedulingConfiguration()
+        {
+
+            return fairSchedulingConfiguration;
+        }
+
+
+        /** @param fairSchedulingConfiguration the fair scheduling configuration to set. */
+        public void setFairSchedulingConfiguration(final FairSchedulingConfiguration fairSchedulingConfiguration)
+        {
+
+            this.fairSchedulingConfiguration = fairSchedulingConfiguration;
+        }
+
+
+        /**
+         * @return the load balancing configuration between the upstream targets of the service, {@code null}
+         *         for the defaults.
+         */
+        public LoadBalancerConfiguration getLoadBalancerConfiguration()
+        {
+
+            return loadBalancerConfiguration;
+        }
+
+
+        /** @param loadBalancerConfiguration the load balancing configuration to set. */
+        public void setLoadBalancerConfiguration(final LoadBalancerConfiguration loadBalancerConfiguration)
+        {
+
+            this.loadBalancerConfiguration = loadBalancerConfiguration;
+        }
+
+
+        /**
+         * @return the hedging configuration of the non-streamed requests to the service, {@code null} if they
+         *         are not hedged.
+         */
+        public HedgingConfiguration getHedgingConfiguration()
+        {
+
+            return hedgingConfiguration;
+        }
+
+
+        /** @param hedgingConfiguration the hedging configuration to set. */
+        public void setHedgingConfiguration(final HedgingConfiguration hedgingConfiguration)
+        {
+
+            this.hedgingConfiguration = hedgingConfiguration;
+        }
+
+
+        /**
+         * @return the retry configuration of the requests to the service, {@code null} if they are not retried.
+         */
+        public RetryConfiguration getRetryConfiguration()
+        {
+
+            return retryConfiguration;
+        }
+
+
+        /** @param retryConfiguration the retry configuration to set. */
+        public void setRetryConfiguration(final RetryConfiguration retryConfiguration)
+        {
+
+            this.retryConfiguration = retryConfiguration;
+        }
+
+
+        /**
+         * @return the failover configuration of the streamed requests to the service, {@code null} if they do not
+         *         fail over.
+         */
+        public StreamFailoverConfiguration getStreamFailoverConfiguration()
+        {
+
+            return streamFailoverConfiguration;
+        }
+
+
+        /** @param streamFailoverConfiguration the stream failover configuration to set. */
+        public void setStreamFailoverConfiguration(final StreamFailoverConfiguration streamFailoverConfiguration)
+        {
+
+            this.streamFailoverConfiguration = streamFailoverConfiguration;
+        }
+
+
+        /**
+         * @return the timeouts of the exchanges with the service, {@code null} if the default timeouts apply.
+         */
+        public TimeoutConfiguration getTimeoutConfiguration()
+        {
+
+            return timeoutConfiguration;
+        }
+
+
+        /** @param timeoutConfiguration the timeout configuration to set. */
+        public void setTimeoutConfiguration(final TimeoutConfiguration timeoutConfiguration)
+        {
+
+            this.timeoutConfiguration = timeoutConfiguration;
+        }
+
+
+        /**
+         * @return the free-form properties interpreted by the service handler plugin, {@code null} if none.
+         */
+        public Map<String, String> getHandlerProperties()
+        {
+
+            return handlerProperties;
+        }
+
+
+        /** @param handlerProperties the service handler plugin properties to set. */
+        public void setHandlerProperties(final Map<String, String> handlerProperties)
+        {
+
+            this.handlerProperties = handlerProperties;
+        }
+
         
         /**
          * Converts the service properties into a JSON string representation.
@@ -463,6 +697,22 @@ public class ServiceHandlerConfiguration
          */
         private String limitRefreshPeriod;
 
+        /**
+         * The number of tokens (prompt plus completion) the service may consume per minute, {@code 0} to
+         * disable the token budget. Each request is charged its estimated tokens before being sent upstream
+         * and the charge is reconciled with the actual usage once the reply is complete.
+         */
+        private long    tokensPerMinute    = 0;
+
+        /** {@code true} to apply the tokens per minute budget to each model separately. */
+        private boolean tokenLimitPerModel = false;
+
+        /**
+         * The maximum number of requests waiting for token budget, further requests exceeding the budget are
+         * rejected. Requests never wait longer than {@code timeoutDuration}.
+         */
+        private int     maxQueuedRequests  = 100;
+
         
         /** Default constructor. */
         public RateLimiterConfiguration() {
@@ -553,6 +803,72 @@ public class ServiceHandlerConfiguration
             this.limitRefreshPeriod = limitRefreshPeriod;
         }
 
+
+        /**
+         * @return the tokens per minute budget of the service, {@code 0} if disabled.
+         */
+        public long getTokensPerMinute()
+        {
+
+            return tokensPerMinute;
+        }
+
+
+        /**
+         * Sets the tokens per minute budget of the service.
+         * <p>
+         * Upstream LLM services usually bind on tokens rather than on requests : requests that would exceed
+         * the budget wait for it to refill, or are rejected before being sent upstream instead of coming
+         * back as 429 replies.
+         *
+         * @param tokensPerMinute the tokens per minute budget, {@code 0} to disable it.
+         */
+        public void setTokensPerMinute(final long tokensPerMinute)
+        {
+
+            this.tokensPerMinute = tokensPerMinute;
+        }
+
+
+        /**
+         * @return {@code true} if the tokens per minute budget applies to each model separately.
+         */
+        public boolean isTokenLimitPerModel()
+        {
+
+            return tokenLimitPerModel;
+        }
+
+
+        /**
+         * @param tokenLimitPerModel {@code true} to apply the tokens per minute budget to each model separately.
+         */
+        public void setTokenLimitPerModel(final boolean tokenLimitPerModel)
+        {
+
+            this.tokenLimitPerModel = tokenLimitPerModel;
+        }
+
+
+        /**
+         * @return the maximum number of requests waiting for token budget.
+         */
+        public int getMaxQueuedRequests()
+        {
+
+            return maxQueuedRequests;
+        }
+
+
+        /**
+         * @param maxQueuedRequests the maximum number of requests waiting for token budget.
+         */
+        public void setMaxQueuedRequests(final int maxQueuedRequests)
+        {
+
+            this.maxQueuedRequests = maxQueuedRequests;
+        }
+
         
         /**
          * Converts the rate limiter configuration into a JSON string representation.
@@ -575,4 +891,1799 @@ public class ServiceHandlerConfiguration
     }
 
 
+    /**
+     * Configuration class for the connection pool backing the long-lived WebClient of a service,
+     * used to define its sizing and eviction behavior based on Reactor Netty's {@code ConnectionProvider}.
+     * <p>
+     * Each registered service owns a dedicated pool so that connections to the target service are reused
+     * across requests and can be sized for the expected peak concurrency. Durations are expressed in
+     * ISO-8601 format (e.g., "PT30S") as they are parsed with {@link java.time.Duration#parse(CharSequence)}.
+     */
+    public static class ConnectionPoolConfiguration
+    {
+        /** The maximum number of connections opened by the pool towards the target service. */
+        private int     maxConnections         = 500;
+        /** The maximum number of requests allowed to wait for a connection when the pool is exhausted. */
+        private int     pendingAcquireMaxCount = 1000;
+        /** The maximum time (e.g., "PT45S") a request waits for a connection before failing. */
+        private String  pendingAcquireTimeout  = "PT45S";
+        /** The time (e.g., "PT30S") after which an idle connection is closed. */
+        private String  maxIdleTime            = "PT30S";
+        /** The maximum lifetime (e.g., "PT5M") of a connection, whatever its activity. */
+        private String  maxLifeTime            = "PT5M";
+        /** The interval (e.g., "PT30S") at which idle and expired connections are evicted in background. */
+        private String  evictInBackground      = "PT30S";
+        /** Whether HTTP keep-alive and TCP keep-alive are enabled on pooled connections. */
+        private boolean keepAlive              = true;
+        /** Whether pool occupancy and acquire latency are published to the metrics registry. */
+        private boolean metricsEnabled         = true;
+
+
+        /** Default constructor. */
+        public ConnectionPoolConfiguration() {
+
+        }
+
+
+        /**
+         * Gets the maximum number of connections of the pool.
+         * 
+         * @return the maximum number of connections.
+         */
+        public int getMaxConnections()
+        {
+
+            return maxConnections;
+        }
+
+
+        /**
+         * Sets the maximum number of connections of the pool.
+         * <p>
+         * This bounds the number of concurrent exchanges with the target service. Requests exceeding
+         * this number wait for a connection to be released, up to {@code pendingAcquireMaxCount} requests.
+         * 
+         * @param maxConnections the maximum number of connections to set.
+         */
+        public void setMaxConnections(final int maxConnections)
+        {
+
+            this.maxConnections = maxConnections;
+        }
+
+
+        /**
+         * Gets the maximum number of requests waiting for a connection.
+         * 
+         * @return the pending acquire queue size.
+         */
+        public int getPendingAcquireMaxCount()
+        {
+
+            return pendingAcquireMaxCount;
+        }
+
+
+        /**
+         * Sets the maximum number of requests waiting for a connection.
+         * <p>
+         * Once this queue is full, further requests fail immediately instead of waiting.
+         * 
+         * @param pendingAcquireMaxCount the pending acquire queue size to set.
+         */
+        public void setPendingAcquireMaxCount(final int pendingAcquireMaxCount)
+        {
+
+            this.pendingAcquireMaxCount = pendingAcquireMaxCount;
+        }
+
+
+        /**
+         * Gets the maximum time a request waits for a connection.
+         * 
+         * @return the pending acquire timeout as a string (e.g., "PT45S").
+         */
+        public String getPendingAcquireTimeout()
+        {
+
+            return pendingAcquireTimeout;
+        }
+
+
+        /** @param pendingAcquireTimeout the pending acquire timeout to set (e.g., "PT45S"). */
+        public void setPendingAcquireTimeout(final String pendingAcquireTimeout)
+        {
+
+            this.pendingAcquireTimeout = pendingAcquireTimeout;
+        }
+
+
+        /**
+         * Gets the time after which an idle connection is closed.
+         * 
+         * @return the max idle time as a string (e.g., "PT30S").
+         */
+        public String getMaxIdleTime()
+        {
+
+            return maxIdleTime;
+        }
+
+
+        /**
+         * Sets the time after which an idle connection is closed.
+         * <p>
+         * It should be lower than the idle timeout of the target service so the pool never hands out
+         * a connection the server side has already closed.
+         * 
+         * @param maxIdleTime the max idle time to set (e.g., "PT30S").
+         */
+        public void setMaxIdleTime(final String maxIdleTime)
+        {
+
+            this.maxIdleTime = maxIdleTime;
+        }
+
+
+        /**
+         * Gets the maximum lifetime of a connection.
+         * 
+         * @return the max life time as a string (e.g., "PT5M").
+         */
+        public String getMaxLifeTime()
+        {
+
+            return maxLifeTime;
+        }
+
+
+        /**
+         * Sets the maximum lifetime of a connection.
+         * <p>
+         * Bounding the lifetime lets the pool follow DNS changes of the target service.
+         * 
+         * @param maxLifeTime the max life time to set (e.g., "PT5M").
+         */
+        public void setMaxLifeTime(final String maxLifeTime)
+        {
+
+            this.maxLifeTime = maxLifeTime;
+        }
+
+
+        /**
+         * Gets the interval of the background eviction of idle and expired connections.
+         * 
+         * @return the eviction interval as a string (e.g., "PT30S").
+         */
+        public String getEvictInBackground()
+        {
+
+            return evictInBackground;
+        }
+
+
+        /** @param evictInBackground the eviction interval to set (e.g., "PT30S"). */
+        public void setEvictInBackground(final String evictInBackground)
+        {
+
+            this.evictInBackground = evictInBackground;
+        }
+
+
+        /** @return {@code true} if keep-alive is enabled on pooled connections. */
+        public boolean isKeepAlive()
+        {
+
+            return keepAlive;
+        }
+
+
+        /** @param keepAlive whether keep-alive is enabled on pooled connections. */
+        public void setKeepAlive(final boolean keepAlive)
+        {
+
+            this.keepAlive = keepAlive;
+        }
+
+
+        /** @return {@code true} if pool metrics are published. */
+        public boolean isMetricsEnabled()
+        {
+
+            return metricsEnabled;
+        }
+
+
+        /** @param metricsEnabled whether pool metrics are published. */
+        public void setMetricsEnabled(final boolean metricsEnabled)
+        {
+
+            this.metricsEnabled = metricsEnabled;
+        }
+
+
+        /**
+         * Converts the connection pool configuration into a JSON string representation.
+         * 
+         * @return a JSON string representing this configuration.
+         * @throws RuntimeException if an error occurs during serialization.
+         */
+        public String toJson()
+        {
+
+            try {
+                ObjectMapper objectMapper = new ObjectMapper();
+                return objectMapper.writeValueAsString(this);
+            }
+            catch (JsonProcessingException e) {
+                throw new RuntimeException("Error converting ConnectionPoolConfiguration to JSON", e);
+            }
+        }
+
+    }
+
+
+    /**
+     * Configuration class for the opt-in cache of the standard (non streamed) responses of a service.
+     * <p>
+     * Only requests the service handler declares cacheable (e.g., deterministic completions) are cached,
+     * keyed by a hash of their canonicalized body and of the {@code keyHeaders} values. The cache is bounded
+     * both in entries and in bytes, entries expire {@code timeToLive} after being stored and the least
+     * frequently used ones are evicted first (Caffeine W-TinyLFU). The duration is expressed in ISO-8601 format
+     * (e.g., "PT10M").
+     */
+    public static class ResponseCacheConfiguration
+    {
+        /** Whether the responses of the service are cached. */
+        private boolean      enabled    = false;
+        /** The maximum number of cached responses. */
+        private int          maxEntries = 10000;
+        /** The maximum size in bytes of the cached responses. */
+        private long         maxBytes   = 64L * 1024 * 1024;
+        /** The time (e.g., "PT10M") a response is served from the cache after being stored. */
+        private String       timeToLive = "PT10M";
+        /** The request headers whose values are part of the cache key (e.g., a tenant or organization header). */
+        private List<String> keyHeaders = List.of();
+
+
+        /** Default constructor. */
+        public ResponseCacheConfiguration() {
+
+        }
+
+
+        /** @return {@code true} if the responses of the service are cached. */
+        public boolean isEnabled()
+        {
+
+            return enabled;
+        }
+
+
+        /** @param enabled whether the responses of the service are cached. */
+        public void setEnabled(final boolean enabled)
+        {
+
+            this.enabled = enabled;
+        }
+
+
+        /** @return the maximum number of cached responses. */
+        public int getMaxEntries()
+        {
+
+            return maxEntries;
+        }
+
+
+        /** @param maxEntries the maximum number of cached responses to set. */
+        public void setMaxEntries(final int maxEntries)
+        {
+
+            this.maxEntries = maxEntries;
+        }
+
+
+        /** @return the maximum size in bytes of the cached responses. */
+        public long getMaxBytes()
+        {
+
+            return maxBytes;
+        }
+
+
+        /** @param maxBytes the maximum size in bytes of the cached responses to set. */
+        public void setMaxBytes(final long maxBytes)
+        {
+
+            this.maxBytes = maxBytes;
+        }
+
+
+        /** @return the time to live of a cached response as a string (e.g., "PT10M"). */
+        public String getTimeToLive()
+        {
+
+            return timeToLive;
+        }
+
+
+        /** @param timeToLive the time to live of a cached response to set (e.g., "PT10M"). */
+        public void setTimeToLive(final String timeToLive)
+        {
+
+            this.timeToLive = timeToLive;
+        }
+
+
+        /** @return the names of the request headers whose values are part of the cache key. */
+        public List<String> getKeyHeaders()
+        {
+
+            return keyHeaders;
+        }
+
+
+        /**
+         * Sets the request headers whose values are part of the cache key.
+         * <p>
+         * Requests differing only by these headers values get distinct cache entries. Headers not listed are
+         * ignored, so that volatile ones (e.g., tracing) do not defeat the cache.
+         *
+         * @param keyHeaders the header names to set.
+         */
+        public void setKeyHeaders(final List<String> keyHeaders)
+        {
+
+            this.keyHeaders = keyHeaders;
+        }
+
+
+        /**
+         * Converts the response cache configuration into a JSON string representation.
+         * 
+         * @return a JSON string representing this configuration.
+         * @throws RuntimeException if an error occurs during serialization.
+         */
+        public String toJson()
+        {
+
+            try {
+                ObjectMapper objectMapper = new ObjectMapper();
+                return objectMapper.writeValueAsString(this);
+            }
+            catch (JsonProcessingException e) {
+                throw new RuntimeException("Error converting ResponseCacheConfiguration to JSON", e);
+            }
+        }
+
+    }
+
+
+    /**
+     * Configuration class for the opt-in coalescing of identical concurrent requests of a service.
+     * <p>
+     * Requests identical to one already in flight (same hash of the canonicalized body and of the
+     * {@code keyHeaders} values) do not reach the target service : they wait for the response of the in-flight
+     * request, the leader, and share it. Streamed replies are multicast : a request joining a stream in flight
+     * first receives the events already relayed, as long as there are no more than {@code maxReplayChunks}.
+     * Each caller still gets its own technical metrics; usage metrics are attributed according to the
+     * {@link UsagePolicy}.
+     */
+    public static class RequestCoalescingConfiguration
+    {
+
+        /** How the usage of a response shared by coalesced requests is attributed. */
+        public enum UsagePolicy
+        {
+            /** Every caller is charged the usage of the response, as if its request reached the service. */
+            CHARGE_EACH,
+            /** Only the leader is charged : the other callers get empty usage metrics. */
+            CHARGE_LEADER
+        }
+
+        /** Whether identical concurrent requests are coalesced. */
+        private boolean      enabled           = false;
+        /** Whether only the requests the service handler declares deterministic are coalesced. */
+        private boolean      deterministicOnly = true;
+        /** How the usage of a shared response is attributed. */
+        private UsagePolicy  usagePolicy       = UsagePolicy.CHARGE_EACH;
+        /** The request headers whose values are part of the coalescing key. */
+        private List<String> keyHeaders        = List.of();
+        /** The number of events of a stream in flight replayed to the requests joining it. */
+        private int          maxReplayChunks   = 1024;
+
+
+        /** Default constructor. */
+        public RequestCoalescingConfiguration() {
+
+        }
+
+
+        /** @return {@code true} if identical concurrent requests are coalesced. */
+        public boolean isEnabled()
+        {
+
+            return enabled;
+        }
+
+
+        /** @param enabled whether identical concurrent requests are coalesced. */
+        public void setEnabled(final boolean enabled)
+        {
+
+            this.enabled = enabled;
+        }
+
+
+        /**
+         * @return {@code true} if only the requests the service handler declares deterministic are coalesced.
+         */
+        public boolean isDeterministicOnly()
+        {
+
+            return deterministicOnly;
+        }
+
+
+        /**
+         * Sets whether only deterministic requests are coalesced.
+         * <p>
+         * When {@code false}, callers of identical sampled completions (e.g., non zero temperature) share a
+         * single sample instead of getting one each.
+         *
+         * @param deterministicOnly whether only deterministic requests are coalesced.
+         */
+        public void setDeterministicOnly(final boolean deterministicOnly)
+        {
+
+            this.deterministicOnly = deterministicOnly;
+        }
+
+
+        /** @return the usage attribution policy of shared responses. */
+        public UsagePolicy getUsagePolicy()
+        {
+
+            return usagePolicy;
+        }
+
+
+        /** @param usagePolicy the usage attribution policy of shared responses to set. */
+        public void setUsagePolicy(final UsagePolicy usagePolicy)
+        {
+
+            this.usagePolicy = usagePolicy;
+        }
+
+
+        /** @return the names of the request headers whose values are part of the coalescing key. */
+        public List<String> getKeyHeaders()
+        {
+
+            return keyHeaders;
+        }
+
+
+        /** @param keyHeaders the names of the request headers whose values are part of the coalescing key. */
+        public void setKeyHeaders(final List<String> keyHeaders)
+        {
+
+            this.keyHeaders = keyHeaders;
+        }
+
+
+        /** @return the number of events of a stream in flight replayed to the requests joining it. */
+        public int getMaxReplayChunks()
+        {
+
+            return maxReplayChunks;
+        }
+
+
+        /**
+         * Sets the number of events of a stream in flight replayed to the requests joining it.
+         * <p>
+         * Once a stream has relayed more events, identical requests no longer join it and open their own
+         * stream : a joining request always receives the whole stream.
+         *
+         * @param maxReplayChunks the replay buffer size to set, in events.
+         */
+        public void setMaxReplayChunks(final int maxReplayChunks)
+        {
+
+            this.maxReplayChunks = maxReplayChunks;
+        }
+
+
+        /**
+         * Converts the request coalescing configuration into a JSON string representation.
+         * 
+         * @return a JSON string representing this configuration.
+         * @throws RuntimeException if an error occurs during serialization.
+         */
+        public String toJson()
+        {
+
+            try {
+                ObjectMapper objectMapper = new ObjectMapper();
+                return objectMapper.writeValueAsString(this);
+            }
+            catch (JsonProcessingException e) {
+                throw new RuntimeException("Error converting RequestCoalescingConfiguration to JSON", e);
+            }
+        }
+
+    }
+
+
+    /**
+     * Configuration class for the opt-in adaptive limit of the concurrent requests to a service.
+     * <p>
+     * Instead of a hand-tuned static rate, the limit of the requests in flight follows the observed upstream
+     * latency (gradient algorithm) : while the latency of recent requests stays close to its long term average,
+     * the limit grows; when the upstream queues requests and their latency inflates beyond {@code tolerance}
+     * times the average, or when requests fail, the limit shrinks. Requests beyond the limit are rejected
+     * without reaching the target service.
+     * <p>
+     * The latency of a streamed reply is the time to its first event; its request stays in flight until the
+     * stream ends.
+     */
+    public static class ConcurrencyLimitConfiguration
+    {
+
+        /** Whether the concurrency of the requests to the service is limited. */
+        private boolean enabled      = false;
+        /** The limit of the requests in flight before any latency is observed. */
+        private int     initialLimit = 20;
+        /** The lowest limit the requests in flight may be reduced to. */
+        private int     minLimit     = 1;
+        /** The highest limit the requests in flight may be raised to. */
+        private int     maxLimit     = 200;
+        /** The ratio of latency inflation over its long term average tolerated before the limit shrinks. */
+        private double  tolerance    = 1.5;
+        /** The ratio the limit is multiplied by when a request fails (timeout, 429 or 5xx reply). */
+        private double  backoffRatio = 0.9;
+        /** The weight of each new limit estimate in the current limit, in ]0, 1]. */
+        private double  smoothing    = 0.2;
+        /** The number of requests the long term average latency is computed over. */
+        private int     longWindow   = 600;
+
+
+        /** Default constructor. */
+        public ConcurrencyLimitConfiguration() {
+
+        }
+
+
+        /** @return {@code true} if the concurrency of the requests to the service is limited. */
+        public boolean isEnabled()
+        {
+
+            return enabled;
+        }
+
+
+        /** @param enabled whether the concurrency of the requests to the service is limited. */
+        public void setEnabled(final boolean enabled)
+        {
+
+            this.enabled = enabled;
+        }
+
+
+        /** @return the limit of the requests in flight before any latency is observed. */
+        public int getInitialLimit()
+        {
+
+            return initialLimit;
+        }
+
+
+        /** @param initialLimit the limit of the requests in flight before any latency is observed. */
+        public void setInitialLimit(final int initialLimit)
+        {
+
+            this.initialLimit = initialLimit;
+        }
+
+
+        /** @return the lowest limit of the requests in flight. */
+        public int getMinLimit()
+        {
+
+            return minLimit;
+        }
+
+
+        /** @param minLimit the lowest limit of the requests in flight. */
+        public void setMinLimit(final int minLimit)
+        {
+
+            this.minLimit = minLimit;
+        }
+
+
+        /** @return the highest limit of the requests in flight. */
+        public int getMaxLimit()
+        {
+
+            return maxLimit;
+        }
+
+
+        /** @param maxLimit the highest limit of the requests in flight. */
+        public void setMaxLimit(final int maxLimit)
+        {
+
+            this.maxLimit = maxLimit;
+        }
+
+
+        /** @return the ratio of latency inflation tolerated before the limit shrinks. */
+        public double getTolerance()
+        {
+
+            return tolerance;
+        }
+
+
+        /**
+         * Sets the ratio of latency inflation tolerated before the limit shrinks.
+         * <p>
+         * LLM latencies vary with the prompt and reply lengths : a tolerance well above 1 keeps that variance
+         * from being mistaken for upstream queuing.
+         *
+         * @param tolerance the tolerated latency inflation ratio, at least 1.
+         */
+        public void setTolerance(final double tolerance)
+        {
+
+            this.tolerance = tolerance;
+        }
+
+
+        /** @return the ratio the limit is multiplied by when a request fails. */
+        public double getBackoffRatio()
+        {
+
+            return backoffRatio;
+        }
+
+
+        /** @param backoffRatio the ratio the limit is multiplied by when a request fails, in ]0, 1[. */
+        public void setBackoffRatio(final double backoffRatio)
+        {
+
+            this.backoffRatio = backoffRatio;
+        }
+
+
+        /** @return the weight of each new limit estimate in the current limit. */
+        public double getSmoothing()
+        {
+
+            return smoothing;
+        }
+
+
+        /** @param smoothing the weight of each new limit estimate in the current limit, in ]0, 1]. */
+        public void setSmoothing(final double smoothing)
+        {
+
+            this.smoothing = smoothing;
+        }
+
+
+        /** @return the number of requests the long term average latency is computed over. */
+        public int getLongWindow()
+        {
+
+            return longWindow;
+        }
+
+
+        /** @param longWindow the number of requests the long term average latency is computed over. */
+        public void setLongWindow(final int longWindow)
+        {
+
+            this.longWindow = longWindow;
+        }
+
+
+        /**
+         * Converts the concurrency limit configuration into a JSON string representation.
+         * 
+         * @return a JSON string representing this configuration.
+         * @throws RuntimeException if an error occurs during serialization.
+         */
+        public String toJson()
+        {
+
+            try {
+                ObjectMapper objectMapper = new ObjectMapper();
+                return objectMapper.writeValueAsString(this);
+            }
+            catch (JsonProcessingException e) {
+                throw new RuntimeException("Error converting ConcurrencyLimitConfiguration to JSON", e);
+            }
+        }
+
+    }
+
+
+    /**
+     * Configuration class for the opt-in weighted fair admission of the requests of the callers of a service,
+     * identified by their {@code X-GMKP-XSP-Service-Ref} header.
+     * <p>
+     * At most {@code maxConcurrency} requests of the service are sent upstream at once. Beyond, requests wait in
+     * a queue and are admitted, as requests in flight complete, in weighted fair order : each caller gets a
+     * share of the admissions proportional to its {@link TenantPolicy} weight, whatever the rate it sends
+     * requests at. Callers below their guaranteed minimum of requests in flight are admitted first, and a caller
+     * never has more than its maximum in flight. Requests waiting longer than {@code maxQueueWait}, or beyond
+     * {@code maxQueuedRequests} waiting ones, are rejected.
+     */
+    public static class FairSchedulingConfiguration
+    {
+
+        /** Whether the requests of the service are admitted in weighted fair order. */
+        private boolean                   enabled             = false;
+        /** The maximum number of requests of the service in flight upstream. */
+        private int                       maxConcurrency      = 100;
+        /** The maximum number of requests waiting for admission. */
+        private int                       maxQueuedRequests   = 1000;
+        /** The maximum time a request waits for admission, in ISO-8601 format. */
+        private String                    maxQueueWait        = "PT30S";
+        /** The policy of the callers without a policy of their own. */
+        private TenantPolicy              defaultTenantPolicy = new TenantPolicy();
+        /** The policies of specific callers, by serviceRef. */
+        private Map<String, TenantPolicy> tenantPolicies      = Map.of();
+
+
+        /** Default constructor. */
+        public FairSchedulingConfiguration() {
+
+        }
+
+
+        /** @return {@code true} if the requests of the service are admitted in weighted fair order. */
+        public boolean isEnabled()
+        {
+
+            return enabled;
+        }
+
+
+        /** @param enabled whether the requests of the service are admitted in weighted fair order. */
+        public void setEnabled(final boolean enabled)
+        {
+
+            this.enabled = enabled;
+        }
+
+
+        /** @return the maximum number of requests of the service in flight upstream. */
+        public int getMaxConcurrency()
+        {
+
+            return maxConcurrency;
+        }
+
+
+        /** @param maxConcurrency the maximum number of requests of the service in flight upstream. */
+        public void setMaxConcurrency(final int maxConcurrency)
+        {
+
+            this.maxConcurrency = maxConcurrency;
+        }
+
+
+        /** @return the maximum number of requests waiting for admission. */
+        public int getMaxQueuedRequests()
+        {
+
+            return maxQueuedRequests;
+        }
+
+
+        /** @param maxQueuedRequests the maximum number of requests waiting for admission. */
+        public void setMaxQueuedRequests(final int maxQueuedRequests)
+        {
+
+            this.maxQueuedRequests = maxQueuedRequests;
+        }
+
+
+        /** @return the maximum time a request waits for admission, in ISO-8601 format (e.g., "PT30S"). */
+        public String getMaxQueueWait()
+        {
+
+            return maxQueueWait;
+        }
+
+
+        /** @param maxQueueWait the maximum time a request waits for admission, in ISO-8601 format. */
+        public void setMaxQueueWait(final String maxQueueWait)
+        {
+
+            this.maxQueueWait = maxQueueWait;
+        }
+
+
+        /** @return the policy of the callers without a policy of their own. */
+        public TenantPolicy getDefaultTenantPolicy()
+        {
+
+            return defaultTenantPolicy;
+        }
+
+
+        /** @param defaultTenantPolicy the policy of the callers without a policy of their own. */
+        public void setDefaultTenantPolicy(final TenantPolicy defaultTenantPolicy)
+        {
+
+            this.defaultTenantPolicy = defaultTenantPolicy;
+        }
+
+
+        /** @return the policies of specific callers, by serviceRef. */
+        public Map<String, TenantPolicy> getTenantPolicies()
+        {
+
+            return tenantPolicies;
+        }
+
+
+        /** @param tenantPolicies the policies of specific callers, by serviceRef. */
+        public void setTenantPolicies(final Map<String, TenantPolicy> tenantPolicies)
+        {
+
+            this.tenantPolicies = tenantPolicies;
+        }
+
+
+        /**
+         * Converts the fair scheduling configuration into a JSON string representation.
+         * 
+         * @return a JSON string representing this configuration.
+         * @throws RuntimeException if an error occurs during serialization.
+         */
+        public String toJson()
+        {
+
+            try {
+                ObjectMapper objectMapper = new ObjectMapper();
+                return objectMapper.writeValueAsString(this);
+            }
+            catch (JsonProcessingException e) {
+                throw new RuntimeException("Error converting FairSchedulingConfiguration to JSON", e);
+            }
+        }
+
+
+        /**
+         * Admission policy of a caller of the service.
+         */
+        public static class TenantPolicy
+        {
+
+            /** The share of the admissions of the caller relative to the other callers. */
+            private int weight      = 1;
+            /** The number of requests in flight the caller is admitted first below. */
+            private int minInFlight = 0;
+            /** The maximum number of requests of the caller in flight, {@code 0} for no maximum. */
+            private int maxInFlight = 0;
+
+
+            /** Default constructor. */
+            public TenantPolicy() {
+
+            }
+
+
+            /** @return the share of the admissions of the caller relative to the other callers. */
+            public int getWeight()
+            {
+
+                return weight;
+            }
+
+
+            /** @param weight the share of the admissions of the caller relative to the other callers. */
+            public void setWeight(final int weight)
+            {
+
+                this.weight = weight;
+            }
+
+
+            /** @return the number of requests in flight guaranteed to the caller. */
+            public int getMinInFlight()
+            {
+
+                return minInFlight;
+            }
+
+
+            /**
+             * Sets the number of requests in flight guaranteed to the caller : while below, its requests are
+             * admitted before the requests of the other callers.
+             *
+             * @param minInFlight the number of requests in flight guaranteed to the caller.
+             */
+            public void setMinInFlight(final int minInFlight)
+            {
+
+                this.minInFlight = minInFlight;
+            }
+
+
+            /** @return the maximum number of requests of the caller in flight, {@code 0} for no maximum. */
+            public int getMaxInFlight()
+            {
+
+                return maxInFlight;
+            }
+
+
+            /** @param maxInFlight the maximum number of requests of the caller in flight, {@code 0} for none. */
+            public void setMaxInFlight(final int maxInFlight)
+            {
+
+                this.maxInFlight = maxInFlight;
+            }
+        }
+
+    }
+
+
+    /**
+     * Configuration class for one of the upstream targets a service is balanced between, for example a
+     * deployment of the service in a region, or a replica of a self-hosted model server.
+     * <p>
+     * The requests of the service built for {@code targetServiceBaseUrl} are sent to the target base URL
+     * instead. Each target has its own connection pool, sized from the service {@link ConnectionPoolConfiguration},
+     * and its own circuit breaker, configured from the service {@link CircuitBreakerConfiguration}.
+     */
+    public static class UpstreamTargetConfiguration
+    {
+
+        /** The name of the target, unique within the service. */
+        private String              name;
+        /** The base URL of the target. */
+        private String              baseUrl;
+        /** The share of the requests of the target relative to the other targets. */
+        private int                 weight = 1;
+        /** The headers sent to the target on top of the service custom headers, {@code null} if none. */
+        private Map<String, String> customHeaders;
+
+
+        /** Default constructor. */
+        public UpstreamTargetConfiguration() {
+
+        }
+
+
+        /** @return the name of the target, unique within the service. */
+        public String getName()
+        {
+
+            return name;
+        }
+
+
+        /** @param name the name of the target, unique within the service. */
+        public void setName(final String name)
+        {
+
+            this.name = name;
+        }
+
+
+        /** @return the base URL of the target. */
+        public String getBaseUrl()
+        {
+
+            return baseUrl;
+        }
+
+
+        /** @param baseUrl the base URL of the target. */
+        public void setBaseUrl(final String baseUrl)
+        {
+
+            this.baseUrl = baseUrl;
+        }
+
+
+        /** @return the share of the requests of the target relative to the other targets. */
+        public int getWeight()
+        {
+
+            return weight;
+        }
+
+
+        /** @param weight the share of the requests of the target relative to the other targets. */
+        public void setWeight(final int weight)
+        {
+
+            this.weight = weight;
+        }
+
+
+        /**
+         * @return the headers sent to the target on top of, or instead of, the service custom headers (for
+         *         example the API key of a regional deployment), {@code null} if none.
+         */
+        public Map<String, String> getCustomHeaders()
+        {
+
+            return customHeaders;
+        }
+
+
+        /** @param customHeaders the headers sent to the target. */
+        public void setCustomHeaders(final Map<String, String> customHeaders)
+        {
+
+            this.customHeaders = customHeaders;
+        }
+    }
+
+
+    /**
+     * Configuration class for the balancing of the requests of a service between its upstream targets.
+     * <p>
+     * Each request goes to the better of two targets picked at random, the one with the lower cost : its
+     * requests in flight times its decayed latency average, divided by its weight. Targets failing
+     * {@code consecutiveFailures} times in a row (transport errors, 429 or 5xx replies) are ejected for
+     * {@code baseEjectionTime}, longer on each new ejection up to {@code maxEjectionTime}. At most
+     * {@code maxEjectionPercent} of the targets are ejected at once.
+     */
+    public static class LoadBalancerConfiguration
+    {
+
+        /** The time over which past latencies lose most of their weight, in ISO-8601 format. */
+        private String decayTime           = "PT10S";
+        /** The number of consecutive failures a target is ejected after, {@code 0} to never eject. */
+        private int    consecutiveFailures = 5;
+        /** The duration of the first ejection of a target, in ISO-8601 format. */
+        private String baseEjectionTime    = "PT30S";
+        /** The maximum duration of an ejection, in ISO-8601 format. */
+        private String maxEjectionTime     = "PT5M";
+        /** The maximum percentage of the targets ejected at once. */
+        private int    maxEjectionPercent  = 50;
+
+
+        /** Default constructor. */
+        public LoadBalancerConfiguration() {
+
+        }
+
+
+        /** @return the time over which past latencies lose most of their weight, in ISO-8601 format. */
+        public String getDecayTime()
+        {
+
+            return decayTime;
+        }
+
+
+        /** @param decayTime the time over which past latencies lose most of their weight, in ISO-8601 format. */
+        public void setDecayTime(final String decayTime)
+        {
+
+            this.decayTime = decayTime;
+        }
+
+
+        /** @return the number of consecutive failures a target is ejected after, {@code 0} to never eject. */
+        public int getConsecutiveFailures()
+        {
+
+            return consecutiveFailures;
+        }
+
+
+        /** @param consecutiveFailures the number of consecutive failures a target is ejected after. */
+        public void setConsecutiveFailures(final int consecutiveFailures)
+        {
+
+            this.consecutiveFailures = consecutiveFailures;
+        }
+
+
+        /** @return the duration of the first ejection of a target, in ISO-8601 format (e.g., "PT30S"). */
+        public String getBaseEjectionTime()
+        {
+
+            return baseEjectionTime;
+        }
+
+
+        /** @param baseEjectionTime the duration of the first ejection of a target, in ISO-8601 format. */
+        public void setBaseEjectionTime(final String baseEjectionTime)
+        {
+
+            this.baseEjectionTime = baseEjectionTime;
+        }
+
+
+        /** @return the maximum duration of an ejection, in ISO-8601 format (e.g., "PT5M"). */
+        public String getMaxEjectionTime()
+        {
+
+            return maxEjectionTime;
+        }
+
+
+        /** @param maxEjectionTime the maximum duration of an ejection, in ISO-8601 format. */
+        public void setMaxEjectionTime(final String maxEjectionTime)
+        {
+
+            this.maxEjectionTime = maxEjectionTime;
+        }
+
+
+        /** @return the maximum percentage of the targets ejected at once. */
+        public int getMaxEjectionPercent()
+        {
+
+            return maxEjectionPercent;
+        }
+
+
+        /** @param maxEjectionPercent the maximum percentage of the targets ejected at once. */
+        public void setMaxEjectionPercent(final int maxEjectionPercent)
+        {
+
+            this.maxEjectionPercent = maxEjectionPercent;
+        }
+
+
+        /**
+         * Converts the load balancer configuration into a JSON string representation.
+         * 
+         * @return a JSON string representing this configuration.
+         * @throws RuntimeException if an error occurs during serialization.
+         */
+        public String toJson()
+        {
+
+            try {
+                ObjectMapper objectMapper = new ObjectMapper();
+                return objectMapper.writeValueAsString(this);
+            }
+            catch (JsonProcessingException e) {
+                throw new RuntimeException("Error converting LoadBalancerConfiguration to JSON", e);
+            }
+        }
+    }
+
+
+    /**
+     * Configuration class for the opt-in hedging of the non-streamed requests to a service, cutting the tail of
+     * their latency.
+     * <p>
+     * When the target service has not replied to a request within the {@code percentile} of the latency of its
+     * recent replies, a second attempt of the request is sent, to another upstream target if the service has
+     * some and {@code alternateTarget} is set. The first reply wins and the other attempt is cancelled : only
+     * the winning reply is relayed and charged. Hedged attempts are limited to {@code budgetPercent} of the
+     * requests, so that a slow target service is not overloaded further.
+     */
+    public static class HedgingConfiguration
+    {
+
+        /** Whether the non-streamed requests to the service are hedged. */
+        private boolean enabled         = false;
+        /** The percentile of the recent reply latencies after which a request is hedged, in ]0, 100[. */
+        private double  percentile      = 95.0;
+        /** The shortest delay before a request is hedged, in ISO-8601 format. */
+        private String  minDelay        = "PT0.05S";
+        /** The number of recent replies the latency percentile is computed over. */
+        private int     windowSize      = 1000;
+        /** The number of replies observed before requests are hedged. */
+        private int     minSamples      = 100;
+        /** The maximum extra load of the hedged attempts, in percentage of the requests. */
+        private double  budgetPercent   = 5.0;
+        /** Whether the hedged attempt is sent to another upstream target than the first attempt. */
+        private boolean alternateTarget = true;
+
+
+        /** Default constructor. */
+        public HedgingConfiguration() {
+
+        }
+
+
+        /** @return {@code true} if the non-streamed requests to the service are hedged. */
+        public boolean isEnabled()
+        {
+
+            return enabled;
+        }
+
+
+        /** @param enabled whether the non-streamed requests to the service are hedged. */
+        public void setEnabled(final boolean enabled)
+        {
+
+            this.enabled = enabled;
+        }
+
+
+        /** @return the percentile of the recent reply latencies after which a request is hedged. */
+        public double getPercentile()
+        {
+
+            return percentile;
+        }
+
+
+        /** @param percentile the percentile of the recent reply latencies after which a request is hedged. */
+        public void setPercentile(final double percentile)
+        {
+
+            this.percentile = percentile;
+        }
+
+
+        /** @return the shortest delay before a request is hedged, in ISO-8601 format (e.g., "PT0.05S"). */
+        public String getMinDelay()
+        {
+
+            return minDelay;
+        }
+
+
+        /** @param minDelay the shortest delay before a request is hedged, in ISO-8601 format. */
+        public void setMinDelay(final String minDelay)
+        {
+
+            this.minDelay = minDelay;
+        }
+
+
+        /** @return the number of recent replies the latency percentile is computed over. */
+        public int getWindowSize()
+        {
+
+            return windowSize;
+        }
+
+
+        /** @param windowSize the number of recent replies the latency percentile is computed over. */
+        public void setWindowSize(final int windowSize)
+        {
+
+            this.windowSize = windowSize;
+        }
+
+
+        /** @return the number of replies observed before requests are hedged. */
+        public int getMinSamples()
+        {
+
+            return minSamples;
+        }
+
+
+        /** @param minSamples the number of replies observed before requests are hedged. */
+        public void setMinSamples(final int minSamples)
+        {
+
+            this.minSamples = minSamples;
+        }
+
+
+        /** @return the maximum extra load of the hedged attempts, in percentage of the requests. */
+        public double getBudgetPercent()
+        {
+
+            return budgetPercent;
+        }
+
+
+        /** @param budgetPercent the maximum extra load of the hedged attempts, in percentage of the requests. */
+        public void setBudgetPercent(final double budgetPercent)
+        {
+
+            this.budgetPercent = budgetPercent;
+        }
+
+
+        /** @return {@code true} if the hedged attempt is sent to another upstream target than the first one. */
+        public boolean isAlternateTarget()
+        {
+
+            return alternateTarget;
+        }
+
+
+        /** @param alternateTarget whether the hedged attempt is sent to another upstream target. */
+        public void setAlternateTarget(final boolean alternateTarget)
+        {
+
+            this.alternateTarget = alternateTarget;
+        }
+
+
+        /**
+         * Converts the hedging configuration into a JSON string representation.
+         * 
+         * @return a JSON string representing this configuration.
+         * @throws RuntimeException if an error occurs during serialization.
+         */
+        public String toJson()
+        {
+
+            try {
+                ObjectMapper objectMapper = new ObjectMapper();
+                return objectMapper.writeValueAsString(this);
+            }
+            catch (JsonProcessingException e) {
+                throw new RuntimeException("Error converting HedgingConfiguration to JSON", e);
+            }
+        }
+    }
+
+
+    /**
+     * Configuration class for the opt-in retries of the requests to a service failing transiently, for example
+     * on a 429 or 503 reply of a provider under load.
+     * <p>
+     * A failed attempt is retried after an exponential backoff with full jitter : a random delay up to
+     * {@code initialBackoff * backoffMultiplier^retry}, capped by {@code maxBackoff}. When the target service
+     * tells when to come back ({@code Retry-After}, {@code retry-after-ms}, or the {@code x-ratelimit-reset-*}
+     * headers of a 429 reply), the retry waits at least that long, unless it is longer than
+     * {@code maxRetryAfter} : the failure is then relayed at once.
+     * <p>
+     * Retries are limited by a budget : each successful request earns {@code budgetPercent / 100} retry, each
+     * retry spends one, so that retries cannot multiply the load of a failing target service. A streamed request
+     * is only retried until its first event is received.
+     */
+    public static class RetryConfiguration
+    {
+
+        /** Whether the requests to the service failing transiently are retried. */
+        private boolean       enabled              = false;
+        /** The maximum number of attempts of a request, the first one included. */
+        private int           maxAttempts          = 3;
+        /** The backoff before the first retry, in ISO-8601 format. */
+        private String        initialBackoff       = "PT0.2S";
+        /** The longest backoff between two attempts, in ISO-8601 format. */
+        private String        maxBackoff           = "PT10S";
+        /** The ratio the backoff is multiplied by at each retry. */
+        private double        backoffMultiplier    = 2.0;
+        /** The longest delay requested by the target service that is waited for, in ISO-8601 format. */
+        private String        maxRetryAfter        = "PT20S";
+        /** The reply statuses retried. */
+        private List<Integer> retryableStatuses    = List.of(429, 502, 503, 504);
+        /** Whether the attempts failing to reach the target service (connection errors) are retried. */
+        private boolean       retryTransportErrors = true;
+        /** The maximum ratio of retries to successful requests, in percentage. */
+        private double        budgetPercent        = 10.0;
+
+
+        /** Default constructor. */
+        public RetryConfiguration() {
+
+        }
+
+
+        /** @return {@code true} if the requests to the service failing transiently are retried. */
+        public boolean isEnabled()
+        {
+
+            return enabled;
+        }
+
+
+        /** @param enabled whether the requests to the service failing transiently are retried. */
+        public void setEnabled(final boolean enabled)
+        {
+
+            this.enabled = enabled;
+        }
+
+
+        /** @return the maximum number of attempts of a request, the first one included. */
+        public int getMaxAttempts()
+        {
+
+            return maxAttempts;
+        }
+
+
+        /** @param maxAttempts the maximum number of attempts of a request, the first one included. */
+        public void setMaxAttempts(final int maxAttempts)
+        {
+
+            this.maxAttempts = maxAttempts;
+        }
+
+
+        /** @return the backoff before the first retry, in ISO-8601 format (e.g., "PT0.2S"). */
+        public String getInitialBackoff()
+        {
+
+            return initialBackoff;
+        }
+
+
+        /** @param initialBackoff the backoff before the first retry, in ISO-8601 format. */
+        public void setInitialBackoff(final String initialBackoff)
+        {
+
+            this.initialBackoff = initialBackoff;
+        }
+
+
+        /** @return the longest backoff between two attempts, in ISO-8601 format (e.g., "PT10S"). */
+        public String getMaxBackoff()
+        {
+
+            return maxBackoff;
+        }
+
+
+        /** @param maxBackoff the longest backoff between two attempts, in ISO-8601 format. */
+        public void setMaxBackoff(final String maxBackoff)
+        {
+
+            this.maxBackoff = maxBackoff;
+        }
+
+
+        /** @return the ratio the backoff is multiplied by at each retry. */
+        public double getBackoffMultiplier()
+        {
+
+            return backoffMultiplier;
+        }
+
+
+        /** @param backoffMultiplier the ratio the backoff is multiplied by at each retry. */
+        public void setBackoffMultiplier(final double backoffMultiplier)
+        {
+
+            this.backoffMultiplier = backoffMultiplier;
+        }
+
+
+        /**
+         * @return the longest delay requested by the target service that is waited for, in ISO-8601 format
+         *         (e.g., "PT20S").
+         */
+        public String getMaxRetryAfter()
+        {
+
+            return maxRetryAfter;
+        }
+
+
+        /** @param maxRetryAfter the longest delay requested by the target service that is waited for. */
+        public void setMaxRetryAfter(final String maxRetryAfter)
+        {
+
+            this.maxRetryAfter = maxRetryAfter;
+        }
+
+
+        /** @return the reply statuses retried. */
+        public List<Integer> getRetryableStatuses()
+        {
+
+            return retryableStatuses;
+        }
+
+
+        /** @param retryableStatuses the reply statuses retried. */
+        public void setRetryableStatuses(final List<Integer> retryableStatuses)
+        {
+
+            this.retryableStatuses = retryableStatuses;
+        }
+
+
+        /** @return {@code true} if the attempts failing to reach the target service are retried. */
+        public boolean isRetryTransportErrors()
+        {
+
+            return retryTransportErrors;
+        }
+
+
+        /** @param retryTransportErrors whether the attempts failing to reach the target service are retried. */
+        public void setRetryTransportErrors(final boolean retryTransportErrors)
+        {
+
+            this.retryTransportErrors = retryTransportErrors;
+        }
+
+
+        /** @return the maximum ratio of retries to successful requests, in percentage. */
+        public double getBudgetPercent()
+        {
+
+            return budgetPercent;
+        }
+
+
+        /** @param budgetPercent the maximum ratio of retries to successful requests, in percentage. */
+        public void setBudgetPercent(final double budgetPercent)
+        {
+
+            this.budgetPercent = budgetPercent;
+        }
+
+
+        /**
+         * Converts the retry configuration into a JSON string representation.
+         * 
+         * @return a JSON string representing this configuration.
+         * @throws RuntimeException if an error occurs during serialization.
+         */
+        public String toJson()
+        {
+
+            try {
+                ObjectMapper objectMapper = new ObjectMapper();
+                return objectMapper.writeValueAsString(this);
+            }
+            catch (JsonProcessingException e) {
+                throw new RuntimeException("Error converting RetryConfiguration to JSON", e);
+            }
+        }
+    }
+
+
+    /**
+     * Configuration class for the opt-in failover of the streamed requests to a service before their first event.
+     * <p>
+     * Until the first event of a stream is received, nothing has been relayed to the caller : a stream failing
+     * (transport error, 429 or 5xx reply) or silent for {@code firstByteTimeout} is opened again, on another
+     * upstream target if the service has some and {@code alternateTarget} is set, up to {@code maxAttempts}
+     * streams. With {@code hedge} set, a stream silent for {@code firstByteTimeout} is kept open while the next
+     * one is opened : the first stream to send an event is relayed and the others are cancelled. Once its first
+     * event is received, a stream is committed.
+     * <p>
+     * The last stream has no first byte threshold : it is bounded by the timeouts of the service only.
+     */
+    public static class StreamFailoverConfiguration
+    {
+
+        /** Whether the streamed requests to the service fail over before their first event. */
+        private boolean enabled          = false;
+        /** The time to first event after which a stream fails over, in ISO-8601 format. */
+        private String  firstByteTimeout = "PT5S";
+        /** The maximum number of streams opened for a request, the first one included. */
+        private int     maxAttempts      = 2;
+        /** Whether a silent stream is kept open, racing the next one, instead of being cancelled. */
+        private boolean hedge            = false;
+        /** Whether the next stream is opened on another upstream target than the first one. */
+        private boolean alternateTarget  = true;
+
+
+        /** Default constructor. */
+        public StreamFailoverConfiguration() {
+
+        }
+
+
+        /** @return {@code true} if the streamed requests to the service fail over before their first event. */
+        public boolean isEnabled()
+        {
+
+            return enabled;
+        }
+
+
+        /** @param enabled whether the streamed requests to the service fail over before their first event. */
+        public void setEnabled(final boolean enabled)
+        {
+
+            this.enabled = enabled;
+        }
+
+
+        /** @return the time to first event after which a stream fails over, in ISO-8601 format (e.g., "PT5S"). */
+        public String getFirstByteTimeout()
+        {
+
+            return firstByteTimeout;
+        }
+
+
+        /** @param firstByteTimeout the time to first event after which a stream fails over, in ISO-8601 format. */
+        public void setFirstByteTimeout(final String firstByteTimeout)
+        {
+
+            this.firstByteTimeout = firstByteTimeout;
+        }
+
+
+        /** @return the maximum number of streams opened for a request, the first one included. */
+        public int getMaxAttempts()
+        {
+
+            return maxAttempts;
+        }
+
+
+        /** @param maxAttempts the maximum number of streams opened for a request, the first one included. */
+        public void setMaxAttempts(final int maxAttempts)
+        {
+
+            this.maxAttempts = maxAttempts;
+        }
+
+
+        /** @return {@code true} if a silent stream is kept open, racing the next one. */
+        public boolean isHedge()
+        {
+
+            return hedge;
+        }
+
+
+        /** @param hedge whether a silent stream is kept open, racing the next one. */
+        public void setHedge(final boolean hedge)
+        {
+
+            this.hedge = hedge;
+        }
+
+
+        /** @return {@code true} if the next stream is opened on another upstream target than the first one. */
+        public boolean isAlternateTarget()
+        {
+
+            return alternateTarget;
+        }
+
+
+        /** @param alternateTarget whether the next stream is opened on another upstream target. */
+        public void setAlternateTarget(final boolean alternateTarget)
+        {
+
+            this.alternateTarget = alternateTarget;
+        }
+
+
+        /**
+         * Converts the stream failover configuration into a JSON string representation.
+         * 
+         * @return a JSON string representing this configuration.
+         * @throws RuntimeException if an error occurs during serialization.
+         */
+        public String toJson()
+        {
+
+            try {
+                ObjectMapper objectMapper = new ObjectMapper();
+                return objectMapper.writeValueAsString(this);
+            }
+            catch (JsonProcessingException e) {
+                throw new RuntimeException("Error converting StreamFailoverConfiguration to JSON", e);
+            }
+        }
+    }
+
+
+    /**
+     * Configuration class for the timeouts of the exchanges with a service, so that a target service which stops
+     * replying does not hold a connection, the permits of the service and the state of the request indefinitely.
+     * <p>
+     * The timeouts apply to each attempt sent to the target service : {@code connectTimeout} to the connection
+     * establishment, {@code responseTimeout} to the time until the response of a standard request or the first
+     * event of a streamed one, {@code idleTimeout} to the gaps between consecutive events of a stream and
+     * {@code maxStreamDuration} to the whole stream. Durations are expressed in ISO-8601 format (e.g., "PT30S"),
+     * a {@code null} duration disables the timeout. Services without timeout configuration get the defaults.
+     */
+    public static class TimeoutConfiguration
+    {
+
+        /** The maximum time to establish a connection to the target service, in ISO-8601 format. */
+        private String connectTimeout    = "PT10S";
+        /** The maximum time until the response or the first event of a stream, in ISO-8601 format. */
+        private String responseTimeout   = "PT5M";
+        /** The maximum gap between two consecutive events of a stream, in ISO-8601 format. */
+        private String idleTimeout       = "PT1M";
+        /** The maximum duration of a stream, in ISO-8601 format. */
+        private String maxStreamDuration = "PT30M";
+
+
+        /** Default constructor. */
+        public TimeoutConfiguration() {
+
+        }
+
+
+        /** @return the maximum time to establish a connection, in ISO-8601 format (e.g., "PT10S"). */
+        public String getConnectTimeout()
+        {
+
+            return connectTimeout;
+        }
+
+
+        /** @param connectTimeout the maximum time to establish a connection, in ISO-8601 format. */
+        public void setConnectTimeout(final String connectTimeout)
+        {
+
+            this.connectTimeout = connectTimeout;
+        }
+
+
+        /** @return the maximum time until the response or the first event, in ISO-8601 format (e.g., "PT5M"). */
+        public String getResponseTimeout()
+        {
+
+            return responseTimeout;
+        }
+
+
+        /** @param responseTimeout the maximum time until the response or the first event, in ISO-8601 format. */
+        public void setResponseTimeout(final String responseTimeout)
+        {
+
+            this.responseTimeout = responseTimeout;
+        }
+
+
+        /** @return the maximum gap between two events of a stream, in ISO-8601 format (e.g., "PT1M"). */
+        public String getIdleTimeout()
+        {
+
+            return idleTimeout;
+        }
+
+
+        /** @param idleTimeout the maximum gap between two events of a stream, in ISO-8601 format. */
+        public void setIdleTimeout(final String idleTimeout)
+        {
+
+            this.idleTimeout = idleTimeout;
+        }
+
+
+        /** @return the maximum duration of a stream, in ISO-8601 format (e.g., "PT30M"). */
+        public String getMaxStreamDuration()
+        {
+
+            return maxStreamDuration;
+        }
+
+
+        /** @param maxStreamDuration the maximum duration of a stream, in ISO-8601 format. */
+        public void setMaxStreamDuration(final String maxStreamDuration)
+        {
+
+            this.maxStreamDuration = maxStreamDuration;
+        }
+
+
+        /**
+         * Converts the timeout configuration into a JSON string representation.
+         * 
+         * @return a JSON string representing this configuration.
+         * @throws RuntimeException if an error occurs during serialization.
+         */
+        public String toJson()
+        {
+
+            try {
+                ObjectMapper objectMapper = new ObjectMapper();
+                return objectMapper.writeValueAsString(this);
+            }
+            catch (JsonProcessingException e) {
+                throw new RuntimeException("Error converting TimeoutConfiguration to JSON", e);
+            }
+        }
+    }
+
+
 }
@@ -0,0 +1,155 @@
+package ai.learningsystems.gloobermkp.espproxies.plugin.shared.json;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+
+/**
+ * Values of the fields pulled from a JSON document by a {@link JsonFieldExtractor}.
+ * <p>
+ * Values are kept as their JSON text and converted on access. Single valued paths hold their first
+ * occurrence ; paths going through an array ({@code []}) hold every matched value in document order.
+ */
+public final class ExtractedJsonFields
+{
+
+    private final JsonFieldExtractor extractor;
+    private final String[]           values;
+    private final List<String>[]     multiValues;
+    private int                      missingSingleValues;
+
+
+    @SuppressWarnings("unchecked")
+    ExtractedJsonFields(final JsonFieldExtractor extractor) {
+
+        this.extractor   = extractor;
+        this.values      = new String[extractor.pathCount()];
+        this.multiValues = new List[extractor.pathCount()];
+        for (int index = 0; index < values.length; index++) {
+            if (!extractor.isMultiValued(index))
+                missingSingleValues++;
+        }
+    }
+
+
+    /**
+     * @param path a path the extractor has been compiled with.
+     * @return {@code true} if at least one value has been found for the path.
+     */
+    public boolean has(final String path)
+    {
+
+        return null != values[extractor.indexOf(path)];
+    }
+
+
+    /**
+     * @param path a path the extractor has been compiled with.
+     * @return the (first) value of the path, {@code null} if not found.
+     */
+    public String getString(final String path)
+    {
+
+        return values[extractor.indexOf(path)];
+    }
+
+
+    /**
+     * @param path         a path the extractor has been compiled with.
+     * @param defaultValue the value returned if the path is not found.
+     * @return the (first) value of the path, or the default value.
+     */
+    public String getString(final String path, final String defaultValue)
+    {
+
+        final String value = getString(path);
+        return null != value ? value : defaultValue;
+    }
+
+
+    /**
+     * @param path a path the extractor has been compiled with.
+     * @return every value found for the path, in document order.
+     */
+    public List<String> getStrings(final String path)
+    {
+
+        final int index = extractor.indexOf(path);
+        if (null != multiValues[index])
+            return Collections.unmodifiableList(multiValues[index]);
+        return null != values[index] ? List.of(values[index]) : List.of();
+    }
+
+
+    /**
+     * @param path         a path the extractor has been compiled with.
+     * @param defaultValue the value returned if the path is not found or is not an integer.
+     * @return the (first) value of the path as an int, or the default value.
+     */
+    public int getInt(final String path, final int defaultValue)
+    {
+
+        return (int) getLong(path, defaultValue);
+    }
+
+
+    /**
+     * @param path         a path the extractor has been compiled with.
+     * @param defaultValue the value returned if the path is not found or is not an integer.
+     * @return the (first) value of the path as a long, or the default value.
+     */
+    public long getLong(final String path, final long defaultValue)
+    {
+
+        final String value = getString(path);
+        if (null == value)
+            return defaultValue;
+        try {
+            return Long.parseLong(value);
+        }
+        catch (NumberFormatException notAnInteger) {
+            return defaultValue;
+        }
+    }
+
+
+    /**
+     * @param path         a path the extractor has been compiled with.
+     * @param defaultValue the value returned if the path is not found.
+     * @return the (first) value of the path as a boolean, or the default value.
+     */
+    public boolean getBoolean(final String path, final boolean defaultValue)
+    {
+
+        final String value = getString(path);
+        return null != value ? Boolean.parseBoolean(value) : defaultValue;
+    }
+
+
+    void add(final int pathIndex, final String value)
+    {
+
+        if (extractor.isMultiValued(pathIndex)) {
+            if (null == values[pathIndex])
+                values[pathIndex] = value;
+            if (null == multiValues[pathIndex])
+                multiValues[pathIndex] = new ArrayList<>();
+            multiValues[pathIndex].add(value);
+        }
+        else if (null == values[pathIndex]) {
+            values[pathIndex] = value;
+            missingSingleValues--;
+        }
+    }
+
+
+    boolean isComplete()
+    {
+
+        return missingSingleValues == 0;
+    }
+
+}
@@ -0,0 +1,12 @@
+package ai.learningsystems.gloobermkp.espproxies.plugin.shared.json;
+
+
+public class JsonFieldExtractionException extends RuntimeException
+{
+    private static final long serialVersionUID = 3520714829436918375L;
+
+    public JsonFieldExtractionException(final String message, final Throwable cause)
+    {
+        super(message, cause);
+    }
+}
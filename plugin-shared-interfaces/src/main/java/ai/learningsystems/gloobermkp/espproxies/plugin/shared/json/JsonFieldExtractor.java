@@ -0,0 +1,302 @@
+package ai.learningsystems.gloobermkp.espproxies.plugin.shared.json;
+
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.core.io.buffer.DataBuffer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+
+
+/**
+ * Allocation-light extractor of a fixed set of JSON fields.
+ * <p>
+ * The field paths are compiled once into a trie ; extraction then pulls their values with a Jackson streaming
+ * {@link JsonParser}, skipping every sub-tree no path goes through, without building any {@code JsonNode} tree.
+ * Parsing stops as soon as every requested field has been found, which avoids reading the messages of a large
+ * prompt when only its {@code model} and {@code stream} fields are needed.
+ * <p>
+ * Paths are dot separated field names. A field name suffixed by {@code []} designates every element of the
+ * array the field holds, e.g. {@code choices[].delta.content}. Such a path may match several values : it is
+ * read until the end of the document. Only scalar values (string, number, boolean) are extracted.
+ * <p>
+ * Compiled extractors are immutable and thread safe : they are meant to be created once, typically in a
+ * {@code static final} field, and shared.
+ *
+ * <pre>
+ * private static final JsonFieldExtractor USAGE_EXTRACTOR = JsonFieldExtractor.compile("usage.prompt_tokens",
+ *         "usage.completion_tokens", "usage.total_tokens");
+ *
+ * final ExtractedJsonFields usage = USAGE_EXTRACTOR.extract(responseBody);
+ * final int promptTokens = usage.getInt("usage.prompt_tokens", 0);
+ * </pre>
+ */
+public final class JsonFieldExtractor
+{
+
+    private static final String      PATH_SEPARATOR        = "\\.";
+    private static final String      ARRAY_ELEMENTS_SUFFIX = "[]";
+    private static final JsonFactory JSON_FACTORY          = new JsonFactory();
+
+    private final String[]             paths;
+    private final boolean[]            multiValued;
+    private final Map<String, Integer> pathIndexes;
+    private final PathNode             root;
+    private final boolean              earlyStopEnabled;
+
+
+    private JsonFieldExtractor(final String[] paths) {
+
+        this.paths       = paths;
+        this.multiValued = new boolean[paths.length];
+        this.pathIndexes = new HashMap<>();
+        this.root        = new PathNode();
+
+        for (int index = 0; index < paths.length; index++) {
+            final String path = paths[index];
+            if (null == path || path.isBlank())
+                throw new IllegalArgumentException("JSON field path cannot be empty.");
+            if (null != pathIndexes.putIfAbsent(path, index))
+                throw new IllegalArgumentException("Duplicated JSON field path : " + path);
+            multiValued[index] = path.contains(ARRAY_ELEMENTS_SUFFIX);
+            root.add(path.split(PATH_SEPARATOR), 0, index);
+        }
+
+        boolean singleValuedOnly = true;
+        for (final boolean isMultiValued : multiValued)
+            singleValuedOnly &= !isMultiValued;
+        this.earlyStopEnabled = singleValuedOnly;
+    }
+
+
+    /**
+     * Compiles the given field paths into an extractor.
+     *
+     * @param paths the dot separated paths of the fields to extract.
+     * @return the compiled extractor.
+     * @throws IllegalArgumentException if no path is given, or if a path is empty or duplicated.
+     */
+    public static JsonFieldExtractor compile(final String... paths)
+    {
+
+        if (null == paths || paths.length == 0)
+            throw new IllegalArgumentException("At least one JSON field path must be given.");
+        return new JsonFieldExtractor(Arrays.copyOf(paths, paths.length));
+    }
+
+
+    /**
+     * Extracts the compiled fields from a JSON document.
+     *
+     * @param json the JSON document, {@code null} or blank documents yield no value.
+     * @return the extracted fields.
+     * @throws JsonFieldExtractionException if the document is not valid JSON.
+     */
+    public ExtractedJsonFields extract(final String json)
+    {
+
+        if (null == json || json.isBlank())
+            return new ExtractedJsonFields(this);
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            return extract(parser);
+        }
+        catch (IOException parseException) {
+            throw new JsonFieldExtractionException("Error extracting JSON fields " + Arrays.toString(paths),
+                    parseException);
+        }
+    }
+
+
+    /**
+     * Extracts the compiled fields from a UTF-8 encoded JSON document.
+     *
+     * @param json the JSON document bytes.
+     * @return the extracted fields.
+     * @throws JsonFieldExtractionException if the document is not valid JSON.
+     */
+    public ExtractedJsonFields extract(final byte[] json)
+    {
+
+        if (null == json || json.length == 0)
+            return new ExtractedJsonFields(this);
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            return extract(parser);
+        }
+        catch (IOException parseException) {
+            throw new JsonFieldExtractionException("Error extracting JSON fields " + Arrays.toString(paths),
+                    parseException);
+        }
+    }
+
+
+    /**
+     * Extracts the compiled fields from a JSON document held by a {@link DataBuffer}.
+     * <p>
+     * The buffer is read from its current read position ; it is neither consumed nor released.
+     *
+     * @param json the buffer holding the UTF-8 encoded JSON document.
+     * @return the extracted fields.
+     * @throws JsonFieldExtractionException if the document is not valid JSON.
+     */
+    public ExtractedJsonFields extract(final DataBuffer json)
+    {
+
+        if (null == json || json.readableByteCount() == 0)
+            return new ExtractedJsonFields(this);
+        // The input stream shares the buffer read position : it is restored once the fields are extracted
+        final int readPosition = json.readPosition();
+        try (JsonParser parser = JSON_FACTORY.createParser(json.asInputStream())) {
+            return extract(parser);
+        }
+        catch (IOException parseException) {
+            throw new JsonFieldExtractionException("Error extracting JSON fields " + Arrays.toString(paths),
+                    parseException);
+        }
+        finally {
+            json.readPosition(readPosition);
+        }
+    }
+
+
+    /**
+     * @return the paths this extractor has been compiled with.
+     */
+    public List<String> getPaths()
+    {
+
+        return List.of(paths);
+    }
+
+
+    int indexOf(final String path)
+    {
+
+        final Integer index = pathIndexes.get(path);
+        if (null == index)
+            throw new IllegalArgumentException("JSON field path not compiled in this extractor : " + path);
+        return index;
+    }
+
+
+    int pathCount()
+    {
+
+        return paths.length;
+    }
+
+
+    boolean isMultiValued(final int pathIndex)
+    {
+
+        return multiValued[pathIndex];
+    }
+
+
+    private ExtractedJsonFields extract(final JsonParser parser) throws IOException
+    {
+
+        final ExtractedJsonFields fields = new ExtractedJsonFields(this);
+        if (null != parser.nextToken())
+            readValue(parser, root, fields);
+        return fields;
+    }
+
+
+    /**
+     * Reads the value the parser is positioned on, descending only into the sub-trees the given node has
+     * children for. On return the parser is positioned on the last token of the value.
+     */
+    private void readValue(final JsonParser parser, final PathNode node, final ExtractedJsonFields fields)
+            throws IOException
+    {
+
+        final JsonToken token = parser.currentToken();
+
+        if (token == JsonToken.START_OBJECT) {
+            if (null == node.fields) {
+                parser.skipChildren();
+                return;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final PathNode child = node.fields.get(parser.currentName());
+                parser.nextToken();
+                if (null == child)
+                    parser.skipChildren();
+                else
+                    readValue(parser, child, fields);
+                if (earlyStopEnabled && fields.isComplete())
+                    return;
+            }
+        }
+        else if (token == JsonToken.START_ARRAY) {
+            if (null == node.elements) {
+                parser.skipChildren();
+                return;
+            }
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                readValue(parser, node.elements, fields);
+            }
+        }
+        else if (node.pathIndex >= 0 && token.isScalarValue() && token != JsonToken.VALUE_NULL) {
+            fields.add(node.pathIndex, parser.getText());
+        }
+    }
+
+
+    /**
+     * Node of the compiled paths trie.
+     */
+    private static final class PathNode
+    {
+
+        private Map<String, PathNode> fields;
+        private PathNode              elements;
+        private int                   pathIndex = -1;
+
+
+        private void add(final String[] segments, final int position, final int index)
+        {
+
+            if (position == segments.length) {
+                pathIndex = index;
+                return;
+            }
+
+            String  segment       = segments[position];
+            boolean arrayElements = segment.endsWith(ARRAY_ELEMENTS_SUFFIX);
+            if (arrayElements)
+                segment = segment.substring(0, segment.length() - ARRAY_ELEMENTS_SUFFIX.length());
+            if (segment.isEmpty())
+                throw new IllegalArgumentException("Invalid JSON field path : " + String.join(".", segments));
+
+            if (null == fields)
+                fields = new HashMap<>();
+            PathNode child = fields.computeIfAbsent(segment, name -> new PathNode());
+            if (arrayElements) {
+                if (null == child.elements)
+                    child.elements = new PathNode();
+                child = child.elements;
+            }
+            child.add(segments, position + 1, index);
+        }
+    }
+
+
+    /**
+     * @return the list of the compiled paths, for diagnostics.
+     */
+    @Override
+    public String toString()
+    {
+
+        return "JsonFieldExtractor" + Arrays.toString(paths);
+    }
+
+}
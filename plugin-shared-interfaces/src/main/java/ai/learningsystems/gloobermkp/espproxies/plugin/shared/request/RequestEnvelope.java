@@ -0,0 +1,309 @@
+package ai.learningsystems.gloobermkp.espproxies.plugin.shared.request;
+
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.http.server.reactive.ServerHttpRequest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.MissingNode;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.json.ExtractedJsonFields;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.json.JsonFieldExtractionException;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.json.JsonFieldExtractor;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.utils.HttpRequestPropertyProvider;
+import lombok.extern.slf4j.Slf4j;
+
+
+
+/**
+ * Parse-once view of an incoming proxied request, shared by the proxy controller, the proxy core and the
+ * plugins.
+ * <p>
+ * The envelope is created once per request by the proxy. Everything derived from the request body (parsed
+ * JSON tree, requested model, stream flag) is computed lazily on first access and memoized, so the body is
+ * parsed at most once whatever the number of components reading it. The model and stream flag are pulled by
+ * a streaming {@link JsonFieldExtractor} which stops reading the body as soon as both are found : the JSON
+ * tree is only built for components asking for it. Derived values are thread safe : the envelope may be read
+ * from any thread of the request execution.
+ * <p>
+ * {@link #withRequest(ServerHttpRequest)} derives an envelope for a retargeted request : the derived envelope
+ * shares the body parsing state and the attributes of the original one.
+ */
+@Slf4j
+public final class RequestEnvelope
+{
+
+    /** Name of the request body field holding the requested model. */
+    public static final String MODEL_FIELD  = "model";
+    /** Name of the request body field holding the stream reply flag. */
+    public static final String STREAM_FIELD = "stream";
+
+    private static final ObjectMapper       OBJECT_MAPPER           = new ObjectMapper();
+    private static final JsonFieldExtractor HEADER_FIELDS_EXTRACTOR = JsonFieldExtractor.compile(MODEL_FIELD,
+            STREAM_FIELD);
+
+    private final ServerHttpRequest   request;
+    private final ParsedBody          parsedBody;
+    private final Map<String, Object> attributes;
+    private volatile String           serviceRef;
+    private volatile String           servicePath;
+
+
+    private RequestEnvelope(final ServerHttpRequest request, final ParsedBody parsedBody,
+            final Map<String, Object> attributes) {
+
+        this.request    = request;
+        this.parsedBody = parsedBody;
+        this.attributes = attributes;
+    }
+
+
+    /**
+     * Creates the envelope of an incoming request.
+     *
+     * @param request     the incoming {@link ServerHttpRequest}.
+     * @param requestBody the body of the request, {@code null} if the request has no body.
+     * @return the request envelope.
+     * @throws IllegalArgumentException if the request is {@code null}.
+     */
+    public static RequestEnvelope of(final ServerHttpRequest request, final String requestBody)
+    {
+
+        if (request == null) {
+            throw new IllegalArgumentException("ServerHttpRequest cannot be null.");
+        }
+        return new RequestEnvelope(request, new ParsedBody(requestBody), new ConcurrentHashMap<>());
+    }
+
+
+    /**
+     * Derives the envelope of a modified request (retargeted URI, customized headers) of the same exchange.
+     * <p>
+     * The body, its parsing state and the attributes are shared with this envelope ; serviceRef and
+     * servicePath are read from the new request.
+     *
+     * @param modifiedRequest the modified {@link ServerHttpRequest}.
+     * @return the derived envelope.
+     */
+    public RequestEnvelope withRequest(final ServerHttpRequest modifiedRequest)
+    {
+
+        if (modifiedRequest == null) {
+            throw new IllegalArgumentException("ServerHttpRequest cannot be null.");
+        }
+        return new RequestEnvelope(modifiedRequest, parsedBody, attributes);
+    }
+
+
+    /**
+     * @return the request this envelope wraps.
+     */
+    public ServerHttpRequest getRequest()
+    {
+
+        return request;
+    }
+
+
+    /**
+     * @return the raw request body, {@code null} if the request has no body.
+     */
+    public String getRequestBody()
+    {
+
+        return parsedBody.requestBody;
+    }
+
+
+    /**
+     * @return the request body JSON tree, parsed on first call. A {@link MissingNode} is returned if the
+     *         request has no body or if it is not valid JSON.
+     */
+    public JsonNode getParsedBody()
+    {
+
+        return parsedBody.tree();
+    }
+
+
+    /**
+     * @return the value of the top level {@value #MODEL_FIELD} field of the request body, empty string if
+     *         absent.
+     */
+    public String getModel()
+    {
+
+        return parsedBody.model();
+    }
+
+
+    /**
+     * @return the value of the top level {@value #STREAM_FIELD} field of the request body, {@code false} if
+     *         absent.
+     */
+    public boolean isStreamFlagSet()
+    {
+
+        return parsedBody.stream();
+    }
+
+
+    /**
+     * @return the service reference of the request, see {@link HttpRequestPropertyProvider#getServiceRef}.
+     */
+    public String getServiceRef()
+    {
+
+        String value = serviceRef;
+        if (null == value) {
+            value      = HttpRequestPropertyProvider.getServiceRef(request);
+            serviceRef = value;
+        }
+        return value;
+    }
+
+
+    /**
+     * @return the service path of the request, see {@link HttpRequestPropertyProvider#getServicePath}.
+     */
+    public String getServicePath()
+    {
+
+        String value = servicePath;
+        if (null == value) {
+            value       = HttpRequestPropertyProvider.getServicePath(request);
+            servicePath = value;
+        }
+        return value;
+    }
+
+
+    /**
+     * Stores a value computed while handling the request so that other components can reuse it.
+     *
+     * @param name  the attribute name.
+     * @param value the attribute value, {@code null} removes the attribute.
+     */
+    public void setAttribute(final String name, final Object value)
+    {
+
+        if (null == value)
+            attributes.remove(name);
+        else
+            attributes.put(name, value);
+    }
+
+
+    /**
+     * @param name the attribute name.
+     * @param type the expected attribute type.
+     * @return the attribute value if set and of the expected type.
+     */
+    public <T> Optional<T> getAttribute(final String name, final Class<T> type)
+    {
+
+        return Optional.ofNullable(attributes.get(name)).filter(type::isInstance).map(type::cast);
+    }
+
+
+    /**
+     * Copies the attributes of an identical request whose reply this request shares, so that the components
+     * handling this request see the attributes set while handling the other one.
+     *
+     * @param envelope the envelope of the request whose reply is shared.
+     */
+    public void inheritAttributes(final RequestEnvelope envelope)
+    {
+
+        if (envelope.attributes != attributes)
+            attributes.putAll(envelope.attributes);
+    }
+
+
+    /**
+     * Lazily parsed request body shared by the envelopes of a same request.
+     */
+    private static final class ParsedBody
+    {
+
+        private final String                 requestBody;
+        private volatile JsonNode            tree;
+        private volatile ExtractedJsonFields headerFields;
+
+
+        private ParsedBody(final String requestBody) {
+
+            this.requestBody = requestBody;
+        }
+
+
+        private JsonNode tree()
+        {
+
+            JsonNode value = tree;
+            if (null == value) {
+                synchronized (this) {
+                    value = tree;
+                    if (null == value) {
+                        value = parse();
+                        tree  = value;
+                    }
+                }
+            }
+            return value;
+        }
+
+
+        private String model()
+        {
+
+            return headerFields().getString(MODEL_FIELD, "");
+        }
+
+
+        private boolean stream()
+        {
+
+            return headerFields().getBoolean(STREAM_FIELD, false);
+        }
+
+
+        private ExtractedJsonFields headerFields()
+        {
+
+            ExtractedJsonFields value = headerFields;
+            if (null == value) {
+                try {
+                    value = HEADER_FIELDS_EXTRACTOR.extract(requestBody);
+                }
+                catch (JsonFieldExtractionException extractionException) {
+                    log.warn("Request body is not valid JSON : {}", extractionException.getCause().getMessage());
+                    value = HEADER_FIELDS_EXTRACTOR.extract((String) null);
+                }
+                headerFields = value;
+            }
+            return value;
+        }
+
+
+        private JsonNode parse()
+        {
+
+            if (null == requestBody || requestBody.isBlank())
+                return MissingNode.getInstance();
+            try {
+                final JsonNode parsed = OBJECT_MAPPER.readTree(requestBody);
+                return null != parsed ? parsed : MissingNode.getInstance();
+            }
+            catch (Exception parseException) {
+                log.warn("Request body is not valid JSON : {}", parseException.getMessage());
+                return MissingNode.getInstance();
+            }
+        }
+    }
+
+}
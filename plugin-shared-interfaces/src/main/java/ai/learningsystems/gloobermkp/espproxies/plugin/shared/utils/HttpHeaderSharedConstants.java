@@ -19,4 +19,16 @@ public class HttpHeaderSharedConstants
     
     /** Message if serviceRef value is not setted in header */
     final public static String SERVICEREF_NOT_SET_IN_HEADER = "SERVICEREF_NOT_SET_IN_HEADER !";
+    
+    /** Set by espproxies core on the standard responses of services with a response cache : HIT or MISS */
+    final public static String X_GMKP_XSP_CACHE_STATUS = "X-GMKP-XSP-CACHESTATUS";
+    
+    /** Set by espproxies core on responses shared with an identical request in flight : the usage policy applied */
+    final public static String X_GMKP_XSP_COALESCED = "X-GMKP-XSP-COALESCED";
+    
+    /** Passed by callers to espproxies core : the priority class of the request, INTERACTIVE, STANDARD or BATCH */
+    final public static String X_GMKP_XSP_PRIORITY = "X-GMKP-XSP-PRIORITY";
+    
+    /** Passed by callers to espproxies core : the ISO-8601 instant after which the reply is of no use */
+    final public static String X_GMKP_XSP_DEADLINE = "X-GMKP-XSP-DEADLINE";
 }
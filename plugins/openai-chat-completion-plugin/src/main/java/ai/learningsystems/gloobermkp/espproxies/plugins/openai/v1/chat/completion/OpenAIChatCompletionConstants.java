@@ -4,4 +4,14 @@ package ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completi
 public class OpenAIChatCompletionConstants
 {
   public final static String SSE_ENDOFSTREAM_MARKER = "[DONE]";
+  
+  /** Handler property : when "true", streamed replies usage is requested from OpenAI (stream_options.include_usage) */
+  public final static String HANDLER_PROPERTY_STREAM_USAGE_FROM_UPSTREAM = "streamUsageFromUpstream";
+  
+  /** Request envelope attribute set when OpenAI is asked to report the usage of the streamed reply */
+  public final static String ATTRIBUTE_UPSTREAM_STREAM_USAGE = "openai.upstreamStreamUsage";
+  /** Request envelope attribute set when the usage report was requested by the proxy, not by the caller */
+  public final static String ATTRIBUTE_STREAM_USAGE_INJECTED = "openai.streamUsageInjected";
+  /** Request envelope attribute holding the total tokens read from the standard reply by its usage metrics */
+  public final static String ATTRIBUTE_CONSUMED_TOKENS = "openai.consumedTokens";
 }
@@ -1,6 +1,12 @@
 package ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion;
 
+import static ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.OpenAIChatCompletionConstants.ATTRIBUTE_STREAM_USAGE_INJECTED;
+import static ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.OpenAIChatCompletionConstants.ATTRIBUTE_UPSTREAM_STREAM_USAGE;
+import static ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.OpenAIChatCompletionConstants.HANDLER_PROPERTY_STREAM_USAGE_FROM_UPSTREAM;
+
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -8,12 +14,14 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-
 import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.proxy.IProxyService;
 import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandler.IServiceHandler;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandler.IStreamUsageAccumulator;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.request.RequestEnvelope;
 import ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.endofstreamdetector.EndOfStreamDetector;
+import ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.ratelimit.RequestTokensEstimator;
+import ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.requestmodifier.StreamUsageOptionInjector;
+import ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.responsecache.DeterministicRequestDetector;
 import ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.usagemetricssupplier.ServiceUsageMetricsSupplier;
 import ai.learningsystems.gloobermkp.external.commons.domains.metrics.usage.UsageMetrics;
 import ai.learningsystems.gloobermkp.external.commons.domains.web.RequestModifier;
@@ -25,15 +33,21 @@ public class OpenAIChatCompletionServiceHandler implements IServiceHandler
     @SuppressWarnings("unused")
     private static Logger log = LoggerFactory.getLogger(OpenAIChatCompletionServiceHandler.class);
     
-    private static String REQ_BODY_STREAM_OPTION_FIELD = "stream";
-    
     final private IProxyService proxyService;
-    private ObjectMapper  objectMapper = new ObjectMapper();
+    final private boolean       streamUsageFromUpstream;
     
     
     public OpenAIChatCompletionServiceHandler(IProxyService proxyService)
     {
-        this.proxyService = proxyService;   
+        this(proxyService, Map.of());
+    }
+    
+    
+    public OpenAIChatCompletionServiceHandler(IProxyService proxyService, Map<String, String> handlerProperties)
+    {
+        this.proxyService            = proxyService;
+        this.streamUsageFromUpstream = null != handlerProperties
+                && Boolean.parseBoolean(handlerProperties.get(HANDLER_PROPERTY_STREAM_USAGE_FROM_UPSTREAM));
     }
 
     
@@ -48,9 +62,40 @@ public class OpenAIChatCompletionServiceHandler implements IServiceHandler
     @Override
     public boolean isStreamReplyRequested(final ServerHttpRequest request, final String requestBody)
     {
-        return isStreamReplyRequested(requestBody);
+        return isStreamReplyRequested(RequestEnvelope.of(request, requestBody));
     }
 
+
+    /**
+     * Read the stream field value of JSON request body from the request envelope
+     * (request body parsed once per request).
+     */
+    @Override
+    public boolean isStreamReplyRequested(final RequestEnvelope envelope)
+    {
+        return envelope.isStreamFlagSet();
+    }
+
+
+    /**
+     * Completions with a single choice and either a zero temperature or a
+     * fixed seed are deterministic.
+     */
+    @Override
+    public boolean isReplyDeterministic(final RequestEnvelope envelope)
+    {
+        return DeterministicRequestDetector.isDeterministic(envelope.getParsedBody());
+    }
+
+
+    /**
+     * Only deterministic completions, not streamed, are cacheable.
+     */
+    @Override
+    public boolean isResponseCacheable(final RequestEnvelope envelope)
+    {
+        return !envelope.isStreamFlagSet() && isReplyDeterministic(envelope);
+    }
     
     
     /**
@@ -62,14 +107,31 @@ public class OpenAIChatCompletionServiceHandler implements IServiceHandler
     public Flux<?> handleRequest(final ServerHttpRequest retargetedRequest, final String requestBody)
     {
 
+        return handleRequest(retargetedRequest, RequestEnvelope.of(retargetedRequest, requestBody));
+    }
+
+
+    @Override
+    public Flux<?> handleRequest(final ServerHttpRequest retargetedRequest, final RequestEnvelope envelope)
+    {
+
+        final boolean isStreamReplyRequested = isStreamReplyRequested(envelope);
+        final String  requestBody            = isStreamReplyRequested
+                ? requestStreamUsageFromUpstream(envelope)
+                : envelope.getRequestBody();
+        final boolean isRequestBodyModified  = requestBody != envelope.getRequestBody();
+
         ServerHttpRequest modifiedRequest = RequestModifier.modifyHeaders(retargetedRequest, headers -> {
             HttpHeaders customHeaders = populateRequestCustomHeaders(headers);
+            if (isRequestBodyModified) {
+                customHeaders.setContentLength(requestBody.getBytes(StandardCharsets.UTF_8).length);
+            }
             // Clear previous headers data
             headers.clear(); 
             headers.addAll(customHeaders);
         });
     
-        if (isStreamReplyRequested(requestBody)) {
+        if (isStreamReplyRequested) {
              return proxyService.executeStreamingRequest(modifiedRequest, requestBody);
         }
         
@@ -78,6 +140,38 @@ public class OpenAIChatCompletionServiceHandler implements IServiceHandler
 
   
     
+    /**
+     * When the caller asked for it, or when the handler is configured to, OpenAI
+     * is asked to report the exact usage in the last chunk of the streamed reply :
+     * stream usage metrics are then read from it instead of being computed by
+     * local tokenization. Request envelope attributes tell the stream usage
+     * accumulator what to expect.
+     * 
+     * @return the request body to forward, a modified copy if the usage report
+     *         had to be requested.
+     */
+    private String requestStreamUsageFromUpstream(final RequestEnvelope envelope)
+    {
+        
+        if (StreamUsageOptionInjector.isUsageRequested(envelope.getParsedBody())) {
+            envelope.setAttribute(ATTRIBUTE_UPSTREAM_STREAM_USAGE, Boolean.TRUE);
+            return envelope.getRequestBody();
+        }
+        
+        if (!streamUsageFromUpstream) {
+            return envelope.getRequestBody();
+        }
+        
+        final String modifiedRequestBody = StreamUsageOptionInjector.inject(envelope.getParsedBody());
+        if (null == modifiedRequestBody) {
+            return envelope.getRequestBody();
+        }
+        envelope.setAttribute(ATTRIBUTE_UPSTREAM_STREAM_USAGE, Boolean.TRUE);
+        envelope.setAttribute(ATTRIBUTE_STREAM_USAGE_INJECTED, Boolean.TRUE);
+        return modifiedRequestBody;
+    }
+    
+    
     @Override
     public HttpHeaders populateRequestCustomHeaders(final HttpHeaders headers)
     {
@@ -103,7 +197,7 @@ public class OpenAIChatCompletionServiceHandler implements IServiceHandler
     public UsageMetrics getMetrics(final ServerHttpRequest request, final String requestBody, final ResponseEntity<String> response)
     {
 
-        return ServiceUsageMetricsSupplier.getMetrics(request, requestBody, response);
+        return getMetrics(RequestEnvelope.of(request, requestBody), response);
     }
 
     
@@ -111,7 +205,59 @@ public class OpenAIChatCompletionServiceHandler implements IServiceHandler
     public UsageMetrics getMetrics(final ServerHttpRequest request, final String requestBody, List<String> responseChunks)
     {
         
-        return ServiceUsageMetricsSupplier.getMetrics(request, requestBody, responseChunks);
+        return getMetrics(RequestEnvelope.of(request, requestBody), responseChunks);
+    }
+
+
+    @Override
+    public UsageMetrics getMetrics(final RequestEnvelope envelope, final ResponseEntity<String> response)
+    {
+
+        return ServiceUsageMetricsSupplier.getMetrics(envelope, response);
+    }
+
+
+    @Override
+    public UsageMetrics getMetrics(final RequestEnvelope envelope, final List<String> responseChunks)
+    {
+
+        return ServiceUsageMetricsSupplier.getMetrics(envelope, responseChunks, proxyService.getTokenizerService());
+    }
+
+
+    /**
+     * Reply chunks are dropped once scanned : their delta contents are tokenized by
+     * slices on the proxy metrics scheduler while the stream goes on.
+     */
+    @Override
+    public IStreamUsageAccumulator createStreamUsageAccumulator(final RequestEnvelope envelope)
+    {
+
+        return ServiceUsageMetricsSupplier.createStreamUsageAccumulator(envelope, proxyService.getTokenizerService());
+    }
+
+
+    /**
+     * Prompt tokens are estimated from the messages length, completion tokens from
+     * the requested maximum : no tokenizer is involved.
+     */
+    @Override
+    public int estimateRequestTokens(final RequestEnvelope envelope)
+    {
+
+        return RequestTokensEstimator.estimate(envelope.getParsedBody());
+    }
+
+
+    /**
+     * The total tokens read by the usage metrics of the reply are handed back : the
+     * reply body is only parsed if they were not computed.
+     */
+    @Override
+    public int getConsumedTokens(final RequestEnvelope envelope, final ResponseEntity<String> response)
+    {
+
+        return ServiceUsageMetricsSupplier.getConsumedTokens(envelope, response);
     }
 
     
@@ -128,21 +274,6 @@ public class OpenAIChatCompletionServiceHandler implements IServiceHandler
     {
         return EndOfStreamDetector.getEndOfStreamMarker();
     }
-    
-    
-    private boolean isStreamReplyRequested(final String requestBody)
-    {
-        try {
-            JsonNode     rootNode     = objectMapper.readTree(requestBody);
-            if (rootNode.has(REQ_BODY_STREAM_OPTION_FIELD)) {
-                return rootNode.get(REQ_BODY_STREAM_OPTION_FIELD).asBoolean();
-            }
-        }
-        catch (Exception e) {
-            e.printStackTrace();
-        }
-        return false;
-    }
 
 
    
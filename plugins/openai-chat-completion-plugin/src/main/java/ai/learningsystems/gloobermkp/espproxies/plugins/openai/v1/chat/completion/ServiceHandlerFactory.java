@@ -5,6 +5,7 @@ import org.springframework.util.Assert;
 import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.proxy.IProxyService;
 import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandler.IServiceHandler;
 import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandler.IServiceHandlerFactory;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.ServiceProperties;
 
 public class ServiceHandlerFactory implements IServiceHandlerFactory
 {
@@ -17,4 +18,14 @@ public class ServiceHandlerFactory implements IServiceHandlerFactory
        return new OpenAIChatCompletionServiceHandler(proxy);
     }
 
+
+    @Override
+    public IServiceHandler createServiceHandler(IProxyService proxy, ServiceProperties serviceProperties)
+    {
+       Assert.notNull(proxy, "createServiceHandler(proxy, serviceProperties) called with null proxy !");
+       Assert.notNull(serviceProperties, "createServiceHandler(proxy, serviceProperties) called with null serviceProperties !");
+       
+       return new OpenAIChatCompletionServiceHandler(proxy, serviceProperties.getHandlerProperties());
+    }
+
 }
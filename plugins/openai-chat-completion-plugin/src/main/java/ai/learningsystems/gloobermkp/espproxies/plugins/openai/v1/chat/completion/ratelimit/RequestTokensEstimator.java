@@ -0,0 +1,80 @@
+package ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.ratelimit;
+
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+
+/**
+ * Cheap estimate of the tokens a chat completion request will consume, charged
+ * to the service tokens per minute budget before the request is sent upstream.
+ * No tokenizer is involved : prompt tokens are estimated from the messages text
+ * length (about 4 characters per token, plus a few tokens of framing per message)
+ * and completion tokens from the requested maximum :
+ * { ...,
+ *    "messages": [ { "role": "user", "content": "..." } ],
+ *    "max_completion_tokens": 256,
+ *    "n": 1
+ * }
+ */
+public class RequestTokensEstimator
+{
+
+    private static final String MESSAGES_FIELD              = "messages";
+    private static final String CONTENT_FIELD               = "content";
+    private static final String TEXT_FIELD                  = "text";
+    private static final String MAX_COMPLETION_TOKENS_FIELD = "max_completion_tokens";
+    private static final String MAX_TOKENS_FIELD            = "max_tokens";
+    private static final String CHOICES_FIELD               = "n";
+
+    private static final int CHARS_PER_TOKEN           = 4;
+    private static final int TOKENS_PER_MESSAGE        = 4;
+    private static final int TOKENS_PER_REPLY          = 3;
+    /** Completion tokens charged when the request does not bound its reply. */
+    private static final int DEFAULT_COMPLETION_TOKENS = 1024;
+
+
+    /**
+     * @return the estimated prompt plus completion tokens of the request, -1 if
+     *         the request body is not a JSON object.
+     */
+    public static int estimate(final JsonNode requestBody)
+    {
+
+        if (!requestBody.isObject())
+            return -1;
+
+        long promptChars = 0;
+        int  messages    = 0;
+        for (final JsonNode message : requestBody.path(MESSAGES_FIELD)) {
+            promptChars += contentLength(message.path(CONTENT_FIELD));
+            messages++;
+        }
+        final long promptTokens = (promptChars + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN
+                + (long) messages * TOKENS_PER_MESSAGE + TOKENS_PER_REPLY;
+
+        final JsonNode maxTokens        = requestBody.has(MAX_COMPLETION_TOKENS_FIELD)
+                ? requestBody.path(MAX_COMPLETION_TOKENS_FIELD)
+                : requestBody.path(MAX_TOKENS_FIELD);
+        final long     completionTokens = maxTokens.isIntegralNumber() ? maxTokens.asLong()
+                : DEFAULT_COMPLETION_TOKENS;
+        final long     choices          = Math.max(1, requestBody.path(CHOICES_FIELD).asInt(1));
+
+        return (int) Math.min(Integer.MAX_VALUE, promptTokens + completionTokens * choices);
+    }
+
+
+    // Content is either a string or an array of parts, only text parts are counted
+    private static long contentLength(final JsonNode content)
+    {
+
+        if (content.isTextual())
+            return content.textValue().length();
+
+        long length = 0;
+        for (final JsonNode part : content)
+            if (part.path(TEXT_FIELD).isTextual())
+                length += part.path(TEXT_FIELD).textValue().length();
+        return length;
+    }
+
+}
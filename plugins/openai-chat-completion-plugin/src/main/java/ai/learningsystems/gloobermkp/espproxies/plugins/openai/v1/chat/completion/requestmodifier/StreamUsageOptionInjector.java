@@ -0,0 +1,67 @@
+package ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.requestmodifier;
+
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+
+/**
+ * Requests OpenAI to report the exact usage of a streamed reply by setting
+ * stream_options.include_usage in the request body :
+ * { ...,
+ *    "stream": true,
+ *    "stream_options": { "include_usage": true }
+ * }
+ * OpenAI then sends, before the [DONE] marker, a last chunk with an empty
+ * choices array and the usage counters of the whole exchange.
+ */
+public class StreamUsageOptionInjector
+{
+
+    private static final String STREAM_OPTIONS_FIELD = "stream_options";
+    private static final String INCLUDE_USAGE_FIELD  = "include_usage";
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+
+    /**
+     * @return {@code true} if the request body already asks for the usage report.
+     */
+    public static boolean isUsageRequested(final JsonNode requestBody)
+    {
+
+        return requestBody.path(STREAM_OPTIONS_FIELD).path(INCLUDE_USAGE_FIELD).asBoolean(false);
+    }
+
+
+    /**
+     * Builds a copy of the request body asking for the usage report, the given
+     * (shared) request body is left unchanged.
+     * 
+     * @return the serialized modified request body, {@code null} if the request
+     *         body is not a JSON object.
+     */
+    public static String inject(final JsonNode requestBody)
+    {
+
+        if (!requestBody.isObject())
+            return null;
+
+        final ObjectNode modifiedRequestBody = ((ObjectNode) requestBody).deepCopy();
+        final JsonNode   streamOptionsNode   = modifiedRequestBody.get(STREAM_OPTIONS_FIELD);
+        final ObjectNode streamOptions       = streamOptionsNode instanceof ObjectNode streamOptionsObject
+                ? streamOptionsObject
+                : modifiedRequestBody.putObject(STREAM_OPTIONS_FIELD);
+        streamOptions.put(INCLUDE_USAGE_FIELD, true);
+
+        try {
+            return objectMapper.writeValueAsString(modifiedRequestBody);
+        }
+        catch (JsonProcessingException exception) {
+            throw new RuntimeException("Error serializing request body with stream usage option", exception);
+        }
+    }
+
+}
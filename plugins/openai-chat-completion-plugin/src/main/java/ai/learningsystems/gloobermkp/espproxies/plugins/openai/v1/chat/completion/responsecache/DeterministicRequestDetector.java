@@ -0,0 +1,43 @@
+package ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.responsecache;
+
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+
+/**
+ * Tells whether a chat completion request is deterministic enough for its
+ * reply to be shared by identical requests (response cache, coalescing) :
+ * a single choice ("n" absent or 1) and either a zero temperature or a
+ * fixed seed :
+ * { ...,
+ *    "temperature": 0,
+ *    "seed": 42
+ * }
+ */
+public class DeterministicRequestDetector
+{
+
+    private static final String TEMPERATURE_FIELD = "temperature";
+    private static final String SEED_FIELD        = "seed";
+    private static final String CHOICES_FIELD     = "n";
+
+
+    /**
+     * @return {@code true} if the request body asks for a deterministic reply.
+     */
+    public static boolean isDeterministic(final JsonNode requestBody)
+    {
+
+        if (!requestBody.isObject())
+            return false;
+
+        final JsonNode choices = requestBody.path(CHOICES_FIELD);
+        if (!choices.isMissingNode() && !choices.isNull() && choices.asInt(0) != 1)
+            return false;
+
+        final JsonNode temperature = requestBody.path(TEMPERATURE_FIELD);
+        final boolean  isGreedy    = temperature.isNumber() && temperature.asDouble() == 0.0;
+        return isGreedy || requestBody.path(SEED_FIELD).isIntegralNumber();
+    }
+
+}
@@ -1,8 +1,8 @@
 package ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.usagemetricssupplier;
 
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.json.ExtractedJsonFields;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.json.JsonFieldExtractor;
 
 
 /**
@@ -20,14 +20,20 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 public class ReplyBodyTokenCountersExtractor
 {
 
-    private final String       responseBody;
-    private final ObjectMapper objectMapper;
+    private static final String PROMPT_TOKENS_PATH     = "usage.prompt_tokens";
+    private static final String COMPLETION_TOKENS_PATH = "usage.completion_tokens";
+    private static final String TOTAL_TOKENS_PATH      = "usage.total_tokens";
+
+    // Compiled once : only the usage counters are pulled from the reply body, no JSON tree is built
+    private static final JsonFieldExtractor USAGE_EXTRACTOR = JsonFieldExtractor.compile(PROMPT_TOKENS_PATH,
+            COMPLETION_TOKENS_PATH, TOTAL_TOKENS_PATH);
+
+    private final String responseBody;
 
 
     public ReplyBodyTokenCountersExtractor(String responseBody) {
 
         this.responseBody = responseBody;
-        this.objectMapper = new ObjectMapper();
     }
 
 
@@ -35,8 +41,8 @@ public class ReplyBodyTokenCountersExtractor
     {
 
         try {
-            JsonNode usageNode = parseUsageNode();
-            return extractCountersFromUsageNode(usageNode);
+            ExtractedJsonFields usageFields = USAGE_EXTRACTOR.extract(responseBody);
+            return extractCountersFromUsageFields(usageFields);
         }
         catch (Exception exception) {
             throw new RuntimeException("Error extracting usage metrics from response", exception);
@@ -44,20 +50,12 @@ public class ReplyBodyTokenCountersExtractor
     }
 
 
-    private JsonNode parseUsageNode() throws Exception
-    {
-
-        JsonNode parsedResponseBody = objectMapper.readTree(responseBody);
-        return parsedResponseBody.path("usage");
-    }
-
-
-    private OAITokenCounters extractCountersFromUsageNode(JsonNode usageNode)
+    private OAITokenCounters extractCountersFromUsageFields(ExtractedJsonFields usageFields)
     {
 
-        int promptTokensCount     = usageNode.path("prompt_tokens").asInt();
-        int completionTokensCount = usageNode.path("completion_tokens").asInt();
-        int totalTokensCount      = usageNode.path("total_tokens").asInt();
+        int promptTokensCount     = usageFields.getInt(PROMPT_TOKENS_PATH, 0);
+        int completionTokensCount = usageFields.getInt(COMPLETION_TOKENS_PATH, 0);
+        int totalTokensCount      = usageFields.getInt(TOTAL_TOKENS_PATH, 0);
         return new OAITokenCounters(promptTokensCount, completionTokensCount, totalTokensCount);
     }
 
@@ -1,9 +1,7 @@
 package ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.usagemetricssupplier;
 
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.request.RequestEnvelope;
 import ai.learningsystems.gloobermkp.external.commons.domains.llm.ELLMEngineModel;
 import lombok.extern.slf4j.Slf4j;
 
@@ -12,13 +10,12 @@ import lombok.extern.slf4j.Slf4j;
 public class RequestBodyModelExtractor
 {
 
-    private final String requestBody;
+    private final RequestEnvelope envelope;
 
 
-    public RequestBodyModelExtractor(final String requestBody) {
+    public RequestBodyModelExtractor(final RequestEnvelope envelope) {
 
-        this.requestBody = requestBody;
-        log.info("RequestBody : " + requestBody);
+        this.envelope = envelope;
     }
 
 
@@ -34,14 +31,13 @@ public class RequestBodyModelExtractor
 
         try {
             
-            final ObjectMapper objectMapper      = new ObjectMapper();
-            final JsonNode     parsedRequestBody = objectMapper.readTree(requestBody);
-            final JsonNode     modelNode         = parsedRequestBody.path("model");
-            final String       model             = modelNode.asText();
+            // The model is extracted once per request by the envelope
+            final String model = envelope.getModel();
+            log.debug("Request model : {}", model);
             return ELLMEngineModel.getELLMEngineModel(model);
         }
-        catch (Exception jsonParseException) {
-            throw new RuntimeException("Error extracting llm model from request", jsonParseException);
+        catch (Exception exception) {
+            throw new RuntimeException("Error extracting llm model from request", exception);
         }
     }
 
@@ -1,10 +1,12 @@
 package ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.usagemetricssupplier;
 
+import static ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.OpenAIChatCompletionConstants.ATTRIBUTE_CONSUMED_TOKENS;
+
 import java.util.List;
 
 import org.springframework.http.ResponseEntity;
-import org.springframework.http.server.reactive.ServerHttpRequest;
-
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.proxy.ITokenizerService;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.request.RequestEnvelope;
 import ai.learningsystems.gloobermkp.external.commons.domains.metrics.usage.UsageMetrics;
 
 
@@ -22,10 +24,9 @@ public class ServiceUsageMetricsSupplier
      * OpenAI total_tokens count for non streamed reply is in the JSon
      * reply body field : replybody.usage.total_tokens
      */
-    public static UsageMetrics getMetrics(final ServerHttpRequest request, final String requestBody,
-            final ResponseEntity<String> response)
+    public static UsageMetrics getMetrics(final RequestEnvelope envelope, final ResponseEntity<String> response)
     {
-        final StandardRequestUsageMetricsSupplier metricsSupplier = new StandardRequestUsageMetricsSupplier(request, requestBody, response);
+        final StandardRequestUsageMetricsSupplier metricsSupplier = new StandardRequestUsageMetricsSupplier(envelope, response);
         return metricsSupplier.getMetrics();
     }
     
@@ -34,11 +35,55 @@ public class ServiceUsageMetricsSupplier
      * Count tokens in prompt request and list of chunks replies, sum them and build
      * the UsageMetrics map <name, usageMetric>
      */
-    public static UsageMetrics getMetrics(final ServerHttpRequest request, final String requestBody,
-            List<String> responseChunks)
+    public static UsageMetrics getMetrics(final RequestEnvelope envelope, List<String> responseChunks,
+            final ITokenizerService tokenizerService)
     {
-        final StreamRequestUsageMetricsSupplier metricsSupplier = new StreamRequestUsageMetricsSupplier(request, requestBody, responseChunks);
-        return metricsSupplier.getMetrics();
+        final StreamRequestUsageMetricsSupplier metricsSupplier = createStreamUsageAccumulator(envelope, tokenizerService);
+        responseChunks.forEach(metricsSupplier::onChunk);
+        return metricsSupplier.onComplete();
+    }
+    
+    
+    /**
+     * Create the accumulator counting tokens of a streamed reply chunk by chunk,
+     * with the proxy tokenizer encoding of the requested model
+     */
+    public static StreamRequestUsageMetricsSupplier createStreamUsageAccumulator(final RequestEnvelope envelope,
+            final ITokenizerService tokenizerService)
+    {
+        return new StreamRequestUsageMetricsSupplier(envelope, tokenizerService);
+    }
+    
+    
+    /**
+     * Retrieves the total tokens of the standard reply, as read by its usage metrics
+     * if they are computed, else from the reply body. -1 if the reply does not report its usage
+     */
+    public static int getConsumedTokens(final RequestEnvelope envelope, final ResponseEntity<String> response)
+    {
+        return envelope.getAttribute(ATTRIBUTE_CONSUMED_TOKENS, Integer.class)
+                .map(totalTokens -> totalTokens > 0 ? totalTokens : -1)
+                .orElseGet(() -> getConsumedTokens(response));
+    }
+    
+    
+    /**
+     * Retrieves the total tokens reported in the standard reply body
+     * replybody.usage.total_tokens, -1 if the reply does not report its usage
+     */
+    public static int getConsumedTokens(final ResponseEntity<String> response)
+    {
+        if (null == response.getBody())
+            return -1;
+        
+        try {
+            final int totalTokens = new ReplyBodyTokenCountersExtractor(response.getBody()).extractTokenCounters()
+                    .totalTokens();
+            return totalTokens > 0 ? totalTokens : -1;
+        }
+        catch (RuntimeException exception) {
+            return -1;
+        }
     }
     
 }
@@ -1,10 +1,11 @@
 package ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.usagemetricssupplier;
 
 
+import static ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.OpenAIChatCompletionConstants.ATTRIBUTE_CONSUMED_TOKENS;
+
 import org.springframework.http.ResponseEntity;
-import org.springframework.http.server.reactive.ServerHttpRequest;
 
-import ai.learningsystems.gloobermkp.espproxies.plugin.shared.utils.HttpRequestPropertyProvider;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.request.RequestEnvelope;
 import ai.learningsystems.gloobermkp.external.commons.domains.llm.ELLMEngineModel;
 import ai.learningsystems.gloobermkp.external.commons.domains.metrics.usage.ReplyTokenCountUsageMetric;
 import ai.learningsystems.gloobermkp.external.commons.domains.metrics.usage.RequestTokenCountUsageMetric;
@@ -16,17 +17,13 @@ import ai.learningsystems.gloobermkp.external.commons.domains.metrics.usage.Usag
 
 public class StandardRequestUsageMetricsSupplier {
 
-    @SuppressWarnings("unused")
-    private final ServerHttpRequest request;
-    private final String requestBody;
+    private final RequestEnvelope envelope;
     private final ResponseEntity<String> response;
 
     
-    public StandardRequestUsageMetricsSupplier(final ServerHttpRequest request, final String requestBody,
-            final ResponseEntity<String> response) {
+    public StandardRequestUsageMetricsSupplier(final RequestEnvelope envelope, final ResponseEntity<String> response) {
 
-        this.request = request;
-        this.requestBody = requestBody;
+        this.envelope = envelope;
         this.response = response;
     }
 
@@ -34,14 +31,16 @@ public class StandardRequestUsageMetricsSupplier {
      * Retrieves the total tokens count and build the UsageMetrics map<name, usageMetric>
      * OpenAI total_tokens count for non-streamed reply is in the JSON
      * reply body field: replybody.usage.total_tokens
+     * The total is kept in the envelope : the consumed tokens are then known without reading the reply again
      */
     public UsageMetrics getMetrics() {
         
-        final String servicePath = HttpRequestPropertyProvider.getServicePath(request);
-        final String serviceRef  = HttpRequestPropertyProvider.getServiceRef(request);
+        final String servicePath = envelope.getServicePath();
+        final String serviceRef  = envelope.getServiceRef();
         final ServiceLLMModelUSageMetric modelUsageMetric = extractRequestLLMModel();
         final OAITokenCounters tokensCounters = extractReplyTokensCounters();
         final UsageMetrics metrics = new UsageMetrics();
+        envelope.setAttribute(ATTRIBUTE_CONSUMED_TOKENS, tokensCounters.totalTokens());
 
         metrics.addMetricToComponent(servicePath, serviceRef, new RequestTokenCountUsageMetric(tokensCounters.promptTokens()));
         metrics.addMetricToComponent(servicePath, serviceRef, new ReplyTokenCountUsageMetric(tokensCounters.completionTokens()));
@@ -61,7 +60,7 @@ public class StandardRequestUsageMetricsSupplier {
     
     private ServiceLLMModelUSageMetric extractRequestLLMModel() {
         
-        final RequestBodyModelExtractor requestModelExtractor = new RequestBodyModelExtractor(requestBody);
+        final RequestBodyModelExtractor requestModelExtractor = new RequestBodyModelExtractor(envelope);
         final ELLMEngineModel model = requestModelExtractor.getLLMModel();
         return new ServiceLLMModelUSageMetric(model);
     }
@@ -1,53 +1,118 @@
 package ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.usagemetricssupplier;
 
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.knuddels.jtokkit.Encodings;
-import com.knuddels.jtokkit.api.ModelType;
 
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.proxy.ITokenizerService;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.request.RequestEnvelope;
+import reactor.core.publisher.Mono;
 
+
+/**
+ * Token counter of the prompt of a SSE exchange.
+ * <p>
+ * The prompt is known as soon as the request is received : {@link #start()}
+ * starts counting it on a worker thread while the reply is streamed,
+ * {@link #pendingCount()} tells when it is done and {@link #count()} reads the
+ * result at end of stream. {@link #count()} never waits for the early count :
+ * it runs on the same bounded scheduler, the early count may be queued behind it.
+ * <p>
+ * The message contents are read from the request body JSON tree shared by the
+ * request envelope : it is already parsed by the handler for streamed requests.
+ */
 public class StreamRequestTokenCounter
 {
     private static Logger log = LoggerFactory.getLogger(StreamRequestTokenCounter.class);
+    
+    private static final String MESSAGES_FIELD = "messages";
+    private static final String CONTENT_FIELD  = "content";
    
     
-    private final String request;
+    private final RequestEnvelope   envelope;
+    private final ITokenizerService tokenizerService;
+    private CompletableFuture<Integer> pendingCount;
     
     
-    public StreamRequestTokenCounter(final String request) {
+    public StreamRequestTokenCounter(final RequestEnvelope envelope, final ITokenizerService tokenizerService) {
         
-        this.request = request;
+        this.envelope         = envelope;
+        this.tokenizerService = tokenizerService;
     }
     
     /**
-     * Count token in request for SSE exchange.
+     * Starts counting the prompt tokens without blocking the caller.
+     */
+    public void start()
+    {
+
+        if (null == pendingCount)
+            pendingCount = tokenizerService.countTokensAsync(envelope.getModel(), this::extractAndConcatRequestMessages);
+    }
+
+
+    /**
+     * @return a {@link Mono} completing once the count started by {@link #start()}
+     *         is done, whatever its outcome, empty if none was started.
+     */
+    public Mono<Void> pendingCount()
+    {
+
+        if (null == pendingCount)
+            return Mono.empty();
+        // Cancelling the wait does not cancel the count
+        return Mono.fromFuture(pendingCount, true).onErrorResume(countException -> Mono.empty()).then();
+    }
+
+
+    /**
+     * Count token in request for SSE exchange, reading the count started by
+     * {@link #start()} if done, counting now otherwise.
      */
     public int count()
     {
 
-        try {
-            final String promptPart = extractAndConcatRequestMessages();
-            final int    tokenCount = Encodings.newDefaultEncodingRegistry().getEncodingForModel(ModelType.GPT_4O)
-                    .countTokens(promptPart);
-            log.info("countTokensInRequest() request : \n {} \n count: {}", promptPart, tokenCount);
-            return tokenCount;
+        if (null != pendingCount && !pendingCount.isDone()) {
+            log.debug("countTokensInRequest() early count not done, counting now");
+            pendingCount.cancel(false);
+        }
+        else if (null != pendingCount) {
+            try {
+                final int tokenCount = pendingCount.join();
+                log.debug("countTokensInRequest() count: {}", tokenCount);
+                return tokenCount;
+            }
+            catch (CompletionException countException) {
+                log.warn("countTokensInRequest() early count failed : {}, counting again",
+                        countException.getCause().toString());
+            }
         }
-        catch (IOException e) {
-            e.printStackTrace();
+        return countNow();
+    }
+
+
+    private int countNow()
+    {
+
+        if (envelope.getParsedBody().isMissingNode()) {
+            log.error("countTokensInRequest() request body is not valid JSON");
+            return -1;
         }
-        return -1;
+        final String promptPart = extractAndConcatRequestMessages();
+        final int    tokenCount = tokenizerService.countTokens(envelope.getModel(), promptPart);
+        // The prompt is user content : only its count is logged
+        log.debug("countTokensInRequest() count: {}", tokenCount);
+        return tokenCount;
     }
     
     
-    private String extractAndConcatRequestMessages() throws IOException
+    private String extractAndConcatRequestMessages()
     {
 
         final List<String> extractMessages = extractRequestMessages();
@@ -55,20 +120,15 @@ public class StreamRequestTokenCounter
     }
     
     
-    private List<String> extractRequestMessages() throws IOException
+    private List<String> extractRequestMessages()
     {
 
-        ObjectMapper objectMapper = new ObjectMapper();
-        JsonNode     rootNode     = objectMapper.readTree(request);
-        JsonNode     messagesNode = rootNode.path("messages");
-
-        List<String>       messageContents  = new ArrayList<>();
-        Iterator<JsonNode> messagesIterator = messagesNode.iterator();
-
-        while (messagesIterator.hasNext()) {
-            JsonNode message = messagesIterator.next();
-            String   content = message.path("content").asText();
-            messageContents.add(content);
+        // The body is not parsed again : the tree is shared with the other readers of the envelope
+        final List<String> messageContents = new ArrayList<>();
+        for (final JsonNode message : envelope.getParsedBody().path(MESSAGES_FIELD)) {
+            final JsonNode content = message.path(CONTENT_FIELD);
+            if (content.isValueNode() && !content.isNull())
+                messageContents.add(content.asText());
         }
         return messageContents;
     }
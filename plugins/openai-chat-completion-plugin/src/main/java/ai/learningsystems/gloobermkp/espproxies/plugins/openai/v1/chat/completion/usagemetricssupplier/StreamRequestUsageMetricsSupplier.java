@@ -1,53 +1,133 @@
 package ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.usagemetricssupplier;
 
+import static ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.OpenAIChatCompletionConstants.ATTRIBUTE_STREAM_USAGE_INJECTED;
+import static ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.OpenAIChatCompletionConstants.ATTRIBUTE_UPSTREAM_STREAM_USAGE;
 
-import java.util.List;
-
-import org.springframework.http.server.reactive.ServerHttpRequest;
-
-import ai.learningsystems.gloobermkp.espproxies.plugin.shared.utils.HttpRequestPropertyProvider;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.proxy.ITokenizerService;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandler.IStreamUsageAccumulator;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.request.RequestEnvelope;
 import ai.learningsystems.gloobermkp.external.commons.domains.llm.ELLMEngineModel;
 import ai.learningsystems.gloobermkp.external.commons.domains.metrics.usage.ReplyTokenCountUsageMetric;
 import ai.learningsystems.gloobermkp.external.commons.domains.metrics.usage.RequestTokenCountUsageMetric;
 import ai.learningsystems.gloobermkp.external.commons.domains.metrics.usage.ServiceLLMModelUSageMetric;
 import ai.learningsystems.gloobermkp.external.commons.domains.metrics.usage.TotalTokenCountUsageMetric;
 import ai.learningsystems.gloobermkp.external.commons.domains.metrics.usage.UsageMetrics;
+import reactor.core.publisher.Mono;
+
+
+
+/**
+ * Usage accumulator of a streamed reply : reply chunks are scanned as they are
+ * relayed and dropped, their delta contents are tokenized by slices on the proxy
+ * metrics scheduler while the stream goes on. {@link #onComplete()} only has the
+ * last slice left to tokenize.
+ * <p>
+ * When OpenAI reports the usage of the stream, its exact counters are used and
+ * local tokenization is only a fallback. The usage report chunk is not relayed
+ * to the caller if the caller did not ask for it.
+ * <p>
+ * Otherwise prompt tokens are counted concurrently with the streamed reply, from
+ * its first chunk : at end of stream only the completion side is left.
+ * <p>
+ * The accumulator is created by the proxy before the service handler sets the
+ * envelope attributes telling whether OpenAI reports the usage : they are read
+ * with the first chunk of the reply.
+ */
+public class StreamRequestUsageMetricsSupplier implements IStreamUsageAccumulator
+{
 
+    private final RequestEnvelope            envelope;
+    private final ITokenizerService          tokenizerService;
+    private final StreamRequestTokenCounter  streamRequestTokenCounter;
+    private StreamResponseTokenCounter       streamResponseTokenCounter;
+    private boolean                          isUsageChunkRelayed;
+    private boolean                          isLastChunkUsageReport;
+    private int                              completionTokens = -1;
+    private int                              totalTokens      = -1;
 
 
-public class StreamRequestUsageMetricsSupplier
-{
+    public StreamRequestUsageMetricsSupplier(final RequestEnvelope envelope, final ITokenizerService tokenizerService) {
+
+        this.envelope             = envelope;
+        this.tokenizerService     = tokenizerService;
+        streamRequestTokenCounter = new StreamRequestTokenCounter(envelope, tokenizerService);
+    }
+
+
+    @Override
+    public void onChunk(final String chunk)
+    {
+
+        isLastChunkUsageReport = responseTokenCounter().add(chunk);
+    }
 
-    private final ServerHttpRequest          request;
-    private final String                     requestBody;
-    private final StreamRequestTokenCounter  streamRequestTokenCounter;
-    private final StreamResponseTokenCounter streamResponseTokenCounter;
 
+    @Override
+    public boolean shouldRelay(final String chunk)
+    {
+
+        return isUsageChunkRelayed || !isLastChunkUsageReport;
+    }
 
-    public StreamRequestUsageMetricsSupplier(final ServerHttpRequest request, final String requestBody,
-            List<String> responseChunks) {
 
-        this.request               = request;
-        this.requestBody           = requestBody;
-        streamRequestTokenCounter  = new StreamRequestTokenCounter(requestBody);
-        streamResponseTokenCounter = new StreamResponseTokenCounter(responseChunks);
+    @Override
+    public boolean isContentChunk(final String chunk)
+    {
+
+        return responseTokenCounter().isLastChunkContent();
+    }
+
+
+    @Override
+    public Mono<Void> pendingWork()
+    {
+
+        return Mono.when(streamRequestTokenCounter.pendingCount(), responseTokenCounter().pendingCount());
+    }
+
+
+    @Override
+    public UsageMetrics onComplete()
+    {
+
+        return getMetrics();
+    }
+
+
+    @Override
+    public int getCompletionTokens()
+    {
+
+        return completionTokens;
+    }
+
+
+    @Override
+    public int getTotalTokens()
+    {
+
+        return totalTokens;
     }
 
 
     /**
-     * Count tokens in prompt request and list of chunks replies, sum them and build
-     * the UsageMetrics map <name, usageMetric>
+     * Use the usage reported by OpenAI if received, otherwise count tokens in prompt
+     * request, sum them with the reply chunks tokens counted so far and build the
+     * UsageMetrics map <name, usageMetric>
      */
     public UsageMetrics getMetrics()
     {
 
-        final String                     servicePath      = HttpRequestPropertyProvider.getServicePath(request);
-        final String                     serviceRef       = HttpRequestPropertyProvider.getServiceRef(request);
+        final String                     servicePath      = envelope.getServicePath();
+        final String                     serviceRef       = envelope.getServiceRef();
         final ServiceLLMModelUSageMetric modelUsageMetric = extractRequestLLMModel();
-        final int                        tokensInRequest  = streamRequestTokenCounter.count();
-        final int                        tokensInResponse = streamResponseTokenCounter.count();
-        final int                        totalToken       = tokensInRequest + tokensInResponse;
+        final OAITokenCounters           tokenCounters    = countTokens();
+        final int                        tokensInRequest  = tokenCounters.promptTokens();
+        final int                        tokensInResponse = tokenCounters.completionTokens();
+        final int                        totalToken       = tokenCounters.totalTokens();
         final UsageMetrics               metrics          = new UsageMetrics();
+        completionTokens = tokensInResponse;
+        totalTokens      = totalToken;
         metrics.addMetricToComponent(servicePath, serviceRef, new RequestTokenCountUsageMetric(tokensInRequest));
         metrics.addMetricToComponent(servicePath, serviceRef, new ReplyTokenCountUsageMetric(tokensInResponse));
         metrics.addMetricToComponent(servicePath, serviceRef, new TotalTokenCountUsageMetric(totalToken));
@@ -57,10 +137,46 @@ public class StreamRequestUsageMetricsSupplier
     }
 
 
+    private OAITokenCounters countTokens()
+    {
+
+        final OAITokenCounters upstreamTokenCounters = responseTokenCounter().getUpstreamTokenCounters();
+        if (null != upstreamTokenCounters)
+            return upstreamTokenCounters;
+
+        final int tokensInRequest  = streamRequestTokenCounter.count();
+        final int tokensInResponse = responseTokenCounter().count();
+        return new OAITokenCounters(tokensInRequest, tokensInResponse, tokensInRequest + tokensInResponse);
+    }
+
+
+    /**
+     * @return the reply token counter, created with the first chunk once the
+     *         service handler told whether OpenAI reports the usage of the stream.
+     */
+    private StreamResponseTokenCounter responseTokenCounter()
+    {
+
+        if (null == streamResponseTokenCounter) {
+            final boolean isUpstreamUsageExpected = envelope
+                    .getAttribute(ATTRIBUTE_UPSTREAM_STREAM_USAGE, Boolean.class).orElse(false);
+            isUsageChunkRelayed        = !envelope.getAttribute(ATTRIBUTE_STREAM_USAGE_INJECTED, Boolean.class)
+                    .orElse(false);
+            streamResponseTokenCounter = new StreamResponseTokenCounter(envelope.getModel(), tokenizerService,
+                    isUpstreamUsageExpected);
+
+            // The prompt is counted while the reply is streamed, unless OpenAI is expected to report it
+            if (!isUpstreamUsageExpected)
+                streamRequestTokenCounter.start();
+        }
+        return streamResponseTokenCounter;
+    }
+
+
     private ServiceLLMModelUSageMetric extractRequestLLMModel()
     {
 
-        final RequestBodyModelExtractor requestModelExtractor = new RequestBodyModelExtractor(requestBody);
+        final RequestBodyModelExtractor requestModelExtractor = new RequestBodyModelExtractor(envelope);
         final ELLMEngineModel           model                 = requestModelExtractor.getLLMModel();
         return new ServiceLLMModelUSageMetric(model);
     }
@@ -2,95 +2,234 @@ package ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completi
 
 import static ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.OpenAIChatCompletionConstants.SSE_ENDOFSTREAM_MARKER;
 
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.knuddels.jtokkit.Encodings;
-import com.knuddels.jtokkit.api.ModelType;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.proxy.ITokenizerService;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.json.ExtractedJsonFields;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.json.JsonFieldExtractionException;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.json.JsonFieldExtractor;
+import reactor.core.publisher.Mono;
 
+
+/**
+ * Incremental token counter of a SSE reply.
+ * <p>
+ * Chunks are only scanned as they arrive, on the event loop relaying them : their
+ * delta contents are appended to a text buffer and the chunk is dropped. Once the
+ * buffer holds a slice of {@value #SLICE_LENGTH} characters, the slice is handed
+ * over to the tokenizer service, which counts it on the proxy metrics scheduler
+ * while the stream goes on : only a running count and the slices being counted
+ * are kept, and {@link #count()} only has the last slice left to tokenize.
+ * <p>
+ * When OpenAI reports the usage of the stream (stream_options.include_usage),
+ * the counters of its last usage chunk are kept : local tokenization is then
+ * only a fallback if that chunk never comes. The delta contents are then only
+ * sliced once the buffer holds {@value #MAX_DEFERRED_LENGTH} characters, so that
+ * most replies are never tokenized.
+ */
 public class StreamResponseTokenCounter
 {
     
     private static Logger log = LoggerFactory.getLogger(StreamResponseTokenCounter.class);
     
-    private final List<String> completeResponse;
+    private static final String             DELTA_CONTENT_PATH     = "choices[].delta.content";
+    private static final String             PROMPT_TOKENS_PATH     = "usage.prompt_tokens";
+    private static final String             COMPLETION_TOKENS_PATH = "usage.completion_tokens";
+    private static final String             TOTAL_TOKENS_PATH      = "usage.total_tokens";
+    private static final JsonFieldExtractor CHUNK_EXTRACTOR        = JsonFieldExtractor.compile(DELTA_CONTENT_PATH,
+            PROMPT_TOKENS_PATH, COMPLETION_TOKENS_PATH, TOTAL_TOKENS_PATH);
+    /** Length of the delta contents slices tokenized while the reply is streamed. */
+    static final int                        SLICE_LENGTH           = 8 * 1024;
+    /** Length of the delta contents kept untokenized while a usage report is expected. */
+    static final int                        MAX_DEFERRED_LENGTH    = 64 * 1024;
+    
+    private final String            model;
+    private final ITokenizerService tokenizerService;
+    private final boolean           upstreamUsageExpected;
+    private final int               sliceLength;
+    private final StringBuilder     deferredContents = new StringBuilder();
+    private final Deque<Slice>      pendingSlices    = new ArrayDeque<>();
+    private int                     tokenCount;
+    private int                     chunkCount;
+    private boolean                 isLastChunkContent;
+    private OAITokenCounters        upstreamTokenCounters;
+    
     
-    public StreamResponseTokenCounter(final List<String> completeResponse) {
+    public StreamResponseTokenCounter(final String model, final ITokenizerService tokenizerService) {
         
-        this.completeResponse = completeResponse;
+        this(model, tokenizerService, false);
     }
     
     
     /**
-     * Count token in reply for SSE exchange.
+     * @param upstreamUsageExpected {@code true} when OpenAI has been asked to
+     *                              report the usage of the stream : local
+     *                              tokenization is then only a fallback.
      */
-    public int count()
+    public StreamResponseTokenCounter(final String model, final ITokenizerService tokenizerService,
+            final boolean upstreamUsageExpected) {
+        
+        this.model                 = model;
+        this.tokenizerService      = tokenizerService;
+        this.upstreamUsageExpected = upstreamUsageExpected;
+        this.sliceLength           = upstreamUsageExpected ? MAX_DEFERRED_LENGTH : SLICE_LENGTH;
+    }
+    
+    
+    /**
+     * Buffers the delta contents of a reply chunk, or records the usage reported by the chunk.
+     * No tokenization is done here : a full slice of the buffer is only submitted for counting.
+     * 
+     * @return {@code true} if the chunk is the usage report chunk.
+     */
+    public boolean add(final String jsonResponse)
     {
-        String consolidatedSSEContent;
+
+        isLastChunkContent = false;
+        if (null == jsonResponse || SSE_ENDOFSTREAM_MARKER.equals(jsonResponse.trim())) {
+            return false;
+        }
         try {
-            consolidatedSSEContent = extractAndConcatResponseContents();
-            int tokenCount = Encodings.newDefaultEncodingRegistry()
-                    .getEncodingForModel(ModelType.GPT_4O)
-                    .countTokens(consolidatedSSEContent);
-            log.info("countTokensInResponse() request : \n {} \n count: {}", consolidatedSSEContent, tokenCount);
-            return tokenCount;
+            final ExtractedJsonFields chunkFields = CHUNK_EXTRACTOR.extract(jsonResponse);
+            for (final String content : chunkFields.getStrings(DELTA_CONTENT_PATH)) {
+                if (content.isEmpty()) {
+                    continue;
+                }
+                isLastChunkContent = true;
+                deferredContents.append(content);
+            }
+            chunkCount++;
+            if (deferredContents.length() >= sliceLength) {
+                submitSlice();
+            }
+            
+            if (chunkFields.has(TOTAL_TOKENS_PATH)) {
+                upstreamTokenCounters = new OAITokenCounters(chunkFields.getInt(PROMPT_TOKENS_PATH, 0),
+                        chunkFields.getInt(COMPLETION_TOKENS_PATH, 0), chunkFields.getInt(TOTAL_TOKENS_PATH, 0));
+                return true;
+            }
         }
-        catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+        catch (JsonFieldExtractionException extractionException) {
+            log.error("add() parsing error on : \n{}\n continuing to next response ! ", jsonResponse);
         }
-        return -1;
+        return false;
     }
-
     
-    private String extractAndConcatResponseContents() throws IOException
+    
+    /**
+     * @return {@code true} if the last chunk added carried delta content.
+     */
+    public boolean isLastChunkContent()
     {
-
-        final List<String> extractMessages = extractResponseContents();
-        return concatExtractedResponseContents(extractMessages);
+        return isLastChunkContent;
     }
-
-
-    private List<String> extractResponseContents() throws IOException
+    
+    
+    /**
+     * @return the usage reported by OpenAI, {@code null} if not received.
+     */
+    public OAITokenCounters getUpstreamTokenCounters()
     {
-            
-        final ObjectMapper objectMapper      = new ObjectMapper();
-        final List<String> extractedContents = new ArrayList<>();
-        for (String jsonResponse : completeResponse) {
-
-            if (SSE_ENDOFSTREAM_MARKER.equals(jsonResponse.trim())) {
-                continue;
+        return upstreamTokenCounters;
+    }
+    
+    
+    /**
+     * @return a {@link Mono} completing once the slices submitted so far are
+     *         counted, whatever their outcome.
+     */
+    public Mono<Void> pendingCount()
+    {
+        // Cancelling the wait does not cancel the counts
+        return Mono.when(pendingSlices.stream()
+                .map(slice -> Mono.fromFuture(slice.count(), true).onErrorResume(countException -> Mono.empty()))
+                .toList());
+    }
+    
+    
+    /**
+     * Token count in reply for SSE exchange : the counts of the submitted slices
+     * plus the tokens of the delta contents left in the buffer. A slice whose count
+     * is not done or failed is counted again here. CPU bound : to be called off the
+     * event loop, once {@link #pendingCount()} completed.
+     */
+    public int count()
+    {
+        if (upstreamUsageExpected && (deferredContents.length() > 0 || !pendingSlices.isEmpty())) {
+            log.warn("No usage reported by upstream, falling back to local tokenization of the reply");
+        }
+        while (!pendingSlices.isEmpty()) {
+            tokenCount += countOf(pendingSlices.poll());
+        }
+        if (deferredContents.length() > 0) {
+            tokenCount += tokenizerService.countTokens(model, deferredContents.toString());
+            deferredContents.setLength(0);
+        }
+        log.debug("countTokensInResponse() chunks : {} count: {}", chunkCount, tokenCount);
+        return tokenCount;
+    }
+    
+    
+    /**
+     * Hands the buffered delta contents over to the tokenizer service, up to the
+     * last whitespace of their second half so that slices are split between words,
+     * and folds the counts of the slices already done into the running count.
+     */
+    private void submitSlice()
+    {
+        
+        while (!pendingSlices.isEmpty() && pendingSlices.peek().count().isDone()) {
+            tokenCount += countOf(pendingSlices.poll());
+        }
+        
+        // Texts without whitespace (e.g. CJK) are sliced as is
+        final int minSliceEnd = deferredContents.length() / 2;
+        int       sliceEnd    = deferredContents.length() - 1;
+        while (sliceEnd > minSliceEnd && !Character.isWhitespace(deferredContents.charAt(sliceEnd))) {
+            sliceEnd--;
+        }
+        if (sliceEnd <= minSliceEnd) {
+            sliceEnd = deferredContents.length();
+            if (Character.isHighSurrogate(deferredContents.charAt(sliceEnd - 1))) {
+                sliceEnd--;
             }
+        }
+        final String text = deferredContents.substring(0, sliceEnd);
+        deferredContents.delete(0, sliceEnd);
+        pendingSlices.add(new Slice(text, tokenizerService.countTokensAsync(model, () -> text)));
+    }
+    
+    
+    private int countOf(final Slice slice)
+    {
+        
+        if (slice.count().isDone()) {
             try {
-               
-                final JsonNode rootNode    = objectMapper.readTree(jsonResponse);
-                final JsonNode choicesNode = rootNode.path("choices");
-                for (final JsonNode choiceNode : choicesNode) {
-                    final String content = choiceNode.path("delta").path("content").asText();
-                    if (!content.isEmpty()) {
-                        extractedContents.add(content);
-                    }
-                }
+                return slice.count().join();
             }
-            catch (IOException ioEx) {
-                log.error("extractResponseContents() parsing error on : \n{}\n continuing to next response ! ", jsonResponse);
-                continue;
+            catch (CompletionException | CancellationException countException) {
+                log.warn("countTokensInResponse() slice count failed : {}, counting again", countException.toString());
             }
         }
-        return extractedContents;
+        else {
+            slice.count().cancel(false);
+        }
+        return tokenizerService.countTokens(model, slice.text());
     }
-
-
-    private String concatExtractedResponseContents(final List<String> extractedContents)
+    
+    
+    /**
+     * A slice of the delta contents, kept until its count is folded.
+     */
+    private record Slice(String text, CompletableFuture<Integer> count)
     {
-
-        return String.join(" ", extractedContents);
     }
     
 }
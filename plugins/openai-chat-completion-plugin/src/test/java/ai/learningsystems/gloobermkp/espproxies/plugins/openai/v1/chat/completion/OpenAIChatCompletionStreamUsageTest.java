@@ -0,0 +1,225 @@
+package ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion;
+
+
+import static ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.OpenAIChatCompletionConstants.HANDLER_PROPERTY_STREAM_USAGE_FROM_UPSTREAM;
+import static ai.learningsystems.gloobermkp.espproxies.plugins.openai.v1.chat.completion.OpenAIChatCompletionConstants.SSE_ENDOFSTREAM_MARKER;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.proxy.IProxyService;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.proxy.ITokenizerService;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandler.IStreamUsageAccumulator;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.request.RequestEnvelope;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+
+
+/**
+ * Usage accounting of streamed chat completions, the service handler being driven as the proxy does : the
+ * stream usage accumulator is created before the handler handles the request, then every upstream chunk is
+ * folded into it and relayed to the caller only if it tells so.
+ */
+class OpenAIChatCompletionStreamUsageTest
+{
+
+    private static final String SERVICE_URI     = "http://localhost:8586/openai/v1/chat/completions";
+    private static final String REQUEST_BODY    = """
+            {"model":"gpt-4o-mini","stream":true,"messages":[{"role":"user","content":"Say hello to the world"}]%s}""";
+    private static final String USAGE_REQUESTED = ",\"stream_options\":{\"include_usage\":true}";
+
+    private static final String ROLE_CHUNK    = chunk("{\"role\":\"assistant\",\"content\":\"\"}");
+    private static final String CONTENT_CHUNK = chunk("{\"content\":\"Hello world\"}");
+    private static final String FINISH_CHUNK  = chunk("{}");
+    private static final String USAGE_CHUNK   = """
+            {"id":"chatcmpl-1","object":"chat.completion.chunk","choices":[],\
+            "usage":{"prompt_tokens":12,"completion_tokens":2,"total_tokens":14}}""";
+
+    private final AtomicInteger           tokenizedTexts  = new AtomicInteger();
+    private final AtomicReference<String> upstreamRequest = new AtomicReference<>();
+
+
+    @Test
+    void injectedUsageReportIsNotRelayed()
+    {
+
+        final StreamedReply reply = stream(Map.of(HANDLER_PROPERTY_STREAM_USAGE_FROM_UPSTREAM, "true"),
+                String.format(REQUEST_BODY, ""), List.of(ROLE_CHUNK, CONTENT_CHUNK, FINISH_CHUNK, USAGE_CHUNK));
+
+        assertTrue(upstreamRequest.get().contains("\"include_usage\":true"), upstreamRequest.get());
+        assertEquals(List.of(ROLE_CHUNK, CONTENT_CHUNK, FINISH_CHUNK, SSE_ENDOFSTREAM_MARKER), reply.relayed());
+        assertEquals(14, reply.usageAccumulator().getTotalTokens());
+        assertEquals(2, reply.usageAccumulator().getCompletionTokens());
+        assertEquals(0, tokenizedTexts.get(), "Usage reported by OpenAI tokenized locally");
+    }
+
+
+    @Test
+    void requestedUsageReportIsRelayed()
+    {
+
+        final StreamedReply reply = stream(Map.of(HANDLER_PROPERTY_STREAM_USAGE_FROM_UPSTREAM, "true"),
+                String.format(REQUEST_BODY, USAGE_REQUESTED),
+                List.of(ROLE_CHUNK, CONTENT_CHUNK, FINISH_CHUNK, USAGE_CHUNK));
+
+        assertEquals(List.of(ROLE_CHUNK, CONTENT_CHUNK, FINISH_CHUNK, USAGE_CHUNK, SSE_ENDOFSTREAM_MARKER),
+                reply.relayed());
+        assertEquals(14, reply.usageAccumulator().getTotalTokens());
+        assertEquals(0, tokenizedTexts.get(), "Usage reported by OpenAI tokenized locally");
+    }
+
+
+    @Test
+    void missingUsageReportFallsBackToLocalTokenization()
+    {
+
+        final StreamedReply reply = stream(Map.of(HANDLER_PROPERTY_STREAM_USAGE_FROM_UPSTREAM, "true"),
+                String.format(REQUEST_BODY, ""), List.of(ROLE_CHUNK, CONTENT_CHUNK, FINISH_CHUNK));
+
+        assertEquals(List.of(ROLE_CHUNK, CONTENT_CHUNK, FINISH_CHUNK, SSE_ENDOFSTREAM_MARKER), reply.relayed());
+        // "Say hello to the world" and "Hello world" with one token per word
+        assertEquals(2, reply.usageAccumulator().getCompletionTokens());
+        assertEquals(7, reply.usageAccumulator().getTotalTokens());
+    }
+
+
+    @Test
+    void streamWithoutUsageReportIsTokenizedLocally()
+    {
+
+        final StreamedReply reply = stream(Map.of(), String.format(REQUEST_BODY, ""),
+                List.of(ROLE_CHUNK, CONTENT_CHUNK, FINISH_CHUNK));
+
+        assertFalse(upstreamRequest.get().contains("include_usage"), upstreamRequest.get());
+        assertEquals(List.of(ROLE_CHUNK, CONTENT_CHUNK, FINISH_CHUNK, SSE_ENDOFSTREAM_MARKER), reply.relayed());
+        assertEquals(2, reply.usageAccumulator().getCompletionTokens());
+        assertEquals(7, reply.usageAccumulator().getTotalTokens());
+    }
+
+
+    /**
+     * Streams a request through the service handler the way the proxy does, the upstream replying with the
+     * given chunks then the end-of-stream marker.
+     */
+    private StreamedReply stream(final Map<String, String> handlerProperties, final String requestBody,
+            final List<String> upstreamChunks)
+    {
+
+        final OpenAIChatCompletionServiceHandler serviceHandler = new OpenAIChatCompletionServiceHandler(
+                new UpstreamProxyService(upstreamChunks), handlerProperties);
+        final ServerHttpRequest                  request        = MockServerHttpRequest.post(SERVICE_URI)
+                .contentType(MediaType.APPLICATION_JSON)
+                .contentLength(requestBody.getBytes(StandardCharsets.UTF_8).length)
+                .body(requestBody);
+        final RequestEnvelope                    envelope       = RequestEnvelope.of(request, requestBody);
+
+        final IStreamUsageAccumulator usageAccumulator = serviceHandler.createStreamUsageAccumulator(envelope);
+        final List<String>            relayed          = new ArrayList<>();
+        serviceHandler.handleRequest(request, envelope)
+                .cast(ServerSentEvent.class)
+                .map(event -> (String) event.data())
+                .doOnNext(chunk -> {
+                    usageAccumulator.onChunk(chunk);
+                    if (usageAccumulator.shouldRelay(chunk))
+                        relayed.add(chunk);
+                })
+                .blockLast(Duration.ofSeconds(5));
+
+        usageAccumulator.pendingWork().block(Duration.ofSeconds(5));
+        assertNotNull(usageAccumulator.onComplete());
+        return new StreamedReply(relayed, usageAccumulator);
+    }
+
+
+    private static String chunk(final String delta)
+    {
+
+        return String.format("""
+                {"id":"chatcmpl-1","object":"chat.completion.chunk","choices":[{"index":0,"delta":%s}]}""", delta);
+    }
+
+
+    private record StreamedReply(List<String> relayed, IStreamUsageAccumulator usageAccumulator)
+    {
+
+    }
+
+
+    /**
+     * Proxy replying to streamed requests with canned upstream chunks. Its tokenizer counts one token per word.
+     */
+    private final class UpstreamProxyService implements IProxyService, ITokenizerService
+    {
+
+        private final List<String> upstreamChunks;
+
+
+        private UpstreamProxyService(final List<String> upstreamChunks) {
+
+            this.upstreamChunks = upstreamChunks;
+        }
+
+
+        @Override
+        public Mono<ResponseEntity<String>> executeRequest(final ServerHttpRequest retargetedRequest,
+                final String requestBody)
+        {
+
+            return Mono.error(new UnsupportedOperationException("Streamed requests only"));
+        }
+
+
+        @Override
+        public Flux<ServerSentEvent<String>> executeStreamingRequest(final ServerHttpRequest retargetedRequest,
+                final String requestBody)
+        {
+
+            upstreamRequest.set(requestBody);
+            return Flux.concat(Flux.fromIterable(upstreamChunks), Flux.just(SSE_ENDOFSTREAM_MARKER))
+                    .map(chunk -> ServerSentEvent.builder(chunk).build());
+        }
+
+
+        @Override
+        public void cleanCacheForService(final String serviceName)
+        {
+
+        }
+
+
+        @Override
+        public ITokenizerService getTokenizerService()
+        {
+
+            return this;
+        }
+
+
+        @Override
+        public int countTokens(final String model, final String text)
+        {
+
+            tokenizedTexts.incrementAndGet();
+            return null == text || text.isBlank() ? 0 : text.strip().split("\\s+").length;
+        }
+
+    }
+
+}
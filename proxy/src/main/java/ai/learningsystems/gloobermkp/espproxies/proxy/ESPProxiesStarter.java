@@ -1,5 +1,7 @@
 package ai.learningsystems.gloobermkp.espproxies.proxy;
 
+import java.util.Map;
+
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.ComponentScan;
@@ -11,7 +13,10 @@ public class ESPProxiesStarter
     
     public static void main(String[] args) {
     
-        SpringApplication.run(ESPProxiesStarter.class, args);
+        final SpringApplication application = new SpringApplication(ESPProxiesStarter.class);
+        // Defaults only : application.yml management settings take precedence
+        application.setDefaultProperties(Map.of("management.endpoints.web.exposure.include", "health,prometheus"));
+        application.run(args);
     }
     
 }
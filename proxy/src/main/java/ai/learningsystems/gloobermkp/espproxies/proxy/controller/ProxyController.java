@@ -10,6 +10,7 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ServerWebExchange;
 
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.request.RequestEnvelope;
 import ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore.GenericProxyService;
 import lombok.extern.slf4j.Slf4j;
 import reactor.core.publisher.Flux;
@@ -63,9 +64,11 @@ public class ProxyController
             @RequestBody(required = false) final String requestBody)
     {
 
-        // Here we receive the requestBody
+        // Here we receive the requestBody : it is wrapped once in an envelope shared by every component
+        // handling the request so that it is parsed only once
         final ServerHttpRequest request              = exchange.getRequest();
-        final boolean           isStreamingRequested = proxyService.isStreamReplyRequested(request, requestBody);
+        final RequestEnvelope   envelope             = RequestEnvelope.of(request, requestBody);
+        final boolean           isStreamingRequested = proxyService.isStreamReplyRequested(envelope);
 
         log.debug(
                 "proxyRequest() received request - fullEndpoint: {}, headers: {}, method: {}, queryParams: {}, "
@@ -75,17 +78,17 @@ public class ProxyController
                 requestBody != null ? requestBody : "No body");
 
         if (isStreamingRequested) {
-            return handleStreamRequest(request, requestBody);
+            return handleStreamRequest(envelope);
         }
-        return proxyService.proxyRequest(request, requestBody);
+        return proxyService.proxyRequest(envelope);
 
     }
 
 
-    private Flux<ServerSentEvent<String>> handleStreamRequest(final ServerHttpRequest request, final String requestBody)
+    private Flux<ServerSentEvent<String>> handleStreamRequest(final RequestEnvelope envelope)
     {
 
-        Flux<?> eventStream = proxyService.proxyRequest(request, requestBody);
+        Flux<?> eventStream = proxyService.proxyRequest(envelope);
 
         @SuppressWarnings("unchecked")
         Flux<ServerSentEvent<String>> sseStream = eventStream instanceof Flux
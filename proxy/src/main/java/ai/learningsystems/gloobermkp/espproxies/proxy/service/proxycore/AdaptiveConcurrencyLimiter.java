@@ -0,0 +1,227 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.ConcurrencyLimitConfiguration;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.ratelimiter.RequestNotPermitted;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
+
+
+
+/**
+ * Adaptive limit of the concurrent requests to a service, following the gradient algorithm.
+ * <p>
+ * Each request completing normally samples the upstream latency (time to the first reply or event). The long
+ * term latency is an exponential average rising over {@code longWindow} samples and falling over a few ones, so
+ * that it tracks the latency of the unloaded upstream. The limit estimate is the current
+ * limit scaled by the gradient {@code tolerance * longTermLatency / sampleLatency}, clamped to [0.5, 1], plus
+ * a headroom of {@code sqrt(limit)} requests : the limit grows while the latency stays within tolerance and
+ * shrinks when the upstream starts queuing. Failed requests (transport errors, 429 or 5xx replies) multiply the
+ * limit by {@code backoffRatio}. Estimates are smoothed and the limit kept within [{@code minLimit},
+ * {@code maxLimit}]. Requests beyond the limit are rejected with a {@link ConcurrencyLimitExceededException}.
+ * <p>
+ * Rejections by the circuit breaker, the rate limiters or the caller cancelling are not samples : they tell
+ * nothing about the upstream latency.
+ * <p>
+ * Meters, tagged by {@code service} : {@code espproxies.concurrency.limit} and
+ * {@code espproxies.concurrency.inflight}, gauges of the current limit and of the requests in flight.
+ */
+@Slf4j
+public class AdaptiveConcurrencyLimiter
+{
+
+    private static final String LIMIT_METER    = "espproxies.concurrency.limit";
+    private static final String INFLIGHT_METER = "espproxies.concurrency.inflight";
+
+    private static final double MIN_GRADIENT   = 0.5;
+    /** The number of first samples averaged evenly, and the number of samples the latency is lowered over. */
+    private static final int    WARMUP_SAMPLES = 10;
+
+    private final String        serviceName;
+    private final int           minLimit;
+    private final int           maxLimit;
+    private final double        tolerance;
+    private final double        backoffRatio;
+    private final double        smoothing;
+    private final int           longWindow;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final MeterRegistry meterRegistry;
+    private final List<Meter>   meters;
+    private volatile int        limit;
+    private double              estimatedLimit;
+    private double              longTermLatency;
+    private long                samples;
+
+
+    /**
+     * Creates the concurrency limiter of a service.
+     *
+     * @param serviceName   the name of the service.
+     * @param configuration the concurrency limit configuration of the service.
+     * @param meterRegistry the registry the limiter gauges are published to.
+     */
+    public AdaptiveConcurrencyLimiter(final String serviceName, final ConcurrencyLimitConfiguration configuration,
+            final MeterRegistry meterRegistry) {
+
+        this.serviceName    = serviceName;
+        this.minLimit       = Math.max(1, configuration.getMinLimit());
+        this.maxLimit       = Math.max(minLimit, configuration.getMaxLimit());
+        this.tolerance      = Math.max(1.0, configuration.getTolerance());
+        this.backoffRatio   = configuration.getBackoffRatio();
+        this.smoothing      = configuration.getSmoothing();
+        this.longWindow     = Math.max(1, configuration.getLongWindow());
+        this.estimatedLimit = Math.min(maxLimit, Math.max(minLimit, configuration.getInitialLimit()));
+        this.limit          = (int) estimatedLimit;
+        this.meterRegistry  = meterRegistry;
+        this.meters         = List.of(
+                Gauge.builder(LIMIT_METER, this, AdaptiveConcurrencyLimiter::getLimit)
+                        .tag("service", serviceName)
+                        .strongReference(true)
+                        .register(meterRegistry),
+                Gauge.builder(INFLIGHT_METER, inFlight, AtomicInteger::get)
+                        .tag("service", serviceName)
+                        .strongReference(true)
+                        .register(meterRegistry));
+    }
+
+
+    /**
+     * Runs an upstream call within the concurrency limit : the call is subscribed to only if the requests in
+     * flight are below the limit, and stays in flight until it terminates or is cancelled.
+     *
+     * @param call the upstream call.
+     * @return the upstream call replies, or a {@link ConcurrencyLimitExceededException} error.
+     */
+    public <T> Flux<T> limit(final Flux<T> call)
+    {
+
+        return Flux.defer(() -> {
+            final int inFlightAtStart = tryAcquire();
+            if (inFlightAtStart < 0)
+                return Flux.error(new ConcurrencyLimitExceededException(String.format(
+                        "Request to service %s rejected : %d requests in flight", serviceName, limit)));
+
+            final long          startTime = System.nanoTime();
+            final AtomicBoolean sampled   = new AtomicBoolean();
+            return call
+                    .doOnNext(reply -> {
+                        if (sampled.compareAndSet(false, true))
+                            onSample(System.nanoTime() - startTime, inFlightAtStart, false);
+                    })
+                    .doOnError(error -> {
+                        if (!isRejection(error) && sampled.compareAndSet(false, true))
+                            onSample(System.nanoTime() - startTime, inFlightAtStart, isDrop(error));
+                    })
+                    .doFinally(signalType -> {
+                        if (SignalType.ON_COMPLETE == signalType && sampled.compareAndSet(false, true))
+                            onSample(System.nanoTime() - startTime, inFlightAtStart, false);
+                        inFlight.decrementAndGet();
+                    });
+        });
+    }
+
+
+    /**
+     * @return the current limit of the requests in flight.
+     */
+    public int getLimit()
+    {
+
+        return limit;
+    }
+
+
+    /**
+     * @return the number of requests in flight.
+     */
+    public int getInFlight()
+    {
+
+        return inFlight.get();
+    }
+
+
+    /**
+     * Unregisters the limiter gauges.
+     */
+    public void close()
+    {
+
+        meters.forEach(meterRegistry::remove);
+    }
+
+
+    /**
+     * @return the number of requests in flight including this one, -1 if the limit is reached.
+     */
+    private int tryAcquire()
+    {
+
+        while (true) {
+            final int current = inFlight.get();
+            if (current >= limit)
+                return -1;
+            if (inFlight.compareAndSet(current, current + 1))
+                return current + 1;
+        }
+    }
+
+
+    private synchronized void onSample(final long latency, final int inFlightAtStart, final boolean didDrop)
+    {
+
+        final double newLimit;
+        if (didDrop)
+            newLimit = estimatedLimit * backoffRatio;
+        else {
+            // The first samples are averaged evenly. Then the long term latency rises slowly, over the long
+            // window, so that sustained queuing does not become the new normal, and falls quickly when the
+            // upstream recovers from a brownout
+            samples++;
+            final long window = samples <= WARMUP_SAMPLES ? samples
+                    : latency > longTermLatency ? longWindow : WARMUP_SAMPLES;
+            longTermLatency += (latency - longTermLatency) / window;
+
+            // An under-used limit is not grown on samples that do not test it
+            if (inFlightAtStart < estimatedLimit / 2)
+                return;
+
+            final double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, tolerance * longTermLatency / latency));
+            newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        }
+
+        estimatedLimit = Math.min(maxLimit,
+                Math.max(minLimit, estimatedLimit * (1 - smoothing) + newLimit * smoothing));
+        if ((int) estimatedLimit != limit) {
+            limit = (int) estimatedLimit;
+            log.debug("Concurrency limit of service {} set to {}", serviceName, limit);
+        }
+    }
+
+
+    // Rejected before reaching the target service
+    private static boolean isRejection(final Throwable error)
+    {
+
+        return error instanceof CallNotPermittedException || error instanceof RequestNotPermitted
+                || error instanceof TokenRateLimitExceededException;
+    }
+
+
+    // Client errors tell nothing about the upstream load
+    private static boolean isDrop(final Throwable error)
+    {
+
+        return UpstreamStatusException.isUpstreamFailure(error);
+    }
+
+}
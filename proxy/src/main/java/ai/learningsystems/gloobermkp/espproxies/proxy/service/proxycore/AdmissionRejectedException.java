@@ -0,0 +1,18 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+/**
+ * Thrown when a request waits for its fair admission to its service for longer than it may, or when too many
+ * requests already wait : the request is rejected before being sent upstream.
+ */
+public class AdmissionRejectedException extends RuntimeException
+{
+
+    private static final long serialVersionUID = -2470315589162048731L;
+
+    public AdmissionRejectedException(final String message) {
+
+        super(message);
+    }
+
+}
@@ -0,0 +1,117 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import static ai.learningsystems.gloobermkp.espproxies.plugin.shared.utils.HttpHeaderSharedConstants.X_GMKP_XSP_DEADLINE;
+import static ai.learningsystems.gloobermkp.espproxies.plugin.shared.utils.HttpHeaderSharedConstants.X_GMKP_XSP_PRIORITY;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.http.HttpHeaders;
+
+import lombok.extern.slf4j.Slf4j;
+
+
+
+/**
+ * What the admission of a request to its target service depends on : its caller, its priority class and its
+ * deadline, read from the {@code X-GMKP-XSP-SERVICEREF}, {@code X-GMKP-XSP-PRIORITY} and
+ * {@code X-GMKP-XSP-DEADLINE} headers.
+ *
+ * @param serviceRef the serviceRef of the caller.
+ * @param priority   the priority class of the request, {@link Priority#STANDARD} if not given or unknown.
+ * @param deadline   the {@link System#nanoTime()} after which the reply is of no use, {@link #NO_DEADLINE} if
+ *                   not given or invalid.
+ */
+@Slf4j
+public record AdmissionRequest(String serviceRef, Priority priority, long deadline)
+{
+
+    /** Deadline of the requests without one. */
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+
+    /**
+     * The priority classes of the requests, from the most urgent.
+     */
+    public enum Priority
+    {
+        /** A user is waiting for the reply. */
+        INTERACTIVE,
+        /** The default class. */
+        STANDARD,
+        /** Background work, served when nothing more urgent waits. */
+        BATCH
+    }
+
+
+    /**
+     * Reads the admission request of the request being proxied.
+     *
+     * @param executionContext the execution context of the request.
+     * @return the admission request.
+     */
+    public static AdmissionRequest of(final ProxyExecutionContext executionContext)
+    {
+
+        final HttpHeaders headers = executionContext.requestEnvelope().getRequest().getHeaders();
+        return new AdmissionRequest(executionContext.serviceRef(), parsePriority(headers.getFirst(X_GMKP_XSP_PRIORITY)),
+                parseDeadline(headers.getFirst(X_GMKP_XSP_DEADLINE)));
+    }
+
+
+    /**
+     * @return {@code true} if the deadline of the request has passed.
+     */
+    public boolean isExpired()
+    {
+
+        return NO_DEADLINE != deadline && System.nanoTime() - deadline >= 0;
+    }
+
+
+    /**
+     * @return the nanoseconds left until the deadline, {@link Long#MAX_VALUE} if the request has none.
+     */
+    public long remainingNanos()
+    {
+
+        return NO_DEADLINE == deadline ? Long.MAX_VALUE : deadline - System.nanoTime();
+    }
+
+
+    private static Priority parsePriority(final String value)
+    {
+
+        if (null == value)
+            return Priority.STANDARD;
+        try {
+            return Priority.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+        catch (IllegalArgumentException e) {
+            log.debug("Unknown priority class {} ignored", value);
+            return Priority.STANDARD;
+        }
+    }
+
+
+    private static long parseDeadline(final String value)
+    {
+
+        if (null == value)
+            return NO_DEADLINE;
+        try {
+            // Wall clock deadline converted to the monotonic clock the waits are measured with
+            final long remainingMillis = Instant.parse(value.trim()).toEpochMilli() - System.currentTimeMillis();
+            final long remainingNanos  = TimeUnit.MILLISECONDS.toNanos(Math.max(-1, remainingMillis));
+            return remainingNanos >= TimeUnit.DAYS.toNanos(1) ? NO_DEADLINE : System.nanoTime() + remainingNanos;
+        }
+        catch (DateTimeException | ArithmeticException e) {
+            log.debug("Invalid deadline {} ignored", value);
+            return NO_DEADLINE;
+        }
+    }
+
+}
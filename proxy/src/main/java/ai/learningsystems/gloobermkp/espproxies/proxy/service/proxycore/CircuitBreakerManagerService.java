@@ -42,12 +42,9 @@ public class CircuitBreakerManagerService
             final CircuitBreakerConfiguration circuitBreakerConfiguration)
     {
 
-        CircuitBreaker circuitBreaker = circuitBreakerRegistry.circuitBreaker(serviceName);
-       
-        if (null != circuitBreaker)
-            return circuitBreaker;
-        
-        return createCircuitBreaker(serviceName, circuitBreakerConfiguration); 
+        // The registry creates missing circuit breakers with its default configuration : look it up first
+        return circuitBreakerRegistry.find(serviceName)
+                .orElseGet(() -> createCircuitBreaker(serviceName, circuitBreakerConfiguration));
     }
 
     
@@ -66,6 +63,9 @@ public class CircuitBreakerManagerService
             CircuitBreakerConfiguration circuitBreakerConfiguration) 
     {
         
+        if (null == circuitBreakerConfiguration)
+            return circuitBreakerRegistry.circuitBreaker(serviceName);
+
         final CircuitBreakerConfig circuitBreakerConfig = CircuitBreakerConfig.custom()
                 .slidingWindowSize(circuitBreakerConfiguration.getSlidingWindowSize())
                 .failureRateThreshold(circuitBreakerConfiguration.getFailureRateThreshold())
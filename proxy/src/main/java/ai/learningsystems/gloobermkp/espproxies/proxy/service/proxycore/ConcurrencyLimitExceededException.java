@@ -0,0 +1,18 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+/**
+ * Thrown when the requests in flight to a service reach its adaptive concurrency limit : the request is rejected
+ * before being sent upstream.
+ */
+public class ConcurrencyLimitExceededException extends RuntimeException
+{
+
+    private static final long serialVersionUID = -2470185337963120641L;
+
+    public ConcurrencyLimitExceededException(final String message) {
+
+        super(message);
+    }
+
+}
@@ -0,0 +1,73 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.ConcurrencyLimitConfiguration;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+
+
+/**
+ * Owns the {@link AdaptiveConcurrencyLimiter} of the services whose {@link ConcurrencyLimitConfiguration}
+ * enables it.
+ * <p>
+ * A limiter is created at the first request to its service and discarded with the other per service
+ * resilience components when the service is unregistered or reloaded : the learnt limit starts over from the
+ * initial limit of the new configuration.
+ */
+@Service
+@Slf4j
+public class ConcurrencyLimiterManagerService
+{
+
+    private final MeterRegistry                           meterRegistry;
+    private final Map<String, AdaptiveConcurrencyLimiter> concurrencyLimiters = new ConcurrentHashMap<>();
+
+
+    @Autowired
+    public ConcurrencyLimiterManagerService(final MeterRegistry meterRegistry) {
+
+        this.meterRegistry = meterRegistry;
+    }
+
+
+    /**
+     * Retrieves the concurrency limiter of a service, creating it if not present.
+     *
+     * @param serviceName                   the name of the external service.
+     * @param concurrencyLimitConfiguration the concurrency limit configuration of the service.
+     * @return the concurrency limiter of the service, {@code null} if its concurrency is not limited.
+     */
+    public AdaptiveConcurrencyLimiter getConcurrencyLimiter(final String serviceName,
+            final ConcurrencyLimitConfiguration concurrencyLimitConfiguration)
+    {
+
+        if (null == concurrencyLimitConfiguration || !concurrencyLimitConfiguration.isEnabled())
+            return null;
+
+        return concurrencyLimiters.computeIfAbsent(serviceName, key -> {
+            log.info("Concurrency limiter created for service : {} with configuration : {}", serviceName,
+                    concurrencyLimitConfiguration.toJson());
+            return new AdaptiveConcurrencyLimiter(serviceName, concurrencyLimitConfiguration, meterRegistry);
+        });
+    }
+
+
+    /**
+     * Removes the concurrency limiter of a service and unregisters its gauges.
+     */
+    public void removeConcurrencyLimiter(final String serviceName)
+    {
+
+        final AdaptiveConcurrencyLimiter concurrencyLimiter = concurrencyLimiters.remove(serviceName);
+        if (null != concurrencyLimiter)
+            concurrencyLimiter.close();
+    }
+
+}
@@ -0,0 +1,18 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+/**
+ * Thrown when the deadline of a request passes before it is sent upstream : the request is rejected without
+ * using any quota of its service.
+ */
+public class DeadlineExceededException extends AdmissionRejectedException
+{
+
+    private static final long serialVersionUID = 3069418725536140792L;
+
+    public DeadlineExceededException(final String message) {
+
+        super(message);
+    }
+
+}
@@ -0,0 +1,71 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.FairSchedulingConfiguration;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+
+
+/**
+ * Owns the {@link FairAdmissionQueue} of the services whose {@link FairSchedulingConfiguration} enables it.
+ * <p>
+ * A queue is created at the first request to its service and discarded with the other per service resilience
+ * components when the service is unregistered or reloaded.
+ */
+@Service
+@Slf4j
+public class FairAdmissionManagerService
+{
+
+    private final MeterRegistry                   meterRegistry;
+    private final Map<String, FairAdmissionQueue> admissionQueues = new ConcurrentHashMap<>();
+
+
+    @Autowired
+    public FairAdmissionManagerService(final MeterRegistry meterRegistry) {
+
+        this.meterRegistry = meterRegistry;
+    }
+
+
+    /**
+     * Retrieves the fair admission queue of a service, creating it if not present.
+     *
+     * @param serviceName                 the name of the external service.
+     * @param fairSchedulingConfiguration the fair scheduling configuration of the service.
+     * @return the fair admission queue of the service, {@code null} if its requests are not scheduled.
+     */
+    public FairAdmissionQueue getAdmissionQueue(final String serviceName,
+            final FairSchedulingConfiguration fairSchedulingConfiguration)
+    {
+
+        if (null == fairSchedulingConfiguration || !fairSchedulingConfiguration.isEnabled())
+            return null;
+
+        return admissionQueues.computeIfAbsent(serviceName, key -> {
+            log.info("Fair admission queue created for service : {} with configuration : {}", serviceName,
+                    fairSchedulingConfiguration.toJson());
+            return new FairAdmissionQueue(serviceName, fairSchedulingConfiguration, meterRegistry);
+        });
+    }
+
+
+    /**
+     * Removes the fair admission queue of a service and unregisters its meters.
+     */
+    public void removeAdmissionQueue(final String serviceName)
+    {
+
+        final FairAdmissionQueue admissionQueue = admissionQueues.remove(serviceName);
+        if (null != admissionQueue)
+            admissionQueue.close();
+    }
+
+}
@@ -0,0 +1,542 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.FairSchedulingConfiguration;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.FairSchedulingConfiguration.TenantPolicy;
+import ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore.AdmissionRequest.Priority;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+
+
+/**
+ * Weighted fair admission of the requests of the callers (tenants) of a service to its target service, tenants
+ * being identified by their serviceRef.
+ * <p>
+ * At most {@code maxConcurrency} requests are in flight upstream. While the service is not saturated, requests
+ * are admitted right away, lock free : the service and tenant in-flight counters are incremented with
+ * compare-and-set. Beyond, requests wait and are admitted as requests in flight complete :
+ * <ul>
+ * <li>by priority class first : a waiting {@link Priority#INTERACTIVE} request is admitted before any
+ * {@link Priority#STANDARD} one, which is admitted before any {@link Priority#BATCH} one,</li>
+ * <li>then following start-time fair queuing between the tenants : each waiting request is tagged with a virtual
+ * start time, the later of the current virtual time and the virtual finish time of the previous request of its
+ * tenant, which advances by {@code 1 / weight} per request. The tenant whose next request has the earliest tag
+ * is admitted first, so that each tenant gets a share of the admissions proportional to its weight whatever its
+ * request rate. Tenants below their guaranteed {@code minInFlight} go first, tenants at their
+ * {@code maxInFlight} are skipped,</li>
+ * <li>then by earliest deadline between the requests of a tenant.</li>
+ * </ul>
+ * Only the (tenant, priority class) lanes with waiting requests are ordered, in a sorted set : admitting a
+ * request costs {@code O(log tenants)}. The lanes are guarded by a single lock, taken only while requests wait.
+ * <p>
+ * Requests are rejected with an {@link AdmissionRejectedException} when they wait longer than
+ * {@code maxQueueWait}, or when {@code maxQueuedRequests} requests already wait and none of a lower priority
+ * class can be shed to make room. Requests whose deadline passes while waiting are rejected with a
+ * {@link DeadlineExceededException} before being admitted.
+ * <p>
+ * At most {@value #MAX_TENANTS} tenants are tracked : serviceRefs are supplied by callers, further tenants share
+ * a single {@value #OVERFLOW_TENANT} tenant.
+ * <p>
+ * Meters, tagged by {@code service} : {@code espproxies.fair.queue.wait}, timer of the time requests waited for
+ * admission, also tagged by {@code tenant}, and {@code espproxies.fair.queue.queued}, gauge of the waiting
+ * requests.
+ */
+@Slf4j
+public class FairAdmissionQueue
+{
+
+    private static final String WAIT_METER      = "espproxies.fair.queue.wait";
+    private static final String QUEUED_METER    = "espproxies.fair.queue.queued";
+    private static final int    MAX_TENANTS     = 10_000;
+    private static final String OVERFLOW_TENANT = "_other";
+
+    private final String                    serviceName;
+    private final int                       maxConcurrency;
+    private final int                       maxQueuedRequests;
+    private final Duration                  maxQueueWait;
+    private final TenantPolicy              defaultTenantPolicy;
+    private final Map<String, TenantPolicy> tenantPolicies;
+    private final MeterRegistry             meterRegistry;
+    private final Gauge                     queuedGauge;
+    private final Map<String, Tenant>       tenants       = new ConcurrentHashMap<>();
+    private final AtomicInteger             inFlight      = new AtomicInteger();
+    private final AtomicInteger             queued        = new AtomicInteger();
+    private final ReentrantLock             lock          = new ReentrantLock();
+    /** Lanes with waiting requests whose tenant is below its maximum in flight, in admission order. */
+    private final TreeSet<Lane>             eligibleLanes = new TreeSet<>(Lane.ADMISSION_ORDER);
+    private double                          virtualTime;
+    private long                            sequence;
+
+
+    /**
+     * Creates the fair admission queue of a service.
+     *
+     * @param serviceName   the name of the service.
+     * @param configuration the fair scheduling configuration of the service.
+     * @param meterRegistry the registry the queue meters are published to.
+     */
+    public FairAdmissionQueue(final String serviceName, final FairSchedulingConfiguration configuration,
+            final MeterRegistry meterRegistry) {
+
+        this.serviceName         = serviceName;
+        this.maxConcurrency      = Math.max(1, configuration.getMaxConcurrency());
+        this.maxQueuedRequests   = configuration.getMaxQueuedRequests();
+        this.maxQueueWait        = Duration.parse(configuration.getMaxQueueWait());
+        this.defaultTenantPolicy = null != configuration.getDefaultTenantPolicy()
+                ? configuration.getDefaultTenantPolicy()
+                : new TenantPolicy();
+        this.tenantPolicies      = null != configuration.getTenantPolicies()
+                ? Map.copyOf(configuration.getTenantPolicies())
+                : Map.of();
+        this.meterRegistry       = meterRegistry;
+        this.queuedGauge         = Gauge.builder(QUEUED_METER, queued, AtomicInteger::get)
+                .tag("service", serviceName)
+                .strongReference(true)
+                .register(meterRegistry);
+    }
+
+
+    /**
+     * Runs an upstream call once admitted : the call is subscribed to when the request is admitted, and stays
+     * in flight until it terminates or is cancelled.
+     *
+     * @param admissionRequest the caller, priority class and deadline of the request.
+     * @param call             the upstream call.
+     * @return the upstream call replies, or an {@link AdmissionRejectedException} error.
+     */
+    public <T> Flux<T> admit(final AdmissionRequest admissionRequest, final Flux<T> call)
+    {
+
+        return Flux.defer(() -> {
+            final Tenant tenant    = tenantOf(admissionRequest.serviceRef());
+            final long   startTime = System.nanoTime();
+
+            // Fast path : no request waits, the request is admitted if the service is not saturated
+            if (0 == queued.get() && tryAcquire(tenant)) {
+                tenant.waitTimer.record(0, TimeUnit.NANOSECONDS);
+                return call.doFinally(signalType -> release(tenant));
+            }
+
+            return enqueue(tenant, admissionRequest)
+                    .doOnSuccess(admitted -> tenant.waitTimer.record(System.nanoTime() - startTime,
+                            TimeUnit.NANOSECONDS))
+                    .thenMany(Flux.defer(() -> call.doFinally(signalType -> release(tenant))));
+        });
+    }
+
+
+    /**
+     * Unregisters the queue meters.
+     */
+    public void close()
+    {
+
+        meterRegistry.remove(queuedGauge);
+        tenants.values().forEach(tenant -> meterRegistry.remove(tenant.waitTimer));
+    }
+
+
+    private Tenant tenantOf(final String serviceRef)
+    {
+
+        final Tenant tenant = tenants.get(serviceRef);
+        if (null != tenant)
+            return tenant;
+
+        final String name = tenants.size() < MAX_TENANTS ? serviceRef : OVERFLOW_TENANT;
+        return tenants.computeIfAbsent(name, key -> new Tenant(key, tenantPolicies.getOrDefault(key,
+                defaultTenantPolicy), Timer.builder(WAIT_METER)
+                        .tag("service", serviceName)
+                        .tag("tenant", key)
+                        .register(meterRegistry)));
+    }
+
+
+    /**
+     * Takes an in-flight slot of the service and of the tenant, if both are available.
+     */
+    private boolean tryAcquire(final Tenant tenant)
+    {
+
+        if (!tenant.tryAcquire())
+            return false;
+        while (true) {
+            final int current = inFlight.get();
+            if (current >= maxConcurrency) {
+                tenant.inFlight.decrementAndGet();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1))
+                return true;
+        }
+    }
+
+
+    private void release(final Tenant tenant)
+    {
+
+        tenant.inFlight.decrementAndGet();
+        inFlight.decrementAndGet();
+        if (queued.get() > 0)
+            dispatch(tenant);
+    }
+
+
+    private Mono<Void> enqueue(final Tenant tenant, final AdmissionRequest admissionRequest)
+    {
+
+        if (queued.incrementAndGet() > maxQueuedRequests && !shedLowerPriority(admissionRequest.priority())) {
+            queued.decrementAndGet();
+            return Mono.error(rejected(tenant, maxQueuedRequests + " requests are already waiting"));
+        }
+
+        final Waiter waiter;
+        lock.lock();
+        try {
+            final Lane   lane     = tenant.lanes[admissionRequest.priority().ordinal()];
+            final double startTag = Math.max(virtualTime, tenant.lastFinishTag);
+            tenant.lastFinishTag = startTag + 1.0 / tenant.weight;
+            waiter               = new Waiter(lane, startTag, admissionRequest.deadline(), sequence++);
+            lane.waiters.add(waiter);
+            if (waiter == lane.waiters.first())
+                reposition(lane);
+        }
+        finally {
+            lock.unlock();
+        }
+        // A request in flight may have completed since the fast path failed
+        dispatch(null);
+
+        // The wait ends at the deadline of the request if it comes first
+        final long    remainingNanos = admissionRequest.remainingNanos();
+        final boolean deadlineFirst  = remainingNanos < maxQueueWait.toNanos();
+        return waiter.admission.asMono()
+                // Also run when the wait times out
+                .doOnCancel(() -> abandon(tenant, waiter))
+                .timeout(deadlineFirst ? Duration.ofNanos(Math.max(0, remainingNanos)) : maxQueueWait,
+                        Mono.defer(() -> Mono.error(deadlineFirst ? deadlineExceeded(tenant)
+                                : rejected(tenant, "not admitted within " + maxQueueWait))));
+    }
+
+
+    /**
+     * Makes room for a request by shedding the waiting request of the lowest priority class with the latest
+     * deadline, if its class is lower than the one of the request.
+     *
+     * @return {@code true} if a waiting request was shed.
+     */
+    private boolean shedLowerPriority(final Priority priority)
+    {
+
+        final Lane   lane;
+        final Waiter shed;
+        lock.lock();
+        try {
+            lane = eligibleLanes.isEmpty() ? null : eligibleLanes.last();
+            if (null == lane || lane.priority.compareTo(priority) <= 0 || !lane.waiters.last().cancel())
+                return false;
+            shed = lane.waiters.pollLast();
+            queued.decrementAndGet();
+            reposition(lane);
+        }
+        finally {
+            lock.unlock();
+        }
+        shed.admission.tryEmitError(rejected(lane.tenant, "shed for a request of priority " + priority));
+        return true;
+    }
+
+
+    /**
+     * Admits waiting requests while the service is not saturated.
+     *
+     * @param releasedTenant the tenant a request in flight completed for, whose order may have changed,
+     *                       {@code null} if none.
+     */
+    private void dispatch(final Tenant releasedTenant)
+    {
+
+        final List<Waiter> admitted = new ArrayList<>();
+        final List<Waiter> expired  = new ArrayList<>();
+        lock.lock();
+        try {
+            if (null != releasedTenant)
+                reposition(releasedTenant);
+
+            while (inFlight.get() < maxConcurrency && !eligibleLanes.isEmpty()) {
+                final Lane   lane   = eligibleLanes.first();
+                final Tenant tenant = lane.tenant;
+                final Waiter waiter = lane.waiters.first();
+                if (waiter.isExpired()) {
+                    // Rejected without taking any slot
+                    lane.waiters.pollFirst();
+                    if (waiter.cancel()) {
+                        queued.decrementAndGet();
+                        expired.add(waiter);
+                    }
+                    reposition(lane);
+                    continue;
+                }
+
+                if (!tryAcquire(tenant)) {
+                    // Back in order if the service got saturated by the fast path, out until a release otherwise
+                    reposition(tenant);
+                    if (inFlight.get() >= maxConcurrency)
+                        break;
+                    continue;
+                }
+
+                lane.waiters.pollFirst();
+                if (waiter.admit()) {
+                    virtualTime = Math.max(virtualTime, waiter.startTag);
+                    queued.decrementAndGet();
+                    admitted.add(waiter);
+                }
+                else {
+                    // Abandoned concurrently
+                    tenant.inFlight.decrementAndGet();
+                    inFlight.decrementAndGet();
+                }
+                reposition(tenant);
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+        admitted.forEach(waiter -> waiter.admission.tryEmitEmpty());
+        expired.forEach(waiter -> waiter.admission.tryEmitError(deadlineExceeded(waiter.tenant)));
+    }
+
+
+    /**
+     * Withdraws a waiting request whose caller cancelled or whose wait timed out, or releases its slots if it
+     * was admitted meanwhile.
+     */
+    private void abandon(final Tenant tenant, final Waiter waiter)
+    {
+
+        if (!waiter.cancel()) {
+            if (waiter.isAdmitted())
+                release(tenant);
+            return;
+        }
+
+        queued.decrementAndGet();
+        lock.lock();
+        try {
+            final Lane lane = waiter.lane;
+            if (lane.waiters.remove(waiter))
+                reposition(lane);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Re-inserts the lanes of a tenant in the admission order. Called with the lock held.
+     */
+    private void reposition(final Tenant tenant)
+    {
+
+        for (final Lane lane : tenant.lanes)
+            reposition(lane);
+    }
+
+
+    /**
+     * Re-inserts a lane in the admission order according to its current state. Called with the lock held.
+     */
+    private void reposition(final Lane lane)
+    {
+
+        if (lane.eligible) {
+            eligibleLanes.remove(lane);
+            lane.eligible = false;
+        }
+        if (lane.waiters.isEmpty() || lane.tenant.isAtMaxInFlight())
+            return;
+
+        lane.belowMinInFlight = lane.tenant.inFlight.get() < lane.tenant.minInFlight;
+        lane.headStartTag     = lane.waiters.first().startTag;
+        lane.eligible         = true;
+        eligibleLanes.add(lane);
+    }
+
+
+    private AdmissionRejectedException rejected(final Tenant tenant, final String reason)
+    {
+
+        return new AdmissionRejectedException(String.format("Request of %s to service %s rejected : %s",
+                tenant.name, serviceName, reason));
+    }
+
+
+    private DeadlineExceededException deadlineExceeded(final Tenant tenant)
+    {
+
+        return new DeadlineExceededException(String.format(
+                "Request of %s to service %s rejected : its deadline passed while waiting", tenant.name,
+                serviceName));
+    }
+
+
+    /**
+     * A caller of the service, with a lane of waiting requests per priority class.
+     */
+    private static final class Tenant
+    {
+
+        private final String        name;
+        private final int           weight;
+        private final int           minInFlight;
+        private final int           maxInFlight;
+        private final Timer         waitTimer;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final Lane[]        lanes    = new Lane[Priority.values().length];
+        // Guarded by the queue lock
+        private double              lastFinishTag;
+
+
+        private Tenant(final String name, final TenantPolicy policy, final Timer waitTimer) {
+
+            this.name        = name;
+            this.weight      = Math.max(1, policy.getWeight());
+            this.minInFlight = policy.getMinInFlight();
+            this.maxInFlight = policy.getMaxInFlight() > 0 ? policy.getMaxInFlight() : Integer.MAX_VALUE;
+            this.waitTimer   = waitTimer;
+            for (final Priority priority : Priority.values())
+                lanes[priority.ordinal()] = new Lane(this, priority);
+        }
+
+
+        private boolean tryAcquire()
+        {
+
+            while (true) {
+                final int current = inFlight.get();
+                if (current >= maxInFlight)
+                    return false;
+                if (inFlight.compareAndSet(current, current + 1))
+                    return true;
+            }
+        }
+
+
+        private boolean isAtMaxInFlight()
+        {
+
+            return inFlight.get() >= maxInFlight;
+        }
+    }
+
+
+    /**
+     * The requests of a tenant waiting in a priority class, by earliest deadline. Guarded by the queue lock, its
+     * admission order fields are only changed while it is out of the eligible set.
+     */
+    private static final class Lane
+    {
+
+        private static final Comparator<Lane> ADMISSION_ORDER = Comparator
+                .comparing((Lane lane) -> lane.priority)
+                .thenComparing(lane -> !lane.belowMinInFlight)
+                .thenComparingDouble(lane -> lane.headStartTag)
+                .thenComparing(lane -> lane.tenant.name);
+
+        private final Tenant          tenant;
+        private final Priority        priority;
+        private final TreeSet<Waiter> waiters = new TreeSet<>(Waiter.DEADLINE_ORDER);
+        private double                headStartTag;
+        private boolean               belowMinInFlight;
+        private boolean               eligible;
+
+
+        private Lane(final Tenant tenant, final Priority priority) {
+
+            this.tenant   = tenant;
+            this.priority = priority;
+        }
+    }
+
+
+    /**
+     * A request waiting for admission.
+     */
+    private static final class Waiter
+    {
+
+        private static final Comparator<Waiter> DEADLINE_ORDER = Comparator
+                .comparingLong((Waiter waiter) -> waiter.deadline)
+                .thenComparingLong(waiter -> waiter.sequence);
+
+        private static final int WAITING   = 0;
+        private static final int ADMITTED  = 1;
+        private static final int CANCELLED = 2;
+
+        private final Lane              lane;
+        private final Tenant            tenant;
+        private final double            startTag;
+        private final long              deadline;
+        private final long              sequence;
+        private final Sinks.Empty<Void> admission = Sinks.empty();
+        private final AtomicInteger     state     = new AtomicInteger(WAITING);
+
+
+        private Waiter(final Lane lane, final double startTag, final long deadline, final long sequence) {
+
+            this.lane     = lane;
+            this.tenant   = lane.tenant;
+            this.startTag = startTag;
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+
+
+        private boolean isExpired()
+        {
+
+            return AdmissionRequest.NO_DEADLINE != deadline && System.nanoTime() - deadline >= 0;
+        }
+
+
+        private boolean admit()
+        {
+
+            return state.compareAndSet(WAITING, ADMITTED);
+        }
+
+
+        private boolean cancel()
+        {
+
+            return state.compareAndSet(WAITING, CANCELLED);
+        }
+
+
+        private boolean isAdmitted()
+        {
+
+            return ADMITTED == state.get();
+        }
+    }
+
+}
@@ -10,19 +10,16 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.stereotype.Service;
-import org.springframework.util.LinkedMultiValueMap;
-import org.springframework.util.MultiValueMap;
-import org.springframework.web.reactive.function.client.WebClient;
 
 import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.proxy.IProxyService;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.proxy.ITokenizerService;
 import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandler.IServiceHandler;
 import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandler.IServiceHandlerFactory;
 import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.IServiceHandlerRegistry;
 import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration;
 import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.ServiceProperties;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.request.RequestEnvelope;
 import ai.learningsystems.gloobermkp.external.commons.domains.web.RequestModifier;
-import io.github.resilience4j.circuitbreaker.CircuitBreaker;
-import io.github.resilience4j.ratelimiter.RateLimiter;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
@@ -37,52 +34,100 @@ public class GenericProxyService implements IProxyService
 {
 
 
-    private final WebClient.Builder            webClientBuilder;
-    private final IServiceHandlerRegistry      serviceHandlerRegistry;
-    private final CircuitBreakerManagerService circuitBreakerManagerService;
-    private final RateLimiterManagerService    rateLimiterManagerService;
+    private final WebClientManagerService          webClientManagerService;
+    private final IServiceHandlerRegistry          serviceHandlerRegistry;
+    private final CircuitBreakerManagerService     circuitBreakerManagerService;
+    private final RateLimiterManagerService        rateLimiterManagerService;
+    private final TokenizerService                 tokenizerService;
+    private final MetricsComputationService        metricsComputationService;
+    private final ProxyMetricsService              proxyMetricsService;
+    private final ResponseCacheManagerService      responseCacheManagerService;
+    private final RequestCoalescingManagerService  requestCoalescingManagerService;
+    private final ConcurrencyLimiterManagerService concurrencyLimiterManagerService;
+    private final FairAdmissionManagerService      fairAdmissionManagerService;
+    private final UpstreamBalancerManagerService   upstreamBalancerManagerService;
+    private final RequestHedgingManagerService     requestHedgingManagerService;
+    private final RequestRetryManagerService       requestRetryManagerService;
+    private final StreamFailoverManagerService     streamFailoverManagerService;
+    private final UpstreamTimeoutManagerService    upstreamTimeoutManagerService;
     @SuppressWarnings("unused")
-    private final ApplicationContext           applicationContext;
-
-    private WebClient       client;
-    private IServiceHandler serviceHandler;
+    private final ApplicationContext               applicationContext;
 
 
     /**
      * Constructs the GenericProxyService with the necessary dependencies.
      *
-     * @param webClientBuilder       the WebClient builder for creating HTTP
-     *                               clients.
+     * @param webClientManagerService the manager of the long-lived per service
+     *                               WebClients.
      * @param serviceConfig          the service configuration containing ESP
      *                               properties.
      * @param circuitBreakerRegistry the registry for managing circuit breakers.
      * @param rateLimiterRegistry    the registry for managing rate limiters.
+     * @param tokenizerService       the tokenizer shared with plugins.
+     * @param metricsComputationService the scheduler usage metrics are computed on.
+     * @param proxyMetricsService    the Micrometer instrumentation of the proxied exchanges.
+     * @param responseCacheManagerService the manager of the per service response caches.
+     * @param requestCoalescingManagerService the manager of the per service request coalescers.
+     * @param concurrencyLimiterManagerService the manager of the per service adaptive concurrency limiters.
+     * @param fairAdmissionManagerService the manager of the per service fair admission queues.
+     * @param upstreamBalancerManagerService the manager of the per service upstream target balancers.
+     * @param requestHedgingManagerService the manager of the per service request hedgers.
+     * @param requestRetryManagerService the manager of the per service request retriers.
+     * @param streamFailoverManagerService the manager of the per service stream failovers.
+     * @param upstreamTimeoutManagerService the manager of the per service upstream timeouts.
      * @param applicationContext     the application context for retrieving beans.
      */
     @Autowired
-    public GenericProxyService(final WebClient.Builder webClientBuilder,
+    public GenericProxyService(final WebClientManagerService webClientManagerService,
             final IServiceHandlerRegistry serviceHandlerRegistry,
             final CircuitBreakerManagerService circuitBreakerManagerService,
-            final RateLimiterManagerService rateLimiterManagerService, final ApplicationContext applicationContext) {
-
-        this.webClientBuilder             = webClientBuilder;
-        this.serviceHandlerRegistry       = serviceHandlerRegistry;
-        this.circuitBreakerManagerService = circuitBreakerManagerService;
-        this.rateLimiterManagerService    = rateLimiterManagerService;
-        this.applicationContext           = applicationContext;
+            final RateLimiterManagerService rateLimiterManagerService, final TokenizerService tokenizerService,
+            final MetricsComputationService metricsComputationService,
+            final ProxyMetricsService proxyMetricsService,
+            final ResponseCacheManagerService responseCacheManagerService,
+            final RequestCoalescingManagerService requestCoalescingManagerService,
+            final ConcurrencyLimiterManagerService concurrencyLimiterManagerService,
+            final FairAdmissionManagerService fairAdmissionManagerService,
+            final UpstreamBalancerManagerService upstreamBalancerManagerService,
+            final RequestHedgingManagerService requestHedgingManagerService,
+            final RequestRetryManagerService requestRetryManagerService,
+            final StreamFailoverManagerService streamFailoverManagerService,
+            final UpstreamTimeoutManagerService upstreamTimeoutManagerService,
+            final ApplicationContext applicationContext) {
+
+        this.webClientManagerService          = webClientManagerService;
+        this.serviceHandlerRegistry           = serviceHandlerRegistry;
+        this.circuitBreakerManagerService     = circuitBreakerManagerService;
+        this.rateLimiterManagerService        = rateLimiterManagerService;
+        this.tokenizerService                 = tokenizerService;
+        this.metricsComputationService        = metricsComputationService;
+        this.proxyMetricsService              = proxyMetricsService;
+        this.responseCacheManagerService      = responseCacheManagerService;
+        this.requestCoalescingManagerService  = requestCoalescingManagerService;
+        this.concurrencyLimiterManagerService = concurrencyLimiterManagerService;
+        this.fairAdmissionManagerService      = fairAdmissionManagerService;
+        this.upstreamBalancerManagerService   = upstreamBalancerManagerService;
+        this.requestHedgingManagerService     = requestHedgingManagerService;
+        this.requestRetryManagerService       = requestRetryManagerService;
+        this.streamFailoverManagerService     = streamFailoverManagerService;
+        this.upstreamTimeoutManagerService    = upstreamTimeoutManagerService;
+        this.applicationContext               = applicationContext;
     }
 
 
-    public boolean isStreamReplyRequested(final ServerHttpRequest request, final String requestBody)
+    /**
+     * Determines, through the service handler of the requested service, if a streamed reply is requested.
+     *
+     * @param envelope the {@link RequestEnvelope} of the incoming request.
+     * @return {@code true} if a streamed reply is requested; {@code false} otherwise.
+     */
+    public boolean isStreamReplyRequested(final RequestEnvelope envelope)
     {
 
 
-        final String                 serviceName           = extractServiceName(request);
+        final String                 serviceName           = extractServiceName(envelope.getRequest());
         final IServiceHandlerFactory serviceHandlerFactory = serviceHandlerRegistry
                 .getServiceHandlerFactory(serviceName);
-        serviceHandler = serviceHandlerFactory.createServiceHandler((IProxyService) this);
-        if (serviceHandler == null)
-            throw new RuntimeException();
 
         final ServiceHandlerConfiguration serviceConfig = serviceHandlerRegistry
                 .getServiceHandlerConfiguration(serviceName);
@@ -93,7 +138,12 @@ public class GenericProxyService implements IProxyService
         if (properties == null)
             throw new RuntimeException();
 
-        return serviceHandler.isStreamReplyRequested(request, requestBody);
+        final IServiceHandler serviceHandler = serviceHandlerFactory.createServiceHandler((IProxyService) this,
+                properties);
+        if (serviceHandler == null)
+            throw new RuntimeException();
+
+        return serviceHandler.isStreamReplyRequested(envelope);
 
     }
 
@@ -107,20 +157,19 @@ public class GenericProxyService implements IProxyService
      * The target service URI is dynamically resolved based on the service configuration.
      * </p>
      * 
-     * @param request the {@link ServerHttpRequest} representing the original incoming HTTP request. 
-     *                This contains the method, headers, query parameters, and other request details.
-     * @param requestBody a {@link String} containing the body of the HTTP request. This is required for 
-     *                    POST, PUT, or other methods where the body contains meaningful data. Can be {@code null} 
-     *                    if the request does not have a body.
+     * @param envelope the {@link RequestEnvelope} of the original incoming HTTP request. It wraps the
+     *                 request (method, headers, query parameters, ...) and its body, parsed at most once
+     *                 whatever the number of components reading it.
      * @return a {@link Flux} that represents the proxied response, which could be a standard response 
      *         or a stream of data in case of streaming requests. Each emitted element corresponds to 
      *         a part of the response.
      * @throws RuntimeException if no suitable service handler or service configuration is found for the requested service.
      *         This includes cases such as missing service properties, invalid configurations, or unregistered handlers.
      */
-    public Flux<?> proxyRequest(final ServerHttpRequest request, final String requestBody)
+    public Flux<?> proxyRequest(final RequestEnvelope envelope)
     {
 
+        final ServerHttpRequest     request              = envelope.getRequest();
         String                      serviceName          = extractServiceName(request);
         ServiceHandlerConfiguration serviceHandlerConfig = serviceHandlerRegistry
                 .getServiceHandlerConfiguration(serviceName);
@@ -133,31 +182,51 @@ public class GenericProxyService implements IProxyService
 
         final IServiceHandlerFactory serviceHandlerFactory = serviceHandlerRegistry
                 .getServiceHandlerFactory(serviceName);
-        serviceHandler = serviceHandlerFactory.createServiceHandler((IProxyService) this);
+        final IServiceHandler serviceHandler = serviceHandlerFactory.createServiceHandler((IProxyService) this,
+                properties);
         if (serviceHandler == null)
             return handleBadRequest("Service handler not found.");
 
-        boolean isStreamingRequested = serviceHandler.isStreamReplyRequested(request, requestBody);
+        boolean isStreamingRequested = serviceHandler.isStreamReplyRequested(envelope);
 
         URI targetServicePath = serviceHandlerRegistry.getTargetServiceURI(serviceName);
         if (null == targetServicePath)
             return handleBadRequest("Service has no target service URL.");
 
-        final ServerHttpRequest retargetedRequest =  RequestModifier.modifyUri(request, targetServicePath);
-
-        client = configureWebClient(properties);
+        final ServerHttpRequest retargetedRequest  = RequestModifier.modifyUri(request, targetServicePath);
+        final RequestEnvelope   retargetedEnvelope = envelope.withRequest(retargetedRequest);
+
+        // Everything the request execution needs is resolved once here and carried by an immutable
+        // per-request context : this singleton keeps no request state
+        final ProxyExecutionContext executionContext = new ProxyExecutionContext(
+                serviceHandlerRegistry.getServiceHandlerMetaData(serviceName), serviceHandler,
+                webClientManagerService.getWebClient(serviceName),
+                upstreamBalancerManagerService.getUpstreamBalancer(serviceName),
+                requestHedgingManagerService.getRequestHedger(serviceName, properties.getHedgingConfiguration()),
+                streamFailoverManagerService.getStreamFailover(serviceName,
+                        properties.getStreamFailoverConfiguration()),
+                upstreamTimeoutManagerService.getUpstreamTimeouts(serviceName, properties.getTimeoutConfiguration()),
+                retargetedEnvelope, System.currentTimeMillis());
         try {
 
-            final CircuitBreaker circuitBreaker = circuitBreakerManagerService.getCircuitBreaker(serviceName,
-                    properties.getCircuitBreakerConfiguration());
-            final RateLimiter    rateLimiter    = rateLimiterManagerService.getRateLimiter(serviceName,
-                    properties.getRateLimiterConfiguration());
+            final UpstreamGuards upstreamGuards = new UpstreamGuards(
+                    circuitBreakerManagerService.getCircuitBreaker(serviceName,
+                            properties.getCircuitBreakerConfiguration()),
+                    rateLimiterManagerService.getRateLimiter(serviceName, properties.getRateLimiterConfiguration()),
+                    concurrencyLimiterManagerService.getConcurrencyLimiter(serviceName,
+                            properties.getConcurrencyLimitConfiguration()),
+                    rateLimiterManagerService.getTokenRateLimiter(serviceName,
+                            properties.getRateLimiterConfiguration()),
+                    fairAdmissionManagerService.getAdmissionQueue(serviceName,
+                            properties.getFairSchedulingConfiguration()),
+                    requestRetryManagerService.getRequestRetrier(serviceName, properties.getRetryConfiguration()));
 
             return isStreamingRequested
-                    ? handleStreamingRequest(serviceHandler, retargetedRequest, requestBody, circuitBreaker,
-                            rateLimiter)
-                    : handleStandardRequest(serviceHandler, retargetedRequest, requestBody, circuitBreaker,
-                            rateLimiter);
+                    ? handleStreamingRequest(executionContext, retargetedRequest, upstreamGuards,
+                            requestCoalescingManagerService.getRequestCoalescer(serviceName))
+                    : handleStandardRequest(executionContext, retargetedRequest, upstreamGuards,
+                            responseCacheManagerService.getResponseCache(serviceName),
+                            requestCoalescingManagerService.getRequestCoalescer(serviceName));
         }
         catch (BeansException e) {
             return Mono.error(new RuntimeException("Handler not found for service: " + serviceName, e)).flux();
@@ -172,6 +241,10 @@ public class GenericProxyService implements IProxyService
      * handling the HTTP request using the configured WebClient and service handler. It supports dynamic 
      * configuration of headers, query parameters, and request body.
      * </p>
+     * <p>
+     * The WebClient and service handler are those of the request being proxied : they are read from the
+     * {@link ProxyExecutionContext} carried by the subscription context.
+     * </p>
      * 
      * @param retargetedRequest the {@link ServerHttpRequest} representing the retargeted HTTP request. Contains headers, 
      *                query parameters, and method details.
@@ -182,8 +255,11 @@ public class GenericProxyService implements IProxyService
     public Mono<ResponseEntity<String>> executeRequest(final ServerHttpRequest retargetedRequest, final String requestBody)
     {
 
-        final StandardRequestHandler standardRequestHandler = new StandardRequestHandler(client, serviceHandler);
-        return standardRequestHandler.executeRequest(retargetedRequest, requestBody);
+        return Mono.deferContextual(contextView -> {
+            final StandardRequestHandler standardRequestHandler = new StandardRequestHandler(
+                    ProxyExecutionContext.from(contextView), metricsComputationService, proxyMetricsService);
+            return standardRequestHandler.executeRequest(retargetedRequest, requestBody);
+        });
     }
 
 
@@ -202,8 +278,11 @@ public class GenericProxyService implements IProxyService
     public Flux<ServerSentEvent<String>> executeStreamingRequest(final ServerHttpRequest retargetedRequest, final String requestBody)
     {
 
-        final StreamingRequestHandler streamingRequestHandler = new StreamingRequestHandler(client, serviceHandler);
-        return streamingRequestHandler.executeStreamingRequest(retargetedRequest, requestBody);
+        return Flux.deferContextual(contextView -> {
+            final StreamingRequestHandler streamingRequestHandler = new StreamingRequestHandler(
+                    ProxyExecutionContext.from(contextView), metricsComputationService, proxyMetricsService);
+            return streamingRequestHandler.executeStreamingRequest(retargetedRequest, requestBody);
+        });
     }
 
 
@@ -218,24 +297,22 @@ public class GenericProxyService implements IProxyService
 
         circuitBreakerManagerService.removeCircuitBreaker(serviceName);
         rateLimiterManagerService.removeRateLimiter(serviceName);
+        responseCacheManagerService.removeResponseCache(serviceName);
+        requestCoalescingManagerService.removeRequestCoalescer(serviceName);
+        concurrencyLimiterManagerService.removeConcurrencyLimiter(serviceName);
+        fairAdmissionManagerService.removeAdmissionQueue(serviceName);
+        requestHedgingManagerService.removeRequestHedger(serviceName);
+        requestRetryManagerService.removeRequestRetrier(serviceName);
+        streamFailoverManagerService.removeStreamFailover(serviceName);
+        upstreamTimeoutManagerService.removeUpstreamTimeouts(serviceName);
     }
 
 
-    /**
-     * Configures a WebClient instance using the provided service properties.
-     * 
-     * @param properties the service properties containing the configuration for the
-     *                   WebClient.
-     * @return a configured WebClient instance.
-     */
-    private WebClient configureWebClient(final ServiceProperties properties)
+    @Override
+    public ITokenizerService getTokenizerService()
     {
 
-        final MultiValueMap<String, String> customHeaders = new LinkedMultiValueMap<>();
-        properties.getCustomHeaders().forEach(customHeaders::add);
-
-        return webClientBuilder.baseUrl(properties.getTargetServiceBaseUrl())
-                .defaultHeaders(h -> h.addAll(customHeaders)).build();
+        return tokenizerService;
     }
 
 
@@ -246,23 +323,25 @@ public class GenericProxyService implements IProxyService
     }
 
 
-    private Flux<?> handleStandardRequest(final IServiceHandler serviceHandler,
-            final ServerHttpRequest retargetedRequest, final String requestBody, final CircuitBreaker circuitBreaker,
-            final RateLimiter rateLimiter)
+    private Flux<?> handleStandardRequest(final ProxyExecutionContext executionContext,
+            final ServerHttpRequest retargetedRequest, final UpstreamGuards upstreamGuards,
+            final ResponseCache responseCache, final RequestCoalescer requestCoalescer)
     {
 
-        final StandardRequestHandler standardRequestHandler = new StandardRequestHandler(client, serviceHandler);
-        return standardRequestHandler.handle(retargetedRequest, requestBody, circuitBreaker, rateLimiter);
+        final StandardRequestHandler standardRequestHandler = new StandardRequestHandler(executionContext,
+                metricsComputationService, proxyMetricsService);
+        return standardRequestHandler.handle(retargetedRequest, upstreamGuards, responseCache, requestCoalescer);
     }
 
 
-    private Flux<?> handleStreamingRequest(final IServiceHandler serviceHandler,
-            final ServerHttpRequest retargetedRequest, final String requestBody, final CircuitBreaker circuitBreaker,
-            final RateLimiter rateLimiter)
+    private Flux<?> handleStreamingRequest(final ProxyExecutionContext executionContext,
+            final ServerHttpRequest retargetedRequest, final UpstreamGuards upstreamGuards,
+            final RequestCoalescer requestCoalescer)
     {
 
-        final StreamingRequestHandler streamingRequestHandler = new StreamingRequestHandler(client, serviceHandler);
-        return streamingRequestHandler.handle(retargetedRequest, requestBody, circuitBreaker, rateLimiter);
+        final StreamingRequestHandler streamingRequestHandler = new StreamingRequestHandler(executionContext,
+                metricsComputationService, proxyMetricsService);
+        return streamingRequestHandler.handle(retargetedRequest, upstreamGuards, requestCoalescer);
     }
 
 
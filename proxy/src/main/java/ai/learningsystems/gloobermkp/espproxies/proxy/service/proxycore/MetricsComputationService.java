@@ -0,0 +1,145 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+
+
+/**
+ * Runs the CPU-bound usage metrics computations (reply parsing, prompt and completion tokenization) on a
+ * dedicated bounded scheduler, off the Reactor Netty event loop threads.
+ * <p>
+ * An event loop thread serves many connections : tokenizing a large prompt on it stalls all of them. Request
+ * handlers submit their metrics computation here and the event loop only relays bytes. The scheduler is
+ * bounded both in threads and in queued computations : once the queue is full, further computations are
+ * rejected instead of piling up, and a computation not completed within the configured deadline is abandoned.
+ * <p>
+ * Published meters :
+ * <ul>
+ * <li>{@code espproxies.metrics.computation} : time spent computing metrics on the scheduler, i.e. the event
+ * loop time saved, tagged by request {@code kind} ({@code standard}, {@code stream} or {@code prompt}),</li>
+ * <li>{@code espproxies.metrics.computation.queued} : time a computation waited for a scheduler thread,</li>
+ * <li>{@code espproxies.metrics.computation.failures} : computations abandoned, tagged by {@code kind} and
+ * {@code reason} ({@code timeout}, {@code rejected} or {@code error}).</li>
+ * </ul>
+ */
+@Service
+@Slf4j
+public class MetricsComputationService
+{
+
+    /** Kind of the computations of standard requests metrics. */
+    public static final String KIND_STANDARD = "standard";
+    /** Kind of the computations of streamed requests metrics. */
+    public static final String KIND_STREAM   = "stream";
+    /** Kind of the computations of prompts token counts started ahead of the reply. */
+    public static final String KIND_PROMPT   = "prompt";
+
+    private static final String SCHEDULER_NAME      = "espproxies-metrics";
+    private static final String COMPUTATION_METER   = "espproxies.metrics.computation";
+    private static final String QUEUED_METER        = "espproxies.metrics.computation.queued";
+    private static final String FAILURES_METER      = "espproxies.metrics.computation.failures";
+    private static final int    THREADS_TTL_SECONDS = 60;
+
+    private final Scheduler     scheduler;
+    private final Duration      timeout;
+    private final MeterRegistry meterRegistry;
+
+
+    /**
+     * @param meterRegistry the registry the scheduler meters are published to.
+     * @param threadCap     the maximum number of scheduler threads, defaults to the number of CPU cores.
+     * @param queuedTaskCap the maximum number of computations waiting for a thread, further computations are
+     *                      rejected.
+     * @param timeout       the ISO-8601 deadline of a computation, waiting time included.
+     */
+    @Autowired
+    public MetricsComputationService(final MeterRegistry meterRegistry,
+            @Value("${proxy.metrics.computation.threads:0}") final int threadCap,
+            @Value("${proxy.metrics.computation.queue-size:10000}") final int queuedTaskCap,
+            @Value("${proxy.metrics.computation.timeout:PT5S}") final String timeout) {
+
+        final int threads = threadCap > 0 ? threadCap : Runtime.getRuntime().availableProcessors();
+
+        this.meterRegistry = meterRegistry;
+        this.timeout       = Duration.parse(timeout);
+        this.scheduler     = Schedulers.newBoundedElastic(threads, queuedTaskCap, SCHEDULER_NAME,
+                THREADS_TTL_SECONDS, true);
+        log.info("Metrics computation scheduler created : threads {}, queue {}, timeout {}", threads, queuedTaskCap,
+                this.timeout);
+    }
+
+
+    /**
+     * Computes metrics on the metrics scheduler.
+     * <p>
+     * The returned {@link Mono} errors with a {@link TimeoutException} if the computation does not complete
+     * within the deadline, and with a {@link RejectedExecutionException} if the scheduler queue is full : the
+     * caller decides how to degrade.
+     *
+     * @param kind        the kind of request the metrics are computed for, used as meter tag.
+     * @param computation the computation to run.
+     * @return a {@link Mono} of the computation result, emitted on a scheduler thread.
+     */
+    public <T> Mono<T> compute(final String kind, final Callable<T> computation)
+    {
+
+        return Mono.defer(() -> {
+            // Submission time is taken on the caller thread, before the computation is queued
+            final long submissionTime = System.nanoTime();
+            return Mono.fromCallable(() -> {
+                final long startTime = System.nanoTime();
+                Timer.builder(QUEUED_METER).tag("kind", kind).register(meterRegistry)
+                        .record(startTime - submissionTime, TimeUnit.NANOSECONDS);
+                try {
+                    return computation.call();
+                }
+                finally {
+                    Timer.builder(COMPUTATION_METER).tag("kind", kind).register(meterRegistry)
+                            .record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+                }
+            }).subscribeOn(scheduler);
+        })
+                .timeout(timeout)
+                .doOnError(error -> countFailure(kind, error));
+    }
+
+
+    /**
+     * Component shutdown cleaning : stops the scheduler threads.
+     */
+    @PreDestroy
+    public void dispose()
+    {
+
+        scheduler.dispose();
+    }
+
+
+    private void countFailure(final String kind, final Throwable error)
+    {
+
+        final String reason = error instanceof TimeoutException ? "timeout"
+                : error instanceof RejectedExecutionException ? "rejected" : "error";
+        log.warn("Metrics computation of a {} request failed ({}) : {}", kind, reason, error.toString());
+        Counter.builder(FAILURES_METER).tag("kind", kind).tag("reason", reason).register(meterRegistry).increment();
+    }
+
+}
@@ -0,0 +1,93 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import org.springframework.web.reactive.function.client.WebClient;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandler.IServiceHandler;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.IServiceHandlerMetaData;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.request.RequestEnvelope;
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+
+
+/**
+ * Immutable per-request execution context of the proxy core.
+ * <p>
+ * {@link GenericProxyService} is a singleton shared by every event-loop thread : everything a request needs
+ * (resolved service metadata, its service handler instance, the service WebClient, the parse-once request
+ * envelope and timers) is gathered once in this context and threaded through the request execution within the Reactor
+ * {@link Context}. This is how {@link GenericProxyService#executeRequest} and
+ * {@link GenericProxyService#executeStreamingRequest}, called back by plugins, retrieve the state of the
+ * request they belong to without any shared mutable field nor locking.
+ *
+ * @param serviceHandlerMetaData the metadata of the service the request is routed to.
+ * @param serviceHandler         the service handler instance created for this request.
+ * @param client                 the long-lived WebClient of the service.
+ * @param upstreamBalancer       the balancer between the upstream targets of the service, {@code null} if the
+ *                               service has a single target service URL.
+ * @param requestHedger          the hedger of the non-streamed requests to the service, {@code null} if they
+ *                               are not hedged.
+ * @param streamFailover         the failover of the streamed requests to the service before their first event,
+ *                               {@code null} if they do not fail over.
+ * @param upstreamTimeouts       the timeouts of the exchanges with the service.
+ * @param requestEnvelope        the envelope of the retargeted request.
+ * @param requestStartTime       the time (epoch millis) the request was received by the proxy.
+ */
+public record ProxyExecutionContext(IServiceHandlerMetaData serviceHandlerMetaData, IServiceHandler serviceHandler,
+        WebClient client, UpstreamBalancer upstreamBalancer, RequestHedger requestHedger,
+        StreamFailover streamFailover, UpstreamTimeouts upstreamTimeouts, RequestEnvelope requestEnvelope,
+        long requestStartTime)
+{
+
+    /** The key under which the context is stored in the Reactor {@link Context}. */
+    public static final Class<ProxyExecutionContext> CONTEXT_KEY = ProxyExecutionContext.class;
+
+
+    /**
+     * @return the caller serviceRef read from the incoming request headers.
+     */
+    public String serviceRef()
+    {
+
+        return requestEnvelope.getServiceRef();
+    }
+
+
+    /**
+     * @return the path of the target service endpoint.
+     */
+    public String servicePath()
+    {
+
+        return requestEnvelope.getServicePath();
+    }
+
+
+    /**
+     * @return a Reactor {@link Context} holding this execution context, to be written downstream of the
+     *         request execution.
+     */
+    public Context toReactorContext()
+    {
+
+        return Context.of(CONTEXT_KEY, this);
+    }
+
+
+    /**
+     * Retrieves the execution context of the request a Reactor subscription belongs to.
+     *
+     * @param contextView the Reactor context of the subscription.
+     * @return the request execution context.
+     * @throws IllegalStateException if called outside of a request execution driven by the proxy core.
+     */
+    public static ProxyExecutionContext from(final ContextView contextView)
+    {
+
+        return contextView.<ProxyExecutionContext> getOrEmpty(CONTEXT_KEY)
+                .orElseThrow(() -> new IllegalStateException(
+                        "No proxy execution context found : request execution must be driven by the proxy core !"));
+    }
+
+}
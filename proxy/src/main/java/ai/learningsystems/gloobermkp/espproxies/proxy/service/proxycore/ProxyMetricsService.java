@@ -0,0 +1,410 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.IServiceHandlerMetaData;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.ratelimiter.RequestNotPermitted;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+
+
+/**
+ * Micrometer instrumentation of the proxied exchanges, exported with the other application meters (on
+ * {@code /actuator/prometheus} when the Prometheus registry is on the classpath).
+ * <p>
+ * Meters are tagged by {@code service} (the service name), {@code plugin.id} and {@code plugin.version} of the
+ * service handler plugin and, where relevant, by requested {@code model} and {@code status} class ({@code 2xx},
+ * {@code 4xx}, {@code 5xx}, {@code cancelled}) :
+ * <ul>
+ * <li>{@code espproxies.requests} : timer of the proxied requests, from subscription to the last byte relayed,
+ * also tagged by {@code mode} ({@code standard} or {@code stream}),</li>
+ * <li>{@code espproxies.upstream.latency} : histogram of the time until the target service replied (its
+ * response for standard requests, its first event for streamed ones),</li>
+ * <li>{@code espproxies.requests.active} and {@code espproxies.streams.active} : gauges of the requests and
+ * streams in flight,</li>
+ * <li>{@code espproxies.relayed.bytes} : counter of the reply bytes relayed to callers,</li>
+ * <li>{@code espproxies.stream.chunks} : distribution of the number of chunks relayed per stream,</li>
+ * <li>{@code espproxies.stream.first.chunk} and {@code espproxies.stream.first.token} : histograms of the time
+ * from the stream subscription to its first chunk and to its first content chunk,</li>
+ * <li>{@code espproxies.stream.chunk.gap} : histogram of the gaps between consecutive chunks of streams,</li>
+ * <li>{@code espproxies.stream.tokens.rate} : histogram of the completion tokens per second of streams,</li>
+ * <li>{@code espproxies.rejections} : counter of the requests rejected by the service {@code circuit_breaker},
+ * {@code rate_limiter}, {@code token_rate_limiter}, {@code concurrency_limiter} or {@code fair_queue}, or
+ * because their {@code deadline} passed, tagged by {@code reason},</li>
+ * <li>{@code espproxies.upstream.timeouts} : counter of the exchanges with the target service timed out, tagged
+ * by {@code timeout} ({@code connect}, {@code response}, {@code idle} or {@code duration}),</li>
+ * <li>{@code espproxies.tokens.counted} : counter of the tokens counted by the proxy tokenizer, tagged by
+ * {@code model} only as the tokenizer is shared by every service.</li>
+ * </ul>
+ * Model names come from callers requests : the number of distinct {@code model} tag values is bounded, further
+ * models are tagged {@code other}.
+ */
+@Service
+@Slf4j
+public class ProxyMetricsService
+{
+
+    /** Mode of the standard requests. */
+    public static final String MODE_STANDARD = "standard";
+    /** Mode of the streamed requests. */
+    public static final String MODE_STREAM   = "stream";
+
+    /** Status of the exchanges cancelled by the caller before completion. */
+    public static final String STATUS_CANCELLED = "cancelled";
+
+    private static final String REQUESTS_METER         = "espproxies.requests";
+    private static final String UPSTREAM_LATENCY_METER = "espproxies.upstream.latency";
+    private static final String ACTIVE_REQUESTS_METER  = "espproxies.requests.active";
+    private static final String ACTIVE_STREAMS_METER   = "espproxies.streams.active";
+    private static final String RELAYED_BYTES_METER    = "espproxies.relayed.bytes";
+    private static final String STREAM_CHUNKS_METER    = "espproxies.stream.chunks";
+    private static final String FIRST_CHUNK_METER      = "espproxies.stream.first.chunk";
+    private static final String FIRST_TOKEN_METER      = "espproxies.stream.first.token";
+    private static final String CHUNK_GAP_METER        = "espproxies.stream.chunk.gap";
+    private static final String TOKENS_RATE_METER      = "espproxies.stream.tokens.rate";
+    private static final String REJECTIONS_METER       = "espproxies.rejections";
+    private static final String TIMEOUTS_METER         = "espproxies.upstream.timeouts";
+    private static final String TOKENS_COUNTED_METER   = "espproxies.tokens.counted";
+
+    private static final String UNKNOWN_TAG_VALUE = "unknown";
+    private static final String OTHER_TAG_VALUE   = "other";
+
+    private final MeterRegistry            meterRegistry;
+    private final int                      maxModelTags;
+    private final Set<String>              modelTagValues = ConcurrentHashMap.newKeySet();
+    private final Map<Tags, AtomicInteger> activeRequests = new ConcurrentHashMap<>();
+    private final Map<Tags, AtomicInteger> activeStreams  = new ConcurrentHashMap<>();
+
+
+    /**
+     * @param meterRegistry the registry the proxy meters are published to.
+     * @param maxModelTags  the maximum number of distinct {@code model} tag values.
+     */
+    @Autowired
+    public ProxyMetricsService(final MeterRegistry meterRegistry,
+            @Value("${proxy.metrics.max-model-tags:50}") final int maxModelTags) {
+
+        this.meterRegistry = meterRegistry;
+        this.maxModelTags  = maxModelTags;
+    }
+
+
+    /**
+     * Opens the metrics of a proxied exchange : the exchange is counted in flight until it is closed.
+     *
+     * @param executionContext the execution context of the request.
+     * @param mode             {@link #MODE_STANDARD} or {@link #MODE_STREAM}.
+     * @return the exchange metrics, to be closed once the reply is relayed.
+     */
+    public ExchangeMetrics openExchange(final ProxyExecutionContext executionContext, final String mode)
+    {
+
+        final Tags serviceTags = serviceTags(executionContext.serviceHandlerMetaData());
+        final Tags modelTags   = modelTags(executionContext);
+
+        activeGauge(activeRequests, ACTIVE_REQUESTS_METER, serviceTags).incrementAndGet();
+        if (MODE_STREAM.equals(mode))
+            activeGauge(activeStreams, ACTIVE_STREAMS_METER, serviceTags).incrementAndGet();
+
+        return new ExchangeMetrics(serviceTags, modelTags, mode);
+    }
+
+
+    /**
+     * Records the time the target service took to reply.
+     *
+     * @param executionContext the execution context of the request.
+     * @param startTime        the {@link System#nanoTime()} the upstream call started at.
+     * @param status           the status class of the upstream reply.
+     */
+    public void recordUpstreamLatency(final ProxyExecutionContext executionContext, final long startTime,
+            final String status)
+    {
+
+        Timer.builder(UPSTREAM_LATENCY_METER)
+                .tags(modelTags(executionContext))
+                .tag("status", status)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+    }
+
+
+    /**
+     * Starts timing a stream : its inter-chunk gaps are recorded as they come.
+     *
+     * @param executionContext the execution context of the streamed request.
+     * @return the timings of the stream, from now until restarted by the subscription of its upstream exchange.
+     */
+    public StreamTimings startStreamTimings(final ProxyExecutionContext executionContext)
+    {
+
+        return new StreamTimings(Timer.builder(CHUNK_GAP_METER)
+                .tags(modelTags(executionContext))
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+    }
+
+
+    /**
+     * Records the timings of a completed stream.
+     *
+     * @param executionContext the execution context of the streamed request.
+     * @param streamTimings    the timings of the stream.
+     * @param completionTokens the number of tokens of the reply, negative if unknown.
+     */
+    public void recordStreamTimings(final ProxyExecutionContext executionContext, final StreamTimings streamTimings,
+            final int completionTokens)
+    {
+
+        final Tags tags = modelTags(executionContext);
+        if (streamTimings.getTimeToFirstChunk() >= 0)
+            Timer.builder(FIRST_CHUNK_METER).tags(tags).publishPercentileHistogram().register(meterRegistry)
+                    .record(streamTimings.getTimeToFirstChunk(), TimeUnit.NANOSECONDS);
+        if (streamTimings.getTimeToFirstToken() >= 0)
+            Timer.builder(FIRST_TOKEN_METER).tags(tags).publishPercentileHistogram().register(meterRegistry)
+                    .record(streamTimings.getTimeToFirstToken(), TimeUnit.NANOSECONDS);
+        final double tokensPerSecond = streamTimings.getTokensPerSecond(completionTokens);
+        if (tokensPerSecond >= 0)
+            DistributionSummary.builder(TOKENS_RATE_METER).tags(tags)
+                    .publishPercentileHistogram().register(meterRegistry).record(tokensPerSecond);
+    }
+
+
+    /**
+     * Counts a request rejected by the circuit breaker, the rate limiter, the tokens per minute budget or the
+     * concurrency limiter of its service. Other errors are ignored.
+     *
+     * @param executionContext the execution context of the request.
+     * @param error            the error the request execution failed with.
+     */
+    public void recordRejection(final ProxyExecutionContext executionContext, final Throwable error)
+    {
+
+        final String reason = error instanceof CallNotPermittedException ? "circuit_breaker"
+                : error instanceof RequestNotPermitted ? "rate_limiter"
+                : error instanceof TokenRateLimitExceededException ? "token_rate_limiter"
+                : error instanceof ConcurrencyLimitExceededException ? "concurrency_limiter"
+                : error instanceof DeadlineExceededException ? "deadline"
+                : error instanceof AdmissionRejectedException ? "fair_queue" : null;
+        if (null == reason)
+            return;
+
+        Counter.builder(REJECTIONS_METER)
+                .tags(serviceTags(executionContext.serviceHandlerMetaData()))
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+    }
+
+
+    /**
+     * Counts an exchange with the target service failed with one of the timeouts of its service. Other errors are
+     * ignored.
+     *
+     * @param executionContext the execution context of the request.
+     * @param error            the error the upstream exchange failed with.
+     */
+    public void recordTimeout(final ProxyExecutionContext executionContext, final Throwable error)
+    {
+
+        final String timeout = error instanceof UpstreamConnectTimeoutException ? "connect"
+                : error instanceof ResponseTimeoutException ? "response"
+                : error instanceof StreamIdleTimeoutException ? "idle"
+                : error instanceof StreamDurationExceededException ? "duration" : null;
+        if (null == timeout)
+            return;
+
+        Counter.builder(TIMEOUTS_METER)
+                .tags(serviceTags(executionContext.serviceHandlerMetaData()))
+                .tag("timeout", timeout)
+                .register(meterRegistry)
+                .increment();
+    }
+
+
+    /**
+     * Counts the tokens counted by the proxy tokenizer.
+     *
+     * @param model  the model the tokens were counted for, may be {@code null}.
+     * @param tokens the number of tokens.
+     */
+    public void recordTokensCounted(final String model, final int tokens)
+    {
+
+        Counter.builder(TOKENS_COUNTED_METER).tag("model", modelTag(model)).register(meterRegistry).increment(tokens);
+    }
+
+
+    /**
+     * @param statusCode an HTTP status code.
+     * @return its status class tag value, e.g. {@code 2xx}.
+     */
+    public static String statusClass(final HttpStatusCode statusCode)
+    {
+
+        return (statusCode.value() / 100) + "xx";
+    }
+
+
+    /**
+     * @param error the error an upstream call failed with.
+     * @return the status class of the upstream reply if it replied with an error status, {@code 5xx} otherwise.
+     */
+    public static String statusClass(final Throwable error)
+    {
+
+        if (error instanceof WebClientResponseException responseException)
+            return statusClass(responseException.getStatusCode());
+        if (error instanceof UpstreamStatusException statusException)
+            return statusClass(statusException.getStatusCode());
+        return "5xx";
+    }
+
+
+    private AtomicInteger activeGauge(final Map<Tags, AtomicInteger> gauges, final String name, final Tags tags)
+    {
+
+        // The gauge reads the AtomicInteger held by the map : the registry only keeps a weak reference to it
+        return gauges.computeIfAbsent(tags, key -> meterRegistry.gauge(name, key, new AtomicInteger()));
+    }
+
+
+    private static Tags serviceTags(final IServiceHandlerMetaData metaData)
+    {
+
+        if (null == metaData)
+            return Tags.of("service", UNKNOWN_TAG_VALUE, "plugin.id", UNKNOWN_TAG_VALUE, "plugin.version",
+                    UNKNOWN_TAG_VALUE);
+        return Tags.of("service", metaData.getServiceName(), "plugin.id", metaData.getPluginId(), "plugin.version",
+                metaData.getPluginVersion());
+    }
+
+
+    private Tags modelTags(final ProxyExecutionContext executionContext)
+    {
+
+        return serviceTags(executionContext.serviceHandlerMetaData()).and("model",
+                modelTag(executionContext.requestEnvelope().getModel()));
+    }
+
+
+    private String modelTag(final String model)
+    {
+
+        if (null == model || model.isBlank())
+            return UNKNOWN_TAG_VALUE;
+        if (modelTagValues.contains(model))
+            return model;
+        if (modelTagValues.size() >= maxModelTags) {
+            log.debug("Model tag values limit reached ({}), {} is tagged : {}", maxModelTags, model,
+                    OTHER_TAG_VALUE);
+            return OTHER_TAG_VALUE;
+        }
+        modelTagValues.add(model);
+        return model;
+    }
+
+
+    /**
+     * Metrics of a single proxied exchange, from its subscription to the last byte relayed to the caller.
+     */
+    public final class ExchangeMetrics
+    {
+
+        private final Tags          serviceTags;
+        private final Tags          modelTags;
+        private final String        mode;
+        private final long          startTime = System.nanoTime();
+        private final AtomicInteger chunks    = new AtomicInteger();
+        private final AtomicBoolean closed    = new AtomicBoolean();
+
+
+        private ExchangeMetrics(final Tags serviceTags, final Tags modelTags, final String mode) {
+
+            this.serviceTags = serviceTags;
+            this.modelTags   = modelTags;
+            this.mode        = mode;
+        }
+
+
+        /**
+         * Records a reply part relayed to the caller : a standard reply body or a stream chunk.
+         *
+         * @param data the data relayed, may be {@code null}.
+         */
+        public void onRelayed(final String data)
+        {
+
+            chunks.incrementAndGet();
+            if (null != data)
+                Counter.builder(RELAYED_BYTES_METER).tags(modelTags).register(meterRegistry)
+                        .increment(utf8Length(data));
+        }
+
+
+        /**
+         * Closes the exchange : records its duration and chunk count and removes it from the in flight gauges.
+         * Only the first call is taken into account.
+         *
+         * @param status the status class of the reply relayed to the caller.
+         */
+        public void close(final String status)
+        {
+
+            if (!closed.compareAndSet(false, true))
+                return;
+
+            Timer.builder(REQUESTS_METER).tags(modelTags).tag("mode", mode).tag("status", status)
+                    .register(meterRegistry).record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+            activeRequests.get(serviceTags).decrementAndGet();
+            if (MODE_STREAM.equals(mode)) {
+                DistributionSummary.builder(STREAM_CHUNKS_METER).tags(modelTags).register(meterRegistry)
+                        .record(chunks.get());
+                activeStreams.get(serviceTags).decrementAndGet();
+            }
+        }
+
+
+        private static long utf8Length(final String data)
+        {
+
+            long length = 0;
+            for (int index = 0; index < data.length(); index++) {
+                final char character = data.charAt(index);
+                if (character < 0x80)
+                    length++;
+                else if (character < 0x800)
+                    length += 2;
+                else if (Character.isHighSurrogate(character)) {
+                    // A surrogate pair is a single 4 bytes code point
+                    length += 4;
+                    index++;
+                }
+                else
+                    length += 3;
+            }
+            return length;
+        }
+
+    }
+
+}
@@ -1,6 +1,8 @@
 package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
 
 import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -9,18 +11,23 @@ import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.service
 import io.github.resilience4j.ratelimiter.RateLimiter;
 import io.github.resilience4j.ratelimiter.RateLimiterConfig;
 import io.github.resilience4j.ratelimiter.RateLimiterRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 
 @Service
 @Slf4j
 public class RateLimiterManagerService
 {
-    private final RateLimiterRegistry    rateLimiterRegistry;
+    private final RateLimiterRegistry           rateLimiterRegistry;
+    private final MeterRegistry                 meterRegistry;
+    private final Map<String, TokenRateLimiter> tokenRateLimiters = new ConcurrentHashMap<>();
     
     @Autowired
-    public RateLimiterManagerService(final RateLimiterRegistry    rateLimiterRegistry) {
+    public RateLimiterManagerService(final RateLimiterRegistry    rateLimiterRegistry,
+            final MeterRegistry meterRegistry) {
         
         this.rateLimiterRegistry = rateLimiterRegistry;
+        this.meterRegistry       = meterRegistry;
     }
     
     
@@ -37,32 +44,54 @@ public class RateLimiterManagerService
             final RateLimiterConfiguration rateLimiterConfiguration)
     {
 
-        // Retrieve RateLimiter instance from the registry using the service name
-        RateLimiter rateLimiter = rateLimiterRegistry.rateLimiter(serviceName);
+        // The registry creates missing rate limiters with its default configuration : look it up first
+        return rateLimiterRegistry.find(serviceName)
+                .orElseGet(() -> createRateLimiter(serviceName, rateLimiterConfiguration));
+    }
 
-        // If the RateLimiter doesn't exist in the registry, create and register a new
-        // one
-        if (null != rateLimiter) 
-            return rateLimiter;
-        
-        return createRateLimiter(serviceName, rateLimiterConfiguration);
+
+    /**
+     * Retrieves the tokens per minute budget of a service, creating it if not present.
+     * 
+     * @param serviceName              the name of the external service.
+     * @param rateLimiterConfiguration the RateLimiter configuration of the service.
+     * @return the TokenRateLimiter of the service, {@code null} if its configuration sets no tokens per
+     *         minute budget.
+     */
+    public TokenRateLimiter getTokenRateLimiter(final String serviceName,
+            final RateLimiterConfiguration rateLimiterConfiguration)
+    {
+
+        if (null == rateLimiterConfiguration || rateLimiterConfiguration.getTokensPerMinute() <= 0)
+            return null;
+
+        return tokenRateLimiters.computeIfAbsent(serviceName, key -> {
+            log.info("Token rate limiter created for service : {} with configuration : {}", serviceName,
+                    rateLimiterConfiguration.toJson());
+            return new TokenRateLimiter(serviceName, rateLimiterConfiguration, meterRegistry);
+        });
     }
 
 
     /**
-     * Removes a RateLimiter instance from the registry by service name.
+     * Removes a RateLimiter instance from the registry by service name, along with the tokens per minute budget
+     * of the service.
      */
     public void removeRateLimiter(final String serviceName)
     {
 
         // Remove the RateLimiter from the registry using the service name
         rateLimiterRegistry.remove(serviceName);
+        tokenRateLimiters.remove(serviceName);
     }
     
     
     private RateLimiter createRateLimiter(final String serviceName,
             final RateLimiterConfiguration rateLimiterConfiguration) {
      
+        if (null == rateLimiterConfiguration)
+            return rateLimiterRegistry.rateLimiter(serviceName);
+
         final RateLimiterConfig rateLimiterConfig = RateLimiterConfig.custom()
                 .limitForPeriod(rateLimiterConfiguration.getLimitForPeriod())
                 .timeoutDuration(Duration.parse(rateLimiterConfiguration.getTimeoutDuration()))
@@ -0,0 +1,224 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.springframework.http.ResponseEntity;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandler.IServiceHandler;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.RequestCoalescingConfiguration;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.RequestCoalescingConfiguration.UsagePolicy;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.request.RequestEnvelope;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+
+
+/**
+ * Single-flight execution of the identical concurrent requests of a service.
+ * <p>
+ * The first request of a given {@link RequestHasher} hash, the leader, is executed; identical requests
+ * arriving while it is in flight, the followers, subscribe to the same upstream call instead of reaching the
+ * target service :
+ * <ul>
+ * <li>a standard response is shared through a {@link Mono} that cannot be cancelled by a single caller : it
+ * completes as long as it is in flight, and is forgotten as soon as it terminates,</li>
+ * <li>a stream is multicast with a replay buffer of {@code maxReplayChunks} events, so that followers first
+ * receive the events already relayed. Each subscriber keeps its own demand and may cancel on its own : the
+ * upstream stream is cancelled when its last subscriber leaves. A stream no longer accepts followers once it
+ * relayed more events than its replay buffer holds. The events are shared as the leader upstream call
+ * publishes them : the usage it accounts along the stream is shared by the subscribers, the leader having
+ * possibly left.</li>
+ * </ul>
+ * The upstream call of the leader includes its admission, its tokens per minute reservation, its rate limiter
+ * permit and its retries. Followers are neither admitted, charged nor rate limited on their own : they inherit
+ * the outcome of the leader. A leader rejected by the circuit breaker, the rate limiter, the tokens budget or
+ * its admission deadline fails its followers with the same error, and the priority and deadline of a follower
+ * are not considered.
+ * <p>
+ * Meters, tagged by {@code service} : {@code espproxies.coalescing.requests}, counter of the coalescable
+ * requests tagged by {@code mode} ({@code standard} or {@code stream}) and {@code role} ({@code leader} or
+ * {@code follower}). The followers count is the number of upstream calls saved.
+ */
+public class RequestCoalescer
+{
+
+    private static final String REQUESTS_METER = "espproxies.coalescing.requests";
+
+    private final List<String>                               keyHeaders;
+    private final boolean                                    deterministicOnly;
+    private final UsagePolicy                                usagePolicy;
+    private final int                                        maxReplayChunks;
+    private final Map<String, Mono<ResponseEntity<String>>>  inFlight        = new ConcurrentHashMap<>();
+    private final Map<String, CoalescedStream<?>>            inFlightStreams = new ConcurrentHashMap<>();
+    private final Counter                                    leaders;
+    private final Counter                                    followers;
+    private final Counter                                    streamLeaders;
+    private final Counter                                    streamFollowers;
+
+
+    /**
+     * Creates the request coalescer of a service.
+     *
+     * @param serviceName   the name of the service.
+     * @param configuration the request coalescing configuration of the service.
+     * @param meterRegistry the registry the coalescing meters are published to.
+     */
+    public RequestCoalescer(final String serviceName, final RequestCoalescingConfiguration configuration,
+            final MeterRegistry meterRegistry) {
+
+        this.keyHeaders        = null != configuration.getKeyHeaders() ? List.copyOf(configuration.getKeyHeaders())
+                : List.of();
+        this.deterministicOnly = configuration.isDeterministicOnly();
+        this.usagePolicy       = null != configuration.getUsagePolicy() ? configuration.getUsagePolicy()
+                : UsagePolicy.CHARGE_EACH;
+        this.maxReplayChunks   = Math.max(1, configuration.getMaxReplayChunks());
+        this.leaders           = requestsCounter(meterRegistry, serviceName, ProxyMetricsService.MODE_STANDARD,
+                "leader");
+        this.followers         = requestsCounter(meterRegistry, serviceName, ProxyMetricsService.MODE_STANDARD,
+                "follower");
+        this.streamLeaders     = requestsCounter(meterRegistry, serviceName, ProxyMetricsService.MODE_STREAM,
+                "leader");
+        this.streamFollowers   = requestsCounter(meterRegistry, serviceName, ProxyMetricsService.MODE_STREAM,
+                "follower");
+    }
+
+
+    /**
+     * Computes the coalescing key of a request.
+     *
+     * @param envelope       the {@link RequestEnvelope} of the request.
+     * @param serviceHandler the service handler of the request, telling deterministic requests.
+     * @return the coalescing key of the request, {@code null} if the request must not be coalesced.
+     */
+    public String keyOf(final RequestEnvelope envelope, final IServiceHandler serviceHandler)
+    {
+
+        if (deterministicOnly && !serviceHandler.isReplyDeterministic(envelope))
+            return null;
+        return RequestHasher.hash(envelope, keyHeaders);
+    }
+
+
+    /**
+     * @return how the usage of a response shared by coalesced requests is attributed.
+     */
+    public UsagePolicy getUsagePolicy()
+    {
+
+        return usagePolicy;
+    }
+
+
+    /**
+     * Executes a request, or joins the identical request in flight.
+     *
+     * @param key      the coalescing key of the request.
+     * @param upstream supplies the upstream call of the request, subscribed only if the request leads. It must
+     *                 carry its own Reactor context : followers do not share the leader subscription context.
+     * @return a {@link Mono} of the upstream response, and whether the caller led the upstream call.
+     */
+    public Mono<CoalescedResponse> execute(final String key, final Supplier<Mono<ResponseEntity<String>>> upstream)
+    {
+
+        return Mono.defer(() -> {
+            final AtomicBoolean isLeader = new AtomicBoolean();
+            final Mono<ResponseEntity<String>> flight = inFlight.computeIfAbsent(key, absentKey -> {
+                isLeader.set(true);
+                final AtomicReference<Mono<ResponseEntity<String>>> self   = new AtomicReference<>();
+                final Mono<ResponseEntity<String>>                  shared = upstream.get()
+                        .doFinally(signalType -> inFlight.remove(absentKey, self.get()))
+                        .share();
+                self.set(shared);
+                return shared;
+            });
+
+            (isLeader.get() ? leaders : followers).increment();
+            return flight.map(response -> new CoalescedResponse(response, isLeader.get()));
+        });
+    }
+
+
+    /**
+     * Joins the identical stream in flight, or leads a new one.
+     * <p>
+     * Must be called at subscription time : the caller leads if no identical stream is in flight, and then
+     * subscribes the upstream stream.
+     *
+     * @param key      the coalescing key of the request.
+     * @param upstream supplies the upstream stream of the request, subscribed only if the request leads. It must
+     *                 carry its own Reactor context : followers do not share the leader subscription context.
+     * @return the events of the stream, from its first one, and whether the caller leads the stream.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CoalescedStream<T> joinStream(final String key, final Supplier<Flux<T>> upstream)
+    {
+
+        final AtomicBoolean      isLeader = new AtomicBoolean();
+        final CoalescedStream<T> stream   = (CoalescedStream<T>) inFlightStreams.computeIfAbsent(key, absentKey -> {
+            isLeader.set(true);
+            final AtomicReference<CoalescedStream<T>> self   = new AtomicReference<>();
+            final AtomicInteger                       events = new AtomicInteger();
+            final Flux<T>                             shared = upstream.get()
+                    .doOnNext(event -> {
+                        // Followers must receive the whole stream : it is no longer joinable once the replay
+                        // buffer starts dropping its first events
+                        if (events.incrementAndGet() == maxReplayChunks)
+                            inFlightStreams.remove(absentKey, self.get());
+                    })
+                    .doFinally(signalType -> inFlightStreams.remove(absentKey, self.get()))
+                    .replay(maxReplayChunks)
+                    .refCount();
+            self.set(new CoalescedStream<>(shared, true));
+            return self.get();
+        });
+
+        (isLeader.get() ? streamLeaders : streamFollowers).increment();
+        return isLeader.get() ? stream : new CoalescedStream<>(stream.events(), false);
+    }
+
+
+    private static Counter requestsCounter(final MeterRegistry meterRegistry, final String serviceName,
+            final String mode, final String role)
+    {
+
+        return Counter.builder(REQUESTS_METER)
+                .tag("service", serviceName)
+                .tag("mode", mode)
+                .tag("role", role)
+                .register(meterRegistry);
+    }
+
+
+    /**
+     * A response of the target service, as seen by one of the coalesced callers.
+     *
+     * @param response the upstream response, with the technical metrics of the leader.
+     * @param leader   {@code true} if the caller led the upstream call.
+     */
+    public record CoalescedResponse(ResponseEntity<String> response, boolean leader)
+    {
+
+    }
+
+
+    /**
+     * A stream of the target service, as seen by one of the coalesced callers.
+     *
+     * @param events the events of the stream, replayed from the first one.
+     * @param leader {@code true} if the caller leads the stream.
+     */
+    public record CoalescedStream<T>(Flux<T> events, boolean leader)
+    {
+
+    }
+
+}
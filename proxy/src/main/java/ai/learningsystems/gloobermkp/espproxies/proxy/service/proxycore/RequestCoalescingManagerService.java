@@ -0,0 +1,83 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.RequestCoalescingConfiguration;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.ServiceProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+
+
+/**
+ * Owns the {@link RequestCoalescer} of the services whose {@link RequestCoalescingConfiguration} enables it.
+ * <p>
+ * A coalescer is created at service registration and replaced when the service is reloaded. Requests in
+ * flight on a replaced coalescer complete normally, new requests are coalesced by the new one.
+ */
+@Service
+@Slf4j
+public class RequestCoalescingManagerService
+{
+
+    private final MeterRegistry                 meterRegistry;
+    private final Map<String, RequestCoalescer> requestCoalescers = new ConcurrentHashMap<>();
+
+
+    @Autowired
+    public RequestCoalescingManagerService(final MeterRegistry meterRegistry) {
+
+        this.meterRegistry = meterRegistry;
+    }
+
+
+    /**
+     * Creates the request coalescer of a service if its configuration enables it, replacing the previous one.
+     *
+     * @param serviceName the name of the external service.
+     * @param properties  the service properties containing the request coalescing configuration.
+     */
+    public void createRequestCoalescer(final String serviceName, final ServiceProperties properties)
+    {
+
+        removeRequestCoalescer(serviceName);
+
+        final RequestCoalescingConfiguration coalescingConfiguration = properties
+                .getRequestCoalescingConfiguration();
+        if (null == coalescingConfiguration || !coalescingConfiguration.isEnabled())
+            return;
+
+        requestCoalescers.put(serviceName, new RequestCoalescer(serviceName, coalescingConfiguration, meterRegistry));
+        log.info("Request coalescer created for service : {} with configuration : {}", serviceName,
+                coalescingConfiguration.toJson());
+    }
+
+
+    /**
+     * Retrieves the request coalescer of a service.
+     *
+     * @param serviceName the name of the external service.
+     * @return the request coalescer of the service, {@code null} if its requests are not coalesced.
+     */
+    public RequestCoalescer getRequestCoalescer(final String serviceName)
+    {
+
+        return requestCoalescers.get(serviceName);
+    }
+
+
+    /**
+     * Removes the request coalescer of a service.
+     */
+    public void removeRequestCoalescer(final String serviceName)
+    {
+
+        requestCoalescers.remove(serviceName);
+    }
+
+}
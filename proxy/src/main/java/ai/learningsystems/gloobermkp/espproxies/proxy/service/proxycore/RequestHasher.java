@@ -0,0 +1,105 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+import org.springframework.http.server.reactive.ServerHttpRequest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.request.RequestEnvelope;
+
+
+
+/**
+ * Canonical hash of a request, identifying the requests the target service would answer the same way.
+ * <p>
+ * The SHA-256 hash covers the request method, path and query, canonicalized body (JSON object fields sorted,
+ * so that fields order and formatting do not matter, raw body if it is not JSON) and the values of the given
+ * key headers. Other headers are ignored, so that volatile ones (e.g., tracing) do not tell identical
+ * requests apart.
+ */
+public final class RequestHasher
+{
+
+    private static final ObjectMapper CANONICAL_MAPPER = new ObjectMapper();
+    private static final ObjectWriter CANONICAL_WRITER = CANONICAL_MAPPER
+            .writer(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+
+
+    private RequestHasher() {
+
+    }
+
+
+    /**
+     * Computes the canonical hash of a request.
+     *
+     * @param envelope   the {@link RequestEnvelope} of the request.
+     * @param keyHeaders the names of the request headers whose values are part of the hash.
+     * @return the hex encoded SHA-256 hash identifying the request.
+     */
+    public static String hash(final RequestEnvelope envelope, final List<String> keyHeaders)
+    {
+
+        final ServerHttpRequest request = envelope.getRequest();
+        final MessageDigest     digest  = sha256();
+        update(digest, request.getMethod().name());
+        update(digest, request.getURI().getRawPath());
+        update(digest, request.getURI().getRawQuery());
+        update(digest, canonicalBody(envelope));
+        for (String keyHeader : keyHeaders) {
+            update(digest, keyHeader.toLowerCase());
+            update(digest, String.join(",", request.getHeaders().getOrEmpty(keyHeader)));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+
+    private static String canonicalBody(final RequestEnvelope envelope)
+    {
+
+        final JsonNode parsedBody = envelope.getParsedBody();
+        if (parsedBody.isMissingNode())
+            return envelope.getRequestBody();
+        try {
+            // Maps, unlike JSON trees, are written with their entries sorted by key
+            return CANONICAL_WRITER.writeValueAsString(CANONICAL_MAPPER.treeToValue(parsedBody, Object.class));
+        }
+        catch (JsonProcessingException e) {
+            return envelope.getRequestBody();
+        }
+    }
+
+
+    private static void update(final MessageDigest digest, final String value)
+    {
+
+        // Length prefixed, so that distinct components sequences never hash the same bytes
+        final byte[] bytes = null != value ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.US_ASCII));
+        digest.update((byte) ':');
+        digest.update(bytes);
+    }
+
+
+    private static MessageDigest sha256()
+    {
+
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available !", e);
+        }
+    }
+
+}
@@ -0,0 +1,233 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.HedgingConfiguration;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+
+
+/**
+ * Hedges the non-streamed requests to a service : when the target service has not replied to a request within
+ * the {@code percentile} of the latency of its recent replies, a second attempt is sent and the first reply wins,
+ * the other attempt being cancelled.
+ * <p>
+ * The hedge delay is the latency percentile of the last {@code windowSize} successful replies, recomputed every
+ * few replies and never below {@code minDelay}; requests are not hedged before {@code minSamples} replies are
+ * observed. Each request earns {@code budgetPercent / 100} hedge, each hedged attempt spends one : hedged
+ * attempts stay within {@code budgetPercent} of the requests, with a small allowance saved up while the
+ * replies are fast. Requests with an exhausted budget wait for their first attempt.
+ * <p>
+ * The first reply wins whichever attempt it comes from : once the hedged attempt is sent, an error of either
+ * attempt lets the other one run on. A request fails with the error of its first attempt, when that attempt
+ * fails before a hedged attempt is sent or when both attempts fail.
+ * <p>
+ * Meters, tagged by {@code service} : {@code espproxies.hedge.attempts}, counter of the hedging decisions
+ * tagged by {@code outcome} ({@code fired}, {@code won} when the hedged attempt replied first,
+ * {@code budget_exhausted}), and {@code espproxies.hedge.delay}, gauge of the current hedge delay.
+ */
+@Slf4j
+public class RequestHedger
+{
+
+    private static final String ATTEMPTS_METER = "espproxies.hedge.attempts";
+    private static final String DELAY_METER    = "espproxies.hedge.delay";
+
+    /** The hedges the budget may save up during quiet periods. */
+    private static final double MAX_BUDGET         = 10;
+    /** The number of replies between two computations of the hedge delay. */
+    private static final int    RECOMPUTE_INTERVAL = 32;
+
+    private final String        serviceName;
+    private final double        percentile;
+    private final long          minDelayNanos;
+    private final int           minSamples;
+    private final double        budgetRatio;
+    private final boolean       alternateTarget;
+    private final long[]        latencies;
+    private final Counter       firedCounter;
+    private final Counter       wonCounter;
+    private final Counter       budgetExhaustedCounter;
+    private final MeterRegistry meterRegistry;
+    private final List<Meter>   meters;
+    private volatile long       hedgeDelay = -1;
+    private long                samples;
+    private int                 samplesSinceComputation;
+    private double              budget;
+
+
+    /**
+     * Creates the request hedger of a service.
+     *
+     * @param serviceName   the name of the service.
+     * @param configuration the hedging configuration of the service.
+     * @param meterRegistry the registry the hedger meters are published to.
+     */
+    public RequestHedger(final String serviceName, final HedgingConfiguration configuration,
+            final MeterRegistry meterRegistry) {
+
+        this.serviceName            = serviceName;
+        this.percentile             = Math.min(100, Math.max(0, configuration.getPercentile()));
+        this.minDelayNanos          = Duration.parse(configuration.getMinDelay()).toNanos();
+        this.minSamples             = Math.max(1, configuration.getMinSamples());
+        this.budgetRatio            = Math.max(0, configuration.getBudgetPercent()) / 100;
+        this.alternateTarget        = configuration.isAlternateTarget();
+        this.latencies              = new long[Math.max(1, configuration.getWindowSize())];
+        this.meterRegistry          = meterRegistry;
+        this.firedCounter           = attemptsCounter("fired");
+        this.wonCounter             = attemptsCounter("won");
+        this.budgetExhaustedCounter = attemptsCounter("budget_exhausted");
+        this.meters                 = List.of(firedCounter, wonCounter, budgetExhaustedCounter,
+                Gauge.builder(DELAY_METER, this, RequestHedger::getHedgeDelaySeconds)
+                        .tag("service", serviceName)
+                        .baseUnit("seconds")
+                        .strongReference(true)
+                        .register(meterRegistry));
+    }
+
+
+    /**
+     * Runs an upstream call, hedged by a second attempt if its reply is late.
+     *
+     * @param firstAttempt  the supplier of the first attempt of the upstream call.
+     * @param hedgedAttempt the supplier of the hedged attempt of the upstream call.
+     * @return the first reply of the attempts, or the error of the first attempt if no attempt replied.
+     */
+    public <T> Mono<T> hedge(final Supplier<Mono<T>> firstAttempt, final Supplier<Mono<T>> hedgedAttempt)
+    {
+
+        return Mono.defer(() -> {
+            depositBudget();
+            final long delay = hedgeDelay;
+            if (delay < 0)
+                return timed(firstAttempt.get());
+
+            final Sinks.Empty<Void>          firstFailed = Sinks.empty();
+            final AtomicReference<Throwable> firstError  = new AtomicReference<>();
+            final Mono<T>                    first       = timed(firstAttempt.get()).doOnError(error -> {
+                firstError.set(error);
+                firstFailed.tryEmitEmpty();
+            });
+
+            // No attempt is hedged once the first one failed : the hedge delay is cut short and the request fails
+            final Mono<T> hedged = Mono.firstWithSignal(Mono.delay(Duration.ofNanos(delay)),
+                    firstFailed.asMono().then(Mono.<Long> empty()))
+                    .flatMap(tick -> {
+                        if (!withdrawBudget()) {
+                            budgetExhaustedCounter.increment();
+                            return Mono.<T> empty();
+                        }
+                        firedCounter.increment();
+                        return timed(hedgedAttempt.get()).doOnNext(reply -> wonCounter.increment());
+                    })
+                    .doOnError(error -> log.debug("Hedged attempt to service {} failed : {}", serviceName,
+                            error.getMessage()));
+            // The first reply wins, the other attempt is cancelled. Without reply, the first attempt error is
+            // reported rather than the error of the race
+            return Mono.firstWithValue(first, hedged)
+                    .onErrorMap(error -> null == firstError.get() ? error : firstError.get());
+        });
+    }
+
+
+    /**
+     * @return {@code true} if the hedged attempt is sent to another upstream target than the first attempt.
+     */
+    public boolean isAlternateTarget()
+    {
+
+        return alternateTarget;
+    }
+
+
+    /**
+     * @return the current hedge delay in nanoseconds, -1 until enough replies are observed.
+     */
+    public long getHedgeDelay()
+    {
+
+        return hedgeDelay;
+    }
+
+
+    /**
+     * Unregisters the hedger meters.
+     */
+    public void close()
+    {
+
+        meters.forEach(meterRegistry::remove);
+    }
+
+
+    private <T> Mono<T> timed(final Mono<T> attempt)
+    {
+
+        return Mono.defer(() -> {
+            final long startTime = System.nanoTime();
+            return attempt.doOnNext(reply -> onReply(System.nanoTime() - startTime));
+        });
+    }
+
+
+    private synchronized void onReply(final long latency)
+    {
+
+        latencies[(int) (samples++ % latencies.length)] = latency;
+        if (samples < minSamples || (hedgeDelay >= 0 && ++samplesSinceComputation < RECOMPUTE_INTERVAL))
+            return;
+
+        samplesSinceComputation = 0;
+        final long[] window = Arrays.copyOf(latencies, (int) Math.min(samples, latencies.length));
+        Arrays.sort(window);
+        final int index = (int) Math.ceil(percentile / 100 * window.length) - 1;
+        hedgeDelay = Math.max(minDelayNanos, window[Math.max(0, index)]);
+    }
+
+
+    private synchronized void depositBudget()
+    {
+
+        budget = Math.min(MAX_BUDGET, budget + budgetRatio);
+    }
+
+
+    private synchronized boolean withdrawBudget()
+    {
+
+        if (budget < 1)
+            return false;
+        budget--;
+        return true;
+    }
+
+
+    private double getHedgeDelaySeconds()
+    {
+
+        final long delay = hedgeDelay;
+        return delay < 0 ? Double.NaN : delay / 1e9;
+    }
+
+
+    private Counter attemptsCounter(final String outcome)
+    {
+
+        return Counter.builder(ATTEMPTS_METER)
+                .tag("service", serviceName)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+}
@@ -0,0 +1,71 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.HedgingConfiguration;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+
+
+/**
+ * Owns the {@link RequestHedger} of the services whose {@link HedgingConfiguration} enables it.
+ * <p>
+ * A hedger is created at the first request to its service and discarded with the other per service
+ * resilience components when the service is unregistered or reloaded : the observed latencies and the hedging
+ * budget start over.
+ */
+@Service
+@Slf4j
+public class RequestHedgingManagerService
+{
+
+    private final MeterRegistry              meterRegistry;
+    private final Map<String, RequestHedger> requestHedgers = new ConcurrentHashMap<>();
+
+
+    @Autowired
+    public RequestHedgingManagerService(final MeterRegistry meterRegistry) {
+
+        this.meterRegistry = meterRegistry;
+    }
+
+
+    /**
+     * Retrieves the request hedger of a service, creating it if not present.
+     *
+     * @param serviceName          the name of the external service.
+     * @param hedgingConfiguration the hedging configuration of the service.
+     * @return the request hedger of the service, {@code null} if its requests are not hedged.
+     */
+    public RequestHedger getRequestHedger(final String serviceName, final HedgingConfiguration hedgingConfiguration)
+    {
+
+        if (null == hedgingConfiguration || !hedgingConfiguration.isEnabled())
+            return null;
+
+        return requestHedgers.computeIfAbsent(serviceName, key -> {
+            log.info("Request hedger created for service : {} with configuration : {}", serviceName,
+                    hedgingConfiguration.toJson());
+            return new RequestHedger(serviceName, hedgingConfiguration, meterRegistry);
+        });
+    }
+
+
+    /**
+     * Removes the request hedger of a service and unregisters its meters.
+     */
+    public void removeRequestHedger(final String serviceName)
+    {
+
+        final RequestHedger requestHedger = requestHedgers.remove(serviceName);
+        if (null != requestHedger)
+            requestHedger.close();
+    }
+
+}
@@ -0,0 +1,327 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.RetryConfiguration;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+
+
+/**
+ * Retries the calls of a service to its target service failing transiently : replies with a retryable status
+ * (429, 502, 503, 504 by default) and, if configured, transport errors. Rejections by the proxy guards (circuit
+ * breaker, rate limiters, admission) are never retried.
+ * <p>
+ * A retry waits for an exponential backoff with full jitter, and at least for the delay requested by the target
+ * service : {@code Retry-After} (seconds or HTTP date), {@code retry-after-ms}, and on a 429 reply the
+ * {@code x-ratelimit-reset-requests} and {@code x-ratelimit-reset-tokens} headers (e.g. {@code 6m0s},
+ * {@code 20ms}). A requested delay longer than {@code maxRetryAfter} is not waited for : the failure is
+ * relayed at once.
+ * <p>
+ * Retries spend a budget : the budget starts with ten retries, each successful call earns
+ * {@code budgetPercent / 100} retry up to that allowance, each retry spends one. During an outage retries
+ * stop as soon as the allowance is spent, instead of multiplying the load of the failing target service.
+ * <p>
+ * A call is retried only until it emits its first reply : a stream whose first event was relayed is committed.
+ * <p>
+ * Meters, tagged by {@code service} : {@code espproxies.retry.attempts}, counter of the retry decisions tagged by
+ * {@code outcome} ({@code retried}, {@code budget_exhausted}, {@code retry_after_exceeded}).
+ */
+@Slf4j
+public class RequestRetrier
+{
+
+    /** Member of the technical metrics of a request giving the number of its upstream attempts. */
+    public static final String UPSTREAM_ATTEMPTS_FIELD = "upstreamAttempts";
+
+    private static final String ATTEMPTS_METER = "espproxies.retry.attempts";
+
+    /** The retries the budget may save up. */
+    private static final double  MAX_BUDGET          = 10;
+    private static final Pattern RESET_DURATION_PART = Pattern.compile("(\\d+(?:\\.\\d+)?)(ms|h|m|s)");
+    private static final String  RETRY_AFTER_MS      = "retry-after-ms";
+    private static final String  RESET_REQUESTS      = "x-ratelimit-reset-requests";
+    private static final String  RESET_TOKENS        = "x-ratelimit-reset-tokens";
+    private static final int     TOO_MANY_REQUESTS   = 429;
+
+    private final String        serviceName;
+    private final int           maxAttempts;
+    private final long          initialBackoffNanos;
+    private final long          maxBackoffNanos;
+    private final double        backoffMultiplier;
+    private final Duration      maxRetryAfter;
+    private final Set<Integer>  retryableStatuses;
+    private final boolean       retryTransportErrors;
+    private final double        budgetRatio;
+    private final Counter       retriedCounter;
+    private final Counter       budgetExhaustedCounter;
+    private final Counter       retryAfterExceededCounter;
+    private final MeterRegistry meterRegistry;
+    private final List<Meter>   meters;
+    private double              budget = MAX_BUDGET;
+
+
+    /**
+     * Creates the request retrier of a service.
+     *
+     * @param serviceName   the name of the service.
+     * @param configuration the retry configuration of the service.
+     * @param meterRegistry the registry the retrier meters are published to.
+     */
+    public RequestRetrier(final String serviceName, final RetryConfiguration configuration,
+            final MeterRegistry meterRegistry) {
+
+        this.serviceName               = serviceName;
+        this.maxAttempts               = Math.max(1, configuration.getMaxAttempts());
+        this.initialBackoffNanos       = Duration.parse(configuration.getInitialBackoff()).toNanos();
+        this.maxBackoffNanos           = Duration.parse(configuration.getMaxBackoff()).toNanos();
+        this.backoffMultiplier         = Math.max(1.0, configuration.getBackoffMultiplier());
+        this.maxRetryAfter             = Duration.parse(configuration.getMaxRetryAfter());
+        this.retryableStatuses         = null != configuration.getRetryableStatuses()
+                ? Set.copyOf(configuration.getRetryableStatuses())
+                : Set.of();
+        this.retryTransportErrors      = configuration.isRetryTransportErrors();
+        this.budgetRatio               = Math.max(0, configuration.getBudgetPercent()) / 100;
+        this.meterRegistry             = meterRegistry;
+        this.retriedCounter            = attemptsCounter("retried");
+        this.budgetExhaustedCounter    = attemptsCounter("budget_exhausted");
+        this.retryAfterExceededCounter = attemptsCounter("retry_after_exceeded");
+        this.meters                    = List.of(retriedCounter, budgetExhaustedCounter, retryAfterExceededCounter);
+    }
+
+
+    /**
+     * Runs an upstream call, retried while it fails transiently before its first reply.
+     *
+     * @param call     the upstream call, subscribed to once per attempt.
+     * @param attempts the counter of the attempts of the call.
+     * @return the upstream call replies, or the error of its last attempt.
+     */
+    public <T> Flux<T> retry(final Flux<T> call, final AtomicInteger attempts)
+    {
+
+        return Flux.defer(() -> {
+            final AtomicBoolean replied = new AtomicBoolean();
+            return Flux.defer(() -> {
+                attempts.incrementAndGet();
+                return call;
+            })
+                    .doOnNext(reply -> {
+                        if (replied.compareAndSet(false, true))
+                            depositBudget();
+                    })
+                    .retryWhen(Retry.from(failures -> failures.concatMap(failure -> {
+                        final Duration delay = replied.get() ? null
+                                : retryDelay(failure.failure(), attempts.get());
+                        return null == delay ? Mono.error(failure.failure()) : Mono.delay(delay);
+                    })));
+        });
+    }
+
+
+    /**
+     * Unregisters the retrier meters.
+     */
+    public void close()
+    {
+
+        meters.forEach(meterRegistry::remove);
+    }
+
+
+    /**
+     * @return the delay before the next attempt of a failed call, {@code null} if it is not retried.
+     */
+    private Duration retryDelay(final Throwable error, final int attempts)
+    {
+
+        if (attempts >= maxAttempts || !isRetryable(error))
+            return null;
+
+        final Duration retryAfter = retryAfter(error);
+        if (null != retryAfter && retryAfter.compareTo(maxRetryAfter) > 0) {
+            retryAfterExceededCounter.increment();
+            log.debug("Request to service {} not retried : retry requested in {}", serviceName, retryAfter);
+            return null;
+        }
+        if (!withdrawBudget()) {
+            budgetExhaustedCounter.increment();
+            log.debug("Request to service {} not retried : retry budget exhausted", serviceName);
+            return null;
+        }
+
+        // Full jitter : the retries of the requests failed together are spread over the whole backoff
+        final double ceiling = Math.min(maxBackoffNanos,
+                initialBackoffNanos * Math.pow(backoffMultiplier, attempts - 1));
+        final long   backoff = (long) (ThreadLocalRandom.current().nextDouble() * ceiling);
+        final long   delay   = null != retryAfter ? Math.max(backoff, retryAfter.toNanos()) : backoff;
+        retriedCounter.increment();
+        log.debug("Request to service {} retried in {} after attempt {} failed : {}", serviceName,
+                Duration.ofNanos(delay), attempts, error.getMessage());
+        return Duration.ofNanos(delay);
+    }
+
+
+    private boolean isRetryable(final Throwable error)
+    {
+
+        final HttpStatusCode statusCode = statusCode(error);
+        if (null != statusCode)
+            return retryableStatuses.contains(statusCode.value());
+        // A connection not established in time is a transport error : the request has not been sent
+        return retryTransportErrors
+                && (error instanceof WebClientRequestException || error instanceof UpstreamConnectTimeoutException);
+    }
+
+
+    /**
+     * @return the delay requested by the target service before the next attempt, {@code null} if none.
+     */
+    private static Duration retryAfter(final Throwable error)
+    {
+
+        final HttpHeaders headers = error instanceof WebClientResponseException responseException
+                ? responseException.getHeaders()
+                : error instanceof UpstreamStatusException statusException ? statusException.getHeaders() : null;
+        if (null == headers)
+            return null;
+
+        Duration retryAfter = max(parseRetryAfter(headers.getFirst(HttpHeaders.RETRY_AFTER)),
+                parseMillis(headers.getFirst(RETRY_AFTER_MS)));
+        // The rate limit windows reset times tell when a rate limited request may succeed
+        if (TOO_MANY_REQUESTS == statusCode(error).value()) {
+            retryAfter = max(retryAfter, parseResetDuration(headers.getFirst(RESET_REQUESTS)));
+            retryAfter = max(retryAfter, parseResetDuration(headers.getFirst(RESET_TOKENS)));
+        }
+        return retryAfter;
+    }
+
+
+    private static HttpStatusCode statusCode(final Throwable error)
+    {
+
+        if (error instanceof WebClientResponseException responseException)
+            return responseException.getStatusCode();
+        if (error instanceof UpstreamStatusException statusException)
+            return statusException.getStatusCode();
+        return null;
+    }
+
+
+    // Retry-After is either a number of seconds or an HTTP date
+    private static Duration parseRetryAfter(final String value)
+    {
+
+        if (null == value || value.isBlank())
+            return null;
+        try {
+            return Duration.ofSeconds(Long.parseLong(value.trim()));
+        }
+        catch (NumberFormatException numberFormatException) {
+            try {
+                final Duration delay = Duration.between(ZonedDateTime.now(),
+                        ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME));
+                return delay.isNegative() ? Duration.ZERO : delay;
+            }
+            catch (DateTimeParseException dateTimeParseException) {
+                return null;
+            }
+        }
+    }
+
+
+    private static Duration parseMillis(final String value)
+    {
+
+        if (null == value || value.isBlank())
+            return null;
+        try {
+            return Duration.ofNanos((long) (Double.parseDouble(value.trim()) * 1_000_000));
+        }
+        catch (NumberFormatException numberFormatException) {
+            return null;
+        }
+    }
+
+
+    // Durations such as "1s", "6m0s", "20ms" or "1h2m3.5s"
+    private static Duration parseResetDuration(final String value)
+    {
+
+        if (null == value || value.isBlank())
+            return null;
+        final Matcher matcher = RESET_DURATION_PART.matcher(value.trim());
+        double        nanos   = 0;
+        int           end     = 0;
+        while (matcher.find() && matcher.start() == end) {
+            final double amount = Double.parseDouble(matcher.group(1));
+            nanos += amount * switch (matcher.group(2)) {
+                case "h" -> 3_600_000_000_000L;
+                case "m" -> 60_000_000_000L;
+                case "s" -> 1_000_000_000L;
+                default -> 1_000_000L;
+            };
+            end = matcher.end();
+        }
+        return end > 0 && end == value.trim().length() ? Duration.ofNanos((long) nanos) : null;
+    }
+
+
+    private static Duration max(final Duration first, final Duration second)
+    {
+
+        if (null == first)
+            return second;
+        return null == second || first.compareTo(second) >= 0 ? first : second;
+    }
+
+
+    private synchronized void depositBudget()
+    {
+
+        budget = Math.min(MAX_BUDGET, budget + budgetRatio);
+    }
+
+
+    private synchronized boolean withdrawBudget()
+    {
+
+        if (budget < 1)
+            return false;
+        budget--;
+        return true;
+    }
+
+
+    private Counter attemptsCounter(final String outcome)
+    {
+
+        return Counter.builder(ATTEMPTS_METER)
+                .tag("service", serviceName)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+}
@@ -0,0 +1,70 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.RetryConfiguration;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+
+
+/**
+ * Owns the {@link RequestRetrier} of the services whose {@link RetryConfiguration} enables it.
+ * <p>
+ * A retrier is created at the first request to its service and discarded with the other per service
+ * resilience components when the service is unregistered or reloaded : the retry budget starts over.
+ */
+@Service
+@Slf4j
+public class RequestRetryManagerService
+{
+
+    private final MeterRegistry               meterRegistry;
+    private final Map<String, RequestRetrier> requestRetriers = new ConcurrentHashMap<>();
+
+
+    @Autowired
+    public RequestRetryManagerService(final MeterRegistry meterRegistry) {
+
+        this.meterRegistry = meterRegistry;
+    }
+
+
+    /**
+     * Retrieves the request retrier of a service, creating it if not present.
+     *
+     * @param serviceName        the name of the external service.
+     * @param retryConfiguration the retry configuration of the service.
+     * @return the request retrier of the service, {@code null} if its requests are not retried.
+     */
+    public RequestRetrier getRequestRetrier(final String serviceName, final RetryConfiguration retryConfiguration)
+    {
+
+        if (null == retryConfiguration || !retryConfiguration.isEnabled())
+            return null;
+
+        return requestRetriers.computeIfAbsent(serviceName, key -> {
+            log.info("Request retrier created for service : {} with configuration : {}", serviceName,
+                    retryConfiguration.toJson());
+            return new RequestRetrier(serviceName, retryConfiguration, meterRegistry);
+        });
+    }
+
+
+    /**
+     * Removes the request retrier of a service and unregisters its meters.
+     */
+    public void removeRequestRetrier(final String serviceName)
+    {
+
+        final RequestRetrier requestRetrier = requestRetriers.remove(serviceName);
+        if (null != requestRetrier)
+            requestRetrier.close();
+    }
+
+}
@@ -0,0 +1,194 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import static ai.learningsystems.gloobermkp.espproxies.services.share.ProxyHeaderCustomFields.X_GMKP_XSP_TECHNICALMETRICS;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.ResponseEntity;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.ResponseCacheConfiguration;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.request.RequestEnvelope;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+
+
+/**
+ * Exact-match cache of the standard responses of a service.
+ * <p>
+ * Entries are keyed by the {@link RequestHasher} canonical hash of the request and of the configured key
+ * headers values. The cache is backed by Caffeine : it is bounded by the {@link ResponseCacheConfiguration}
+ * maximum size in bytes, each entry weighing at least {@code maxBytes / maxEntries} so that the number of
+ * entries is bounded too, entries expire {@code timeToLive} after being stored and evictions follow the
+ * W-TinyLFU policy.
+ * <p>
+ * Meters, tagged by {@code service} :
+ * <ul>
+ * <li>{@code espproxies.response.cache.requests} : counter of the cache lookups, tagged by {@code result}
+ * ({@code hit} or {@code miss}),</li>
+ * <li>{@code espproxies.response.cache.evictions} : counter of the evicted entries, tagged by {@code cause}
+ * ({@code size} or {@code expired}),</li>
+ * <li>{@code espproxies.response.cache.saved} : timer of the original exchange duration of each response
+ * served from the cache : its count is the number of upstream calls saved, its total the latency saved.</li>
+ * </ul>
+ */
+@Slf4j
+public class ResponseCache
+{
+
+    private static final String REQUESTS_METER  = "espproxies.response.cache.requests";
+    private static final String EVICTIONS_METER = "espproxies.response.cache.evictions";
+    private static final String SAVED_METER     = "espproxies.response.cache.saved";
+
+    /** Rough per entry overhead (key, headers and Caffeine node) added to the body size. */
+    private static final int ENTRY_OVERHEAD_BYTES = 512;
+
+    private final String                        serviceName;
+    private final List<String>                  keyHeaders;
+    private final Cache<String, CachedResponse> cache;
+    private final Counter                       hits;
+    private final Counter                       misses;
+    private final Timer                         saved;
+
+
+    /**
+     * Creates the response cache of a service.
+     *
+     * @param serviceName   the name of the service.
+     * @param configuration the response cache configuration of the service.
+     * @param meterRegistry the registry the cache meters are published to.
+     */
+    public ResponseCache(final String serviceName, final ResponseCacheConfiguration configuration,
+            final MeterRegistry meterRegistry) {
+
+        final long maxBytes       = configuration.getMaxBytes();
+        final int  minEntryWeight = (int) Math.min(Integer.MAX_VALUE,
+                Math.max(1, maxBytes / Math.max(1, configuration.getMaxEntries())));
+
+        this.serviceName = serviceName;
+        this.keyHeaders  = null != configuration.getKeyHeaders() ? List.copyOf(configuration.getKeyHeaders())
+                : List.of();
+        this.hits        = requestsCounter(meterRegistry, "hit");
+        this.misses      = requestsCounter(meterRegistry, "miss");
+        this.saved       = Timer.builder(SAVED_METER).tag("service", serviceName).register(meterRegistry);
+        this.cache       = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String key, CachedResponse response) -> Math.max(minEntryWeight, response.weight()))
+                .expireAfterWrite(Duration.parse(configuration.getTimeToLive()))
+                .evictionListener((String key, CachedResponse response, RemovalCause cause) -> Counter
+                        .builder(EVICTIONS_METER)
+                        .tag("service", serviceName)
+                        .tag("cause", cause.name().toLowerCase())
+                        .register(meterRegistry)
+                        .increment())
+                .build();
+    }
+
+
+    /**
+     * Computes the cache key of a request.
+     *
+     * @param envelope the {@link RequestEnvelope} of the request.
+     * @return the hex encoded SHA-256 hash identifying the request.
+     */
+    public String keyOf(final RequestEnvelope envelope)
+    {
+
+        return RequestHasher.hash(envelope, keyHeaders);
+    }
+
+
+    /**
+     * Looks a response up, counting a hit or a miss. On a hit, the original exchange duration is recorded
+     * as saved.
+     *
+     * @param key the request cache key.
+     * @return the cached response, {@code null} on a miss.
+     */
+    public CachedResponse get(final String key)
+    {
+
+        final CachedResponse response = cache.getIfPresent(key);
+        if (null == response) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        saved.record(response.exchangeDuration(), TimeUnit.NANOSECONDS);
+        return response;
+    }
+
+
+    /**
+     * Stores a successful (2xx) response, other responses are ignored. The per request technical metrics
+     * header is not stored : it is recomputed on each hit.
+     *
+     * @param key              the request cache key.
+     * @param response         the response relayed to the caller, usage metrics header included.
+     * @param exchangeDuration the nanoseconds the exchange took, saved on each hit.
+     */
+    public void put(final String key, final ResponseEntity<String> response, final long exchangeDuration)
+    {
+
+        if (!response.getStatusCode().is2xxSuccessful() || null == response.getBody())
+            return;
+
+        final HttpHeaders headers = new HttpHeaders();
+        headers.addAll(response.getHeaders());
+        headers.remove(X_GMKP_XSP_TECHNICALMETRICS);
+        cache.put(key, new CachedResponse(response.getStatusCode(), HttpHeaders.readOnlyHttpHeaders(headers),
+                response.getBody(), exchangeDuration));
+    }
+
+
+    /**
+     * Discards every cached response.
+     */
+    public void invalidateAll()
+    {
+
+        cache.invalidateAll();
+        log.debug("Response cache of service {} invalidated", serviceName);
+    }
+
+
+    private Counter requestsCounter(final MeterRegistry meterRegistry, final String result)
+    {
+
+        return Counter.builder(REQUESTS_METER)
+                .tag("service", serviceName)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+
+    /**
+     * A cached response.
+     *
+     * @param status           the response status.
+     * @param headers          the response headers, usage metrics included and technical metrics excluded.
+     * @param body             the response body.
+     * @param exchangeDuration the nanoseconds the original exchange took.
+     */
+    public record CachedResponse(HttpStatusCode status, HttpHeaders headers, String body, long exchangeDuration)
+    {
+
+        int weight()
+        {
+
+            return (int) Math.min(Integer.MAX_VALUE, (long) body.length() + ENTRY_OVERHEAD_BYTES);
+        }
+    }
+
+}
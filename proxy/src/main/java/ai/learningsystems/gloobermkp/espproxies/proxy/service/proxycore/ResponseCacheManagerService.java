@@ -0,0 +1,84 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.ResponseCacheConfiguration;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.ServiceProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+
+
+/**
+ * Owns the {@link ResponseCache} of the services whose {@link ResponseCacheConfiguration} enables it.
+ * <p>
+ * A cache is created at service registration and discarded when the service is unregistered or reloaded :
+ * responses cached for a previous configuration of the service are never served.
+ */
+@Service
+@Slf4j
+public class ResponseCacheManagerService
+{
+
+    private final MeterRegistry              meterRegistry;
+    private final Map<String, ResponseCache> responseCaches = new ConcurrentHashMap<>();
+
+
+    @Autowired
+    public ResponseCacheManagerService(final MeterRegistry meterRegistry) {
+
+        this.meterRegistry = meterRegistry;
+    }
+
+
+    /**
+     * Creates the response cache of a service if its configuration enables it, replacing the previous one.
+     *
+     * @param serviceName the name of the external service.
+     * @param properties  the service properties containing the response cache configuration.
+     */
+    public void createResponseCache(final String serviceName, final ServiceProperties properties)
+    {
+
+        removeResponseCache(serviceName);
+
+        final ResponseCacheConfiguration cacheConfiguration = properties.getResponseCacheConfiguration();
+        if (null == cacheConfiguration || !cacheConfiguration.isEnabled())
+            return;
+
+        responseCaches.put(serviceName, new ResponseCache(serviceName, cacheConfiguration, meterRegistry));
+        log.info("Response cache created for service : {} with configuration : {}", serviceName,
+                cacheConfiguration.toJson());
+    }
+
+
+    /**
+     * Retrieves the response cache of a service.
+     *
+     * @param serviceName the name of the external service.
+     * @return the response cache of the service, {@code null} if its responses are not cached.
+     */
+    public ResponseCache getResponseCache(final String serviceName)
+    {
+
+        return responseCaches.get(serviceName);
+    }
+
+
+    /**
+     * Removes the response cache of a service and discards its entries.
+     */
+    public void removeResponseCache(final String serviceName)
+    {
+
+        final ResponseCache responseCache = responseCaches.remove(serviceName);
+        if (null != responseCache)
+            responseCache.invalidateAll();
+    }
+
+}
@@ -0,0 +1,18 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+/**
+ * Thrown when the target service does not reply within the response timeout of its service : no response to a
+ * standard request, or no first event of a stream.
+ */
+public class ResponseTimeoutException extends UpstreamTimeoutException
+{
+
+    private static final long serialVersionUID = 7396618811835760180L;
+
+    public ResponseTimeoutException(final String message) {
+
+        super(message);
+    }
+
+}
@@ -1,29 +1,39 @@
 package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
 
 
-import static ai.learningsystems.gloobermkp.apigateway.domains.share.GatewayHeaderCustomFields.SERVICEREF_NOT_SET_IN_HEADER;
-import static ai.learningsystems.gloobermkp.apigateway.domains.share.GatewayHeaderCustomFields.X_GMKP_XSP_SERVICE_REF;
+import static ai.learningsystems.gloobermkp.espproxies.plugin.shared.utils.HttpHeaderSharedConstants.X_GMKP_XSP_CACHE_STATUS;
+import static ai.learningsystems.gloobermkp.espproxies.plugin.shared.utils.HttpHeaderSharedConstants.X_GMKP_XSP_COALESCED;
 import static ai.learningsystems.gloobermkp.espproxies.services.share.ProxyHeaderCustomFields.X_GMKP_XSP_TECHNICALMETRICS;
 import static ai.learningsystems.gloobermkp.espproxies.services.share.ProxyHeaderCustomFields.X_GMKP_XSP_USAGEMETRICS;
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.web.reactive.function.client.WebClient;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
 import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandler.IServiceHandler;
 import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandler.IUsageMetricsSupplier;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.RequestCoalescingConfiguration.UsagePolicy;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.request.RequestEnvelope;
+import ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore.ProxyMetricsService.ExchangeMetrics;
+import ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore.ResponseCache.CachedResponse;
+import ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore.TokenRateLimiter.TokenReservation;
 import ai.learningsystems.gloobermkp.external.commons.domains.metrics.technical.ResponseTime;
 import ai.learningsystems.gloobermkp.external.commons.domains.metrics.technical.TechnicalMetrics;
 import ai.learningsystems.gloobermkp.external.commons.domains.metrics.usage.UsageMetrics;
 import ai.learningsystems.gloobermkp.external.commons.domains.web.HttpRequestBuilder;
-import io.github.resilience4j.circuitbreaker.CircuitBreaker;
-import io.github.resilience4j.ratelimiter.RateLimiter;
-import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
-import io.github.resilience4j.reactor.ratelimiter.operator.RateLimiterOperator;
 import lombok.extern.slf4j.Slf4j;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
 
 
 
@@ -33,17 +43,31 @@ import reactor.core.publisher.Mono;
 public class StandardRequestHandler
 {
 
-    
-    final WebClient                client;
-    private final IServiceHandler  serviceHandler;
-    private final TechnicalMetrics technicalMetrics;
+    /** Cache status of a response served from the service response cache. */
+    public static final String CACHE_HIT  = "HIT";
+    /** Cache status of a cacheable response relayed from the target service. */
+    public static final String CACHE_MISS = "MISS";
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    final WebClient                         client;
+    private final IServiceHandler           serviceHandler;
+    private final ProxyExecutionContext     executionContext;
+    private final MetricsComputationService metricsComputationService;
+    private final ProxyMetricsService       proxyMetricsService;
+    private final TechnicalMetrics          technicalMetrics;
 
 
-    public StandardRequestHandler(final WebClient client, final IServiceHandler serviceHandler) {
+    public StandardRequestHandler(final ProxyExecutionContext executionContext,
+            final MetricsComputationService metricsComputationService,
+            final ProxyMetricsService proxyMetricsService) {
 
-        this.client           = client;
-        this.serviceHandler   = serviceHandler;
-        this.technicalMetrics = new TechnicalMetrics();
+        this.executionContext          = executionContext;
+        this.metricsComputationService = metricsComputationService;
+        this.proxyMetricsService       = proxyMetricsService;
+        this.client                    = executionContext.client();
+        this.serviceHandler            = executionContext.serviceHandler();
+        this.technicalMetrics          = new TechnicalMetrics();
     }
 
 
@@ -51,28 +75,76 @@ public class StandardRequestHandler
      * Handles the request by applying service-specific customizations and executing
      * it through the configured WebClient, with support for circuit breaking and
      * rate limiting.
+     * <p>
+     * When the service has a response cache and its service handler declares the request cacheable, a cached
+     * response is served without calling the target service (circuit breaker and rate limiter are bypassed),
+     * with fresh technical metrics and the usage metrics of the original exchange. Otherwise successful
+     * responses are stored. Both are flagged by the {@code X-GMKP-XSP-CACHESTATUS} header ({@value #CACHE_HIT}
+     * or {@value #CACHE_MISS}).
+     * <p>
+     * When the service has a request coalescer, a request identical to one in flight shares its upstream
+     * response : it gets its own technical metrics, usage metrics according to the coalescer
+     * {@link UsagePolicy}, and the {@code X-GMKP-XSP-COALESCED} header giving the policy applied. It inherits
+     * the admission, quotas and retries outcome of the leading request, rejections included.
+     * <p>
+     * When the service has a tokens per minute budget, the estimated tokens of the request are reserved before
+     * calling the target service, and reconciled with the tokens reported by the response. Cached responses and
+     * responses shared with an identical request in flight are not charged.
+     * <p>
+     * When the service schedules its requests fairly between callers, the request waits for its admission by the
+     * service {@link FairAdmissionQueue} before anything else is reserved, by priority class and deadline
+     * ({@code X-GMKP-XSP-PRIORITY} and {@code X-GMKP-XSP-DEADLINE} headers). Cached and shared responses are not
+     * queued. A request whose deadline has passed is rejected before using any quota of the service.
+     * <p>
+     * Each attempt sent to the target service is bounded by the {@link UpstreamTimeouts} of the service : an
+     * attempt not replied to in time is cancelled and fails with an {@link UpstreamTimeoutException}.
      *
      * @param retargetedRequest the {@link ServerHttpRequest} containing the request
-     *                          details.
-     * @param requestBody       the body of the HTTP request.
-     * @param circuitBreaker    the {@link CircuitBreaker} applied to the request
-     *                          execution.
-     * @param rateLimiter       the {@link RateLimiter} applied to the request
-     *                          execution.
+     *                          details. Its body is carried by the request envelope
+     *                          of the execution context.
+     * @param upstreamGuards    the {@link UpstreamGuards} of the service applied to the request execution.
+     * @param responseCache     the {@link ResponseCache} of the service, {@code null} if its responses are
+     *                          not cached.
+     * @param requestCoalescer  the {@link RequestCoalescer} of the service, {@code null} if its requests are
+     *                          not coalesced.
      * @return a {@link Flux} representing the response to the request.
      */
-    @SuppressWarnings("unchecked")
-    public Flux<?> handle(final ServerHttpRequest retargetedRequest, final String requestBody,
-            final CircuitBreaker circuitBreaker, final RateLimiter rateLimiter)
+    public Flux<?> handle(final ServerHttpRequest retargetedRequest, final UpstreamGuards upstreamGuards,
+            final ResponseCache responseCache, final RequestCoalescer requestCoalescer)
     {
 
-        return serviceHandler.handleRequest(retargetedRequest, requestBody)
-                .transformDeferred(CircuitBreakerOperator.of(circuitBreaker))
-                .transformDeferred(RateLimiterOperator.of(rateLimiter)).map(response -> {
-                    log.debug("Received response: {}", ((ResponseEntity<String>) response).getBody());
-                    return buildResponseWithMetrics(retargetedRequest, requestBody, (ResponseEntity<String>) response,
-                            serviceHandler);
-                }).onErrorResume(throwable -> handleFallback(throwable).flux());
+        return Flux.defer(() -> {
+            final ExchangeMetrics exchangeMetrics = proxyMetricsService.openExchange(executionContext,
+                    ProxyMetricsService.MODE_STANDARD);
+            final long            startTime       = System.nanoTime();
+            final RequestEnvelope envelope        = executionContext.requestEnvelope();
+            final String          cacheKey        = null != responseCache
+                    && serviceHandler.isResponseCacheable(envelope) ? responseCache.keyOf(envelope) : null;
+            final CachedResponse  cachedResponse  = null != cacheKey ? responseCache.get(cacheKey) : null;
+
+            final Flux<?> responses = null != cachedResponse
+                    ? Flux.just(buildCachedResponse(cachedResponse))
+                    : relayUpstreamResponse(retargetedRequest, envelope, upstreamGuards, requestCoalescer)
+                            .map(response -> null != cacheKey
+                                    ? storeInCache(responseCache, cacheKey, response, System.nanoTime() - startTime)
+                                    : response)
+                            .onErrorResume(throwable -> {
+                                proxyMetricsService.recordRejection(executionContext, throwable);
+                                return handleFallback(throwable).flux();
+                            });
+
+            return responses
+                    .doOnNext(response -> {
+                        final ResponseEntity<?> responseEntity = (ResponseEntity<?>) response;
+                        exchangeMetrics.onRelayed(String.valueOf(responseEntity.getBody()));
+                        exchangeMetrics.close(ProxyMetricsService.statusClass(responseEntity.getStatusCode()));
+                    })
+                    .doFinally(signalType -> exchangeMetrics.close(SignalType.CANCEL == signalType
+                            ? ProxyMetricsService.STATUS_CANCELLED
+                            : "5xx"));
+        })
+                // Makes the request execution context available to executeRequest() called back by the plugin
+                .contextWrite(executionContext.toReactorContext());
     }
 
 
@@ -90,26 +162,34 @@ public class StandardRequestHandler
     public Mono<ResponseEntity<String>> executeRequest(final ServerHttpRequest retargetedRequest,
             final String requestBody)
     {
-        
-        String serviceRef = SERVICEREF_NOT_SET_IN_HEADER;
-        final var serviceRefHeaderValues = retargetedRequest.getHeaders().get(X_GMKP_XSP_SERVICE_REF);
-        if( null != serviceRefHeaderValues && ! serviceRefHeaderValues.isEmpty() )
-            serviceRef = serviceRefHeaderValues.get(0);
-        final String servicePath = retargetedRequest.getPath() //
-                .pathWithinApplication() //
-                .value();
-        
-        final HttpRequestBuilder requestBuilder   = new HttpRequestBuilder(client, retargetedRequest, requestBody);
-        final long               requestStartTime = System.currentTimeMillis();
 
-        final String staticServiceRef = serviceRef;
-        return requestBuilder.build() //
-                .retrieve() //
-                .toEntity(String.class) //
+        // serviceRef is read from the execution context : plugins may have dropped the header while
+        // customizing the retargeted request
+        final String             serviceRef       = executionContext.serviceRef();
+        final String             servicePath      = executionContext.servicePath();
+        final long               requestStartTime = executionContext.requestStartTime();
+        final RequestHedger      requestHedger    = executionContext.requestHedger();
+
+        return Mono.deferContextual(contextView -> {
+            final long upstreamStartTime = System.nanoTime();
+            // Only the winning attempt of a hedged request is relayed, hence charged. Retried attempts share the
+            // target of the first one, so do hedged attempts sent to an alternate target
+            final AtomicReference<UpstreamTarget> firstTarget      = UpstreamBalancer.firstTarget(contextView);
+            final Mono<ResponseEntity<String>>    upstreamResponse = null == requestHedger
+                    ? exchange(retargetedRequest, requestBody, firstTarget)
+                    : requestHedger.hedge(() -> exchange(retargetedRequest, requestBody, firstTarget),
+                            () -> exchange(retargetedRequest, requestBody,
+                                    requestHedger.isAlternateTarget() ? firstTarget : new AtomicReference<>()));
+            return upstreamResponse //
+                    .doOnNext(responseEntity -> proxyMetricsService.recordUpstreamLatency(executionContext,
+                            upstreamStartTime, ProxyMetricsService.statusClass(responseEntity.getStatusCode())))
+                    .doOnError(error -> proxyMetricsService.recordUpstreamLatency(executionContext,
+                            upstreamStartTime, ProxyMetricsService.statusClass(error)));
+        }) //
                 .flatMap(responseEntity -> {
            
                     final long requestEndTime = System.currentTimeMillis();
-                    technicalMetrics.addMetricToComponent(staticServiceRef, servicePath, new ResponseTime(requestStartTime, requestEndTime));
+                    technicalMetrics.addMetricToComponent(serviceRef, servicePath, new ResponseTime(requestStartTime, requestEndTime));
         
                     String jsonTechnicalMetrics = technicalMetrics.toJson();
                     log.debug("Adding technical metrics to response: {}", jsonTechnicalMetrics);
@@ -128,25 +208,255 @@ public class StandardRequestHandler
     }
 
 
+    /**
+     * Sends the request to the target service, or to the upstream target picked by the service balancer, within
+     * the timeouts of the service.
+     */
+    private Mono<ResponseEntity<String>> exchange(final ServerHttpRequest retargetedRequest, final String requestBody,
+            final AtomicReference<UpstreamTarget> firstTarget)
+    {
+
+        final UpstreamBalancer upstreamBalancer = executionContext.upstreamBalancer();
+        if (null == upstreamBalancer)
+            return limitResponse(exchange(client, retargetedRequest, requestBody));
+        return upstreamBalancer.exchange(target -> limitResponse(exchange(target.getWebClient(),
+                upstreamBalancer.retarget(retargetedRequest, target), requestBody)).flux(), firstTarget).next();
+    }
+
+
+    // Timed out exchanges are cancelled : their connection is released
+    private Mono<ResponseEntity<String>> limitResponse(final Mono<ResponseEntity<String>> response)
+    {
+
+        final UpstreamTimeouts upstreamTimeouts = executionContext.upstreamTimeouts();
+        if (null == upstreamTimeouts)
+            return response;
+        return upstreamTimeouts.limitResponse(response)
+                .doOnError(error -> proxyMetricsService.recordTimeout(executionContext, error));
+    }
+
+
+    private static Mono<ResponseEntity<String>> exchange(final WebClient webClient,
+            final ServerHttpRequest retargetedRequest, final String requestBody)
+    {
+
+        return new HttpRequestBuilder(webClient, retargetedRequest, requestBody).build() //
+                .retrieve() //
+                .toEntity(String.class);
+    }
+
+
     /**
      * Adds custom usage metrics to the HTTP response headers.
+     * <p>
+     * Usage metrics are computed on the {@link MetricsComputationService} scheduler, off the event loop. If
+     * they cannot be computed in time, the response is relayed with empty usage metrics.
      *
-     * @param request     the {@link ServerHttpRequest} containing the request
-     *                    details.
-     * @param requestBody the body of the HTTP request.
-     * @param response    the {@link ResponseEntity} containing the response
-     *                    details.
-     * @param handler     the {@link IUsageMetricsSupplier} used to compute usage
-     *                    metrics.
-     * @return a {@link ResponseEntity} with updated headers containing usage
-     *         metrics.
+     * @param envelope the {@link RequestEnvelope} of the request.
+     * @param response the {@link ResponseEntity} containing the response
+     *                 details.
+     * @param handler  the {@link IUsageMetricsSupplier} used to compute usage
+     *                 metrics.
+     * @return a {@link Mono} of the {@link ResponseEntity} with updated headers
+     *         containing usage metrics.
      */
-    private ResponseEntity<String> buildResponseWithMetrics(final ServerHttpRequest request, final String requestBody,
+    // Package private for the benchmarks module
+    Mono<ResponseEntity<String>> buildResponseWithMetrics(final RequestEnvelope envelope,
             final ResponseEntity<String> response, IUsageMetricsSupplier handler)
     {
 
-        UsageMetrics usageMetrics     = handler.getMetrics(request, requestBody, response);
-        String       jsonUsageMetrics = usageMetrics.toJson();
+        return buildResponseWithMetrics(envelope, response, handler, null);
+    }
+
+
+    /**
+     * Builds the response with its usage metrics, then reconciles the token reservation of the request with the
+     * tokens it consumed. Both run on the metrics scheduler : the reply body is not scanned on the event loop.
+     */
+    private Mono<ResponseEntity<String>> buildResponseWithMetrics(final RequestEnvelope envelope,
+            final ResponseEntity<String> response, final IUsageMetricsSupplier handler,
+            final AtomicReference<TokenReservation> tokenReservation)
+    {
+
+        return metricsComputationService
+                .compute(MetricsComputationService.KIND_STANDARD, () -> {
+                    final UsageMetrics     usageMetrics = handler.getMetrics(envelope, response);
+                    final TokenReservation reservation  = null != tokenReservation
+                            ? tokenReservation.getAndSet(null)
+                            : null;
+                    if (null != reservation)
+                        reservation.reconcile(handler.getConsumedTokens(envelope, response));
+                    return usageMetrics;
+                })
+                .onErrorResume(error -> Mono.just(new UsageMetrics()))
+                .map(usageMetrics -> addUsageMetrics(response, usageMetrics));
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private Flux<ResponseEntity<String>> relayUpstreamResponse(final ServerHttpRequest retargetedRequest,
+            final RequestEnvelope envelope, final UpstreamGuards upstreamGuards,
+            final RequestCoalescer requestCoalescer)
+    {
+
+        // Each retry calls the service handler again : it customizes the request it sends anew
+        final AtomicInteger                     upstreamAttempts   = new AtomicInteger();
+        final AtomicReference<TokenReservation> tokenReservation   = new AtomicReference<>();
+        final Flux<ResponseEntity<String>>      protectedResponses = upstreamGuards
+                .retry(upstreamGuards.protect(Flux.defer(
+                        () -> serviceHandler.handleRequest(retargetedRequest, envelope))), upstreamAttempts)
+                .map(response -> {
+                    log.debug("Received response: {}", ((ResponseEntity<String>) response).getBody());
+                    return null != upstreamGuards.requestRetrier()
+                            ? withUpstreamAttempts((ResponseEntity<String>) response, upstreamAttempts.get())
+                            : (ResponseEntity<String>) response;
+                });
+
+        // The token budget is reserved outside the circuit breaker : rejections for budget do not count as
+        // failures of the target service. The reservation is reconciled along with the usage metrics
+        final TokenRateLimiter             tokenRateLimiter  = upstreamGuards.tokenRateLimiter();
+        final Flux<ResponseEntity<String>> budgetedResponses = null == tokenRateLimiter ? protectedResponses
+                : tokenRateLimiter.execute(envelope.getModel(), serviceHandler.estimateRequestTokens(envelope),
+                        reservation -> {
+                            tokenReservation.set(reservation);
+                            return protectedResponses;
+                        });
+        final Flux<ResponseEntity<String>> upstreamResponses = upstreamGuards
+                .admit(AdmissionRequest.of(executionContext), budgetedResponses);
+
+        final String coalescingKey = null != requestCoalescer ? requestCoalescer.keyOf(envelope, serviceHandler)
+                : null;
+        if (null == coalescingKey)
+            return upstreamResponses.concatMap(
+                    response -> buildResponseWithMetrics(envelope, response, serviceHandler, tokenReservation));
+
+        // The shared upstream call runs within the leader context : executeRequest() called back by the plugin
+        // reads the leader execution context, whichever caller subscribes first. Followers are not admitted nor
+        // charged themselves : they share the leader outcome, rejections included
+        return requestCoalescer
+                .execute(coalescingKey,
+                        () -> upstreamResponses.next().contextWrite(executionContext.toReactorContext()))
+                .flatMap(coalescedResponse -> coalescedResponse.leader()
+                        ? buildResponseWithMetrics(envelope, coalescedResponse.response(), serviceHandler,
+                                tokenReservation)
+                        : buildSharedResponse(envelope, coalescedResponse.response(),
+                                requestCoalescer.getUsagePolicy()))
+                .flux();
+    }
+
+
+    /**
+     * Builds the response of a request coalesced with an identical one in flight, from the response shared
+     * by the leader : technical metrics are those of this request, usage metrics depend on the usage policy.
+     */
+    private Mono<ResponseEntity<String>> buildSharedResponse(final RequestEnvelope envelope,
+            final ResponseEntity<String> sharedResponse, final UsagePolicy usagePolicy)
+    {
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.addAll(sharedResponse.getHeaders());
+        headers.set(X_GMKP_XSP_TECHNICALMETRICS, computeTechnicalMetrics());
+        headers.set(X_GMKP_XSP_COALESCED, usagePolicy.name());
+
+        final ResponseEntity<String> response = ResponseEntity.status(sharedResponse.getStatusCode())
+                .headers(headers)
+                .body(sharedResponse.getBody());
+        return UsagePolicy.CHARGE_EACH == usagePolicy
+                ? buildResponseWithMetrics(envelope, response, serviceHandler)
+                : Mono.just(addUsageMetrics(response, new UsageMetrics()));
+    }
+
+
+    private ResponseEntity<String> storeInCache(final ResponseCache responseCache, final String cacheKey,
+            final ResponseEntity<String> response, final long exchangeDuration)
+    {
+
+        // A shared response is stored by the leader of the coalesced requests, with the leader usage metrics
+        if (!response.getHeaders().containsKey(X_GMKP_XSP_COALESCED))
+            responseCache.put(cacheKey, response, exchangeDuration);
+        return withHeader(response, X_GMKP_XSP_CACHE_STATUS, CACHE_MISS);
+    }
+
+
+    /**
+     * Builds the response to a request from the service response cache : the cached body and usage metrics
+     * header, with technical metrics of the current request.
+     */
+    private ResponseEntity<String> buildCachedResponse(final CachedResponse cachedResponse)
+    {
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.addAll(cachedResponse.headers());
+        headers.add(X_GMKP_XSP_TECHNICALMETRICS, computeTechnicalMetrics());
+        headers.add(X_GMKP_XSP_CACHE_STATUS, CACHE_HIT);
+
+        return ResponseEntity.status(cachedResponse.status()).headers(headers).body(cachedResponse.body());
+    }
+
+
+    /**
+     * @return the JSON technical metrics of this request, its response time ending now.
+     */
+    private String computeTechnicalMetrics()
+    {
+
+        technicalMetrics.addMetricToComponent(executionContext.serviceRef(), executionContext.servicePath(),
+                new ResponseTime(executionContext.requestStartTime(), System.currentTimeMillis()));
+        return technicalMetrics.toJson();
+    }
+
+
+    /**
+     * Adds the number of upstream attempts of a retried request to its technical metrics.
+     *
+     * @return the response with a {@value RequestRetrier#UPSTREAM_ATTEMPTS_FIELD} member in its technical
+     *         metrics, unchanged if they are not a JSON object.
+     */
+    private static ResponseEntity<String> withUpstreamAttempts(final ResponseEntity<String> response,
+            final int attempts)
+    {
+
+        final String jsonTechnicalMetrics = response.getHeaders().getFirst(X_GMKP_XSP_TECHNICALMETRICS);
+        if (null == jsonTechnicalMetrics)
+            return response;
+        try {
+            final JsonNode technicalMetrics = OBJECT_MAPPER.readTree(jsonTechnicalMetrics);
+            if (technicalMetrics instanceof ObjectNode technicalMetricsObject) {
+                technicalMetricsObject.put(RequestRetrier.UPSTREAM_ATTEMPTS_FIELD, attempts);
+
+                HttpHeaders modifiedHeaders = new HttpHeaders();
+                modifiedHeaders.addAll(response.getHeaders());
+                modifiedHeaders.set(X_GMKP_XSP_TECHNICALMETRICS,
+                        OBJECT_MAPPER.writeValueAsString(technicalMetricsObject));
+                return ResponseEntity.status(response.getStatusCode())
+                        .headers(modifiedHeaders)
+                        .body(response.getBody());
+            }
+        }
+        catch (JsonProcessingException jsonProcessingException) {
+            log.warn("Upstream attempts not added to technical metrics : {}", jsonProcessingException.getMessage());
+        }
+        return response;
+    }
+
+
+    private static ResponseEntity<String> withHeader(final ResponseEntity<String> response, final String name,
+            final String value)
+    {
+
+        HttpHeaders modifiedHeaders = new HttpHeaders();
+        modifiedHeaders.addAll(response.getHeaders());
+        modifiedHeaders.add(name, value);
+
+        return ResponseEntity.status(response.getStatusCode()).headers(modifiedHeaders).body(response.getBody());
+    }
+
+
+    private ResponseEntity<String> addUsageMetrics(final ResponseEntity<String> response,
+            final UsageMetrics usageMetrics)
+    {
+
+        String jsonUsageMetrics = usageMetrics.toJson();
 
         HttpHeaders modifiedHeaders = new HttpHeaders();
         modifiedHeaders.addAll(response.getHeaders());
@@ -0,0 +1,17 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+/**
+ * Thrown when a stream of the target service lasts longer than the maximum stream duration of its service.
+ */
+public class StreamDurationExceededException extends UpstreamTimeoutException
+{
+
+    private static final long serialVersionUID = -4994281961298356706L;
+
+    public StreamDurationExceededException(final String message) {
+
+        super(message);
+    }
+
+}
@@ -0,0 +1,167 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import java.time.Duration;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.StreamFailoverConfiguration;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+
+
+/**
+ * Fails the streamed requests to a service over before their first event : nothing has been relayed to the
+ * caller yet, the stream can be opened again transparently.
+ * <p>
+ * A stream failing with a transport error, a 429 or a 5xx reply, or silent for {@code firstByteTimeout}, is
+ * cancelled and the next stream opened, up to {@code maxAttempts} streams. In hedge mode, a silent stream is kept
+ * open while the next one is opened : the first stream to send an event is relayed and the others are cancelled.
+ * The last stream has no first byte threshold. Once its first event is received, a stream is committed : its
+ * later errors are relayed. Client errors are relayed at once.
+ * <p>
+ * Meters, tagged by {@code service} : {@code espproxies.stream.failover}, counter of the streams opened again
+ * tagged by {@code reason} ({@code error}, {@code first_byte_timeout}, {@code hedge}).
+ */
+@Slf4j
+public class StreamFailover
+{
+
+    private static final String FAILOVER_METER = "espproxies.stream.failover";
+
+    private final String        serviceName;
+    private final Duration      firstByteTimeout;
+    private final int           maxAttempts;
+    private final boolean       hedge;
+    private final boolean       alternateTarget;
+    private final Counter       errorCounter;
+    private final Counter       timeoutCounter;
+    private final Counter       hedgeCounter;
+    private final MeterRegistry meterRegistry;
+    private final List<Meter>   meters;
+
+
+    /**
+     * Creates the stream failover of a service.
+     *
+     * @param serviceName   the name of the service.
+     * @param configuration the stream failover configuration of the service.
+     * @param meterRegistry the registry the failover meters are published to.
+     */
+    public StreamFailover(final String serviceName, final StreamFailoverConfiguration configuration,
+            final MeterRegistry meterRegistry) {
+
+        this.serviceName      = serviceName;
+        this.firstByteTimeout = Duration.parse(configuration.getFirstByteTimeout());
+        this.maxAttempts      = Math.max(1, configuration.getMaxAttempts());
+        this.hedge            = configuration.isHedge();
+        this.alternateTarget  = configuration.isAlternateTarget();
+        this.meterRegistry    = meterRegistry;
+        this.errorCounter     = failoverCounter("error");
+        this.timeoutCounter   = failoverCounter("first_byte_timeout");
+        this.hedgeCounter     = failoverCounter("hedge");
+        this.meters           = List.of(errorCounter, timeoutCounter, hedgeCounter);
+    }
+
+
+    /**
+     * Opens an upstream stream, opened again while it fails or stays silent before its first event.
+     *
+     * @param firstStream the supplier of the first upstream stream.
+     * @param nextStream  the supplier of the upstream streams opened again.
+     * @return the events of the committed stream, or the error of the last stream.
+     */
+    public <T> Flux<T> open(final Supplier<Flux<T>> firstStream, final Supplier<Flux<T>> nextStream)
+    {
+
+        return Flux.defer(() -> open(firstStream, nextStream, 1, new AtomicReference<>()));
+    }
+
+
+    /**
+     * @return {@code true} if the next stream is opened on another upstream target than the first one.
+     */
+    public boolean isAlternateTarget()
+    {
+
+        return alternateTarget;
+    }
+
+
+    /**
+     * Unregisters the failover meters.
+     */
+    public void close()
+    {
+
+        meters.forEach(meterRegistry::remove);
+    }
+
+
+    private <T> Flux<T> open(final Supplier<Flux<T>> firstStream, final Supplier<Flux<T>> nextStream,
+            final int attempt, final AtomicReference<Throwable> lastError)
+    {
+
+        final AtomicBoolean replied = new AtomicBoolean();
+        final Flux<T>       current = (1 == attempt ? firstStream : nextStream).get()
+                .doOnNext(event -> replied.set(true));
+        if (attempt >= maxAttempts)
+            return current;
+
+        if (!hedge)
+            return current
+                    // Only the first event has a deadline
+                    .timeout(Mono.delay(firstByteTimeout), event -> Flux.never())
+                    .onErrorResume(error -> !replied.get() && isFailover(error), error -> {
+                        (error instanceof TimeoutException ? timeoutCounter : errorCounter).increment();
+                        log.debug("Stream {} of service {} failed over before its first event : {}", attempt,
+                                serviceName, error.toString());
+                        return open(firstStream, nextStream, attempt + 1, lastError);
+                    });
+
+        // The next stream is opened when the current one stays silent or fails, unless it failed for good
+        final Sinks.Empty<Void> failed = Sinks.empty();
+        final Flux<T>           racing = current.doOnError(error -> {
+            lastError.set(error);
+            if (!replied.get() && isFailover(error))
+                failed.tryEmitEmpty();
+            else
+                failed.tryEmitError(error);
+        });
+        final Flux<T>           next   = Mono.firstWithSignal(
+                Mono.delay(firstByteTimeout).doOnNext(tick -> hedgeCounter.increment()).then(),
+                failed.asMono().doOnSuccess(none -> errorCounter.increment()))
+                .thenMany(Flux.defer(() -> open(firstStream, nextStream, attempt + 1, lastError)));
+        // The first stream to send an event wins, the other ones are cancelled
+        return Flux.firstWithValue(racing, next)
+                .onErrorMap(NoSuchElementException.class, error -> null != lastError.get() ? lastError.get() : error);
+    }
+
+
+    private static boolean isFailover(final Throwable error)
+    {
+
+        return error instanceof TimeoutException || UpstreamStatusException.isUpstreamFailure(error);
+    }
+
+
+    private Counter failoverCounter(final String reason)
+    {
+
+        return Counter.builder(FAILOVER_METER)
+                .tag("service", serviceName)
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+}
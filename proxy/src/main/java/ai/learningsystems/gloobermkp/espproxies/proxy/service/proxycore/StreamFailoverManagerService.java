@@ -0,0 +1,71 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.StreamFailoverConfiguration;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+
+
+/**
+ * Owns the {@link StreamFailover} of the services whose {@link StreamFailoverConfiguration} enables it.
+ * <p>
+ * A stream failover is created at the first request to its service and discarded with the other per service
+ * resilience components when the service is unregistered or reloaded.
+ */
+@Service
+@Slf4j
+public class StreamFailoverManagerService
+{
+
+    private final MeterRegistry               meterRegistry;
+    private final Map<String, StreamFailover> streamFailovers = new ConcurrentHashMap<>();
+
+
+    @Autowired
+    public StreamFailoverManagerService(final MeterRegistry meterRegistry) {
+
+        this.meterRegistry = meterRegistry;
+    }
+
+
+    /**
+     * Retrieves the stream failover of a service, creating it if not present.
+     *
+     * @param serviceName                 the name of the external service.
+     * @param streamFailoverConfiguration the stream failover configuration of the service.
+     * @return the stream failover of the service, {@code null} if its streams do not fail over.
+     */
+    public StreamFailover getStreamFailover(final String serviceName,
+            final StreamFailoverConfiguration streamFailoverConfiguration)
+    {
+
+        if (null == streamFailoverConfiguration || !streamFailoverConfiguration.isEnabled())
+            return null;
+
+        return streamFailovers.computeIfAbsent(serviceName, key -> {
+            log.info("Stream failover created for service : {} with configuration : {}", serviceName,
+                    streamFailoverConfiguration.toJson());
+            return new StreamFailover(serviceName, streamFailoverConfiguration, meterRegistry);
+        });
+    }
+
+
+    /**
+     * Removes the stream failover of a service and unregisters its meters.
+     */
+    public void removeStreamFailover(final String serviceName)
+    {
+
+        final StreamFailover streamFailover = streamFailovers.remove(serviceName);
+        if (null != streamFailover)
+            streamFailover.close();
+    }
+
+}
@@ -0,0 +1,18 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+/**
+ * Thrown when a stream of the target service stays silent between two events for longer than the idle timeout
+ * of its service.
+ */
+public class StreamIdleTimeoutException extends UpstreamTimeoutException
+{
+
+    private static final long serialVersionUID = -8424129859060752613L;
+
+    public StreamIdleTimeoutException(final String message) {
+
+        super(message);
+    }
+
+}
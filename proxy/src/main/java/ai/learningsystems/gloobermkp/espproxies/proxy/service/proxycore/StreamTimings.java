@@ -0,0 +1,228 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.micrometer.core.instrument.Timer;
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+
+
+/**
+ * Latency profile of a single streamed reply, measured with the monotonic clock from the subscription of the
+ * upstream exchange : time to the first chunk, time to the first chunk carrying generated content (first token),
+ * gaps between consecutive chunks and completion tokens per second. The time the request waited for its admission,
+ * its quotas or a retry backoff before the exchange is not included.
+ * <p>
+ * The memory held stays constant whatever the stream length : gaps are folded into a fixed log-scale histogram
+ * (4 buckets per power of 2 microseconds), so the reported 95th percentile gap is an upper bound within 20%
+ * of the exact value. Each gap is also recorded to the {@code espproxies.stream.chunk.gap} timer.
+ * <p>
+ * Chunks of a stream are delivered sequentially, never concurrently : this class is not thread safe.
+ */
+public final class StreamTimings
+{
+
+    private static final int  SUB_BUCKETS     = 4;
+    private static final int  MAX_MAGNITUDE   = 27;
+    private static final int  BUCKETS         = (MAX_MAGNITUDE + 1) * SUB_BUCKETS;
+    private static final long NANOS_PER_MICRO = 1_000L;
+
+    private static final String CONTEXT_KEY = "espproxies.stream.timings";
+
+    private final Timer chunkGapTimer;
+    private final int[] gapBuckets       = new int[BUCKETS];
+    private long        startTime        = System.nanoTime();
+    private long        firstChunkTime   = -1;
+    private long        firstContentTime = -1;
+    private long        lastChunkTime    = -1;
+    private long        maxGap;
+    private int         chunkCount;
+
+
+    /**
+     * Starts timing a stream.
+     *
+     * @param chunkGapTimer the timer each inter-chunk gap is recorded to.
+     */
+    public StreamTimings(final Timer chunkGapTimer) {
+
+        this.chunkGapTimer = chunkGapTimer;
+    }
+
+
+    /**
+     * @return a Reactor {@link Context} holding these timings, to be written downstream of the upstream exchange.
+     */
+    public Context toReactorContext()
+    {
+
+        return Context.of(CONTEXT_KEY, this);
+    }
+
+
+    /**
+     * Restarts the timings of the stream a Reactor subscription belongs to when its upstream exchange is
+     * subscribed. Timings are not restarted once a chunk was received : a stream failed over after relaying
+     * chunks keeps the time to its first chunk.
+     *
+     * @param contextView the Reactor context of the upstream exchange.
+     */
+    public static void restart(final ContextView contextView)
+    {
+
+        contextView.<StreamTimings> getOrEmpty(CONTEXT_KEY).ifPresent(streamTimings -> {
+            if (streamTimings.firstChunkTime < 0)
+                streamTimings.startTime = System.nanoTime();
+        });
+    }
+
+
+    /**
+     * Records the arrival of a reply chunk, end-of-stream marker excluded.
+     *
+     * @param isContentChunk {@code true} if the chunk carries generated content.
+     */
+    public void onChunk(final boolean isContentChunk)
+    {
+
+        final long now = System.nanoTime();
+        if (firstChunkTime < 0)
+            firstChunkTime = now;
+        else {
+            final long gap = now - lastChunkTime;
+            maxGap = Math.max(maxGap, gap);
+            gapBuckets[bucketIndex(gap / NANOS_PER_MICRO)]++;
+            chunkGapTimer.record(gap, TimeUnit.NANOSECONDS);
+        }
+        if (isContentChunk && firstContentTime < 0)
+            firstContentTime = now;
+        lastChunkTime = now;
+        chunkCount++;
+    }
+
+
+    /**
+     * @return the nanoseconds from the start of the stream to its first chunk, -1 if none was received.
+     */
+    public long getTimeToFirstChunk()
+    {
+
+        return firstChunkTime < 0 ? -1 : firstChunkTime - startTime;
+    }
+
+
+    /**
+     * @return the nanoseconds from the start of the stream to its first content chunk, -1 if none was received.
+     */
+    public long getTimeToFirstToken()
+    {
+
+        return firstContentTime < 0 ? -1 : firstContentTime - startTime;
+    }
+
+
+    /**
+     * @return the longest gap between two consecutive chunks, in nanoseconds.
+     */
+    public long getMaxChunkGap()
+    {
+
+        return maxGap;
+    }
+
+
+    /**
+     * @return the 95th percentile gap between two consecutive chunks, in nanoseconds.
+     */
+    public long getP95ChunkGap()
+    {
+
+        final int gapCount = chunkCount - 1;
+        if (gapCount <= 0)
+            return 0;
+
+        final int rank = (int) Math.ceil(gapCount * 0.95);
+        int       seen = 0;
+        for (int index = 0; index < BUCKETS; index++) {
+            seen += gapBuckets[index];
+            if (seen >= rank)
+                return Math.min(maxGap, (bucketUpperBound(index) + 1) * NANOS_PER_MICRO);
+        }
+        return maxGap;
+    }
+
+
+    /**
+     * @param completionTokens the number of tokens of the reply, negative if unknown.
+     * @return the completion tokens generated per second, from the first content chunk to the last chunk, -1 if
+     *         unknown or if the reply content came in a single chunk.
+     */
+    public double getTokensPerSecond(final int completionTokens)
+    {
+
+        if (completionTokens <= 0 || firstContentTime < 0 || lastChunkTime <= firstContentTime)
+            return -1;
+        return completionTokens / ((lastChunkTime - firstContentTime) / 1e9);
+    }
+
+
+    /**
+     * @param completionTokens the number of tokens of the reply, negative if unknown.
+     * @return the stream timings in milliseconds as JSON, unknown values omitted.
+     */
+    public ObjectNode toJson(final int completionTokens)
+    {
+
+        final ObjectNode json = JsonNodeFactory.instance.objectNode();
+        if (getTimeToFirstChunk() >= 0)
+            json.put("timeToFirstChunkMs", toMillis(getTimeToFirstChunk()));
+        if (getTimeToFirstToken() >= 0)
+            json.put("timeToFirstTokenMs", toMillis(getTimeToFirstToken()));
+        json.put("chunks", chunkCount);
+        json.put("maxChunkGapMs", toMillis(getMaxChunkGap()));
+        json.put("p95ChunkGapMs", toMillis(getP95ChunkGap()));
+        final double tokensPerSecond = getTokensPerSecond(completionTokens);
+        if (tokensPerSecond >= 0)
+            json.put("tokensPerSecond", Math.round(tokensPerSecond * 10) / 10.0);
+        return json;
+    }
+
+
+    private static double toMillis(final long nanos)
+    {
+
+        return Math.round(nanos / 1_000.0) / 1_000.0;
+    }
+
+
+    private static int bucketIndex(final long micros)
+    {
+
+        if (micros < SUB_BUCKETS)
+            return (int) Math.max(0, micros);
+
+        final int magnitude = Math.min(MAX_MAGNITUDE, 63 - Long.numberOfLeadingZeros(micros));
+        if (magnitude == MAX_MAGNITUDE)
+            return BUCKETS - 1;
+        // The 2 bits following the most significant one select the sub bucket
+        return magnitude * SUB_BUCKETS + (int) ((micros >> (magnitude - 2)) & (SUB_BUCKETS - 1));
+    }
+
+
+    private static long bucketUpperBound(final int index)
+    {
+
+        if (index < SUB_BUCKETS)
+            return index;
+
+        final int magnitude = index / SUB_BUCKETS;
+        final int subBucket = index % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << (magnitude - 2)) - 1;
+    }
+
+}
@@ -1,11 +1,8 @@
 package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
 
-import static ai.learningsystems.gloobermkp.apigateway.domains.share.GatewayHeaderCustomFields.SERVICEREF_NOT_SET_IN_HEADER;
-import static ai.learningsystems.gloobermkp.apigateway.domains.share.GatewayHeaderCustomFields.X_GMKP_XSP_SERVICE_REF;
-
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpHeaders;
@@ -15,19 +12,27 @@ import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClient.RequestBodySpec;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
 import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandler.IServiceHandler;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandler.IStreamUsageAccumulator;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.RequestCoalescingConfiguration.UsagePolicy;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.request.RequestEnvelope;
+import ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore.ProxyMetricsService.ExchangeMetrics;
+import ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore.RequestCoalescer.CoalescedStream;
+import ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore.TokenRateLimiter.TokenReservation;
 import ai.learningsystems.gloobermkp.espproxies.services.share.EndOfStreamChunk;
 import ai.learningsystems.gloobermkp.external.commons.domains.metrics.technical.ResponseTime;
 import ai.learningsystems.gloobermkp.external.commons.domains.metrics.technical.TechnicalMetrics;
 import ai.learningsystems.gloobermkp.external.commons.domains.metrics.usage.UsageMetrics;
 import ai.learningsystems.gloobermkp.external.commons.domains.web.HttpRequestBuilder;
-import io.github.resilience4j.circuitbreaker.CircuitBreaker;
-import io.github.resilience4j.ratelimiter.RateLimiter;
-import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
-import io.github.resilience4j.reactor.ratelimiter.operator.RateLimiterOperator;
 import lombok.extern.slf4j.Slf4j;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
 
 
 
@@ -35,42 +40,134 @@ import reactor.core.publisher.Mono;
 public class StreamingRequestHandler
 {
 
-    final WebClient                client;
-    private final IServiceHandler  serviceHandler;
-    private final TechnicalMetrics technicalMetrics;
-    private long                   requestStartTime;
-    private long                   requestEndTime;
+    /** Member of the end-of-stream technical metrics holding the {@link StreamTimings} of the stream. */
+    public static final String STREAM_TIMINGS_FIELD = "streamTimings";
+    /**
+     * Member of the end-of-stream technical metrics of a stream shared with an identical request in flight :
+     * the usage policy applied.
+     */
+    public static final String COALESCED_FIELD      = "coalesced";
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    final WebClient                         client;
+    private final IServiceHandler           serviceHandler;
+    private final ProxyExecutionContext     executionContext;
+    private final MetricsComputationService metricsComputationService;
+    private final ProxyMetricsService       proxyMetricsService;
 
 
-    public StreamingRequestHandler(final WebClient client, final IServiceHandler serviceHandler) {
+    public StreamingRequestHandler(final ProxyExecutionContext executionContext,
+            final MetricsComputationService metricsComputationService,
+            final ProxyMetricsService proxyMetricsService) {
 
-        this.client           = client;
-        this.serviceHandler   = serviceHandler;
-        this.technicalMetrics = new TechnicalMetrics();
+        this.executionContext          = executionContext;
+        this.metricsComputationService = metricsComputationService;
+        this.proxyMetricsService       = proxyMetricsService;
+        this.client                    = executionContext.client();
+        this.serviceHandler            = executionContext.serviceHandler();
     }
 
 
-    public Flux<?> handle(final ServerHttpRequest retargetedRequest, final String requestBody,
-            final CircuitBreaker circuitBreaker, final RateLimiter rateLimiter)
+    /**
+     * Handles a streamed request : the upstream stream events are relayed as they come, the end-of-stream
+     * event being substituted by a chunk conveying the usage and technical metrics of the stream.
+     * <p>
+     * When the service has a request coalescer, a request identical to a stream in flight joins it instead of
+     * opening its own upstream stream : it receives every event of the shared stream, and its own usage
+     * (according to the coalescer {@link UsagePolicy}) and technical metrics. It inherits the admission, quotas
+     * and retries outcome of the leading request, rejections included, as well as the request attributes set
+     * by the service handler. The usage of a shared stream is counted once, by the usage accumulator of the
+     * leading request, as its events come from upstream.
+     * <p>
+     * When the service has a tokens per minute budget, the estimated tokens of the request are reserved before
+     * opening the upstream stream, and reconciled with the tokens counted at the end of the stream. Requests
+     * joining a stream in flight are not charged : the reservation is reconciled when the shared stream ends,
+     * whether the leading request is still there or not.
+     * <p>
+     * When the service schedules its requests fairly between callers, the request waits for its admission by the
+     * service {@link FairAdmissionQueue} before opening the upstream stream, by priority class and deadline.
+     * Requests joining a stream in flight are not queued. A request whose deadline has passed is rejected before
+     * using any quota of the service.
+     * <p>
+     * Each upstream stream is bounded by the {@link UpstreamTimeouts} of the service : a stream whose first event
+     * is late, silent between two events or lasting too long is cancelled and fails with an
+     * {@link UpstreamTimeoutException}.
+     *
+     * @param retargetedRequest the {@link ServerHttpRequest} containing the request details. Its body is
+     *                          carried by the request envelope of the execution context.
+     * @param upstreamGuards    the {@link UpstreamGuards} of the service applied to the request execution. A
+     *                          stream stays in flight until it ends, its latency is the time to its first
+     *                          event.
+     * @param requestCoalescer  the {@link RequestCoalescer} of the service, {@code null} if its requests are
+     *                          not coalesced.
+     * @return a {@link Flux} of the relayed events.
+     */
+    public Flux<?> handle(final ServerHttpRequest retargetedRequest, final UpstreamGuards upstreamGuards,
+            final RequestCoalescer requestCoalescer)
     {
 
-        List<String> accumulatedChunks = Collections.synchronizedList(new ArrayList<>());
-
         // This indirection through ServiceHandler allow request customization on
-        // providers constraints
-        Flux<?> eventStream = serviceHandler.handleRequest(retargetedRequest, requestBody)
-                .transformDeferred(CircuitBreakerOperator.of(circuitBreaker))
-                .transformDeferred(RateLimiterOperator.of(rateLimiter));
+        // providers constraints. Each retry calls the service handler again
+        Flux<?> eventStream = upstreamGuards.protect(Flux.defer(
+                () -> serviceHandler.handleRequest(retargetedRequest, executionContext.requestEnvelope())));
 
         @SuppressWarnings("unchecked")
         Flux<ServerSentEvent<String>> sseStream = eventStream instanceof Flux
                 ? (Flux<ServerSentEvent<String>>) eventStream
                 : Flux.error(new IllegalStateException("Expected Flux<ServerSentEvent<String>>"));
 
-        return sseStream
-                .concatMap(content -> processSSEChunk(retargetedRequest, requestBody, content, accumulatedChunks))
+        // Usage is accumulated per upstream stream as chunks come : chunks are dropped once folded, their
+        // tokenization is left to the metrics scheduler
+        return Flux.defer(() -> {
+            final AtomicInteger upstreamAttempts = new AtomicInteger();
+
+            // Restarted when the upstream exchange is subscribed. A request joining a stream in flight has no
+            // upstream exchange of its own : its timings start when it joins
+            final StreamTimings streamTimings = proxyMetricsService.startStreamTimings(executionContext);
+
+            // Only subscribed if this request opens the upstream stream, whose usage is then shared with the
+            // requests joining it
+            final Flux<AccountedEvent> accountedStream = Flux.defer(() -> {
+                final AtomicReference<TokenReservation> tokenReservation = new AtomicReference<>();
+                final StreamUsage                       streamUsage      = new StreamUsage(
+                        serviceHandler.createStreamUsageAccumulator(executionContext.requestEnvelope()),
+                        tokenReservation);
+                return upstreamGuards.admit(AdmissionRequest.of(executionContext),
+                        reserveTokens(upstreamGuards.retry(sseStream, upstreamAttempts),
+                                upstreamGuards.tokenRateLimiter(), tokenReservation))
+                        .contextWrite(streamTimings.toReactorContext())
+                        .map(streamUsage::onEvent);
+            });
+
+            final CoalescedStream<AccountedEvent> coalescedStream = joinStream(accountedStream, requestCoalescer);
+            final UsagePolicy                     usagePolicy     = coalescedStream.leader() ? null
+                    : requestCoalescer.getUsagePolicy();
+            final ExchangeMetrics                 exchangeMetrics = proxyMetricsService.openExchange(
+                    executionContext, ProxyMetricsService.MODE_STREAM);
+            // A request joining a stream in flight sees the attributes the service handler set on the request
+            // opening it, once the handler has handled it
+            final AtomicBoolean                   inherited       = new AtomicBoolean(coalescedStream.leader());
+            return coalescedStream.events()
+                    .doOnNext(event -> {
+                        if (inherited.compareAndSet(false, true))
+                            executionContext.requestEnvelope().inheritAttributes(event.streamUsage().envelope);
+                    })
+                    .concatMap(event -> processSSEChunk(event, streamTimings, usagePolicy,
+                            null != upstreamGuards.requestRetrier() ? upstreamAttempts : null))
+                    .doOnNext(content -> exchangeMetrics.onRelayed(content.data()))
+                    .doOnError(error -> {
+                        proxyMetricsService.recordRejection(executionContext, error);
+                        exchangeMetrics.close(ProxyMetricsService.statusClass(error));
+                    })
+                    .doFinally(signalType -> exchangeMetrics.close(SignalType.CANCEL == signalType
+                            ? ProxyMetricsService.STATUS_CANCELLED
+                            : "2xx"));
+        })
                 .doOnError(error -> log.error("Error receiving SSE: {}", error))
-                .doOnTerminate(() -> log.debug("Completed receiving SSE events."));
+                .doOnTerminate(() -> log.debug("Completed receiving SSE events."))
+                // Makes the request execution context available to executeStreamingRequest() called back by the plugin
+                .contextWrite(executionContext.toReactorContext());
 
     }
 
@@ -90,13 +187,77 @@ public class StreamingRequestHandler
             final String requestBody)
     {
 
+        final StreamFailover streamFailover = executionContext.streamFailover();
+
+        return Flux.deferContextual(contextView -> {
+            // Upstream latency is the time to the first event, or to the error reply
+            final long          upstreamStartTime = System.nanoTime();
+            final AtomicBoolean upstreamReplied   = new AtomicBoolean();
+            // Stream timings exclude the time waited for admission, quotas and retry backoffs
+            StreamTimings.restart(contextView);
+
+            // Services balanced between upstream targets send the request to the target picked by their
+            // balancer. Retried streams are sent to another target than the first one when possible, so are
+            // failed over streams when the failover asks for an alternate target
+            final AtomicReference<UpstreamTarget> firstTarget = UpstreamBalancer.firstTarget(contextView);
+            final Flux<ServerSentEvent<String>>   sseStream   = null == streamFailover
+                    ? exchange(retargetedRequest, requestBody, firstTarget)
+                    : streamFailover.open(() -> exchange(retargetedRequest, requestBody, firstTarget),
+                            () -> exchange(retargetedRequest, requestBody,
+                                    streamFailover.isAlternateTarget() ? firstTarget : new AtomicReference<>()));
+
+            return sseStream.doOnNext(content -> {
+                        if (upstreamReplied.compareAndSet(false, true))
+                            proxyMetricsService.recordUpstreamLatency(executionContext, upstreamStartTime, "2xx");
+                    }).doOnError(error -> {
+                        if (upstreamReplied.compareAndSet(false, true))
+                            proxyMetricsService.recordUpstreamLatency(executionContext, upstreamStartTime,
+                                    ProxyMetricsService.statusClass(error));
+                    }).map(content -> {
+                        return ServerSentEvent.builder(content.data()).event(content.event()).id(content.id()).build();
+                    });
+        }).doOnTerminate(() -> log.debug("Stream processing terminated."));
+    }
+
+
+    /**
+     * Opens the stream of the target service, or of the upstream target picked by the service balancer, within
+     * the timeouts of the service.
+     */
+    private Flux<ServerSentEvent<String>> exchange(final ServerHttpRequest retargetedRequest,
+            final String requestBody, final AtomicReference<UpstreamTarget> firstTarget)
+    {
+
+        final UpstreamBalancer upstreamBalancer = executionContext.upstreamBalancer();
+        if (null == upstreamBalancer)
+            return limitStream(exchange(client, retargetedRequest, requestBody));
+        return upstreamBalancer.exchange(target -> limitStream(exchange(target.getWebClient(),
+                upstreamBalancer.retarget(retargetedRequest, target), requestBody)), firstTarget);
+    }
+
+
+    // Timed out streams are cancelled : their connection is released
+    private Flux<ServerSentEvent<String>> limitStream(final Flux<ServerSentEvent<String>> sseStream)
+    {
+
+        final UpstreamTimeouts upstreamTimeouts = executionContext.upstreamTimeouts();
+        if (null == upstreamTimeouts)
+            return sseStream;
+        return upstreamTimeouts.limitStream(sseStream)
+                .doOnError(error -> proxyMetricsService.recordTimeout(executionContext, error));
+    }
+
+
+    private static Flux<ServerSentEvent<String>> exchange(final WebClient webClient,
+            final ServerHttpRequest retargetedRequest, final String requestBody)
+    {
+
         ParameterizedTypeReference<ServerSentEvent<String>> type = new ParameterizedTypeReference<ServerSentEvent<String>>() {
         };
 
-        final HttpRequestBuilder requestBuilder = new HttpRequestBuilder(client, retargetedRequest, requestBody);
+        final HttpRequestBuilder requestBuilder = new HttpRequestBuilder(webClient, retargetedRequest, requestBody);
 
         RequestBodySpec requestSpec = requestBuilder.build();
-        requestStartTime = System.currentTimeMillis();
 
         return requestSpec.accept(MediaType.TEXT_EVENT_STREAM).header(HttpHeaders.CACHE_CONTROL, "no-store") // Add
                                                                                                              // Cache-Control
@@ -105,57 +266,121 @@ public class StreamingRequestHandler
                         clientResponse -> {
                             // Log error response and return Mono.error
                             log.error("Received error response: {}", clientResponse.statusCode());
-                            return Mono.error(
-                                    new RuntimeException("Error response from server: " + clientResponse.statusCode()));
+                            return Mono.error(new UpstreamStatusException(clientResponse.statusCode(),
+                                    clientResponse.headers().asHttpHeaders()));
                         })
-                .bodyToFlux(type).map(content -> {
-                    return ServerSentEvent.builder(content.data()).event(content.event()).id(content.id()).build();
-                }).doOnTerminate(() -> log.debug("Stream processing terminated."));
+                .bodyToFlux(type);
+    }
+
+
+    /**
+     * Joins the identical stream in flight, or leads a new one, when the request is coalescable.
+     */
+    private CoalescedStream<AccountedEvent> joinStream(final Flux<AccountedEvent> accountedStream,
+            final RequestCoalescer requestCoalescer)
+    {
+
+        final String coalescingKey = null != requestCoalescer
+                ? requestCoalescer.keyOf(executionContext.requestEnvelope(), serviceHandler)
+                : null;
+        if (null == coalescingKey)
+            return new CoalescedStream<>(accountedStream, true);
+
+        // The shared upstream stream runs within the leader context : executeStreamingRequest() called back by
+        // the plugin reads the leader execution context, whichever caller subscribes first. Followers are not
+        // admitted nor charged themselves : they share the leader outcome, rejections included
+        return requestCoalescer.joinStream(coalescingKey,
+                () -> accountedStream.contextWrite(executionContext.toReactorContext()));
+    }
+
+
+    /**
+     * Reserves the estimated tokens of the request before opening the upstream stream, when the service has a
+     * tokens per minute budget. The reservation is published to {@code tokenReservation} for reconciliation at
+     * the end of the stream.
+     */
+    private Flux<ServerSentEvent<String>> reserveTokens(final Flux<ServerSentEvent<String>> sseStream,
+            final TokenRateLimiter tokenRateLimiter, final AtomicReference<TokenReservation> tokenReservation)
+    {
+
+        if (null == tokenRateLimiter)
+            return sseStream;
+
+        final RequestEnvelope envelope = executionContext.requestEnvelope();
+        return Flux.defer(() -> tokenRateLimiter.execute(envelope.getModel(),
+                serviceHandler.estimateRequestTokens(envelope), reservation -> {
+                    tokenReservation.set(reservation);
+                    return sseStream;
+                }));
     }
 
 
-    private Flux<ServerSentEvent<String>> processSSEChunk(final ServerHttpRequest retargetedRequest, final String requestBody,
-            ServerSentEvent<String> content, List<String> accumulatedChunks)
+    // Package private for the benchmarks module
+    Flux<ServerSentEvent<String>> processSSEChunk(ServerSentEvent<String> content,
+            IStreamUsageAccumulator usageAccumulator, StreamTimings streamTimings)
     {
 
-        synchronized (accumulatedChunks) {
-            accumulatedChunks.add(content.data());
+        return processSSEChunk(new StreamUsage(usageAccumulator, new AtomicReference<>()).onEvent(content),
+                streamTimings, null, null);
+    }
+
+
+    private Flux<ServerSentEvent<String>> processSSEChunk(AccountedEvent event, StreamTimings streamTimings,
+            UsagePolicy usagePolicy, AtomicInteger upstreamAttempts)
+    {
+
+        final ServerSentEvent<String> content = event.content();
+
+        if (!event.endOfStream())
+            streamTimings.onChunk(event.contentChunk());
+        if (!event.relayed()) {
+            log.debug("Chunk consumed by the service handler, not relayed : {}", content.data());
+            return Flux.empty();
         }
 
-        if (serviceHandler.isEndOfStream(content.data())) {
+        if (event.endOfStream()) {
 
             log.debug("End Of SSE Stream detected!");
             
-            String serviceRef = SERVICEREF_NOT_SET_IN_HEADER;
-            final var serviceRefHeaderValues = retargetedRequest.getHeaders().get(X_GMKP_XSP_SERVICE_REF);
-            if( null != serviceRefHeaderValues && ! serviceRefHeaderValues.isEmpty() )
-                serviceRef = serviceRefHeaderValues.get(0);
-            final String servicePath = retargetedRequest.getPath() //
-                    .pathWithinApplication() //
-                    .value();
-
-            final String       nativeEOSMarker        = serviceHandler.getEndOfStreamMarker();
-            final UsageMetrics streamUsageMetrics     = serviceHandler.getMetrics(retargetedRequest, requestBody,
-                    accumulatedChunks);
-            final String       jsonStreamUsageMetrics = streamUsageMetrics.toJson();
-
-            requestEndTime = System.currentTimeMillis();
-            technicalMetrics.addMetricToComponent(serviceRef, servicePath, new ResponseTime(requestStartTime, requestEndTime));
-            final String jsonTechnicalMetrics = technicalMetrics.toJson();
+            final String serviceRef  = executionContext.serviceRef();
+            final String servicePath = executionContext.servicePath();
 
-            // Build a substitution last chunk that will convey our Metrics data to caller
-            // as well as the original EOS Marker so caller can restore original last chunk
-            // data
-            final EndOfStreamChunk endOfStreamSubstitutionChunk = new EndOfStreamChunk(nativeEOSMarker,
-                    jsonStreamUsageMetrics, jsonTechnicalMetrics);
-            final String           finalChunk                   = endOfStreamSubstitutionChunk.toJson();
+            final String nativeEOSMarker = serviceHandler.getEndOfStreamMarker();
 
-            final ServerSentEvent<String> modifiedEvent = ServerSentEvent.builder(finalChunk) //
-                    .event(content.event()) //
-                    .id(content.id()) //
-                    .build();
+            final long             requestEndTime   = System.currentTimeMillis();
+            final TechnicalMetrics technicalMetrics = new TechnicalMetrics();
+            technicalMetrics.addMetricToComponent(serviceRef, servicePath,
+                    new ResponseTime(executionContext.requestStartTime(), requestEndTime));
+            final String jsonTechnicalMetrics = technicalMetrics.toJson();
 
-            return Flux.just(modifiedEvent);
+            // The usage of the upstream stream is counted once, whichever requests relay it : an uncharged
+            // request joining it reports empty usage
+            final StreamUsage streamUsage = event.streamUsage();
+            return streamUsage.countedUsage()
+                    .map(countedUsageMetrics -> {
+                        final UsageMetrics streamUsageMetrics = UsagePolicy.CHARGE_LEADER == usagePolicy
+                                ? new UsageMetrics()
+                                : countedUsageMetrics;
+
+                        final int completionTokens = streamUsage.usageAccumulator.getCompletionTokens();
+                        proxyMetricsService.recordStreamTimings(executionContext, streamTimings, completionTokens);
+                        final String jsonStreamTechnicalMetrics = withStreamTimings(jsonTechnicalMetrics,
+                                streamTimings.toJson(completionTokens), usagePolicy, upstreamAttempts);
+
+                        // Build a substitution last chunk that will convey our Metrics data to caller
+                        // as well as the original EOS Marker so caller can restore original last chunk
+                        // data
+                        final EndOfStreamChunk endOfStreamSubstitutionChunk = new EndOfStreamChunk(
+                                nativeEOSMarker, streamUsageMetrics.toJson(), jsonStreamTechnicalMetrics);
+                        final String           finalChunk                   = endOfStreamSubstitutionChunk
+                                .toJson();
+
+                        return ServerSentEvent.builder(finalChunk) //
+                                .event(content.event()) //
+                                .id(content.id()) //
+                                .build();
+                    })
+                    .flux();
         }
         else {
             return Flux.just(content);
@@ -163,4 +388,126 @@ public class StreamingRequestHandler
     }
 
 
+    /**
+     * Adds the timings of the stream to its technical metrics.
+     *
+     * @param jsonTechnicalMetrics the technical metrics of the stream as JSON.
+     * @param streamTimings        the timings of the stream as JSON.
+     * @param usagePolicy          the usage policy of a shared stream, {@code null} if the stream is not shared.
+     * @param upstreamAttempts     the attempts of a retried stream, {@code null} if the service does not retry
+     *                             its requests.
+     * @return the technical metrics with a {@value #STREAM_TIMINGS_FIELD} member, a {@value #COALESCED_FIELD}
+     *         one for a shared stream and a {@value RequestRetrier#UPSTREAM_ATTEMPTS_FIELD} one for a retried
+     *         stream opened by this request, unchanged if they are not a JSON object.
+     */
+    private String withStreamTimings(final String jsonTechnicalMetrics, final ObjectNode streamTimings,
+            final UsagePolicy usagePolicy, final AtomicInteger upstreamAttempts)
+    {
+
+        try {
+            final JsonNode technicalMetrics = OBJECT_MAPPER.readTree(jsonTechnicalMetrics);
+            if (technicalMetrics instanceof ObjectNode technicalMetricsObject) {
+                technicalMetricsObject.set(STREAM_TIMINGS_FIELD, streamTimings);
+                if (null != usagePolicy)
+                    technicalMetricsObject.put(COALESCED_FIELD, usagePolicy.name());
+                // A request joining a stream in flight made no attempt
+                if (null != upstreamAttempts && upstreamAttempts.get() > 0)
+                    technicalMetricsObject.put(RequestRetrier.UPSTREAM_ATTEMPTS_FIELD, upstreamAttempts.get());
+                return OBJECT_MAPPER.writeValueAsString(technicalMetricsObject);
+            }
+        }
+        catch (JsonProcessingException jsonProcessingException) {
+            log.warn("Stream timings not added to technical metrics : {}", jsonProcessingException.getMessage());
+        }
+        return jsonTechnicalMetrics;
+    }
+
+
+    /**
+     * Usage of an upstream stream, accounted once whichever requests relay it : every chunk is folded into the
+     * usage accumulator of the request opening the stream as it comes from upstream, the chunk relay decision
+     * being made then. The usage is counted once the stream ends, and the token reservation of the stream
+     * reconciled with it.
+     */
+    private final class StreamUsage
+    {
+
+        private final IStreamUsageAccumulator           usageAccumulator;
+        private final AtomicReference<TokenReservation> tokenReservation;
+        private final RequestEnvelope                   envelope;
+        private volatile Mono<UsageMetrics>             countedUsage;
+
+
+        private StreamUsage(final IStreamUsageAccumulator usageAccumulator,
+                final AtomicReference<TokenReservation> tokenReservation) {
+
+            this.usageAccumulator = usageAccumulator;
+            this.tokenReservation = tokenReservation;
+            this.envelope         = executionContext.requestEnvelope();
+        }
+
+
+        // Chunks of the upstream stream come sequentially, before being replayed to the requests relaying it
+        private AccountedEvent onEvent(final ServerSentEvent<String> content)
+        {
+
+            final String  data        = content.data();
+            final boolean endOfStream = serviceHandler.isEndOfStream(data);
+
+            usageAccumulator.onChunk(data);
+            final AccountedEvent event = new AccountedEvent(content, this, endOfStream,
+                    !endOfStream && usageAccumulator.isContentChunk(data), usageAccumulator.shouldRelay(data));
+            if (endOfStream)
+                countedUsage = count();
+            return event;
+        }
+
+
+        /**
+         * @return the usage of the stream, once it ended.
+         */
+        private Mono<UsageMetrics> countedUsage()
+        {
+
+            return countedUsage;
+        }
+
+
+        // Prompt and completion tokenization is CPU bound : it runs on the metrics scheduler so that the event
+        // loop keeps relaying the other streams. Empty usage is reported if it cannot complete. The pending work
+        // of the accumulator is waited for first, without holding a scheduler thread
+        private Mono<UsageMetrics> count()
+        {
+
+            return usageAccumulator.pendingWork()
+                    .then(metricsComputationService.compute(MetricsComputationService.KIND_STREAM,
+                            usageAccumulator::onComplete))
+                    .onErrorResume(error -> Mono.just(new UsageMetrics()))
+                    .doOnNext(usageMetrics -> {
+                        final TokenReservation reservation = tokenReservation.getAndSet(null);
+                        if (null != reservation)
+                            reservation.reconcile(usageAccumulator.getTotalTokens());
+                    })
+                    .cache();
+        }
+
+    }
+
+
+    /**
+     * An event of an upstream stream, with its usage accounting.
+     *
+     * @param content      the event.
+     * @param streamUsage  the usage of the stream the event belongs to.
+     * @param endOfStream  {@code true} if the event ends the stream.
+     * @param contentChunk {@code true} if the event carries generated content.
+     * @param relayed      {@code true} if the event is relayed to the caller.
+     */
+    private record AccountedEvent(ServerSentEvent<String> content, StreamUsage streamUsage, boolean endOfStream,
+            boolean contentChunk, boolean relayed)
+    {
+
+    }
+
+
 }
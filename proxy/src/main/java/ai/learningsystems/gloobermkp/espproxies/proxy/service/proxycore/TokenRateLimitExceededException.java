@@ -0,0 +1,18 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+/**
+ * Thrown when a request would exceed the tokens per minute budget of its service for longer than it may wait,
+ * or when too many requests already wait for the budget : the request is rejected before being sent upstream.
+ */
+public class TokenRateLimitExceededException extends RuntimeException
+{
+
+    private static final long serialVersionUID = 5813702967431250918L;
+
+    public TokenRateLimitExceededException(final String message) {
+
+        super(message);
+    }
+
+}
@@ -0,0 +1,267 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.RateLimiterConfiguration;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+
+
+/**
+ * Tokens per minute budget of a service, enforced alongside its requests per period rate limiter.
+ * <p>
+ * The budget is a token bucket holding up to {@code tokensPerMinute} tokens, refilled continuously. Each request
+ * reserves its estimated tokens (prompt plus maximum completion, capped to the bucket capacity) before being sent
+ * upstream. When the bucket cannot cover the reservation, the request waits for the refill : requests waiting
+ * longer than the rate limiter {@code timeoutDuration}, or beyond {@code maxQueuedRequests} waiting ones, are
+ * rejected with a {@link TokenRateLimitExceededException} instead of coming back from upstream as 429 replies.
+ * Reservations are taken in arrival order : the bucket goes into debt and later requests wait longer.
+ * <p>
+ * Once the reply is complete, the reservation is reconciled with the tokens actually consumed : the difference
+ * is refunded to, or charged to, the bucket. A request failing before any reply is refunded in full.
+ * <p>
+ * With {@code tokenLimitPerModel}, each model gets its own bucket of {@code tokensPerMinute} tokens, up to
+ * {@value #MAX_MODEL_BUCKETS} models : further models and requests without a model share the service bucket.
+ * <p>
+ * Meters, tagged by {@code service} : {@code espproxies.token.limiter.wait}, timer of the time requests waited
+ * for the budget. Rejections are counted by {@link ProxyMetricsService#recordRejection}.
+ */
+@Slf4j
+public class TokenRateLimiter
+{
+
+    private static final String WAIT_METER        = "espproxies.token.limiter.wait";
+    private static final int    MAX_MODEL_BUCKETS = 64;
+
+    private final String                   serviceName;
+    private final long                     tokensPerMinute;
+    private final boolean                  perModel;
+    private final long                     maxWaitNanos;
+    private final int                      maxQueuedRequests;
+    private final TokenBucket              serviceBucket;
+    private final Map<String, TokenBucket> modelBuckets   = new ConcurrentHashMap<>();
+    private final AtomicInteger            queuedRequests = new AtomicInteger();
+    private final Timer                    waitTimer;
+
+
+    /**
+     * Creates the tokens per minute budget of a service.
+     *
+     * @param serviceName   the name of the service.
+     * @param configuration the rate limiter configuration of the service, with a positive
+     *                      {@code tokensPerMinute}.
+     * @param meterRegistry the registry the limiter meters are published to.
+     */
+    public TokenRateLimiter(final String serviceName, final RateLimiterConfiguration configuration,
+            final MeterRegistry meterRegistry) {
+
+        this.serviceName       = serviceName;
+        this.tokensPerMinute   = configuration.getTokensPerMinute();
+        this.perModel          = configuration.isTokenLimitPerModel();
+        this.maxWaitNanos      = null != configuration.getTimeoutDuration()
+                ? Duration.parse(configuration.getTimeoutDuration()).toNanos()
+                : 0;
+        this.maxQueuedRequests = configuration.getMaxQueuedRequests();
+        this.serviceBucket     = new TokenBucket(tokensPerMinute);
+        this.waitTimer         = Timer.builder(WAIT_METER).tag("service", serviceName).register(meterRegistry);
+    }
+
+
+    /**
+     * Executes an upstream call within the budget : the estimated tokens are reserved, waiting for the budget
+     * if needed, before subscribing to the call, and refunded if the call fails or is cancelled before replying.
+     *
+     * @param model           the model the request is sent to, may be {@code null}.
+     * @param estimatedTokens the estimated tokens of the request, a negative value if unknown : the request is
+     *                        then not charged.
+     * @param call            the upstream call, given the reservation to reconcile with the consumed tokens.
+     * @return the upstream call replies, or a {@link TokenRateLimitExceededException} error.
+     */
+    public <T> Flux<T> execute(final String model, final int estimatedTokens,
+            final Function<TokenReservation, Flux<T>> call)
+    {
+
+        return reserve(model, estimatedTokens).flatMapMany(reservation -> call.apply(reservation)
+                .doOnNext(reply -> reservation.onReply())
+                .doFinally(signalType -> reservation.release()));
+    }
+
+
+    private Mono<TokenReservation> reserve(final String model, final int estimatedTokens)
+    {
+
+        return Mono.defer(() -> {
+            if (estimatedTokens <= 0)
+                return Mono.just(TokenReservation.NONE);
+
+            final TokenBucket bucket    = bucketOf(model);
+            final long        tokens    = Math.min(estimatedTokens, tokensPerMinute);
+            final long        waitNanos = bucket.reserve(tokens, maxWaitNanos);
+            if (waitNanos < 0)
+                return Mono.error(exceeded(model, tokens, "the budget would not refill in time"));
+
+            final TokenReservation reservation = new TokenReservation(bucket, tokens);
+            waitTimer.record(waitNanos, TimeUnit.NANOSECONDS);
+            if (0 == waitNanos)
+                return Mono.just(reservation);
+
+            if (queuedRequests.incrementAndGet() > maxQueuedRequests) {
+                queuedRequests.decrementAndGet();
+                reservation.reconcile(0);
+                return Mono.error(exceeded(model, tokens, "too many requests are waiting for the budget"));
+            }
+            log.debug("Request of {} tokens for service {} waits {} ms for the budget", tokens, serviceName,
+                    TimeUnit.NANOSECONDS.toMillis(waitNanos));
+            return Mono.delay(Duration.ofNanos(waitNanos))
+                    .thenReturn(reservation)
+                    .doOnCancel(() -> reservation.reconcile(0))
+                    .doFinally(signalType -> queuedRequests.decrementAndGet());
+        });
+    }
+
+
+    private TokenBucket bucketOf(final String model)
+    {
+
+        if (!perModel || null == model)
+            return serviceBucket;
+
+        final TokenBucket bucket = modelBuckets.get(model);
+        if (null != bucket)
+            return bucket;
+        // Bounds the buckets created from caller supplied model names
+        if (modelBuckets.size() >= MAX_MODEL_BUCKETS)
+            return serviceBucket;
+        return modelBuckets.computeIfAbsent(model, key -> new TokenBucket(tokensPerMinute));
+    }
+
+
+    private TokenRateLimitExceededException exceeded(final String model, final long tokens, final String reason)
+    {
+
+        return new TokenRateLimitExceededException(String.format(
+                "Request of %d tokens for service %s (model %s) rejected : %s", tokens, serviceName, model, reason));
+    }
+
+
+    /**
+     * Tokens reserved by a request, to reconcile with the tokens it actually consumed once its reply is complete.
+     */
+    public static final class TokenReservation
+    {
+
+        /** Reservation of a request not charged to the budget. */
+        static final TokenReservation NONE = new TokenReservation(null, 0);
+
+        private final TokenBucket   bucket;
+        private final long          tokens;
+        private final AtomicBoolean settled = new AtomicBoolean();
+        private volatile boolean    replied;
+
+
+        private TokenReservation(final TokenBucket bucket, final long tokens) {
+
+            this.bucket = bucket;
+            this.tokens = tokens;
+        }
+
+
+        /**
+         * Refunds the reserved tokens not consumed, or charges the consumed tokens not reserved. Only the first
+         * reconciliation is applied.
+         *
+         * @param consumedTokens the tokens consumed by the request, a negative value if unknown : the reserved
+         *                       tokens are then kept.
+         */
+        public void reconcile(final int consumedTokens)
+        {
+
+            if (null == bucket || consumedTokens < 0 || !settled.compareAndSet(false, true))
+                return;
+            bucket.refund(tokens - consumedTokens);
+        }
+
+
+        private void onReply()
+        {
+
+            replied = true;
+        }
+
+
+        // A call ending without any reply consumed no tokens
+        private void release()
+        {
+
+            if (!replied)
+                reconcile(0);
+        }
+    }
+
+
+    /**
+     * Token bucket refilled continuously at {@code tokensPerMinute / 60} tokens per second.
+     */
+    private static final class TokenBucket
+    {
+
+        private final double capacity;
+        private final double tokensPerNano;
+        private double       available;
+        private long         lastRefillTime = System.nanoTime();
+
+
+        private TokenBucket(final long tokensPerMinute) {
+
+            this.capacity      = tokensPerMinute;
+            this.tokensPerNano = tokensPerMinute / (double) TimeUnit.MINUTES.toNanos(1);
+            this.available     = capacity;
+        }
+
+
+        /**
+         * @return the nanoseconds to wait before the reserved tokens are available, -1 if longer than
+         *         {@code maxWaitNanos} : nothing is then reserved.
+         */
+        private synchronized long reserve(final long tokens, final long maxWaitNanos)
+        {
+
+            refill();
+            final double deficit   = tokens - available;
+            final long   waitNanos = deficit <= 0 ? 0 : (long) Math.ceil(deficit / tokensPerNano);
+            if (waitNanos > maxWaitNanos)
+                return -1;
+            available -= tokens;
+            return waitNanos;
+        }
+
+
+        private synchronized void refund(final long tokens)
+        {
+
+            refill();
+            available = Math.min(capacity, available + tokens);
+        }
+
+
+        private void refill()
+        {
+
+            final long now = System.nanoTime();
+            available      = Math.min(capacity, available + (now - lastRefillTime) * tokensPerNano);
+            lastRefillTime = now;
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingRegistry;
+import com.knuddels.jtokkit.api.EncodingType;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.proxy.ITokenizerService;
+import lombok.extern.slf4j.Slf4j;
+
+
+
+/**
+ * Proxy wide tokenizer shared with plugins through {@link ITokenizerService}.
+ * <p>
+ * A single lazy jtokkit {@link EncodingRegistry} is kept for the proxy lifetime : each encoding (BPE ranks
+ * table) is loaded on first use only, then reused by every request. The encoding of a requested model is
+ * resolved by jtokkit from the model name (dated variants like {@code gpt-4o-2024-08-06} included) and
+ * memoized ; unknown models fall back to {@link EncodingType#O200K_BASE}.
+ * <p>
+ * Asynchronous counts run on the {@link MetricsComputationService} scheduler, with its bounds and deadline.
+ * Counted tokens are reported to the {@link ProxyMetricsService}.
+ */
+@Service
+@Slf4j
+public class TokenizerService implements ITokenizerService
+{
+
+    private static final EncodingType DEFAULT_ENCODING_TYPE = EncodingType.O200K_BASE;
+    // Bounds the memoized model names : model names come from callers requests
+    private static final int          MAX_CACHED_MODELS     = 256;
+
+    private final EncodingRegistry          encodingRegistry     = Encodings.newLazyEncodingRegistry();
+    private final Map<String, Encoding>     encodingsByModelName = new ConcurrentHashMap<>();
+    private final MetricsComputationService metricsComputationService;
+    private final ProxyMetricsService       proxyMetricsService;
+
+
+    @Autowired
+    public TokenizerService(final MetricsComputationService metricsComputationService,
+            final ProxyMetricsService proxyMetricsService) {
+
+        this.metricsComputationService = metricsComputationService;
+        this.proxyMetricsService       = proxyMetricsService;
+    }
+
+
+    @Override
+    public int countTokens(final String model, final String text)
+    {
+
+        if (null == text || text.isEmpty())
+            return 0;
+        // Special tokens in prompts must not make counting fail : they are counted as ordinary text
+        final int tokens = getEncoding(model).countTokensOrdinary(text);
+        proxyMetricsService.recordTokensCounted(model, tokens);
+        return tokens;
+    }
+
+
+    @Override
+    public CompletableFuture<Integer> countTokensAsync(final String model, final Supplier<String> textSupplier)
+    {
+
+        return metricsComputationService
+                .compute(MetricsComputationService.KIND_PROMPT, () -> countTokens(model, textSupplier.get()))
+                .toFuture();
+    }
+
+
+    /**
+     * Resolves the encoding of a model.
+     *
+     * @param model the model name, may be {@code null}.
+     * @return the encoding of the model, the default encoding if the model is unknown.
+     */
+    public Encoding getEncoding(final String model)
+    {
+
+        if (null == model || model.isBlank())
+            return encodingRegistry.getEncoding(DEFAULT_ENCODING_TYPE);
+
+        final Encoding cachedEncoding = encodingsByModelName.get(model);
+        if (null != cachedEncoding)
+            return cachedEncoding;
+
+        final Encoding encoding = encodingRegistry.getEncodingForModel(model).orElseGet(() -> {
+            log.debug("No tokenizer encoding known for model : {}, using : {}", model, DEFAULT_ENCODING_TYPE);
+            return encodingRegistry.getEncoding(DEFAULT_ENCODING_TYPE);
+        });
+        if (encodingsByModelName.size() < MAX_CACHED_MODELS)
+            encodingsByModelName.putIfAbsent(model, encoding);
+        return encoding;
+    }
+
+}
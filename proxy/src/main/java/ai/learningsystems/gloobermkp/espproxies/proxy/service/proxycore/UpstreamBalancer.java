@@ -0,0 +1,282 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import org.springframework.http.server.reactive.ServerHttpRequest;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.LoadBalancerConfiguration;
+import ai.learningsystems.gloobermkp.external.commons.domains.web.RequestModifier;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+
+
+/**
+ * Balances the upstream exchanges of a service between its {@link UpstreamTarget}s.
+ * <p>
+ * Each exchange picks two distinct available targets at random and goes to the one with the lower cost : its
+ * requests in flight plus one, times its peak-sensitive latency average, divided by its weight. A target without
+ * latency sample yet is compared on its requests in flight only. This power of two choices avoids herding on the
+ * target that looked best a moment ago, while steering requests away from slow or loaded targets.
+ * <p>
+ * Targets are ejected passively : a target whose exchanges fail {@code consecutiveFailures} times in a row
+ * (transport errors, 429 or 5xx replies) is not picked for {@code baseEjectionTime}, longer on each new ejection
+ * up to {@code maxEjectionTime}. At most {@code maxEjectionPercent} of the targets, and never all of them, are
+ * ejected at once. Targets behind an open circuit breaker are not picked either. When no target is available,
+ * exchanges are spread over every target : their circuit breakers reject what they must.
+ * <p>
+ * The exchange requests are built by the service handler for the service base URL : their URI is moved to the
+ * base URL of the picked target.
+ * <p>
+ * Meters, tagged by {@code service} and {@code target} : {@code espproxies.upstream.target.ejections}, counter of
+ * the target ejections.
+ */
+@Slf4j
+public class UpstreamBalancer
+{
+
+    private static final String EJECTIONS_METER = "espproxies.upstream.target.ejections";
+
+    /** The key under which the target of the first attempt of a retried request is stored in the Reactor context. */
+    private static final String FIRST_TARGET_KEY = "espproxies.upstream.firstTarget";
+
+    private final String               serviceName;
+    private final String               serviceBaseUrl;
+    private final List<UpstreamTarget> targets;
+    private final double               decayNanos;
+    private final int                  consecutiveFailures;
+    private final long                 baseEjectionNanos;
+    private final long                 maxEjectionNanos;
+    private final int                  maxEjectedTargets;
+    private final MeterRegistry        meterRegistry;
+
+
+    /**
+     * Creates the balancer of a service.
+     *
+     * @param serviceName    the name of the service.
+     * @param serviceBaseUrl the base URL the exchange requests are built for.
+     * @param targets        the upstream targets of the service.
+     * @param configuration  the load balancer configuration of the service.
+     * @param meterRegistry  the registry the balancer meters are published to.
+     */
+    public UpstreamBalancer(final String serviceName, final String serviceBaseUrl, final List<UpstreamTarget> targets,
+            final LoadBalancerConfiguration configuration, final MeterRegistry meterRegistry) {
+
+        this.serviceName         = serviceName;
+        this.serviceBaseUrl      = stripTrailingSlash(serviceBaseUrl);
+        this.targets             = List.copyOf(targets);
+        this.decayNanos          = Math.max(1, Duration.parse(configuration.getDecayTime()).toNanos());
+        this.consecutiveFailures = configuration.getConsecutiveFailures();
+        this.baseEjectionNanos   = Duration.parse(configuration.getBaseEjectionTime()).toNanos();
+        this.maxEjectionNanos    = Duration.parse(configuration.getMaxEjectionTime()).toNanos();
+        this.maxEjectedTargets   = Math.min(targets.size() - 1,
+                targets.size() * Math.max(0, configuration.getMaxEjectionPercent()) / 100);
+        this.meterRegistry       = meterRegistry;
+    }
+
+
+    /**
+     * Runs an upstream exchange with the target picked for it : the exchange is counted in flight on the target
+     * until it terminates, goes through the target circuit breaker, and its first reply (or its error) is fed
+     * back into the target latency and health.
+     *
+     * @param exchange the upstream exchange, given the picked target.
+     * @return the exchange replies.
+     */
+    public <T> Flux<T> exchange(final Function<UpstreamTarget, Flux<T>> exchange)
+    {
+
+        return exchange(exchange, new AtomicReference<>());
+    }
+
+
+    /**
+     * Shares the target of the first attempt of a request between its attempts, so that they avoid it.
+     *
+     * @param context the Reactor context of the request attempts.
+     * @return the context holding a new first target reference.
+     */
+    public static Context withFirstTarget(final Context context)
+    {
+
+        return context.put(FIRST_TARGET_KEY, new AtomicReference<UpstreamTarget>());
+    }
+
+
+    /**
+     * @param contextView the Reactor context of an upstream exchange.
+     * @return the target of the first attempt of the request shared by its attempts, a new reference if the
+     *         request is not retried.
+     */
+    public static AtomicReference<UpstreamTarget> firstTarget(final ContextView contextView)
+    {
+
+        return contextView.<AtomicReference<UpstreamTarget>> getOrEmpty(FIRST_TARGET_KEY)
+                .orElseGet(AtomicReference::new);
+    }
+
+
+    /**
+     * Runs one of the attempts of an upstream exchange : the first attempt records its target, the next ones are
+     * sent to other targets when some are available.
+     *
+     * @param exchange    the upstream exchange, given the picked target.
+     * @param firstTarget the target of the first attempt, shared by the attempts.
+     * @return the exchange replies.
+     */
+    public <T> Flux<T> exchange(final Function<UpstreamTarget, Flux<T>> exchange,
+            final AtomicReference<UpstreamTarget> firstTarget)
+    {
+
+        return Flux.defer(() -> {
+            final UpstreamTarget target    = choose(firstTarget.get());
+            firstTarget.compareAndSet(null, target);
+            final long           startTime = System.nanoTime();
+            final AtomicBoolean  sampled   = new AtomicBoolean();
+            target.outstanding().incrementAndGet();
+            return exchange.apply(target)
+                    .transformDeferred(CircuitBreakerOperator.of(target.getCircuitBreaker()))
+                    .doOnNext(reply -> {
+                        if (sampled.compareAndSet(false, true))
+                            onSuccess(target, System.nanoTime() - startTime);
+                    })
+                    .doOnError(error -> {
+                        if (sampled.compareAndSet(false, true))
+                            onError(target, System.nanoTime() - startTime, error);
+                    })
+                    .doFinally(signalType -> target.outstanding().decrementAndGet());
+        });
+    }
+
+
+    /**
+     * Moves a request built for the service base URL to the base URL of a target. Requests a service handler
+     * sent elsewhere are left as they are.
+     *
+     * @param request the exchange request.
+     * @param target  the target the request is sent to.
+     * @return the request for the target.
+     */
+    public ServerHttpRequest retarget(final ServerHttpRequest request, final UpstreamTarget target)
+    {
+
+        final String uri = request.getURI().toString();
+        if (!uri.startsWith(serviceBaseUrl) || (uri.length() > serviceBaseUrl.length()
+                && "/?#".indexOf(uri.charAt(serviceBaseUrl.length())) < 0))
+            return request;
+        return RequestModifier.modifyUri(request,
+                URI.create(target.getBaseUrl() + uri.substring(serviceBaseUrl.length())));
+    }
+
+
+    /** @return the upstream targets of the service. */
+    public List<UpstreamTarget> getTargets()
+    {
+
+        return targets;
+    }
+
+
+    /**
+     * Picks the target of an exchange, with the power of two choices between the available targets other than
+     * the avoided one.
+     */
+    UpstreamTarget choose(final UpstreamTarget avoided)
+    {
+
+        final long                 now       = System.nanoTime();
+        final List<UpstreamTarget> available = targets.stream().filter(target -> target.isAvailable(now)).toList();
+        List<UpstreamTarget>       choices   = available.isEmpty() ? targets : available;
+        if (null != avoided && choices.size() > 1 && choices.contains(avoided))
+            choices = choices.stream().filter(target -> target != avoided).toList();
+        if (1 == choices.size())
+            return choices.get(0);
+
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int               first  = random.nextInt(choices.size());
+        int                     second = random.nextInt(choices.size() - 1);
+        if (second >= first)
+            second++;
+        return cheaper(choices.get(first), choices.get(second), now);
+    }
+
+
+    private UpstreamTarget cheaper(final UpstreamTarget first, final UpstreamTarget second, final long now)
+    {
+
+        // Targets are compared on their load only while one of them has no latency sample
+        final boolean sampled  = first.getLatency() > 0 && second.getLatency() > 0;
+        final double  latency1 = sampled ? first.decayedLatency(now, decayNanos) : 1;
+        final double  latency2 = sampled ? second.decayedLatency(now, decayNanos) : 1;
+        final double  cost1    = (first.getOutstanding() + 1) * latency1 / first.weight();
+        final double  cost2    = (second.getOutstanding() + 1) * latency2 / second.weight();
+        return cost1 <= cost2 ? first : second;
+    }
+
+
+    private void onSuccess(final UpstreamTarget target, final long latency)
+    {
+
+        target.consecutiveFailures().set(0);
+        target.sampleLatency(latency, System.nanoTime(), decayNanos);
+    }
+
+
+    private void onError(final UpstreamTarget target, final long latency, final Throwable error)
+    {
+
+        if (!UpstreamStatusException.isUpstreamFailure(error)) {
+            // The target replied
+            onSuccess(target, latency);
+            return;
+        }
+        // Fast failures are not latency samples : they would draw requests to a failing target
+        if (consecutiveFailures > 0 && target.consecutiveFailures().incrementAndGet() >= consecutiveFailures)
+            eject(target);
+    }
+
+
+    private synchronized void eject(final UpstreamTarget target)
+    {
+
+        final long now = System.nanoTime();
+        if (target.isEjected(now))
+            return;
+        final long ejected = targets.stream().filter(other -> other.isEjected(now)).count();
+        if (ejected >= maxEjectedTargets) {
+            log.debug("Target {} of service {} kept : {} targets already ejected", target.getName(), serviceName,
+                    ejected);
+            return;
+        }
+
+        final long duration = target.eject(now, baseEjectionNanos, maxEjectionNanos);
+        log.warn("Target {} of service {} ejected for {} after {} consecutive failures", target.getName(),
+                serviceName, Duration.ofNanos(duration), consecutiveFailures);
+        Counter.builder(EJECTIONS_METER)
+                .tag("service", serviceName)
+                .tag("target", target.getName())
+                .register(meterRegistry)
+                .increment();
+    }
+
+
+    private static String stripTrailingSlash(final String url)
+    {
+
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+}
@@ -0,0 +1,122 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.LoadBalancerConfiguration;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.ServiceProperties;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.UpstreamTargetConfiguration;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+
+
+/**
+ * Owns the {@link UpstreamBalancer} of the services configured with upstream targets.
+ * <p>
+ * A balancer is created when its service is registered, along with the WebClient and the circuit breaker of each
+ * target (named {@code <serviceName>/<targetName>}), and discarded when the service is unregistered or reloaded :
+ * the target latencies and ejections start over.
+ */
+@Service
+@Slf4j
+public class UpstreamBalancerManagerService
+{
+
+    private final WebClientManagerService       webClientManagerService;
+    private final CircuitBreakerManagerService  circuitBreakerManagerService;
+    private final MeterRegistry                 meterRegistry;
+    private final Map<String, UpstreamBalancer> upstreamBalancers = new ConcurrentHashMap<>();
+
+
+    @Autowired
+    public UpstreamBalancerManagerService(final WebClientManagerService webClientManagerService,
+            final CircuitBreakerManagerService circuitBreakerManagerService, final MeterRegistry meterRegistry) {
+
+        this.webClientManagerService      = webClientManagerService;
+        this.circuitBreakerManagerService = circuitBreakerManagerService;
+        this.meterRegistry                = meterRegistry;
+    }
+
+
+    /**
+     * Creates the balancer of a service, replacing the previous one on reload.
+     *
+     * @param serviceName    the name of the external service.
+     * @param properties     the service properties containing the upstream targets and their configuration.
+     * @param serviceBaseUrl the base URL the service requests are built for.
+     * @return the balancer of the service, {@code null} if the service has no upstream targets.
+     */
+    public UpstreamBalancer createUpstreamBalancer(final String serviceName, final ServiceProperties properties,
+            final String serviceBaseUrl)
+    {
+
+        removeUpstreamBalancer(serviceName);
+        final List<UpstreamTargetConfiguration> targetConfigurations = properties.getUpstreamTargets();
+        if (null == targetConfigurations || targetConfigurations.isEmpty())
+            return null;
+
+        final List<UpstreamTarget> targets = targetConfigurations.stream()
+                .map(target -> new UpstreamTarget(target.getName(), stripTrailingSlash(target.getBaseUrl()),
+                        target.getWeight(), webClientManagerService.createWebClient(serviceName, properties, target),
+                        circuitBreakerManagerService.getCircuitBreaker(targetName(serviceName, target.getName()),
+                                properties.getCircuitBreakerConfiguration())))
+                .toList();
+        final LoadBalancerConfiguration configuration = null != properties.getLoadBalancerConfiguration()
+                ? properties.getLoadBalancerConfiguration()
+                : new LoadBalancerConfiguration();
+
+        final UpstreamBalancer upstreamBalancer = new UpstreamBalancer(serviceName, serviceBaseUrl, targets,
+                configuration, meterRegistry);
+        upstreamBalancers.put(serviceName, upstreamBalancer);
+        log.info("Upstream balancer created for service : {} with targets : {} and configuration : {}", serviceName,
+                targets.stream().map(UpstreamTarget::getName).toList(), configuration.toJson());
+        return upstreamBalancer;
+    }
+
+
+    /**
+     * Retrieves the balancer of a service.
+     *
+     * @param serviceName the name of the external service.
+     * @return the balancer of the service, {@code null} if the service has no upstream targets.
+     */
+    public UpstreamBalancer getUpstreamBalancer(final String serviceName)
+    {
+
+        return upstreamBalancers.get(serviceName);
+    }
+
+
+    /**
+     * Removes the balancer of a service and the circuit breakers of its targets.
+     */
+    public void removeUpstreamBalancer(final String serviceName)
+    {
+
+        final UpstreamBalancer upstreamBalancer = upstreamBalancers.remove(serviceName);
+        if (null != upstreamBalancer)
+            upstreamBalancer.getTargets().forEach(target -> circuitBreakerManagerService
+                    .removeCircuitBreaker(targetName(serviceName, target.getName())));
+    }
+
+
+    private static String targetName(final String serviceName, final String targetName)
+    {
+
+        return serviceName + "/" + targetName;
+    }
+
+
+    private static String stripTrailingSlash(final String url)
+    {
+
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+}
@@ -0,0 +1,18 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+/**
+ * Thrown when the connection to the target service cannot be established within the connect timeout of its
+ * service : the request has not been sent.
+ */
+public class UpstreamConnectTimeoutException extends UpstreamTimeoutException
+{
+
+    private static final long serialVersionUID = 3582270874773176921L;
+
+    public UpstreamConnectTimeoutException(final String message) {
+
+        super(message);
+    }
+
+}
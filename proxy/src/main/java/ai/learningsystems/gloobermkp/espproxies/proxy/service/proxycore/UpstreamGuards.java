@@ -0,0 +1,94 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.ratelimiter.RateLimiter;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import io.github.resilience4j.reactor.ratelimiter.operator.RateLimiterOperator;
+import reactor.core.publisher.Flux;
+
+
+
+/**
+ * The per service components guarding the calls of a request to its target service, resolved once per request
+ * by {@link GenericProxyService}.
+ *
+ * @param circuitBreaker     the {@link CircuitBreaker} of the service.
+ * @param rateLimiter        the {@link RateLimiter} of the service.
+ * @param concurrencyLimiter the {@link AdaptiveConcurrencyLimiter} of the service, {@code null} if the
+ *                           concurrency of its requests is not limited.
+ * @param tokenRateLimiter   the {@link TokenRateLimiter} of the service, {@code null} if it has no tokens per
+ *                           minute budget.
+ * @param admissionQueue     the {@link FairAdmissionQueue} of the service, {@code null} if its requests are not
+ *                           scheduled fairly between callers.
+ * @param requestRetrier     the {@link RequestRetrier} of the service, {@code null} if its requests are not
+ *                           retried.
+ */
+public record UpstreamGuards(CircuitBreaker circuitBreaker, RateLimiter rateLimiter,
+        AdaptiveConcurrencyLimiter concurrencyLimiter, TokenRateLimiter tokenRateLimiter,
+        FairAdmissionQueue admissionQueue, RequestRetrier requestRetrier)
+{
+
+    /**
+     * Applies the circuit breaker, the concurrency limiter and the rate limiter to an upstream call. The
+     * concurrency limiter sits outside the circuit breaker, its rejections are not upstream failures, and inside
+     * the rate limiter, whose waits are not upstream latency.
+     *
+     * @param call the upstream call.
+     * @return the protected upstream call.
+     */
+    public <T> Flux<T> protect(final Flux<T> call)
+    {
+
+        return call
+                .transformDeferred(CircuitBreakerOperator.of(circuitBreaker))
+                .transformDeferred(calls -> null != concurrencyLimiter ? concurrencyLimiter.limit(calls) : calls)
+                .transformDeferred(RateLimiterOperator.of(rateLimiter));
+    }
+
+
+    /**
+     * Retries a protected upstream call failing transiently, if the service retries its requests. Each attempt
+     * goes through the circuit breaker, the concurrency limiter and the rate limiter again, within the token
+     * budget and the admission of the request. The retries of a request are sent to another upstream target
+     * than its first attempt when the service has some available.
+     *
+     * @param call     the protected upstream call.
+     * @param attempts the counter of the attempts of the call.
+     * @return the upstream call replies, or the error of its last attempt.
+     */
+    public <T> Flux<T> retry(final Flux<T> call, final AtomicInteger attempts)
+    {
+
+        return null != requestRetrier
+                ? requestRetrier.retry(call, attempts).contextWrite(UpstreamBalancer::withFirstTarget)
+                : Flux.defer(() -> {
+                    attempts.incrementAndGet();
+                    return call;
+                });
+    }
+
+
+    /**
+     * Runs an upstream call once admitted by the fair admission queue of the service, right away if it has none.
+     * Admission is outermost : a request waiting for its turn holds no budget nor concurrency slot, and a request
+     * whose deadline has passed is rejected before using any quota of the service.
+     *
+     * @param admissionRequest the caller, priority class and deadline of the request.
+     * @param call             the upstream call.
+     * @return the upstream call replies, or an {@link AdmissionRejectedException} error.
+     */
+    public <T> Flux<T> admit(final AdmissionRequest admissionRequest, final Flux<T> call)
+    {
+
+        return Flux.defer(() -> {
+            if (admissionRequest.isExpired())
+                return Flux.error(new DeadlineExceededException(String.format(
+                        "Request of %s rejected : its deadline has passed", admissionRequest.serviceRef())));
+            return null != admissionQueue ? admissionQueue.admit(admissionRequest, call) : call;
+        });
+    }
+
+}
@@ -0,0 +1,66 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+
+
+/**
+ * Thrown when the target service replies to a streamed request with an error status, instead of the event stream.
+ */
+public class UpstreamStatusException extends RuntimeException
+{
+
+    private static final long serialVersionUID = -6320957416182274135L;
+
+    private final HttpStatusCode statusCode;
+    private final HttpHeaders    headers;
+
+
+    public UpstreamStatusException(final HttpStatusCode statusCode, final HttpHeaders headers) {
+
+        super("Error response from server: " + statusCode);
+        this.statusCode = statusCode;
+        this.headers    = headers;
+    }
+
+
+    /**
+     * @return the error status the target service replied with.
+     */
+    public HttpStatusCode getStatusCode()
+    {
+
+        return statusCode;
+    }
+
+
+    /**
+     * @return the headers of the error reply.
+     */
+    public HttpHeaders getHeaders()
+    {
+
+        return headers;
+    }
+
+
+    /**
+     * Tells whether an upstream call error is a failure of the target service rather than of the request :
+     * transport errors, 429 and 5xx replies. Client errors tell nothing about the health of the target.
+     *
+     * @param error the upstream call error.
+     * @return {@code true} if the error is a failure of the target service.
+     */
+    public static boolean isUpstreamFailure(final Throwable error)
+    {
+
+        final HttpStatusCode statusCode = error instanceof WebClientResponseException responseException
+                ? responseException.getStatusCode()
+                : error instanceof UpstreamStatusException statusException ? statusException.getStatusCode() : null;
+        return null == statusCode || statusCode.is5xxServerError() || 429 == statusCode.value();
+    }
+
+}
@@ -0,0 +1,186 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.web.reactive.function.client.WebClient;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+
+
+
+/**
+ * One of the upstream targets a service is balanced between by its {@link UpstreamBalancer}, with its own
+ * WebClient (and connection pool) and circuit breaker, and the load and health state the balancer reads.
+ */
+public class UpstreamTarget
+{
+
+    private final String         name;
+    private final String         baseUrl;
+    private final int            weight;
+    private final WebClient      webClient;
+    private final CircuitBreaker circuitBreaker;
+    private final AtomicInteger  outstanding         = new AtomicInteger();
+    private final AtomicInteger  consecutiveFailures = new AtomicInteger();
+    private volatile double      latency;
+    private volatile long        lastSampleTime;
+    private volatile long        ejectedUntil;
+    // Guarded by the balancer
+    private int                  ejections;
+    private long                 lastEjectionEnd;
+
+
+    /**
+     * @param name           the name of the target, unique within its service.
+     * @param baseUrl        the base URL of the target, without trailing '/'.
+     * @param weight         the share of the requests of the target relative to the other targets.
+     * @param webClient      the WebClient of the target.
+     * @param circuitBreaker the circuit breaker of the target.
+     */
+    public UpstreamTarget(final String name, final String baseUrl, final int weight, final WebClient webClient,
+            final CircuitBreaker circuitBreaker) {
+
+        this.name           = name;
+        this.baseUrl        = baseUrl;
+        this.weight         = Math.max(1, weight);
+        this.webClient      = webClient;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+
+    /** @return the name of the target, unique within its service. */
+    public String getName()
+    {
+
+        return name;
+    }
+
+
+    /** @return the base URL of the target, without trailing '/'. */
+    public String getBaseUrl()
+    {
+
+        return baseUrl;
+    }
+
+
+    /** @return the WebClient of the target. */
+    public WebClient getWebClient()
+    {
+
+        return webClient;
+    }
+
+
+    /** @return the circuit breaker of the target. */
+    public CircuitBreaker getCircuitBreaker()
+    {
+
+        return circuitBreaker;
+    }
+
+
+    /** @return the number of requests in flight to the target. */
+    public int getOutstanding()
+    {
+
+        return outstanding.get();
+    }
+
+
+    /** @return the decayed latency average of the target in nanoseconds, {@code 0} before its first reply. */
+    public double getLatency()
+    {
+
+        return latency;
+    }
+
+
+    /**
+     * Reads the latency average decayed to now, as if the time since the last reply were a zero latency sample :
+     * a target left aside after a slow reply is tried again progressively instead of being avoided forever.
+     */
+    double decayedLatency(final long now, final double decayNanos)
+    {
+
+        return latency * Math.exp(-Math.max(0, now - lastSampleTime) / decayNanos);
+    }
+
+
+    int weight()
+    {
+
+        return weight;
+    }
+
+
+    AtomicInteger outstanding()
+    {
+
+        return outstanding;
+    }
+
+
+    AtomicInteger consecutiveFailures()
+    {
+
+        return consecutiveFailures;
+    }
+
+
+    /**
+     * @return {@code true} if the target is neither ejected nor behind an open circuit breaker.
+     */
+    boolean isAvailable(final long now)
+    {
+
+        return now - ejectedUntil >= 0 && CircuitBreaker.State.OPEN != circuitBreaker.getState();
+    }
+
+
+    boolean isEjected(final long now)
+    {
+
+        return now - ejectedUntil < 0;
+    }
+
+
+    /**
+     * Ejects the target. Called by the balancer with its lock held.
+     *
+     * @return the ejection duration in nanoseconds.
+     */
+    long eject(final long now, final long baseEjectionNanos, final long maxEjectionNanos)
+    {
+
+        // The ejection duration grows with the ejections of a target that keeps failing, and starts over once it
+        // stayed healthy for the longest ejection
+        if (now - lastEjectionEnd > maxEjectionNanos)
+            ejections = 0;
+        ejections++;
+        final long duration = Math.min(maxEjectionNanos, baseEjectionNanos * ejections);
+        ejectedUntil    = now + duration;
+        lastEjectionEnd = ejectedUntil;
+        consecutiveFailures.set(0);
+        return duration;
+    }
+
+
+    /**
+     * Samples the latency of a reply into a peak-sensitive exponential average decaying over
+     * {@code decayNanos} : a slower reply is taken at once, faster ones lower the average progressively.
+     */
+    synchronized void sampleLatency(final long sample, final long now, final double decayNanos)
+    {
+
+        if (0 == latency || sample > latency)
+            latency = sample;
+        else {
+            final double decay = Math.exp(-(now - lastSampleTime) / decayNanos);
+            latency = latency * decay + sample * (1 - decay);
+        }
+        lastSampleTime = now;
+    }
+
+}
@@ -0,0 +1,18 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+/**
+ * Thrown when an exchange with the target service exceeds one of the timeouts of its service : the exchange
+ * is cancelled, releasing its connection and the permits of the service.
+ */
+public class UpstreamTimeoutException extends RuntimeException
+{
+
+    private static final long serialVersionUID = 727631242945105834L;
+
+    public UpstreamTimeoutException(final String message) {
+
+        super(message);
+    }
+
+}
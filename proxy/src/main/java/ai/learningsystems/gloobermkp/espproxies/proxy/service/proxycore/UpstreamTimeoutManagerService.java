@@ -0,0 +1,59 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.stereotype.Service;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.TimeoutConfiguration;
+import lombok.extern.slf4j.Slf4j;
+
+
+
+/**
+ * Owns the {@link UpstreamTimeouts} of the services. Unlike the other per service resilience components, timeouts
+ * are not opt-in : the services without {@link TimeoutConfiguration} get the default timeouts.
+ * <p>
+ * The timeouts of a service are parsed at its first request and discarded with the other per service resilience
+ * components when the service is unregistered or reloaded.
+ */
+@Service
+@Slf4j
+public class UpstreamTimeoutManagerService
+{
+
+    private final Map<String, UpstreamTimeouts> upstreamTimeouts = new ConcurrentHashMap<>();
+
+
+    /**
+     * Retrieves the timeouts of a service, creating them if not present.
+     *
+     * @param serviceName          the name of the external service.
+     * @param timeoutConfiguration the timeout configuration of the service, {@code null} for the default one.
+     * @return the timeouts of the service.
+     */
+    public UpstreamTimeouts getUpstreamTimeouts(final String serviceName,
+            final TimeoutConfiguration timeoutConfiguration)
+    {
+
+        return upstreamTimeouts.computeIfAbsent(serviceName, key -> {
+            final TimeoutConfiguration configuration = null != timeoutConfiguration ? timeoutConfiguration
+                    : new TimeoutConfiguration();
+            log.info("Upstream timeouts created for service : {} with configuration : {}", serviceName,
+                    configuration.toJson());
+            return new UpstreamTimeouts(serviceName, configuration);
+        });
+    }
+
+
+    /**
+     * Removes the timeouts of a service.
+     */
+    public void removeUpstreamTimeouts(final String serviceName)
+    {
+
+        upstreamTimeouts.remove(serviceName);
+    }
+
+}
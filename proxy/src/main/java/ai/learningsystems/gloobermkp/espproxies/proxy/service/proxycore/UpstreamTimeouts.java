@@ -0,0 +1,157 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.TimeoutConfiguration;
+import io.netty.channel.ConnectTimeoutException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+
+
+/**
+ * Timeouts of the exchanges with a service, applied to each attempt sent to its target service.
+ * <p>
+ * A standard exchange fails with a {@link ResponseTimeoutException} if the target service does not reply within
+ * {@code responseTimeout}. A stream fails with a {@link ResponseTimeoutException} if its first event is not
+ * received within {@code responseTimeout}, with a {@link StreamIdleTimeoutException} if it stays silent for
+ * {@code idleTimeout} between two events, and with a {@link StreamDurationExceededException} once it has lasted
+ * {@code maxStreamDuration}. The connect timeout is set on the connections of the service WebClients by
+ * {@link WebClientManagerService} : connections not established in time fail with an
+ * {@link UpstreamConnectTimeoutException}.
+ * <p>
+ * A timed out exchange is cancelled, which releases its connection and the permits of the service. Timeouts are
+ * failures of the target service for its circuit breaker, concurrency limiter and balancer.
+ */
+public class UpstreamTimeouts
+{
+
+    private final String   serviceName;
+    private final Duration connectTimeout;
+    private final Duration responseTimeout;
+    private final Duration idleTimeout;
+    private final Duration maxStreamDuration;
+
+
+    /**
+     * Creates the timeouts of a service.
+     *
+     * @param serviceName   the name of the service.
+     * @param configuration the timeout configuration of the service.
+     */
+    public UpstreamTimeouts(final String serviceName, final TimeoutConfiguration configuration) {
+
+        this.serviceName       = serviceName;
+        this.connectTimeout    = parse(configuration.getConnectTimeout());
+        this.responseTimeout   = parse(configuration.getResponseTimeout());
+        this.idleTimeout       = parse(configuration.getIdleTimeout());
+        this.maxStreamDuration = parse(configuration.getMaxStreamDuration());
+    }
+
+
+    /**
+     * Bounds the time until the response of a standard exchange.
+     *
+     * @param response the upstream response.
+     * @return the upstream response, or an {@link UpstreamTimeoutException} error.
+     */
+    public <T> Mono<T> limitResponse(final Mono<T> response)
+    {
+
+        final Mono<T> connectedResponse = response.onErrorMap(UpstreamTimeouts::isConnectTimeout,
+                this::connectTimeoutExceeded);
+        return null == responseTimeout ? connectedResponse
+                : connectedResponse.timeout(timeout(responseTimeout, null, this::responseTimeoutExceeded));
+    }
+
+
+    /**
+     * Bounds the time until the first event of a stream, the gaps between its events and its duration.
+     *
+     * @param stream the upstream stream.
+     * @return the upstream stream events, or an {@link UpstreamTimeoutException} error.
+     */
+    public <T> Flux<T> limitStream(final Flux<T> stream)
+    {
+
+        return Flux.defer(() -> {
+            final Long deadline = null == maxStreamDuration ? null : System.nanoTime() + maxStreamDuration.toNanos();
+            // Each event replaces the pending timeout by the idle one, or by the end of the stream if sooner
+            return stream.onErrorMap(UpstreamTimeouts::isConnectTimeout, this::connectTimeoutExceeded)
+                    .timeout(timeout(responseTimeout, deadline, this::responseTimeoutExceeded),
+                            event -> timeout(idleTimeout, deadline, this::idleTimeoutExceeded));
+        });
+    }
+
+
+    /**
+     * @return a publisher failing with the error of the first timeout reached, {@code timeout} or
+     *         {@code deadline}, never signalling if both are {@code null}.
+     */
+    private Mono<Object> timeout(final Duration timeout, final Long deadline,
+            final Supplier<UpstreamTimeoutException> timeoutError)
+    {
+
+        final long remaining = null == deadline ? Long.MAX_VALUE : deadline - System.nanoTime();
+        if (null != timeout && timeout.toNanos() <= remaining)
+            return Mono.delay(timeout).then(Mono.error(timeoutError));
+        if (null != deadline)
+            return Mono.delay(Duration.ofNanos(Math.max(0, remaining))).then(Mono.error(this::durationExceeded));
+        return Mono.never();
+    }
+
+
+    private UpstreamTimeoutException connectTimeoutExceeded(final Throwable error)
+    {
+
+        return new UpstreamConnectTimeoutException(String.format(
+                "Connection to service %s not established within %s : %s", serviceName, connectTimeout,
+                error.getMessage()));
+    }
+
+
+    private UpstreamTimeoutException responseTimeoutExceeded()
+    {
+
+        return new ResponseTimeoutException(String.format("Service %s did not reply within %s", serviceName,
+                responseTimeout));
+    }
+
+
+    private UpstreamTimeoutException idleTimeoutExceeded()
+    {
+
+        return new StreamIdleTimeoutException(String.format("Stream of service %s silent for %s", serviceName,
+                idleTimeout));
+    }
+
+
+    private UpstreamTimeoutException durationExceeded()
+    {
+
+        return new StreamDurationExceededException(String.format("Stream of service %s lasted more than %s",
+                serviceName, maxStreamDuration));
+    }
+
+
+    private static boolean isConnectTimeout(final Throwable error)
+    {
+
+        return error instanceof WebClientRequestException && error.getCause() instanceof ConnectTimeoutException;
+    }
+
+
+    /**
+     * @return the parsed ISO-8601 duration, {@code null} if none.
+     */
+    static Duration parse(final String duration)
+    {
+
+        return null == duration || duration.isBlank() ? null : Duration.parse(duration);
+    }
+
+}
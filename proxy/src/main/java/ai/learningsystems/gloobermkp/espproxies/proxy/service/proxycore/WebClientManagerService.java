@@ -0,0 +1,253 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.ConnectionPoolConfiguration;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.ServiceProperties;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.TimeoutConfiguration;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.UpstreamTargetConfiguration;
+import ai.learningsystems.gloobermkp.espproxies.proxy.service.servicehandlerregistry.UnknownServiceException;
+import io.netty.channel.ChannelOption;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+
+
+/**
+ * Owns one long-lived {@link WebClient} per registered service.
+ * <p>
+ * Each WebClient is backed by a dedicated Reactor Netty {@link ConnectionProvider} sized from the service
+ * {@link ConnectionPoolConfiguration}, so connections to the target service are reused across requests
+ * instead of paying the builder and codecs setup on every call.
+ * <p>
+ * When metrics are enabled for a pool, Reactor Netty publishes its occupancy
+ * ({@code reactor.netty.connection.provider.total.connections}, {@code .active.connections},
+ * {@code .idle.connections}, {@code .pending.connections}) and acquire latency
+ * ({@code reactor.netty.connection.provider.pending.connections.time}) to the Micrometer global registry,
+ * tagged with the pool name {@code espproxies-<serviceName>}.
+ * <p>
+ * The services balanced between several upstream targets also own one WebClient and connection pool per target,
+ * named {@code espproxies-<serviceName>/<targetName>}.
+ * <p>
+ * Connections are established within the connect timeout of the service {@link TimeoutConfiguration}, the
+ * default one if the service has none.
+ */
+@Service
+@Slf4j
+public class WebClientManagerService
+{
+
+    private static final String POOL_NAME_PREFIX = "espproxies-";
+
+    private final WebClient.Builder            webClientBuilder;
+    private final Map<String, PooledWebClient> webClients = new ConcurrentHashMap<>();
+
+
+    @Autowired
+    public WebClientManagerService(final WebClient.Builder webClientBuilder) {
+
+        this.webClientBuilder = webClientBuilder;
+    }
+
+
+    /**
+     * Creates the WebClient of a service and its dedicated connection pool.
+     * <p>
+     * If the service already owns a WebClient (plugin reload), the previous one is replaced and its
+     * connection pool disposed.
+     *
+     * @param serviceName the name of the external service.
+     * @param properties  the service properties containing the base URL, custom headers and connection
+     *                    pool configuration.
+     * @return the newly created WebClient.
+     */
+    public WebClient createWebClient(final String serviceName, final ServiceProperties properties)
+    {
+
+        final ConnectionPoolConfiguration poolConfiguration = getPoolConfiguration(properties);
+        final WebClient                   webClient         = createPooledWebClient(serviceName,
+                properties.getTargetServiceBaseUrl(), properties.getCustomHeaders(), null, poolConfiguration,
+                getTimeoutConfiguration(properties));
+        // The upstream targets of the previous configuration are recreated afterwards, if still configured
+        removeTargetWebClients(serviceName);
+
+        log.info("WebClient created for service : {} with connection pool : {}", serviceName, poolConfiguration.toJson());
+        return webClient;
+    }
+
+
+    /**
+     * Creates the WebClient of one of the upstream targets of a service and its dedicated connection pool, sized
+     * from the service connection pool configuration. The target headers are sent on top of the service custom
+     * headers.
+     *
+     * @param serviceName the name of the external service.
+     * @param properties  the service properties containing the custom headers and connection pool configuration.
+     * @param target      the configuration of the upstream target.
+     * @return the newly created WebClient.
+     */
+    public WebClient createWebClient(final String serviceName, final ServiceProperties properties,
+            final UpstreamTargetConfiguration target)
+    {
+
+        final WebClient webClient = createPooledWebClient(targetKey(serviceName, target.getName()),
+                target.getBaseUrl(), properties.getCustomHeaders(), target.getCustomHeaders(),
+                getPoolConfiguration(properties), getTimeoutConfiguration(properties));
+
+        log.info("WebClient created for target : {} of service : {}", target.getName(), serviceName);
+        return webClient;
+    }
+
+
+    /**
+     * Retrieves the WebClient of a service.
+     *
+     * @param serviceName the name of the external service.
+     * @return the WebClient created at service registration.
+     * @throws UnknownServiceException if no WebClient has been created for this service.
+     */
+    public WebClient getWebClient(final String serviceName)
+    {
+
+        final PooledWebClient pooledWebClient = webClients.get(serviceName);
+        if (null == pooledWebClient)
+            throw new UnknownServiceException("No WebClient registered for service : " + serviceName + " !");
+        return pooledWebClient.webClient();
+    }
+
+
+    /**
+     * Removes the WebClient of a service and disposes its connection pool.
+     */
+    public void removeWebClient(final String serviceName)
+    {
+
+        final PooledWebClient pooledWebClient = webClients.remove(serviceName);
+        if (null != pooledWebClient)
+            pooledWebClient.dispose();
+        removeTargetWebClients(serviceName);
+    }
+
+
+    /**
+     * Component shutdown cleaning : closes every connection pool.
+     */
+    @PreDestroy
+    public void disposeAll()
+    {
+
+        webClients.keySet().forEach(this::removeWebClient);
+    }
+
+
+    private void removeTargetWebClients(final String serviceName)
+    {
+
+        webClients.keySet().removeIf(key -> {
+            if (!key.startsWith(targetKey(serviceName, "")))
+                return false;
+            final PooledWebClient pooledWebClient = webClients.get(key);
+            if (null != pooledWebClient)
+                pooledWebClient.dispose();
+            return true;
+        });
+    }
+
+
+    private WebClient createPooledWebClient(final String key, final String baseUrl,
+            final Map<String, String> customHeaders, final Map<String, String> overridingHeaders,
+            final ConnectionPoolConfiguration poolConfiguration, final TimeoutConfiguration timeoutConfiguration)
+    {
+
+        final ConnectionProvider connectionProvider = createConnectionProvider(key, poolConfiguration);
+        final Duration           connectTimeout     = UpstreamTimeouts.parse(timeoutConfiguration.getConnectTimeout());
+        HttpClient               httpClient         = HttpClient.create(connectionProvider)
+                .keepAlive(poolConfiguration.isKeepAlive())
+                .option(ChannelOption.SO_KEEPALIVE, poolConfiguration.isKeepAlive());
+        if (null != connectTimeout)
+            httpClient = httpClient.option(ChannelOption.CONNECT_TIMEOUT_MILLIS,
+                    (int) Math.min(Integer.MAX_VALUE, connectTimeout.toMillis()));
+
+        // Clone the builder : the injected one must not accumulate base URL and default headers of every services
+        final WebClient webClient = webClientBuilder.clone()
+                .baseUrl(baseUrl)
+                .defaultHeaders(headers -> {
+                    if (null != customHeaders)
+                        customHeaders.forEach(headers::add);
+                    if (null != overridingHeaders)
+                        overridingHeaders.forEach(headers::set);
+                })
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+
+        final PooledWebClient previous = webClients.put(key, new PooledWebClient(webClient, connectionProvider));
+        if (null != previous)
+            previous.dispose();
+        return webClient;
+    }
+
+
+    private static ConnectionPoolConfiguration getPoolConfiguration(final ServiceProperties properties)
+    {
+
+        return null != properties.getConnectionPoolConfiguration()
+                ? properties.getConnectionPoolConfiguration()
+                : new ConnectionPoolConfiguration();
+    }
+
+
+    private static TimeoutConfiguration getTimeoutConfiguration(final ServiceProperties properties)
+    {
+
+        return null != properties.getTimeoutConfiguration()
+                ? properties.getTimeoutConfiguration()
+                : new TimeoutConfiguration();
+    }
+
+
+    // Target pools are named espproxies-<serviceName>/<targetName>
+    private static String targetKey(final String serviceName, final String targetName)
+    {
+
+        return serviceName + "/" + targetName;
+    }
+
+
+    private ConnectionProvider createConnectionProvider(final String serviceName,
+            final ConnectionPoolConfiguration poolConfiguration)
+    {
+
+        return ConnectionProvider.builder(POOL_NAME_PREFIX + serviceName)
+                .maxConnections(poolConfiguration.getMaxConnections())
+                .pendingAcquireMaxCount(poolConfiguration.getPendingAcquireMaxCount())
+                .pendingAcquireTimeout(Duration.parse(poolConfiguration.getPendingAcquireTimeout()))
+                .maxIdleTime(Duration.parse(poolConfiguration.getMaxIdleTime()))
+                .maxLifeTime(Duration.parse(poolConfiguration.getMaxLifeTime()))
+                .evictInBackground(Duration.parse(poolConfiguration.getEvictInBackground()))
+                .metrics(poolConfiguration.isMetricsEnabled())
+                .build();
+    }
+
+
+    private record PooledWebClient(WebClient webClient, ConnectionProvider connectionProvider)
+    {
+
+        void dispose()
+        {
+
+            // Connections are released gracefully : in-flight exchanges complete before their channel is closed
+            connectionProvider.disposeLater().subscribe();
+        }
+    }
+
+}
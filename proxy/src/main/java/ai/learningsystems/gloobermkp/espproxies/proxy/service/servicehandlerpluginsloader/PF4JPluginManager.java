@@ -61,6 +61,7 @@ public class PF4JPluginManager
     
         pluginManager.stopPlugins();
         pluginManager.unloadPlugins();
+        serviceHandlerRegistry.unregisterAllServiceHandlers();
         
         loadPluginsAndRegisterServiceHandlers();
     }
@@ -2,10 +2,14 @@ package ai.learningsystems.gloobermkp.espproxies.proxy.service.servicehandlerreg
 
 
 import java.net.URI;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
 
@@ -14,6 +18,11 @@ import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.service
 import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.IServiceHandlerRegistry;
 import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration;
 import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.ServiceProperties;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.UpstreamTargetConfiguration;
+import ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore.RequestCoalescingManagerService;
+import ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore.ResponseCacheManagerService;
+import ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore.UpstreamBalancerManagerService;
+import ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore.WebClientManagerService;
 
 
 @Service
@@ -21,6 +30,23 @@ public class ServiceHandlerRegistry implements IServiceHandlerRegistry
 {
 
     private final Map<String, IServiceHandlerMetaData> serviceHandlers = new ConcurrentHashMap<>();
+    private final WebClientManagerService              webClientManagerService;
+    private final ResponseCacheManagerService          responseCacheManagerService;
+    private final RequestCoalescingManagerService      requestCoalescingManagerService;
+    private final UpstreamBalancerManagerService       upstreamBalancerManagerService;
+
+
+    @Autowired
+    public ServiceHandlerRegistry(final WebClientManagerService webClientManagerService,
+            final ResponseCacheManagerService responseCacheManagerService,
+            final RequestCoalescingManagerService requestCoalescingManagerService,
+            final UpstreamBalancerManagerService upstreamBalancerManagerService) {
+
+        this.webClientManagerService         = webClientManagerService;
+        this.responseCacheManagerService     = responseCacheManagerService;
+        this.requestCoalescingManagerService = requestCoalescingManagerService;
+        this.upstreamBalancerManagerService  = upstreamBalancerManagerService;
+    }
 
 
     @Override
@@ -54,6 +80,13 @@ public class ServiceHandlerRegistry implements IServiceHandlerRegistry
         if (null == serviceName || serviceName.isBlank())
             throw new TargetServiceNameException(
                     "Service name is either null or blank check ServiceHandler configuration ServiceName !");
+        final List<UpstreamTargetConfiguration> upstreamTargets = serviceProperties.getUpstreamTargets();
+        validateUpstreamTargets(upstreamTargets, serviceProperties.getTargetServiceEndPoint());
+        // A service balanced between upstream targets may leave its base URL to the first target
+        if (null == serviceProperties.getTargetServiceBaseUrl() && null != upstreamTargets
+                && !upstreamTargets.isEmpty())
+            serviceProperties.setTargetServiceBaseUrl(upstreamTargets.get(0).getBaseUrl());
+
         final String                  targetServiceBaseURL    = serviceProperties.getTargetServiceBaseUrl();
         final String                  targetServiceEndPoint   = serviceProperties.getTargetServiceEndPoint();
         final TargetServiceURIBuilder targetServiceURIBuilder = new TargetServiceURIBuilder(targetServiceBaseURL,
@@ -67,11 +100,32 @@ public class ServiceHandlerRegistry implements IServiceHandlerRegistry
         final ServiceHandlerMetaData serviceHandlerMetaData = new ServiceHandlerMetaData(pluginId, pluginVersion,
                 targetServiceURI, serviceHandlerConfiguration, serviceHandlerFactory);
 
+        // One long-lived WebClient per service, replacing (and disposing) the previous one on reload
+        webClientManagerService.createWebClient(serviceName, serviceProperties);
+        // Responses cached for the previous configuration of the service are discarded
+        responseCacheManagerService.createResponseCache(serviceName, serviceProperties);
+        requestCoalescingManagerService.createRequestCoalescer(serviceName, serviceProperties);
+        upstreamBalancerManagerService.createUpstreamBalancer(serviceName, serviceProperties, targetServiceBaseURL);
+
         this.serviceHandlers.put(serviceName, serviceHandlerMetaData);
 
     }
 
 
+    @Override
+    public void unregisterAllServiceHandlers()
+    {
+
+        this.serviceHandlers.keySet().forEach(serviceName -> {
+            this.serviceHandlers.remove(serviceName);
+            webClientManagerService.removeWebClient(serviceName);
+            responseCacheManagerService.removeResponseCache(serviceName);
+            requestCoalescingManagerService.removeRequestCoalescer(serviceName);
+            upstreamBalancerManagerService.removeUpstreamBalancer(serviceName);
+        });
+    }
+
+
     @Override
     public String getPluginId(String serviceName)
     {
@@ -138,4 +192,26 @@ public class ServiceHandlerRegistry implements IServiceHandlerRegistry
     }
 
 
+    private static void validateUpstreamTargets(final List<UpstreamTargetConfiguration> upstreamTargets,
+            final String targetServiceEndPoint)
+    {
+
+        if (null == upstreamTargets)
+            return;
+        final Set<String> targetNames = new HashSet<>();
+        for (final UpstreamTargetConfiguration upstreamTarget : upstreamTargets) {
+            if (null == upstreamTarget.getName() || upstreamTarget.getName().isBlank()
+                    || !targetNames.add(upstreamTarget.getName()))
+                throw new TargetServiceNameException(
+                        "Upstream target name is either null, blank or duplicated check ServiceHandler configuration"
+                                + " upstreamTargets !");
+            final String baseUrl = upstreamTarget.getBaseUrl();
+            if (null == baseUrl || baseUrl.isBlank() || null == targetServiceEndPoint || targetServiceEndPoint.isBlank()
+                    || new TargetServiceURIBuilder(baseUrl, targetServiceEndPoint).build().isEmpty())
+                throw new TargetServiceURIException("Upstream target : " + upstreamTarget.getName()
+                        + " URI is invalid check ServiceHandler configuration upstreamTargets baseUrl !");
+        }
+    }
+
+
 }
@@ -0,0 +1,474 @@
+package ai.learningsystems.gloobermkp.espproxies.proxy.service.proxycore;
+
+
+import static ai.learningsystems.gloobermkp.espproxies.services.share.ProxyHeaderCustomFields.X_GMKP_XSP_TECHNICALMETRICS;
+import static ai.learningsystems.gloobermkp.espproxies.services.share.ProxyHeaderCustomFields.X_GMKP_XSP_USAGEMETRICS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.mock.http.client.reactive.MockClientHttpRequest;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeStrategies;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.proxy.IProxyService;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandler.IServiceHandler;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.RateLimiterConfiguration;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.interfaces.servicehandlerregistry.ServiceHandlerConfiguration.ServiceProperties;
+import ai.learningsystems.gloobermkp.espproxies.plugin.shared.request.RequestEnvelope;
+import ai.learningsystems.gloobermkp.espproxies.proxy.service.servicehandlerregistry.ServiceHandlerRegistry;
+import ai.learningsystems.gloobermkp.external.commons.domains.metrics.usage.UsageMetrics;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.ratelimiter.RateLimiterRegistry;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+
+
+/**
+ * Stress test of the request execution isolation of the proxy core : thousands of interleaved standard and
+ * streamed requests to several services are proxied concurrently, over every thread of the parallel scheduler.
+ * <p>
+ * The proxy core is wired outside of Spring with its production defaults. Upstream services are in-memory
+ * exchange functions echoing the request they received, each service replying with its own latency. Every
+ * reply must come from the service of its request and carry the request itself, every plugin call back must
+ * run within the execution context of its request, and every exchange must be measured under its service.
+ */
+class GenericProxyServiceConcurrencyTest
+{
+
+    private static final int      SERVICES             = 4;
+    private static final int      REQUESTS             = 4_000;
+    private static final int      CONCURRENCY          = 256;
+    private static final int      STREAM_CHUNKS        = 5;
+    private static final Duration SERVICE_LATENCY_STEP = Duration.ofMillis(10);
+    private static final Duration CHUNK_GAP            = Duration.ofMillis(1);
+    private static final Duration PLUGIN_WORK          = Duration.ofMillis(1);
+    private static final String   END_OF_STREAM_MARKER = "[DONE]";
+    private static final String   PLUGIN_ID            = "stress-test-plugin";
+    private static final String   PLUGIN_VERSION       = "0.0.1";
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final AtomicInteger       contextMismatches = new AtomicInteger();
+    private SimpleMeterRegistry       meterRegistry;
+    private MetricsComputationService metricsComputationService;
+    private WebClientManagerService   webClientManagerService;
+    private GenericProxyService       genericProxyService;
+
+
+    @BeforeEach
+    void startProxyCore()
+    {
+
+        meterRegistry             = new SimpleMeterRegistry();
+        metricsComputationService = new MetricsComputationService(meterRegistry, 0, 10000, "PT5S");
+        webClientManagerService   = new WebClientManagerService(
+                WebClient.builder().exchangeFunction(this::upstreamExchange));
+
+        final ProxyMetricsService             proxyMetricsService             = new ProxyMetricsService(
+                meterRegistry, 50);
+        final CircuitBreakerManagerService    circuitBreakerManagerService    = new CircuitBreakerManagerService(
+                CircuitBreakerRegistry.ofDefaults());
+        final ResponseCacheManagerService     responseCacheManagerService     = new ResponseCacheManagerService(
+                meterRegistry);
+        final RequestCoalescingManagerService requestCoalescingManagerService = new RequestCoalescingManagerService(
+                meterRegistry);
+        final UpstreamBalancerManagerService  upstreamBalancerManagerService  = new UpstreamBalancerManagerService(
+                webClientManagerService, circuitBreakerManagerService, meterRegistry);
+        final ServiceHandlerRegistry          serviceHandlerRegistry          = new ServiceHandlerRegistry(
+                webClientManagerService, responseCacheManagerService, requestCoalescingManagerService,
+                upstreamBalancerManagerService);
+
+        genericProxyService = new GenericProxyService(webClientManagerService, serviceHandlerRegistry,
+                circuitBreakerManagerService, new RateLimiterManagerService(RateLimiterRegistry.ofDefaults(),
+                        meterRegistry),
+                new TokenizerService(metricsComputationService, proxyMetricsService), metricsComputationService,
+                proxyMetricsService, responseCacheManagerService, requestCoalescingManagerService,
+                new ConcurrencyLimiterManagerService(meterRegistry), new FairAdmissionManagerService(meterRegistry),
+                upstreamBalancerManagerService, new RequestHedgingManagerService(meterRegistry),
+                new RequestRetryManagerService(meterRegistry), new StreamFailoverManagerService(meterRegistry),
+                new UpstreamTimeoutManagerService(), null);
+
+        for (int service = 0; service < SERVICES; service++)
+            serviceHandlerRegistry.registerServiceHandler(PLUGIN_ID, PLUGIN_VERSION,
+                    serviceHandlerConfiguration(service), EchoServiceHandler::new);
+    }
+
+
+    @AfterEach
+    void stopProxyCore()
+    {
+
+        webClientManagerService.disposeAll();
+        metricsComputationService.dispose();
+    }
+
+
+    @Test
+    void interleavedRequestsKeepTheirOwnExecutionContext() throws InterruptedException
+    {
+
+        // Request n goes to service n % SERVICES, standard and streamed requests alternating for each service
+        final List<ProxiedExchange> exchanges = Flux.range(0, REQUESTS)
+                .flatMap(request -> proxy(request, request % SERVICES, 1 == (request / SERVICES) % 2)
+                        .subscribeOn(Schedulers.parallel()), CONCURRENCY)
+                .collectList()
+                .block(Duration.ofMinutes(2));
+
+        assertNotNull(exchanges);
+        assertEquals(REQUESTS, exchanges.size());
+        exchanges.forEach(GenericProxyServiceConcurrencyTest::assertRoutedReply);
+        assertEquals(0, contextMismatches.get(), "Plugin call backs run within another request execution context");
+
+        // Exchanges are closed once their last reply part is relayed, possibly just after the caller got it
+        awaitNoExchangeInFlight();
+
+        final int exchangesPerMode = REQUESTS / SERVICES / 2;
+        for (int service = 0; service < SERVICES; service++) {
+            final String serviceName = serviceName(service);
+
+            assertEquals(exchangesPerMode, requestsTimer(serviceName, ProxyMetricsService.MODE_STANDARD).count());
+            assertEquals(exchangesPerMode, requestsTimer(serviceName, ProxyMetricsService.MODE_STREAM).count());
+
+            final DistributionSummary streamChunks = meterRegistry.find("espproxies.stream.chunks")
+                    .tag("service", serviceName)
+                    .summary();
+            assertNotNull(streamChunks, serviceName);
+            assertEquals(exchangesPerMode, streamChunks.count());
+            assertEquals(exchangesPerMode * (STREAM_CHUNKS + 1.0), streamChunks.totalAmount());
+
+            // Each service replies with its own latency : timings mixed between requests would not respect it
+            long upstreamReplies = 0;
+            for (final Timer upstreamLatency : meterRegistry.find("espproxies.upstream.latency")
+                    .tag("service", serviceName)
+                    .timers()) {
+                upstreamReplies += upstreamLatency.count();
+                assertTrue(upstreamLatency.mean(TimeUnit.NANOSECONDS) >= latencyOf(service).toNanos(),
+                        serviceName + " upstream latency below its reply latency");
+            }
+            assertEquals(2L * exchangesPerMode, upstreamReplies);
+
+            final Timer firstChunk = meterRegistry.find("espproxies.stream.first.chunk")
+                    .tag("service", serviceName)
+                    .timer();
+            assertNotNull(firstChunk, serviceName);
+            assertEquals(exchangesPerMode, firstChunk.count());
+            assertTrue(firstChunk.mean(TimeUnit.NANOSECONDS) >= latencyOf(service).toNanos(),
+                    serviceName + " time to first chunk below its reply latency");
+        }
+    }
+
+
+    private Mono<ProxiedExchange> proxy(final int request, final int service, final boolean stream)
+    {
+
+        final String            requestBody = String.format("{\"model\":\"gpt-4o\",\"stream\":%b,\"request\":%d}",
+                stream, request);
+        final ServerHttpRequest incoming    = MockServerHttpRequest.post(serviceName(service))
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(requestBody);
+
+        return Flux.defer(() -> genericProxyService.proxyRequest(RequestEnvelope.of(incoming, requestBody)))
+                .collectList()
+                .map(replies -> new ProxiedExchange(request, service, stream, replies));
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static void assertRoutedReply(final ProxiedExchange exchange)
+    {
+
+        if (!exchange.stream()) {
+            assertEquals(1, exchange.replies().size(), exchange.toString());
+            final ResponseEntity<String> response = (ResponseEntity<String>) exchange.replies().get(0);
+            assertEquals(HttpStatus.OK, response.getStatusCode(), exchange.toString());
+            assertTrue(response.getHeaders().containsKey(X_GMKP_XSP_USAGEMETRICS), exchange.toString());
+            assertTrue(response.getHeaders().containsKey(X_GMKP_XSP_TECHNICALMETRICS), exchange.toString());
+            assertEcho(exchange, response.getBody());
+            return;
+        }
+
+        // The upstream chunks, then the end-of-stream marker substituted by the metrics chunk
+        assertEquals(STREAM_CHUNKS + 1, exchange.replies().size(), exchange.toString());
+        for (int chunk = 0; chunk < STREAM_CHUNKS; chunk++) {
+            final JsonNode echo = assertEcho(exchange,
+                    ((ServerSentEvent<String>) exchange.replies().get(chunk)).data());
+            assertEquals(chunk, echo.path("chunk").asInt(), exchange.toString());
+        }
+        assertNotEquals(END_OF_STREAM_MARKER,
+                ((ServerSentEvent<String>) exchange.replies().get(STREAM_CHUNKS)).data(), exchange.toString());
+    }
+
+
+    private static JsonNode assertEcho(final ProxiedExchange exchange, final String reply)
+    {
+
+        final JsonNode echo = readTree(reply);
+        assertEquals(upstreamHost(exchange.service()), echo.path("host").asText(), exchange.toString());
+        assertEquals(exchange.request(), echo.path("request").asInt(-1), exchange.toString());
+        return echo;
+    }
+
+
+    private void awaitNoExchangeInFlight() throws InterruptedException
+    {
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (activeExchanges() > 0 && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        assertEquals(0, activeExchanges(), "Exchanges left in flight");
+    }
+
+
+    private double activeExchanges()
+    {
+
+        return meterRegistry.find("espproxies.requests.active").gauges().stream().mapToDouble(Gauge::value).sum()
+                + meterRegistry.find("espproxies.streams.active").gauges().stream().mapToDouble(Gauge::value).sum();
+    }
+
+
+    private Timer requestsTimer(final String serviceName, final String mode)
+    {
+
+        final Timer timer = meterRegistry.find("espproxies.requests")
+                .tag("service", serviceName)
+                .tag("mode", mode)
+                .tag("status", "2xx")
+                .timer();
+        assertNotNull(timer, serviceName + " " + mode);
+        return timer;
+    }
+
+
+    /**
+     * Upstream services : the request body is echoed with the host it was sent to, as a single JSON reply or as
+     * {@value #STREAM_CHUNKS} events followed by the end-of-stream marker.
+     */
+    private Mono<ClientResponse> upstreamExchange(final ClientRequest request)
+    {
+
+        final MockClientHttpRequest sentRequest = new MockClientHttpRequest(request.method(), request.url());
+        final String                host        = request.url().getHost();
+        final boolean               stream      = request.headers().getAccept().contains(MediaType.TEXT_EVENT_STREAM);
+
+        return request.writeTo(sentRequest, ExchangeStrategies.withDefaults())
+                .then(sentRequest.getBodyAsString())
+                .delayElement(latencyOf(serviceIndex(host)))
+                .map(requestBody -> {
+                    final ObjectNode echo = OBJECT_MAPPER.createObjectNode()
+                            .put("host", host)
+                            .put("request", readTree(requestBody).path("request").asInt(-1));
+                    if (!stream)
+                        return ClientResponse.create(HttpStatus.OK)
+                                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                                .body(echo.toString())
+                                .build();
+
+                    final List<String> events = new ArrayList<>();
+                    for (int chunk = 0; chunk < STREAM_CHUNKS; chunk++)
+                        events.add("data: " + echo.put("chunk", chunk) + "\n\n");
+                    events.add("data: " + END_OF_STREAM_MARKER + "\n\n");
+                    final Flux<DataBuffer> body = Flux.fromIterable(events)
+                            .delayElements(CHUNK_GAP)
+                            .map(event -> DefaultDataBufferFactory.sharedInstance
+                                    .wrap(event.getBytes(StandardCharsets.UTF_8)));
+                    return ClientResponse.create(HttpStatus.OK)
+                            .header(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_EVENT_STREAM_VALUE)
+                            .body(body)
+                            .build();
+                });
+    }
+
+
+    private static ServiceHandlerConfiguration serviceHandlerConfiguration(final int service)
+    {
+
+        // The rate limiter must not throttle the stress test
+        final RateLimiterConfiguration rateLimiterConfiguration = new RateLimiterConfiguration();
+        rateLimiterConfiguration.setLimitForPeriod(Integer.MAX_VALUE);
+        rateLimiterConfiguration.setLimitRefreshPeriod("PT1S");
+        rateLimiterConfiguration.setTimeoutDuration("PT5S");
+
+        final ServiceProperties serviceProperties = new ServiceProperties();
+        serviceProperties.setServiceName(serviceName(service));
+        serviceProperties.setTargetServiceBaseUrl("http://" + upstreamHost(service));
+        serviceProperties.setTargetServiceEndPoint("/v1/chat/completions");
+        serviceProperties.setRateLimiterConfiguration(rateLimiterConfiguration);
+
+        final ServiceHandlerConfiguration configuration = new ServiceHandlerConfiguration();
+        configuration.setServiceProperties(serviceProperties);
+        return configuration;
+    }
+
+
+    private static String serviceName(final int service)
+    {
+
+        return "/stress/service-" + service;
+    }
+
+
+    private static String upstreamHost(final int service)
+    {
+
+        return "service-" + service + ".upstream.test";
+    }
+
+
+    private static int serviceIndex(final String upstreamHost)
+    {
+
+        return Integer.parseInt(upstreamHost.substring("service-".length(), upstreamHost.indexOf('.')));
+    }
+
+
+    private static Duration latencyOf(final int service)
+    {
+
+        return SERVICE_LATENCY_STEP.multipliedBy(service);
+    }
+
+
+    private static JsonNode readTree(final String json)
+    {
+
+        try {
+            return OBJECT_MAPPER.readTree(json);
+        }
+        catch (JsonProcessingException jsonProcessingException) {
+            throw new AssertionError("Reply is not JSON : " + json, jsonProcessingException);
+        }
+    }
+
+
+    /**
+     * A proxied request and the reply parts relayed to its caller.
+     */
+    private record ProxiedExchange(int request, int service, boolean stream, List<?> replies)
+    {
+
+    }
+
+
+    /**
+     * Service handler of the stress test services, created per request. It calls the proxy back from another
+     * thread, and checks that the call back runs within the execution context of its own request.
+     */
+    private final class EchoServiceHandler implements IServiceHandler
+    {
+
+        private final IProxyService proxy;
+
+
+        private EchoServiceHandler(final IProxyService proxy) {
+
+            this.proxy = proxy;
+        }
+
+
+        @Override
+        public boolean isStreamReplyRequested(final ServerHttpRequest request, final String requestBody)
+        {
+
+            return requestBody.contains("\"stream\":true");
+        }
+
+
+        @Override
+        public Flux<?> handleRequest(final ServerHttpRequest retargetedRequest, final String requestBody)
+        {
+
+            final Mono<Void> contextCheck = Mono.deferContextual(contextView -> {
+                final ProxyExecutionContext executionContext = ProxyExecutionContext.from(contextView);
+                if (this != executionContext.serviceHandler()
+                        || !requestBody.equals(executionContext.requestEnvelope().getRequestBody()))
+                    contextMismatches.incrementAndGet();
+                return Mono.empty();
+            });
+
+            final Flux<?> replies = isStreamReplyRequested(retargetedRequest, requestBody)
+                    ? proxy.executeStreamingRequest(retargetedRequest, requestBody)
+                    : proxy.executeRequest(retargetedRequest, requestBody).flux();
+            // Plugins may work asynchronously before calling the proxy back : other requests run meanwhile
+            return Mono.delay(PLUGIN_WORK).then(contextCheck).thenMany(replies);
+        }
+
+
+        @Override
+        public HttpHeaders populateRequestCustomHeaders(final HttpHeaders headers)
+        {
+
+            return headers;
+        }
+
+
+        @Override
+        public UsageMetrics getMetrics(final ServerHttpRequest request, final String requestBody,
+                final ResponseEntity<String> response)
+        {
+
+            return new UsageMetrics();
+        }
+
+
+        @Override
+        public UsageMetrics getMetrics(final ServerHttpRequest request, final String requestBody,
+                final List<String> responseChunks)
+        {
+
+            return new UsageMetrics();
+        }
+
+
+        @Override
+        public boolean isEndOfStream(final String chunk)
+        {
+
+            return END_OF_STREAM_MARKER.equals(chunk);
+        }
+
+
+        @Override
+        public String getEndOfStreamMarker()
+        {
+
+            return END_OF_STREAM_MARKER;
+        }
+    }
+
+}